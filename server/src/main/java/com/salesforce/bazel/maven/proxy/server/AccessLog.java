@@ -0,0 +1,221 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+
+import jakarta.servlet.ServletRequest;
+
+/**
+ * Structured access log with one JSON record per request.
+ * <p>
+ * Each record holds the repository id, request URI, where the response was
+ * served from (see {@link Source}), status, bytes written, time to first byte
+ * and total time. The log is registered as {@link HttpChannel.Listener} on all
+ * connectors. The request thread only allocates a record and hands it to a
+ * {@link BackgroundLogWriter}; formatting and I/O happen on a background
+ * writer thread. Records are dropped (and counted) when the writer falls
+ * behind rather than slowing down requests.
+ * </p>
+ * <p>
+ * The log file is rotated by size (<code>access.log</code>,
+ * <code>access.log.1</code>, ...).
+ * </p>
+ */
+public class AccessLog implements HttpChannel.Listener, Closeable {
+
+	/**
+	 * Where a response was served from.
+	 */
+	public enum Source {
+		/** local Maven repository */
+		LOCAL,
+
+		/** proxy cache */
+		PROXY_CACHE,
+
+		/** cached non-recoverable error (eg., 404) */
+		NEGATIVE_CACHE,
+
+		/** proxied Maven repository */
+		UPSTREAM,
+
+		/** another node of the cluster */
+		PEER,
+
+		/** content looked up by digest */
+		DIGEST_INDEX;
+
+		private final String value = name().toLowerCase(Locale.ENGLISH);
+
+		/**
+		 * @return the name used in log records (eg., <code>proxy_cache</code>)
+		 */
+		public String getValue() {
+			return value;
+		}
+	}
+
+	static final class Record {
+		final long timestampMillis;
+		final String method;
+		final String uri;
+		final String repositoryId;
+		final Source source;
+		final int status;
+		final long bytes;
+		final long ttfbMicros;
+		final long durationMicros;
+
+		Record(long timestampMillis, String method, String uri, String repositoryId, Source source, int status, long bytes, long ttfbMicros, long durationMicros) {
+			this.timestampMillis = timestampMillis;
+			this.method = method;
+			this.uri = uri;
+			this.repositoryId = repositoryId;
+			this.source = source;
+			this.status = status;
+			this.bytes = bytes;
+			this.ttfbMicros = ttfbMicros;
+			this.durationMicros = durationMicros;
+		}
+
+		void appendTo(StringBuilder line) {
+			line.append("{\"time\":").append(timestampMillis);
+			line.append(",\"method\":");
+			appendString(line, method);
+			line.append(",\"uri\":");
+			appendString(line, uri);
+			line.append(",\"repository\":");
+			appendString(line, repositoryId);
+			line.append(",\"source\":");
+			appendString(line, source != null ? source.value : null);
+			line.append(",\"status\":").append(status);
+			line.append(",\"bytes\":").append(bytes);
+			line.append(",\"ttfb_us\":").append(ttfbMicros);
+			line.append(",\"duration_us\":").append(durationMicros);
+			line.append("}\n");
+		}
+	}
+
+	private static final String REPOSITORY_ID = AccessLog.class.getName() + ".repositoryId";
+	private static final String SOURCE = AccessLog.class.getName() + ".source";
+	private static final String START_NANOS = AccessLog.class.getName() + ".startNanos";
+	private static final String COMMIT_NANOS = AccessLog.class.getName() + ".commitNanos";
+
+	private static final int BUFFER_CAPACITY = 1 << 16;
+
+	static void appendString(StringBuilder line, String value) {
+		if (value == null) {
+			line.append("null");
+			return;
+		}
+
+		line.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == '"') || (c == '\\')) {
+				line.append('\\').append(c);
+			} else if (c < 0x20) {
+				line.append(String.format("\\u%04x", (int) c));
+			} else {
+				line.append(c);
+			}
+		}
+		line.append('"');
+	}
+
+	/**
+	 * Records where the response to a request is served from.
+	 * <p>
+	 * May be called multiple times; the last call wins (eg., a request waiting
+	 * for a prefetch is dispatched again and then served from the proxy cache).
+	 * </p>
+	 *
+	 * @param request
+	 *            the request
+	 * @param repositoryId
+	 *            the repository id
+	 * @param source
+	 *            the source
+	 */
+	public static void setSource(ServletRequest request, String repositoryId, Source source) {
+		request.setAttribute(REPOSITORY_ID, repositoryId);
+		request.setAttribute(SOURCE, source);
+	}
+
+	/**
+	 * @return the repository id recorded by
+	 *         {@link #setSource(ServletRequest, String, Source)} (may be
+	 *         <code>null</code>)
+	 */
+	public static String getRepositoryId(ServletRequest request) {
+		return (String) request.getAttribute(REPOSITORY_ID);
+	}
+
+	/**
+	 * @return the source recorded by
+	 *         {@link #setSource(ServletRequest, String, Source)} (may be
+	 *         <code>null</code>)
+	 */
+	public static Source getSource(ServletRequest request) {
+		return (Source) request.getAttribute(SOURCE);
+	}
+
+	private static long toMicros(long startNanos, Object endNanos) {
+		return (endNanos instanceof Long) && (startNanos != 0) ? TimeUnit.NANOSECONDS.toMicros((Long) endNanos - startNanos) : -1;
+	}
+
+	private final ProxyMetrics metrics;
+	private final BackgroundLogWriter<Record> writer;
+
+	/**
+	 * @param file
+	 *            the log file
+	 * @param maxFileSize
+	 *            the size in bytes after which the log file is rotated
+	 * @param maxFiles
+	 *            the number of rotated files to keep
+	 * @param metrics
+	 *            metrics for recording dropped records
+	 * @throws IOException
+	 */
+	public AccessLog(Path file, long maxFileSize, int maxFiles, ProxyMetrics metrics) throws IOException {
+		this.metrics = metrics;
+		writer = new BackgroundLogWriter<>(file, maxFileSize, maxFiles, BUFFER_CAPACITY, "access-log-writer", (line, record) -> record.appendTo(line));
+
+		metrics.gauge("access_log_buffered", writer::getBuffered);
+	}
+
+	@Override
+	public void close() {
+		writer.close();
+	}
+
+	@Override
+	public void onComplete(Request request) {
+		long endNanos = System.nanoTime();
+		Object startNanos = request.getAttribute(START_NANOS);
+		long start = startNanos instanceof Long ? (Long) startNanos : 0L;
+		Response response = request.getResponse();
+		Record record = new Record(request.getTimeStamp(), request.getMethod(), request.getRequestURI(), getRepositoryId(request), getSource(request), response.getStatus(), response.getHttpChannel().getBytesWritten(), toMicros(start, request.getAttribute(COMMIT_NANOS)), toMicros(start, endNanos));
+		if (!writer.offer(record)) {
+			metrics.increment("access_log_dropped_total");
+		}
+	}
+
+	@Override
+	public void onRequestBegin(Request request) {
+		request.setAttribute(START_NANOS, System.nanoTime());
+	}
+
+	@Override
+	public void onResponseCommit(Request request) {
+		request.setAttribute(COMMIT_NANOS, System.nanoTime());
+	}
+}
@@ -0,0 +1,400 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of requests in flight and queues the rest fairly per
+ * client address.
+ * <p>
+ * While fewer requests than the limit are in flight, requests are admitted
+ * right away. Otherwise they are queued per client, and a slot which becomes
+ * free is given to the queued client with the fewest requests in flight, i.e.
+ * a client resolving thousands of artifacts cannot starve the others.
+ * </p>
+ * <p>
+ * The limit is lowered from the configured maximum when the proxy runs out of
+ * resources: the heap used after the last collection, open file descriptors
+ * and requests queued for proxied repositories. Each of them reduces the limit
+ * once it exceeds 80% and down to a single request at 95%.
+ * </p>
+ * <p>
+ * Requests are shed with a {@link AdmissionRejectedException} instead of
+ * degrading every request: when a client has too many requests queued, when
+ * a request waited too long, and when the queue as a whole is full (then the
+ * newest request of the client with the longest queue is dropped).
+ * </p>
+ * <p>
+ * Registered as {@link HttpChannel.Listener} on all connectors to release the
+ * slot of a request once it completed (including asynchronous processing).
+ * </p>
+ */
+public class AdmissionController implements HttpChannel.Listener, Closeable {
+
+	/**
+	 * A slot of an admitted request.
+	 */
+	public final class Ticket {
+
+		private final Client client;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		Ticket(Client client) {
+			this.client = client;
+		}
+
+		/**
+		 * Releases the slot (only the first call has an effect).
+		 */
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				AdmissionController.this.release(client);
+			}
+		}
+	}
+
+	private static final class Client {
+
+		final String address;
+		final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+		int inFlight;
+
+		Client(String address) {
+			this.address = address;
+		}
+	}
+
+	private static final class Waiter {
+
+		final Client client;
+		final long enqueuedNanos = System.nanoTime();
+		final CompletableFuture<Ticket> admission = new CompletableFuture<>();
+
+		Waiter(Client client) {
+			this.client = client;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+
+	static final String TICKET = AdmissionController.class.getName() + ".ticket";
+
+	/** usage above which the limit is lowered */
+	private static final double LOW_WATERMARK = 0.8;
+
+	/** usage at which only a single request is admitted */
+	private static final double HIGH_WATERMARK = 0.95;
+
+	private static final long TICK_MILLIS = 250;
+
+	/**
+	 * Computes the limit for the given resource usages.
+	 *
+	 * @param maxConcurrent
+	 *            the limit without resource pressure
+	 * @param usages
+	 *            usage of each resource (<code>0</code> to <code>1</code>)
+	 * @return the limit (at least <code>1</code>)
+	 */
+	static int computeLimit(int maxConcurrent, double... usages) {
+		double headroom = 1;
+		for (double usage : usages) {
+			headroom = Math.min(headroom, Math.max(0, Math.min(1, (HIGH_WATERMARK - usage) / (HIGH_WATERMARK - LOW_WATERMARK))));
+		}
+		return Math.max(1, (int) (maxConcurrent * headroom));
+	}
+
+	/**
+	 * @return the fraction of open file descriptors (<code>0</code> where
+	 *         unknown)
+	 */
+	public static double fileDescriptorUsage() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (!(os instanceof com.sun.management.UnixOperatingSystemMXBean))
+			return 0;
+
+		com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+		long max = unix.getMaxFileDescriptorCount();
+		return max > 0 ? (double) unix.getOpenFileDescriptorCount() / max : 0;
+	}
+
+	/**
+	 * Returns the fraction of the maximum heap used after the last garbage
+	 * collection, i.e. without garbage which is about to be collected.
+	 *
+	 * @return the heap usage (<code>0</code> where unknown)
+	 */
+	public static double heapUsage() {
+		long max = Runtime.getRuntime().maxMemory();
+		if (max == Long.MAX_VALUE)
+			return 0;
+
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+			if (usage != null) {
+				used += usage.getUsed();
+			}
+		}
+		return (double) used / max;
+	}
+
+	private final int maxConcurrent;
+	private final int maxQueuedPerClient;
+	private final Duration maxQueueTime;
+	private final DoubleSupplier heapUsage;
+	private final DoubleSupplier fileDescriptorUsage;
+	private final LongSupplier upstreamQueued;
+	private final ProxyMetrics metrics;
+	private final ScheduledExecutorService scheduler;
+
+	/** clients with requests in flight or queued (guarded by this) */
+	private final Map<String, Client> clients = new LinkedHashMap<>();
+	private int inFlight;
+	private int queued;
+	private volatile int limit;
+
+	/**
+	 * @param maxConcurrent
+	 *            the maximum number of requests in flight
+	 * @param maxQueuedPerClient
+	 *            the maximum number of queued requests per client address
+	 * @param maxQueueTime
+	 *            the maximum time a request waits in the queue
+	 * @param heapUsage
+	 *            supplies the heap usage (eg., {@link #heapUsage()})
+	 * @param fileDescriptorUsage
+	 *            supplies the file descriptor usage (eg.,
+	 *            {@link #fileDescriptorUsage()})
+	 * @param upstreamQueued
+	 *            supplies the number of requests queued for all proxied
+	 *            repositories
+	 * @param metrics
+	 *            metrics for recording the limit and shed requests
+	 */
+	public AdmissionController(int maxConcurrent, int maxQueuedPerClient, Duration maxQueueTime, DoubleSupplier heapUsage, DoubleSupplier fileDescriptorUsage, LongSupplier upstreamQueued, ProxyMetrics metrics) {
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueuedPerClient = maxQueuedPerClient;
+		this.maxQueueTime = maxQueueTime;
+		this.heapUsage = heapUsage;
+		this.fileDescriptorUsage = fileDescriptorUsage;
+		this.upstreamQueued = upstreamQueued;
+		this.metrics = metrics;
+		limit = maxConcurrent;
+
+		metrics.gauge("admission_limit", () -> limit);
+		metrics.gauge("admission_in_flight", this::getInFlight);
+		metrics.gauge("admission_queued", this::getQueued);
+
+		scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "admission-controller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Admits a request of a client.
+	 *
+	 * @param clientAddress
+	 *            the address of the client
+	 * @return the ticket of the request (completed right away if the request
+	 *         was admitted without queueing, completed exceptionally with
+	 *         {@link AdmissionRejectedException} if the request was shed)
+	 */
+	public CompletableFuture<Ticket> acquire(String clientAddress) {
+		Waiter shed = null;
+		Waiter waiter;
+		synchronized (this) {
+			Client client = clients.computeIfAbsent(clientAddress, Client::new);
+			if ((queued == 0) && (inFlight < limit)) {
+				inFlight++;
+				client.inFlight++;
+				return CompletableFuture.completedFuture(new Ticket(client));
+			}
+
+			if (client.queue.size() >= maxQueuedPerClient) {
+				removeIfIdle(client);
+				return reject("client_queue_full", format("Too many requests of %s queued", clientAddress));
+			}
+
+			if (queued >= limit) {
+				// the queue is full, make room by dropping from the longest queue
+				Client longest = client;
+				for (Client other : clients.values()) {
+					if (other.queue.size() > longest.queue.size()) {
+						longest = other;
+					}
+				}
+				if (longest == client) {
+					removeIfIdle(client);
+					return reject("overloaded", "The proxy is overloaded");
+				}
+				shed = longest.queue.pollLast();
+				queued--;
+				removeIfIdle(longest);
+			}
+
+			waiter = new Waiter(client);
+			client.queue.add(waiter);
+			queued++;
+		}
+
+		metrics.increment("admission_queued_total");
+		if (shed != null) {
+			shed.admission.completeExceptionally(rejection("overloaded", "The proxy is overloaded"));
+		}
+		return waiter.admission;
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Admits queued requests while slots are free.
+	 */
+	private void dispatch() {
+		List<Waiter> admitted = new ArrayList<>();
+		synchronized (this) {
+			while ((queued > 0) && (inFlight < limit)) {
+				// fair share: the client with the fewest requests in flight goes first
+				Client next = null;
+				for (Client client : clients.values()) {
+					if (!client.queue.isEmpty() && ((next == null) || (client.inFlight < next.inFlight))) {
+						next = client;
+					}
+				}
+				Waiter waiter = next.queue.poll();
+				queued--;
+				inFlight++;
+				next.inFlight++;
+				// move to the end, i.e. ties are resolved round robin
+				clients.remove(next.address);
+				clients.put(next.address, next);
+				admitted.add(waiter);
+			}
+		}
+
+		for (Waiter waiter : admitted) {
+			Ticket ticket = new Ticket(waiter.client);
+			if (!waiter.admission.complete(ticket)) {
+				ticket.release();
+			}
+		}
+	}
+
+	private void expire() {
+		List<Waiter> expired = new ArrayList<>();
+		long now = System.nanoTime();
+		synchronized (this) {
+			for (Client client : new ArrayList<>(clients.values())) {
+				for (Iterator<Waiter> iterator = client.queue.iterator(); iterator.hasNext();) {
+					Waiter waiter = iterator.next();
+					if ((now - waiter.enqueuedNanos) < maxQueueTime.toNanos()) {
+						break;
+					}
+					iterator.remove();
+					queued--;
+					expired.add(waiter);
+				}
+				removeIfIdle(client);
+			}
+		}
+
+		for (Waiter waiter : expired) {
+			waiter.admission.completeExceptionally(rejection("queue_timeout", format("Request waited more than %ds", maxQueueTime.toSeconds())));
+		}
+	}
+
+	public synchronized long getInFlight() {
+		return inFlight;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public synchronized long getQueued() {
+		return queued;
+	}
+
+	@Override
+	public void onComplete(Request request) {
+		Object ticket = request.getAttribute(TICKET);
+		if (ticket instanceof Ticket) {
+			((Ticket) ticket).release();
+		}
+	}
+
+	private <T> CompletableFuture<T> reject(String reason, String message) {
+		return CompletableFuture.failedFuture(rejection(reason, message));
+	}
+
+	private AdmissionRejectedException rejection(String reason, String message) {
+		metrics.increment(format("admission_rejected_total{reason=\"%s\"}", reason));
+		return new AdmissionRejectedException(reason, Math.max(1, maxQueueTime.toSeconds()), message);
+	}
+
+	private void release(Client client) {
+		synchronized (this) {
+			inFlight--;
+			client.inFlight--;
+			removeIfIdle(client);
+		}
+		dispatch();
+	}
+
+	private void removeIfIdle(Client client) {
+		if ((client.inFlight == 0) && client.queue.isEmpty()) {
+			clients.remove(client.address, client);
+		}
+	}
+
+	private void tick() {
+		try {
+			updateLimit();
+			expire();
+			dispatch();
+		} catch (RuntimeException e) {
+			LOG.error("Error updating admission control: {}", e.getMessage(), e);
+		}
+	}
+
+	void updateLimit() {
+		int previous = limit;
+		limit = computeLimit(maxConcurrent, heapUsage.getAsDouble(), fileDescriptorUsage.getAsDouble(), (double) upstreamQueued.getAsLong() / maxConcurrent);
+		if ((limit < maxConcurrent) && (previous == maxConcurrent)) {
+			LOG.warn("Resources are running low. Admitting only {} of {} concurrent requests.", limit, maxConcurrent);
+		} else if ((limit == maxConcurrent) && (previous < maxConcurrent)) {
+			LOG.info("Resources recovered. Admitting {} concurrent requests again.", limit);
+		}
+	}
+}
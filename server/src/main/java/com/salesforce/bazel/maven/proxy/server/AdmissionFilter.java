@@ -0,0 +1,82 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.UnavailableException;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Passes requests to the servlets only once admitted by the
+ * {@link AdmissionController}.
+ * <p>
+ * Queued requests are suspended (i.e. don't hold a thread) and dispatched
+ * again when admitted. Shed requests are answered with <code>503</code> and
+ * a <code>Retry-After</code> header. Mapped for the <code>REQUEST</code>
+ * dispatcher type only, i.e. asynchronous dispatches of admitted requests are
+ * not admitted a second time.
+ * </p>
+ */
+public class AdmissionFilter implements Filter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdmissionFilter.class);
+
+	private static void reject(ServletRequest request, ServletResponse response, Throwable e) {
+		Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+		HttpServletResponse httpResponse = (HttpServletResponse) response;
+		if (cause instanceof AdmissionRejectedException) {
+			LOG.debug("Shedding request of {} ({})", request.getRemoteAddr(), ((AdmissionRejectedException) cause).getReason());
+			httpResponse.setHeader("Retry-After", String.valueOf(((AdmissionRejectedException) cause).getRetryAfterSeconds()));
+		}
+		MavenProxyServlet.sendError(httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, cause.getMessage());
+	}
+
+	private AdmissionController admissionController;
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		CompletableFuture<AdmissionController.Ticket> admission = admissionController.acquire(request.getRemoteAddr());
+		if (admission.isDone()) {
+			AdmissionController.Ticket ticket;
+			try {
+				ticket = admission.join();
+			} catch (CompletionException e) {
+				reject(request, response, e);
+				return;
+			}
+			request.setAttribute(AdmissionController.TICKET, ticket);
+			chain.doFilter(request, response);
+			return;
+		}
+
+		AsyncContext async = request.startAsync();
+		async.setTimeout(0);
+		admission.whenComplete((ticket, e) -> {
+			if (e != null) {
+				reject(request, response, e);
+				async.complete();
+				return;
+			}
+			request.setAttribute(AdmissionController.TICKET, ticket);
+			async.dispatch();
+		});
+	}
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		admissionController = (AdmissionController) filterConfig.getServletContext().getAttribute(AdmissionController.class.getName());
+		if (admissionController == null)
+			throw new UnavailableException("Admission controller not configured.");
+	}
+}
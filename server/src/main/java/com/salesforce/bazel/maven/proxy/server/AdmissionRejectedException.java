@@ -0,0 +1,35 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+/**
+ * Signals that a request was shed by the {@link AdmissionController}.
+ */
+public class AdmissionRejectedException extends Exception {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private final String reason;
+	private final long retryAfterSeconds;
+
+	/**
+	 * @param reason
+	 *            the reason as used in metrics (eg., <code>queue_timeout</code>)
+	 * @param retryAfterSeconds
+	 *            seconds after which the client should retry
+	 * @param message
+	 *            the message
+	 */
+	public AdmissionRejectedException(String reason, long retryAfterSeconds, String message) {
+		super(message, null, false, false);
+		this.reason = reason;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,195 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+/**
+ * Speculatively downloads artifacts into the {@link MavenProxyCache} before
+ * they are requested.
+ * <p>
+ * Prefetching is strictly best effort: when the number of downloads in flight
+ * reaches the configured limit, further prefetch requests are dropped. Requests
+ * for an artifact whose prefetch is still in flight can wait for it via
+ * {@link #getInFlight(String, String)} instead of going upstream a second time.
+ * </p>
+ */
+public class ArtifactPrefetcher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ArtifactPrefetcher.class);
+
+	private static final int MAX_TRACKED_PREFETCHES = 100_000;
+
+	/**
+	 * Predicts the artifacts a client requests right after the given one.
+	 * <p>
+	 * When a POM is requested, resolvers almost always ask for its checksum as
+	 * well as the jar and its checksum next.
+	 * </p>
+	 *
+	 * @param path
+	 *            the requested path (without leading slash)
+	 * @return the list of likely sibling paths (never <code>null</code>)
+	 */
+	public static List<String> predictSiblings(String path) {
+		if ((path == null) || !path.endsWith(".pom"))
+			return List.of();
+
+		String base = path.substring(0, path.length() - ".pom".length());
+		return List.of(base + ".jar", base + ".jar.sha1", path + ".sha1");
+	}
+
+	private final MavenRepositoryCache mavenCache;
+	private final MavenProxyCache proxyCache;
+	private final ProxyMetrics metrics;
+	private final int maxInFlight;
+	private final Duration requestTimeout;
+	private final ConcurrentMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicInteger inFlightCount = new AtomicInteger();
+
+	/** prefetched artifacts not requested by any client yet (with reason) */
+	private final ConcurrentMap<String, String> unusedPrefetches = new ConcurrentHashMap<>();
+
+	/**
+	 * @param mavenCache
+	 *            the local Maven repository (may be <code>null</code>)
+	 * @param proxyCache
+	 *            the cache to download into
+	 * @param metrics
+	 *            the metrics to record prefetch outcomes and hits
+	 * @param maxInFlight
+	 *            maximum number of prefetch downloads in flight
+	 * @param requestTimeout
+	 *            the timeout of a prefetch download
+	 */
+	public ArtifactPrefetcher(MavenRepositoryCache mavenCache, MavenProxyCache proxyCache, ProxyMetrics metrics, int maxInFlight, Duration requestTimeout) {
+		this.mavenCache = mavenCache;
+		this.proxyCache = proxyCache;
+		this.metrics = metrics;
+		this.maxInFlight = maxInFlight;
+		this.requestTimeout = requestTimeout;
+	}
+
+	/**
+	 * Returns the prefetch in flight for an artifact.
+	 * <p>
+	 * The returned future completes after the entry has been removed from the
+	 * in-flight list, i.e. on completion the artifact is either in the cache or
+	 * the prefetch failed.
+	 * </p>
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path (without leading slash)
+	 * @return the prefetch future (<code>null</code> if none is in flight)
+	 */
+	public CompletableFuture<File> getInFlight(String repositoryId, String path) {
+		return inFlight.get(repositoryId + ":" + path);
+	}
+
+	/**
+	 * Looks up an artifact available locally, i.e. without any upstream
+	 * request.
+	 *
+	 * @param repository
+	 *            the upstream repository
+	 * @param path
+	 *            the path (without leading slash)
+	 * @return the file (<code>null</code> if not available locally)
+	 */
+	public File getCached(UpstreamMavenRepository repository, String path) {
+		Path artifactPath = Path.of(path);
+		File file = mavenCache != null ? mavenCache.get(artifactPath) : null;
+		return file != null ? file : proxyCache.get(repository.getId(), artifactPath);
+	}
+
+	/**
+	 * Starts downloading an artifact into the cache unless it is available
+	 * locally already, in flight or the prefetch limit is reached.
+	 *
+	 * @param repository
+	 *            the upstream repository
+	 * @param path
+	 *            the path (without leading slash)
+	 * @param reason
+	 *            the reason for prefetching (used in metric names)
+	 * @return the download (<code>null</code> if no download was started)
+	 */
+	public CompletableFuture<File> prefetch(UpstreamMavenRepository repository, String path, String reason) {
+		if (!MavenProxyCache.isCacheable(path) || path.contains(".."))
+			return null;
+
+		if (getCached(repository, path) != null)
+			return null;
+
+		if (inFlightCount.incrementAndGet() > maxInFlight) {
+			inFlightCount.decrementAndGet();
+			metrics.increment(format("prefetch_%s_dropped_total", reason));
+			LOG.debug("Dropping prefetch of '{}' from repository '{}' (limit reached)", path, repository.getId());
+			return null;
+		}
+
+		String key = repository.getId() + ":" + path;
+		CompletableFuture<File> result = new CompletableFuture<>();
+		if (inFlight.putIfAbsent(key, result) != null) {
+			inFlightCount.decrementAndGet();
+			return null;
+		}
+
+		LOG.debug("Prefetching '{}' from repository '{}'", path, repository.getId());
+		metrics.increment(format("prefetch_%s_started_total", reason));
+		proxyCache.download(repository, path, null, requestTimeout, Priority.LOW).whenComplete((file, e) -> {
+			if (e != null) {
+				metrics.increment(format("prefetch_%s_failed_total", reason));
+			} else {
+				if (unusedPrefetches.size() >= MAX_TRACKED_PREFETCHES) {
+					unusedPrefetches.clear();
+				}
+				unusedPrefetches.put(key, reason);
+			}
+			inFlight.remove(key, result);
+			inFlightCount.decrementAndGet();
+			if (e != null) {
+				LOG.debug("Prefetch of '{}' from repository '{}' failed: {}", path, repository.getId(), e.getMessage());
+				result.completeExceptionally(e);
+			} else {
+				result.complete(file);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Records a client request for an artifact served from the proxy cache.
+	 * <p>
+	 * The first request for a prefetched artifact counts as a prefetch hit.
+	 * </p>
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path (without leading slash)
+	 */
+	public void recordRequest(String repositoryId, String path) {
+		if (unusedPrefetches.isEmpty())
+			return;
+
+		String reason = unusedPrefetches.remove(repositoryId + ":" + path);
+		if (reason != null) {
+			metrics.increment(format("prefetch_%s_hits_total", reason));
+		}
+	}
+}
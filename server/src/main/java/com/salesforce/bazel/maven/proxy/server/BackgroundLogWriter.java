@@ -0,0 +1,171 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends records to a file on a background thread.
+ * <p>
+ * Callers only put records into a {@link RingBuffer}; formatting and I/O
+ * happen on the writer thread. A record is rejected when the writer falls
+ * behind rather than slowing down the caller. The file is rotated by size
+ * (<code>file</code>, <code>file.1</code>, ...).
+ * </p>
+ *
+ * @param <T>
+ *            the record type
+ */
+public class BackgroundLogWriter<T> implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BackgroundLogWriter.class);
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final Path file;
+	private final long maxFileSize;
+	private final int maxFiles;
+	private final BiConsumer<StringBuilder, T> formatter;
+	private final RingBuffer<T> buffer;
+	private final Thread writerThread;
+	private volatile boolean closed;
+
+	/**
+	 * @param file
+	 *            the file to append to
+	 * @param maxFileSize
+	 *            the size in bytes after which the file is rotated
+	 * @param maxFiles
+	 *            the number of rotated files to keep
+	 * @param bufferCapacity
+	 *            the number of records buffered (a power of two)
+	 * @param threadName
+	 *            the name of the writer thread
+	 * @param formatter
+	 *            appends a record as one line
+	 * @throws IOException
+	 */
+	public BackgroundLogWriter(Path file, long maxFileSize, int maxFiles, int bufferCapacity, String threadName, BiConsumer<StringBuilder, T> formatter) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.maxFileSize = maxFileSize;
+		this.maxFiles = maxFiles;
+		this.formatter = formatter;
+		buffer = new RingBuffer<>(bufferCapacity);
+		createDirectories(this.file.getParent());
+
+		writerThread = new Thread(this::writeRecords, threadName);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Writes all buffered records and stops the writer thread.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of records waiting to be written
+	 */
+	public int getBuffered() {
+		return buffer.size();
+	}
+
+	/**
+	 * Hands a record to the writer thread.
+	 *
+	 * @param record
+	 *            the record
+	 * @return <code>false</code> if the record was dropped because the buffer
+	 *         is full
+	 */
+	public boolean offer(T record) {
+		return buffer.offer(record);
+	}
+
+	private BufferedWriter open() throws IOException {
+		return Files.newBufferedWriter(file, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private void rotate() throws IOException {
+		deleteIfExists(file.resolveSibling(file.getFileName() + "." + maxFiles));
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			Path rotated = file.resolveSibling(file.getFileName() + "." + i);
+			if (exists(rotated)) {
+				move(rotated, file.resolveSibling(file.getFileName() + "." + (i + 1)), REPLACE_EXISTING);
+			}
+		}
+		if (maxFiles > 0) {
+			move(file, file.resolveSibling(file.getFileName() + ".1"), REPLACE_EXISTING);
+		} else {
+			deleteIfExists(file);
+		}
+	}
+
+	private void writeRecords() {
+		StringBuilder line = new StringBuilder(256);
+		BufferedWriter writer = null;
+		long size = 0;
+		try {
+			writer = open();
+			size = Files.size(file);
+			while (true) {
+				T record = buffer.poll();
+				if (record == null) {
+					writer.flush();
+					if (closed && (buffer.size() == 0))
+						break;
+
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+					continue;
+				}
+
+				if (size >= maxFileSize) {
+					writer.close();
+					rotate();
+					writer = open();
+					size = 0;
+				}
+
+				line.setLength(0);
+				formatter.accept(line, record);
+				writer.append(line);
+				size += line.length(); // approximated by chars (mostly ASCII)
+			}
+		} catch (IOException e) {
+			LOG.error("Unable to write to '{}'. Writing is disabled.", file, e);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+}
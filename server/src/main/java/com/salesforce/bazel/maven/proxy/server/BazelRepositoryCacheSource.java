@@ -0,0 +1,99 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.file.Files.isDirectory;
+import static java.nio.file.Files.isRegularFile;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.salesforce.bazel.maven.proxy.server.MavenLockFile.Artifact;
+
+/**
+ * Serves artifacts from Bazel's repository cache (see
+ * <code>bazel info repository_cache</code>).
+ * <p>
+ * The repository cache is content-addressed
+ * (<code>content_addressable/sha256/&lt;sha256&gt;/file</code>), i.e. it does
+ * not know about Maven paths at all. An in-memory index from Maven path to
+ * SHA-256 is built from <code>maven_install.json</code> lock files, which list
+ * the SHA-256 of every artifact <code>rules_jvm_external</code> downloads into
+ * the repository cache. Bazel verifies downloads against these digests, so a
+ * file found for a digest has the expected content.
+ * </p>
+ */
+public class BazelRepositoryCacheSource implements LocalArtifactSource {
+
+	private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+	static String toKey(Path path) {
+		StringBuilder key = new StringBuilder();
+		for (Path name : path) {
+			if (key.length() > 0) {
+				key.append('/');
+			}
+			key.append(name);
+		}
+		return key.toString();
+	}
+
+	private final Path contentDirectory;
+	private final ProxyMetrics metrics;
+	private final Map<String, String> sha256ByPath = new ConcurrentHashMap<>();
+
+	/**
+	 * @param repositoryCache
+	 *            the repository cache directory (containing
+	 *            <code>content_addressable</code>)
+	 * @param metrics
+	 *            metrics for recording hits
+	 */
+	public BazelRepositoryCacheSource(Path repositoryCache, ProxyMetrics metrics) {
+		contentDirectory = repositoryCache.resolve("content_addressable/sha256");
+		if (!isDirectory(contentDirectory))
+			throw new IllegalArgumentException(format("Not a valid Bazel repository cache '%s' (missing '%s')", repositoryCache, contentDirectory));
+
+		this.metrics = metrics;
+
+		metrics.gauge(format("local_source_index_entries{source=\"%s\"}", getName()), sha256ByPath::size);
+	}
+
+	/**
+	 * Adds artifacts with known SHA-256 to the index.
+	 *
+	 * @param artifacts
+	 *            the artifacts (eg., read from a lock file)
+	 */
+	public void addArtifacts(Collection<Artifact> artifacts) {
+		for (Artifact artifact : artifacts) {
+			String sha256 = artifact.sha256 != null ? artifact.sha256.strip().toLowerCase(Locale.ROOT) : null;
+			if ((sha256 != null) && SHA256.matcher(sha256).matches()) {
+				sha256ByPath.put(artifact.path, sha256);
+			}
+		}
+	}
+
+	@Override
+	public File get(Path path) {
+		String sha256 = sha256ByPath.get(toKey(path));
+		if (sha256 == null)
+			return null;
+
+		Path file = contentDirectory.resolve(sha256).resolve("file");
+		if (!isRegularFile(file))
+			return null;
+
+		metrics.increment(format("local_source_hits_total{source=\"%s\"}", getName()));
+		return file.toFile();
+	}
+
+	@Override
+	public String getName() {
+		return "bazel";
+	}
+}
@@ -0,0 +1,40 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A store for cached artifacts shared between proxy instances (eg., a
+ * directory on a network file system or an object store).
+ * <p>
+ * Keys are relative paths using <code>/</code> as separator
+ * (<code>&lt;repository-id&gt;/&lt;path&gt;</code>). Implementations must be
+ * non-blocking, i.e. perform all I/O asynchronously.
+ * </p>
+ */
+public interface BlobStore {
+
+	/**
+	 * Downloads a blob.
+	 *
+	 * @param key
+	 *            the key
+	 * @param target
+	 *            the file to download to (will be overwritten; its content is
+	 *            undefined if the blob does not exist)
+	 * @return a future completing with <code>true</code> if the blob was
+	 *         downloaded, <code>false</code> if it does not exist
+	 */
+	CompletableFuture<Boolean> get(String key, Path target);
+
+	/**
+	 * Uploads a blob.
+	 *
+	 * @param key
+	 *            the key
+	 * @param source
+	 *            the file to upload
+	 * @return a future completing once the blob was stored
+	 */
+	CompletableFuture<Void> put(String key, Path source);
+}
@@ -0,0 +1,262 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the content of cached artifacts as {@link ByteBuffer} for
+ * streaming them to clients.
+ * <p>
+ * Small files are read into pooled heap buffers (a read is cheaper than
+ * setting up and tearing down a mapping). Large files are memory-mapped; a
+ * mapping is shared by all concurrent readers of a file and unmapped as soon
+ * as the last reader released it, instead of waiting for the garbage collector
+ * to get rid of the {@link MappedByteBuffer}.
+ * </p>
+ */
+public class CachedContentManager {
+
+	/**
+	 * The content of a file, which must be closed once it is no longer used.
+	 */
+	public final class Content implements Closeable {
+
+		private final ByteBuffer buffer;
+		private final Mapping mapping;
+		private final ByteBuffer pooledBuffer;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		Content(ByteBuffer buffer, Mapping mapping, ByteBuffer pooledBuffer) {
+			this.buffer = buffer;
+			this.mapping = mapping;
+			this.pooledBuffer = pooledBuffer;
+		}
+
+		/**
+		 * Releases the content without freeing its memory.
+		 * <p>
+		 * For when the buffer may still be referenced (eg., by a write pending
+		 * when the connection failed). A mapping is never unmapped explicitly
+		 * once abandoned, and a pooled buffer is not returned to the pool; the
+		 * garbage collector frees them once no longer referenced.
+		 * </p>
+		 */
+		public void abandon() {
+			if (!closed.compareAndSet(false, true))
+				return;
+
+			if (mapping != null) {
+				release(mapping, true);
+			}
+		}
+
+		/**
+		 * Releases the content. The buffer must no longer be accessed.
+		 */
+		@Override
+		public void close() {
+			if (!closed.compareAndSet(false, true))
+				return;
+
+			if (mapping != null) {
+				release(mapping, false);
+			} else if (pooledBuffer != null) {
+				bufferPool.release(pooledBuffer);
+			}
+		}
+
+		/**
+		 * @return a buffer with the content (private to the caller, i.e. its
+		 *         position may be changed)
+		 */
+		public ByteBuffer getBuffer() {
+			return buffer;
+		}
+
+		public boolean isMapped() {
+			return mapping != null;
+		}
+	}
+
+	private static final class Mapping {
+		private final String key;
+		private final MappedByteBuffer buffer;
+		private int references;
+		private boolean abandoned;
+
+		Mapping(String key, MappedByteBuffer buffer) {
+			this.key = key;
+			this.buffer = buffer;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(CachedContentManager.class);
+
+	/** pool buckets are multiples of this size */
+	private static final int POOL_FACTOR = 4096;
+
+	private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+	private static MethodHandle findInvokeCleaner() {
+		// there is no public API for unmapping; sun.misc.Unsafe (jdk.unsupported) is what everyone uses
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			return MethodHandles.lookup().findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class)).bindTo(theUnsafe.get(null));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOG.warn("Unable to unmap files explicitly (falling back to garbage collection): {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private static String toKey(File file) {
+		// cache entries are replaced atomically, i.e. a changed file is a new file
+		return format("%s:%d:%d", file.getAbsolutePath(), file.lastModified(), file.length());
+	}
+
+	private static void unmap(MappedByteBuffer buffer) {
+		if (INVOKE_CLEANER == null)
+			return;
+
+		try {
+			INVOKE_CLEANER.invokeExact((ByteBuffer) buffer);
+		} catch (Throwable e) {
+			LOG.debug("Unable to unmap buffer: {}", e.getMessage());
+		}
+	}
+
+	private final int mmapThreshold;
+	private final ProxyMetrics metrics;
+	private final ByteBufferPool bufferPool;
+	private final ConcurrentMap<String, Mapping> mappings = new ConcurrentHashMap<>();
+	private final AtomicLong mappedBytes = new AtomicLong();
+
+	/**
+	 * @param mmapThreshold
+	 *            the size in bytes from which files are memory-mapped (rounded
+	 *            up to a multiple of 4KB, <code>0</code> maps all files)
+	 * @param metrics
+	 *            metrics for recording reads and mappings
+	 */
+	public CachedContentManager(int mmapThreshold, ProxyMetrics metrics) {
+		this.mmapThreshold = mmapThreshold <= 0 ? 0 : ((mmapThreshold + POOL_FACTOR) - 1) / POOL_FACTOR * POOL_FACTOR;
+		this.metrics = metrics;
+		bufferPool = new ArrayByteBufferPool(0, POOL_FACTOR, Math.max(2 * POOL_FACTOR, this.mmapThreshold)); // factor must be below the max
+
+		metrics.gauge("content_mapped_files", this::getMappedFileCount);
+		metrics.gauge("content_mapped_bytes", mappedBytes::get);
+	}
+
+	public long getMappedFileCount() {
+		return mappings.size();
+	}
+
+	public int getMmapThreshold() {
+		return mmapThreshold;
+	}
+
+	/**
+	 * Opens the content of a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the content (must be closed)
+	 * @throws IOException
+	 */
+	public Content open(File file) throws IOException {
+		long length = file.length();
+		if ((length == 0) || (length < mmapThreshold))
+			return read(file, (int) length);
+
+		return map(file);
+	}
+
+	private Content map(File file) throws IOException {
+		String key = toKey(file);
+		boolean[] shared = new boolean[1];
+		Mapping mapping;
+		try {
+			mapping = mappings.compute(key, (k, existing) -> {
+				Mapping result = existing;
+				if (result == null) {
+					try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+						result = new Mapping(k, channel.map(MapMode.READ_ONLY, 0, channel.size()));
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					mappedBytes.addAndGet(result.buffer.capacity());
+				} else {
+					shared[0] = true;
+				}
+				result.references++;
+				return result;
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		metrics.increment(shared[0] ? "content_reads_total{mode=\"mmap_shared\"}" : "content_reads_total{mode=\"mmap\"}");
+		return new Content(mapping.buffer.asReadOnlyBuffer(), mapping, null);
+	}
+
+	private Content read(File file, int length) throws IOException {
+		metrics.increment("content_reads_total{mode=\"heap\"}");
+		if (length == 0)
+			return new Content(ByteBuffer.allocate(0), null, null);
+
+		ByteBuffer buffer = bufferPool.acquire(length, false);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer.clear().limit(length);
+			while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+				// continue reading
+			}
+			buffer.flip();
+		} catch (IOException | RuntimeException e) {
+			bufferPool.release(buffer);
+			throw e;
+		}
+		return new Content(buffer, null, buffer);
+	}
+
+	private void release(Mapping mapping, boolean abandon) {
+		mappings.computeIfPresent(mapping.key, (k, existing) -> {
+			if (existing != mapping)
+				return existing;
+
+			if (abandon) {
+				existing.abandoned = true;
+			}
+			if (--existing.references > 0)
+				return existing;
+
+			mappedBytes.addAndGet(-existing.buffer.capacity());
+			if (!existing.abandoned) {
+				unmap(existing.buffer);
+			}
+			return null;
+		});
+	}
+}
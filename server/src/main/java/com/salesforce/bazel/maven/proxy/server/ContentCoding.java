@@ -0,0 +1,78 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Helpers for negotiating compressed responses of text artifacts.
+ */
+public final class ContentCoding {
+
+	public static final String GZIP = "gzip";
+
+	/** only text artifacts are worth compressing (jars, zips etc. are compressed already) */
+	private static final Set<String> COMPRESSIBLE_EXTENSIONS = Set.of("pom", "xml", "module", "json", "asc", "md5", "sha1", "sha256", "sha512", "txt", "properties");
+
+	/**
+	 * Indicates whether a client accepts gzip encoded content.
+	 *
+	 * @param acceptEncoding
+	 *            the value of the <code>Accept-Encoding</code> header (may be
+	 *            <code>null</code>)
+	 * @return <code>true</code> if <code>gzip</code> (or <code>*</code>) is
+	 *         accepted with a non-zero quality, <code>false</code> otherwise
+	 */
+	public static boolean acceptsGzip(String acceptEncoding) {
+		if ((acceptEncoding == null) || acceptEncoding.isBlank())
+			return false;
+
+		Boolean wildcard = null;
+		for (String element : acceptEncoding.split(",")) {
+			String[] parameters = element.split(";");
+			String coding = parameters[0].strip().toLowerCase(Locale.ENGLISH);
+			boolean accepted = getQuality(parameters) > 0;
+			if (coding.equals(GZIP) || coding.equals("x-gzip"))
+				return accepted;
+			if (coding.equals("*")) {
+				wildcard = accepted;
+			}
+		}
+		return Boolean.TRUE.equals(wildcard);
+	}
+
+	private static double getQuality(String[] parameters) {
+		for (int i = 1; i < parameters.length; i++) {
+			String parameter = parameters[i].strip();
+			if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+				try {
+					return Double.parseDouble(parameter.substring(2).strip());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Indicates whether an artifact is a text resource worth compressing.
+	 *
+	 * @param path
+	 *            the path of the artifact
+	 * @return <code>true</code> if compressible, <code>false</code> otherwise
+	 */
+	public static boolean isCompressible(String path) {
+		if (path == null)
+			return false;
+
+		int extension = path.lastIndexOf('.');
+		if ((extension < 0) || (path.indexOf('/', extension) >= 0))
+			return false;
+
+		return COMPRESSIBLE_EXTENSIONS.contains(path.substring(extension + 1).toLowerCase(Locale.ENGLISH));
+	}
+
+	private ContentCoding() {
+		// empty
+	}
+}
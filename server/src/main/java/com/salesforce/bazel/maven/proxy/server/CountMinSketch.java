@@ -0,0 +1,109 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch estimating counts of an unbounded set of keys in fixed
+ * memory.
+ * <p>
+ * Each key is mapped to one counter per row; adding increments all of them
+ * and the estimate is the smallest. Estimates are never too low and too high
+ * by at most <code>e / width * total</code> with probability
+ * <code>1 - e^-depth</code>. Counters are updated with atomic adds, i.e. the
+ * sketch is safe for concurrent use without locking.
+ * </p>
+ */
+public class CountMinSketch {
+
+	private static long mix(long h) {
+		// finalizer of MurmurHash3 (64 bit)
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private final int width;
+	private final int depth;
+	private final int mask;
+	private final AtomicLongArray counters;
+
+	/**
+	 * @param width
+	 *            the number of counters per row (rounded up to the next power
+	 *            of two)
+	 * @param depth
+	 *            the number of rows (hash functions)
+	 */
+	public CountMinSketch(int width, int depth) {
+		if ((width < 1) || (width > (1 << 24)) || (depth < 1) || (depth > 16))
+			throw new IllegalArgumentException("Width must be in [1, 2^24] and depth in [1, 16]: " + width + "x" + depth);
+
+		int powerOfTwo = 1;
+		while (powerOfTwo < width) {
+			powerOfTwo <<= 1;
+		}
+		this.width = powerOfTwo;
+		this.depth = depth;
+		mask = powerOfTwo - 1;
+		counters = new AtomicLongArray(powerOfTwo * depth);
+	}
+
+	/**
+	 * Adds to the count of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param count
+	 *            the count to add (must not be negative)
+	 * @return the new estimated count of the key
+	 */
+	public long add(String key, long count) {
+		long h1 = mix(key.hashCode());
+		long h2 = mix(h1);
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			estimate = Math.min(estimate, counters.addAndGet(index(row, h1, h2), count));
+		}
+		return estimate;
+	}
+
+	/**
+	 * Halves all counters (exponential decay, so that old counts fade out).
+	 */
+	public void decay() {
+		for (int i = 0; i < counters.length(); i++) {
+			counters.getAndUpdate(i, (value) -> value >> 1);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            the key
+	 * @return the estimated count of the key
+	 */
+	public long estimate(String key) {
+		long h1 = mix(key.hashCode());
+		long h2 = mix(h1);
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			estimate = Math.min(estimate, counters.get(index(row, h1, h2)));
+		}
+		return estimate;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	private int index(int row, long h1, long h2) {
+		// double hashing (Kirsch/Mitzenmacher) derives all rows from two hashes
+		return (row * width) + (int) ((h1 + (row * h2)) & mask);
+	}
+}
@@ -0,0 +1,386 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of files by their SHA-256.
+ * <p>
+ * The index covers the local Maven repository as well as the proxy cache, so
+ * content can be found regardless of the repository id or mirror it was
+ * originally downloaded from. Files are hashed once; the index is persisted in
+ * the proxy cache and only files whose size or modification time changed are
+ * hashed again when the directories are re-scanned at startup.
+ * </p>
+ * <p>
+ * Entries are verified against the file system on lookup, i.e. a file modified
+ * or deleted after it was indexed is never served for the old digest.
+ * </p>
+ */
+public class DigestIndex {
+
+	static final class Entry {
+		final String sha256;
+		final Path file;
+		final long size;
+		final long lastModified;
+
+		Entry(String sha256, Path file, long size, long lastModified) {
+			this.sha256 = sha256;
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		boolean matches(long size, long lastModified) {
+			return (this.size == size) && (this.lastModified == lastModified);
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(DigestIndex.class);
+
+	/** checksums, signatures and Maven bookkeeping are not worth indexing */
+	private static final Set<String> IGNORED_EXTENSIONS = Set.of("md5", "sha1", "sha256", "sha512", "asc", "lastUpdated", "repositories", "tmp", "gz");
+
+	private static final int SHA256_HEX_LENGTH = 64;
+
+	/**
+	 * Parses a SHA-256 given as lower or upper case hex string or as
+	 * subresource integrity value (<code>sha256-&lt;base64&gt;</code>).
+	 *
+	 * @param digest
+	 *            the digest
+	 * @return the SHA-256 (lower case hex, <code>null</code> if the input is
+	 *         not a valid SHA-256)
+	 */
+	public static String parseSha256(String digest) {
+		if (digest == null)
+			return null;
+
+		if (digest.startsWith("sha256-")) {
+			try {
+				byte[] bytes = Base64.getDecoder().decode(digest.substring("sha256-".length()));
+				return bytes.length == (SHA256_HEX_LENGTH / 2) ? MavenProxyCache.toHex(bytes) : null;
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		if (digest.length() != SHA256_HEX_LENGTH)
+			return null;
+
+		for (int i = 0; i < digest.length(); i++) {
+			if (Character.digit(digest.charAt(i), 16) < 0)
+				return null;
+		}
+		return digest.toLowerCase(Locale.ENGLISH);
+	}
+
+	private static boolean isIndexable(Path file) {
+		String name = file.getFileName().toString();
+		int extension = name.lastIndexOf('.');
+		return (extension < 0) || !IGNORED_EXTENSIONS.contains(name.substring(extension + 1));
+	}
+
+	private final List<Path> directories;
+	private final Path indexFile;
+	private final ProxyMetrics metrics;
+	private final Map<String, Entry> entriesBySha256 = new ConcurrentHashMap<>();
+	private final Map<Path, Entry> entriesByFile = new ConcurrentHashMap<>();
+	private final ExecutorService indexer;
+
+	/**
+	 * @param directories
+	 *            the directories to index (eg., local Maven repository and
+	 *            proxy cache directory)
+	 * @param indexFile
+	 *            the file for persisting the index (may be <code>null</code>
+	 *            to keep the index in memory only)
+	 * @param metrics
+	 *            metrics for recording the index size
+	 */
+	public DigestIndex(List<Path> directories, Path indexFile, ProxyMetrics metrics) {
+		this.directories = new ArrayList<>(directories);
+		this.indexFile = indexFile;
+		this.metrics = metrics;
+
+		// hashing is I/O bound and must not compete with serving clients
+		indexer = Executors.newSingleThreadExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "digest-indexer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		metrics.gauge("digest_index_entries", () -> entriesBySha256.size());
+	}
+
+	/**
+	 * Adds files whose SHA-256 is already known (eg., from an imported bundle)
+	 * without hashing them again.
+	 *
+	 * @param sha256ByFile
+	 *            the SHA-256 (lower case hex) by file
+	 * @throws IOException
+	 */
+	public void addAll(Map<Path, String> sha256ByFile) throws IOException {
+		List<Entry> added = new ArrayList<>();
+		for (Map.Entry<Path, String> file : sha256ByFile.entrySet()) {
+			if (!isIndexable(file.getKey())) {
+				continue;
+			}
+			BasicFileAttributes attributes = Files.readAttributes(file.getKey(), BasicFileAttributes.class);
+			Entry entry = new Entry(file.getValue(), file.getKey(), attributes.size(), attributes.lastModifiedTime().toMillis());
+			put(entry);
+			added.add(entry);
+		}
+		append(added);
+	}
+
+	private void append(Collection<Entry> entries) {
+		if ((indexFile == null) || entries.isEmpty())
+			return;
+
+		try {
+			createDirectories(indexFile.getParent());
+			try (BufferedWriter writer = Files.newBufferedWriter(indexFile, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				for (Entry entry : entries) {
+					write(writer, entry);
+				}
+			}
+		} catch (IOException e) {
+			LOG.debug("Unable to update digest index '{}': {}", indexFile, e.getMessage());
+		}
+	}
+
+	/**
+	 * Waits for all indexing scheduled so far to complete (for testing).
+	 */
+	void awaitIndexing() throws InterruptedException, ExecutionException {
+		indexer.submit(() -> {
+			// empty
+		}).get();
+	}
+
+	/**
+	 * Returns a file with the given SHA-256.
+	 *
+	 * @param sha256
+	 *            the SHA-256 (lower case hex)
+	 * @return the file (<code>null</code> if none is known)
+	 */
+	public Path get(String sha256) {
+		Entry entry = entriesBySha256.get(sha256);
+		if (entry == null)
+			return null;
+
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(entry.file, BasicFileAttributes.class);
+			if (attributes.isRegularFile() && entry.matches(attributes.size(), attributes.lastModifiedTime().toMillis()))
+				return entry.file;
+		} catch (IOException e) {
+			// deleted
+		}
+
+		LOG.debug("Dropping stale digest index entry for '{}'", entry.file);
+		remove(entry);
+		index(entry.file); // re-hash in case it was modified
+		return null;
+	}
+
+	/**
+	 * Adds a file to the index asynchronously.
+	 *
+	 * @param file
+	 *            the file
+	 */
+	public void index(Path file) {
+		try {
+			indexer.execute(() -> {
+				try {
+					indexNow(file, true);
+				} catch (IOException e) {
+					LOG.debug("Unable to index '{}': {}", file, e.getMessage());
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOG.debug("Unable to index '{}': {}", file, e.getMessage());
+		}
+	}
+
+	private boolean indexNow(Path file, boolean persist) throws IOException {
+		if (!isRegularFile(file) || !isIndexable(file))
+			return false;
+
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		Entry existing = entriesByFile.get(file);
+		if ((existing != null) && existing.matches(attributes.size(), attributes.lastModifiedTime().toMillis()))
+			return false;
+
+		Entry entry = new Entry(MavenProxyCache.sha256(file), file, attributes.size(), attributes.lastModifiedTime().toMillis());
+		put(entry);
+		if (persist) {
+			append(List.of(entry));
+		}
+		metrics.increment("digest_index_hashed_total");
+		return true;
+	}
+
+	private void load() {
+		if ((indexFile == null) || !isRegularFile(indexFile))
+			return;
+
+		try (BufferedReader reader = Files.newBufferedReader(indexFile, UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// <sha256> <size> <last-modified> <path>
+				String[] fields = line.split(" ", 4);
+				if ((fields.length != 4) || (parseSha256(fields[0]) == null)) {
+					continue;
+				}
+				try {
+					put(new Entry(fields[0], Path.of(fields[3]), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+				} catch (IllegalArgumentException e) {
+					// ignore corrupt line
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Unable to read digest index '{}' (re-building it): {}", indexFile, e.getMessage());
+		}
+	}
+
+	private void put(Entry entry) {
+		Entry previous = entriesByFile.put(entry.file, entry);
+		if ((previous != null) && !previous.sha256.equals(entry.sha256)) {
+			entriesBySha256.remove(previous.sha256, previous);
+		}
+		entriesBySha256.put(entry.sha256, entry);
+	}
+
+	private void remove(Entry entry) {
+		entriesByFile.remove(entry.file, entry);
+		entriesBySha256.remove(entry.sha256, entry);
+	}
+
+	private void save() throws IOException {
+		if (indexFile == null)
+			return;
+
+		createDirectories(indexFile.getParent());
+		Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(tempFile, UTF_8)) {
+			for (Entry entry : entriesByFile.values()) {
+				write(writer, entry);
+			}
+		}
+		move(tempFile, indexFile, ATOMIC_MOVE, REPLACE_EXISTING);
+	}
+
+	private void scan() {
+		long start = System.nanoTime();
+		int[] hashed = new int[1];
+		Set<Path> seen = new HashSet<>();
+		for (Path directory : directories) {
+			if (!Files.isDirectory(directory)) {
+				continue;
+			}
+			try {
+				Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+						// skip internal directories (eg., '.tmp' and '.gzip' of the proxy cache)
+						return !dir.equals(directory) && dir.getFileName().toString().startsWith(".") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						seen.add(file);
+						try {
+							if (indexNow(file, false)) {
+								hashed[0]++;
+							}
+						} catch (IOException e) {
+							LOG.debug("Unable to index '{}': {}", file, e.getMessage());
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException e) {
+				LOG.warn("Unable to scan '{}' for the digest index: {}", directory, e.getMessage());
+			}
+		}
+
+		// drop files which disappeared while the proxy was down
+		for (Entry entry : new ArrayList<>(entriesByFile.values())) {
+			if (!seen.contains(entry.file)) {
+				remove(entry);
+			}
+		}
+
+		try {
+			save();
+		} catch (IOException e) {
+			LOG.warn("Unable to save digest index '{}': {}", indexFile, e.getMessage());
+		}
+		LOG.info("Indexed {} files by SHA-256 ({} hashed) in {}s.", entriesBySha256.size(), hashed[0], (System.nanoTime() - start) / 1_000_000_000L);
+	}
+
+	/**
+	 * Loads the persisted index and re-scans all directories in the background.
+	 * <p>
+	 * Lookups are possible immediately; files not yet (re-)scanned are simply
+	 * not found until the scan reaches them.
+	 * </p>
+	 */
+	public void start() {
+		indexer.execute(() -> {
+			load();
+			scan();
+		});
+	}
+
+	private void write(BufferedWriter writer, Entry entry) throws IOException {
+		writer.write(entry.sha256);
+		writer.write(' ');
+		writer.write(Long.toString(entry.size));
+		writer.write(' ');
+		writer.write(Long.toString(entry.lastModified));
+		writer.write(' ');
+		writer.write(entry.file.toString());
+		writer.newLine();
+	}
+}
@@ -0,0 +1,100 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link BlobStore} using a (shared) directory, eg. an NFS mount.
+ * <p>
+ * Blobs are written to a temporary file in the store first and moved into
+ * place atomically, so concurrent writers on different hosts never expose
+ * partially written blobs.
+ * </p>
+ */
+public class DirectoryBlobStore implements BlobStore {
+
+	private static final String TEMP_DIRECTORY = ".tmp";
+	private static final int IO_THREADS = 4;
+
+	private final Path directory;
+	private final Path tempDirectory;
+	private final ExecutorService executor;
+
+	public DirectoryBlobStore(Path directory) throws IOException {
+		this.directory = createDirectories(directory);
+		tempDirectory = createDirectories(directory.resolve(TEMP_DIRECTORY));
+
+		// file system calls block, so they get their own threads
+		executor = Executors.newFixedThreadPool(IO_THREADS, (runnable) -> {
+			Thread thread = new Thread(runnable, "directory-blob-store");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Boolean> get(String key, Path target) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				Path blob = resolve(key);
+				if (!isRegularFile(blob))
+					return false;
+
+				copy(blob, target, REPLACE_EXISTING);
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, executor);
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public CompletableFuture<Void> put(String key, Path source) {
+		return CompletableFuture.runAsync(() -> {
+			try {
+				Path blob = resolve(key);
+				Path tempFile = createTempFile(tempDirectory, "upload", ".tmp");
+				try {
+					copy(source, tempFile, REPLACE_EXISTING);
+					createDirectories(blob.getParent());
+					move(tempFile, blob, ATOMIC_MOVE, REPLACE_EXISTING);
+				} finally {
+					deleteIfExists(tempFile);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, executor);
+	}
+
+	private Path resolve(String key) throws IOException {
+		Path sanitized = MavenRepositoryCache.sanitize(Path.of(key));
+		if (sanitized.startsWith("..") || sanitized.startsWith(TEMP_DIRECTORY))
+			throw new IOException(format("Invalid key '%s'", key));
+
+		return directory.resolve(sanitized);
+	}
+
+	@Override
+	public String toString() {
+		return directory.toString();
+	}
+}
@@ -0,0 +1,109 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Writes traces to a file in the OpenTelemetry protocol JSON encoding (one
+ * <code>ExportTraceServiceRequest</code> per line, as read by the
+ * <code>otlpjsonfile</code> receiver of the OpenTelemetry collector).
+ * <p>
+ * Like the {@link AccessLog}, traces are handed to a
+ * {@link BackgroundLogWriter}, dropped (and counted) when the writer falls
+ * behind and the file is rotated by size.
+ * </p>
+ */
+public class FileSpanExporter implements SpanExporter, Closeable {
+
+	private static final String SERVICE_NAME = "bazel-maven-proxy";
+	private static final int BUFFER_CAPACITY = 1 << 14;
+
+	// OpenTelemetry span kinds
+	private static final int KIND_INTERNAL = 1;
+	private static final int KIND_SERVER = 2;
+	private static final int KIND_CLIENT = 3;
+
+	private static void appendAttributes(StringBuilder line, Map<String, Object> attributes) {
+		line.append(",\"attributes\":[");
+		boolean first = true;
+		for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+			if (!first) {
+				line.append(',');
+			}
+			first = false;
+			line.append("{\"key\":");
+			AccessLog.appendString(line, attribute.getKey());
+			if (attribute.getValue() instanceof Number) {
+				line.append(",\"value\":{\"intValue\":\"").append(attribute.getValue()).append("\"}}");
+			} else {
+				line.append(",\"value\":{\"stringValue\":");
+				AccessLog.appendString(line, String.valueOf(attribute.getValue()));
+				line.append("}}");
+			}
+		}
+		line.append(']');
+	}
+
+	private static void appendSpan(StringBuilder line, String traceId, String spanId, String parentSpanId, String name, int kind, long startEpochNanos, long endEpochNanos) {
+		line.append("{\"traceId\":\"").append(traceId).append("\",\"spanId\":\"").append(spanId).append('"');
+		if (parentSpanId != null) {
+			line.append(",\"parentSpanId\":\"").append(parentSpanId).append('"');
+		}
+		line.append(",\"name\":");
+		AccessLog.appendString(line, name);
+		line.append(",\"kind\":").append(kind);
+		line.append(",\"startTimeUnixNano\":\"").append(startEpochNanos).append('"');
+		line.append(",\"endTimeUnixNano\":\"").append(endEpochNanos).append('"');
+	}
+
+	static void appendTo(StringBuilder line, RequestTrace trace) {
+		line.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[{\"key\":\"service.name\",\"value\":{\"stringValue\":\"").append(SERVICE_NAME).append("\"}}]},");
+		line.append("\"scopeSpans\":[{\"scope\":{\"name\":\"").append(MavenProxyServlet.class.getName()).append("\"},\"spans\":[");
+
+		Map<String, Object> attributes = trace.getAttributes();
+		Object method = attributes.getOrDefault("http.method", "HTTP");
+		appendSpan(line, trace.getTraceId(), trace.getSpanId(), trace.getParentSpanId(), method.toString(), KIND_SERVER, trace.getStartEpochNanos(), trace.getEndEpochNanos());
+		appendAttributes(line, attributes);
+		line.append('}');
+
+		for (RequestTrace.Span span : trace.getSpans()) {
+			line.append(',');
+			appendSpan(line, trace.getTraceId(), span.getSpanId(), trace.getSpanId(), span.getName(), span.isClient() ? KIND_CLIENT : KIND_INTERNAL, span.getStartEpochNanos(), span.getEndEpochNanos());
+			line.append('}');
+		}
+		line.append("]}]}]}\n");
+	}
+
+	private final ProxyMetrics metrics;
+	private final BackgroundLogWriter<RequestTrace> writer;
+
+	/**
+	 * @param file
+	 *            the file to append traces to
+	 * @param maxFileSize
+	 *            the size in bytes after which the file is rotated
+	 * @param maxFiles
+	 *            the number of rotated files to keep
+	 * @param metrics
+	 *            metrics for recording dropped traces
+	 * @throws IOException
+	 */
+	public FileSpanExporter(Path file, long maxFileSize, int maxFiles, ProxyMetrics metrics) throws IOException {
+		this.metrics = metrics;
+		writer = new BackgroundLogWriter<>(file, maxFileSize, maxFiles, BUFFER_CAPACITY, "trace-writer", FileSpanExporter::appendTo);
+	}
+
+	@Override
+	public void close() {
+		writer.close();
+	}
+
+	@Override
+	public void export(RequestTrace trace) {
+		if (!writer.offer(trace)) {
+			metrics.increment("traces_dropped_total");
+		}
+	}
+}
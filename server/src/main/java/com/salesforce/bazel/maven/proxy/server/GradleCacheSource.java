@@ -0,0 +1,180 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.file.Files.isDirectory;
+import static java.nio.file.Files.isRegularFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves artifacts from Gradle's dependency cache
+ * (<code>~/.gradle/caches/modules-2/files-2.1</code>).
+ * <p>
+ * Gradle stores files as
+ * <code>&lt;group&gt;/&lt;artifact&gt;/&lt;version&gt;/&lt;sha1&gt;/&lt;file&gt;</code>,
+ * i.e. the location of a file cannot be computed from its Maven path. An
+ * in-memory index from <code>&lt;group&gt;/&lt;artifact&gt;/&lt;version&gt;/&lt;file&gt;</code>
+ * to the file is built by scanning the cache in the background. Files
+ * downloaded by Gradle later on are picked up by indexing the version
+ * directory of a path not found in the index.
+ * </p>
+ * <p>
+ * Gradle does not store checksum files or <code>maven-metadata.xml</code>;
+ * those are never served from this source.
+ * </p>
+ */
+public class GradleCacheSource implements LocalArtifactSource {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GradleCacheSource.class);
+
+	/** depth of files below the cache directory (group/artifact/version/sha1/file) */
+	private static final int FILE_DEPTH = 5;
+
+	/**
+	 * Translates a path in the Maven repository layout into an index key.
+	 *
+	 * @param path
+	 *            the sanitized path (eg., <code>org/foo/bar/1.0/bar-1.0.jar</code>)
+	 * @return the key (eg., <code>org.foo/bar/1.0/bar-1.0.jar</code>) or
+	 *         <code>null</code> if the path cannot be in the Gradle cache
+	 */
+	static String toKey(Path path) {
+		int count = path.getNameCount();
+		if (count < 4)
+			return null;
+
+		String fileName = path.getFileName().toString();
+		String version = path.getName(count - 2).toString();
+		String artifactId = path.getName(count - 3).toString();
+		if (!fileName.startsWith(artifactId + "-") || fileName.endsWith(".sha1") || fileName.endsWith(".md5") || fileName.endsWith(".sha256") || fileName.endsWith(".sha512"))
+			return null;
+
+		StringBuilder groupId = new StringBuilder();
+		for (int i = 0; i < (count - 3); i++) {
+			if (i > 0) {
+				groupId.append('.');
+			}
+			groupId.append(path.getName(i));
+		}
+		return format("%s/%s/%s/%s", groupId, artifactId, version, fileName);
+	}
+
+	private final Path cacheDirectory;
+	private final ProxyMetrics metrics;
+	private final Map<String, Path> filesByKey = new ConcurrentHashMap<>();
+
+	/**
+	 * @param cacheDirectory
+	 *            the <code>files-2.1</code> directory
+	 * @param metrics
+	 *            metrics for recording hits
+	 */
+	public GradleCacheSource(Path cacheDirectory, ProxyMetrics metrics) {
+		if (!isDirectory(cacheDirectory))
+			throw new IllegalArgumentException(format("Not a valid directory '%s'", cacheDirectory));
+
+		this.cacheDirectory = cacheDirectory;
+		this.metrics = metrics;
+
+		metrics.gauge(format("local_source_index_entries{source=\"%s\"}", getName()), filesByKey::size);
+	}
+
+	@Override
+	public File get(Path path) {
+		String key = toKey(path);
+		if (key == null)
+			return null;
+
+		Path file = filesByKey.get(key);
+		if ((file == null) || !isRegularFile(file)) {
+			// downloaded after the index was built or deleted (eg., by Gradle's cache cleanup)
+			file = indexVersionDirectory(key);
+			if (file == null)
+				return null;
+		}
+
+		metrics.increment(format("local_source_hits_total{source=\"%s\"}", getName()));
+		return file.toFile();
+	}
+
+	public Path getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	@Override
+	public String getName() {
+		return "gradle";
+	}
+
+	private void index(Path file) {
+		Path relative = cacheDirectory.relativize(file);
+		filesByKey.putIfAbsent(format("%s/%s/%s/%s", relative.getName(0), relative.getName(1), relative.getName(2), relative.getName(4)), file);
+	}
+
+	private Path indexVersionDirectory(String key) {
+		filesByKey.remove(key);
+
+		String[] segments = key.split("/");
+		Path versionDirectory = cacheDirectory.resolve(segments[0]).resolve(segments[1]).resolve(segments[2]);
+		if (!isDirectory(versionDirectory))
+			return null;
+
+		try (DirectoryStream<Path> hashDirectories = Files.newDirectoryStream(versionDirectory)) {
+			for (Path hashDirectory : hashDirectories) {
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(hashDirectory)) {
+					for (Path file : files) {
+						index(file);
+					}
+				}
+			}
+		} catch (IOException e) {
+			LOG.debug("Unable to index '{}': {}", versionDirectory, e.getMessage());
+		}
+
+		Path file = filesByKey.get(key);
+		return (file != null) && isRegularFile(file) ? file : null;
+	}
+
+	private void scan() {
+		long start = System.nanoTime();
+		try {
+			Files.walkFileTree(cacheDirectory, Set.of(), FILE_DEPTH, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (attrs.isRegularFile() && (cacheDirectory.relativize(file).getNameCount() == FILE_DEPTH)) {
+						index(file);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			LOG.warn("Unable to scan Gradle cache '{}': {}", cacheDirectory, e.getMessage());
+		}
+		LOG.info("Indexed {} files in Gradle cache '{}' in {}ms.", filesByKey.size(), cacheDirectory, (System.nanoTime() - start) / 1_000_000L);
+	}
+
+	@Override
+	public void start() {
+		Thread thread = new Thread(this::scan, "gradle-cache-indexer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
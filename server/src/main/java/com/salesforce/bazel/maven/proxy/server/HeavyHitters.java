@@ -0,0 +1,124 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the (approximately) most frequent keys counted in a
+ * {@link CountMinSketch}.
+ * <p>
+ * Only the keys of the current top-K candidates are stored; their counts are
+ * always read from the sketch. A key replaces the smallest candidate once its
+ * estimate exceeds it. Because estimates of candidates only grow (decay
+ * halves all of them alike), the smallest estimate seen at the last change is
+ * a lower bound and most keys (as well as the candidates themselves) are
+ * handled without taking the lock.
+ * </p>
+ */
+public class HeavyHitters {
+
+	private final CountMinSketch sketch;
+	private final int capacity;
+	private final Set<String> candidates;
+
+	/** lower bound of the smallest estimate of all candidates once full */
+	private volatile long threshold;
+
+	/**
+	 * @param sketch
+	 *            the sketch holding the counts
+	 * @param capacity
+	 *            the number of keys to track (K)
+	 */
+	public HeavyHitters(CountMinSketch sketch, int capacity) {
+		this.sketch = sketch;
+		this.capacity = capacity;
+		candidates = ConcurrentHashMap.newKeySet(capacity * 2);
+	}
+
+	/**
+	 * Adds to the count of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param count
+	 *            the count to add
+	 */
+	public void add(String key, long count) {
+		offer(key, sketch.add(key, count));
+	}
+
+	/**
+	 * Halves all counts.
+	 */
+	public synchronized void decay() {
+		sketch.decay();
+		threshold >>= 1;
+	}
+
+	public CountMinSketch getSketch() {
+		return sketch;
+	}
+
+	private void offer(String key, long estimate) {
+		if ((estimate <= threshold) || candidates.contains(key))
+			return;
+
+		synchronized (this) {
+			if (candidates.contains(key))
+				return;
+
+			if (candidates.size() < capacity) {
+				candidates.add(key);
+				if (candidates.size() == capacity) {
+					updateThreshold();
+				}
+				return;
+			}
+
+			String smallest = null;
+			long smallestEstimate = Long.MAX_VALUE;
+			for (String candidate : candidates) {
+				long candidateEstimate = sketch.estimate(candidate);
+				if (candidateEstimate < smallestEstimate) {
+					smallest = candidate;
+					smallestEstimate = candidateEstimate;
+				}
+			}
+			if (estimate > smallestEstimate) {
+				candidates.remove(smallest);
+				candidates.add(key);
+			}
+			updateThreshold();
+		}
+	}
+
+	/**
+	 * @param n
+	 *            the maximum number of keys to return
+	 * @return the keys with the highest estimates, highest first
+	 */
+	public List<String> top(int n) {
+		// estimates change concurrently, so sort a snapshot
+		Map<String, Long> estimates = new HashMap<>();
+		for (String candidate : candidates) {
+			estimates.put(candidate, sketch.estimate(candidate));
+		}
+		List<String> keys = new ArrayList<>(estimates.keySet());
+		keys.sort(Comparator.comparing((String key) -> estimates.get(key)).reversed());
+		return keys.size() > n ? keys.subList(0, n) : keys;
+	}
+
+	private void updateThreshold() {
+		long smallestEstimate = Long.MAX_VALUE;
+		for (String candidate : candidates) {
+			smallestEstimate = Math.min(smallestEstimate, sketch.estimate(candidate));
+		}
+		threshold = smallestEstimate;
+	}
+}
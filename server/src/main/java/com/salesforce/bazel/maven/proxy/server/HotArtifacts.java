@@ -0,0 +1,219 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+
+import com.salesforce.bazel.maven.proxy.server.AccessLog.Source;
+
+/**
+ * Request and byte counts of the hottest paths and of all repositories.
+ * <p>
+ * Registered as {@link HttpChannel.Listener} on all connectors and updated
+ * when a request completes (once the number of bytes written is known).
+ * Requests not served by a repository (eg., <code>/metrics</code>) are
+ * ignored. Per path counts are kept in {@link CountMinSketch count-min
+ * sketches} with {@link HeavyHitters top-K} tracking, i.e. memory is fixed
+ * regardless of the number of distinct paths. Per repository counts are exact
+ * (there are only a few repositories).
+ * </p>
+ * <p>
+ * All counts are halved once per window, i.e. a request counts half as much
+ * after one window and is practically forgotten after a few.
+ * </p>
+ */
+public class HotArtifacts implements HttpChannel.Listener {
+
+	/**
+	 * Counts of a path or repository.
+	 */
+	public static final class Counts {
+		final long requests;
+		final long bytes;
+		final Map<Source, Long> requestsBySource;
+
+		Counts(long requests, long bytes, Map<Source, Long> requestsBySource) {
+			this.requests = requests;
+			this.bytes = bytes;
+			this.requestsBySource = requestsBySource;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		/**
+		 * @return the number of requests by where they were served from
+		 *         (sources without requests are omitted)
+		 */
+		public Map<Source, Long> getRequestsBySource() {
+			return requestsBySource;
+		}
+	}
+
+	private static final int SKETCH_WIDTH = 1 << 14;
+	private static final int SKETCH_DEPTH = 4;
+	private static final int BYTES = Source.values().length;
+
+	private static String sourceKey(Source source, String path) {
+		return source.ordinal() + "\0" + path;
+	}
+
+	private final HeavyHitters byRequests;
+	private final HeavyHitters byBytes;
+	private final CountMinSketch requestsBySource = new CountMinSketch(SKETCH_WIDTH, SKETCH_DEPTH);
+	/** requests by {@link Source#ordinal()} followed by bytes */
+	private final ConcurrentMap<String, AtomicLongArray> repositoryCounters = new ConcurrentHashMap<>();
+	private final Duration window;
+	private final int capacity;
+	private final ScheduledExecutorService decayExecutor;
+
+	/**
+	 * @param capacity
+	 *            the number of hottest paths to track (by requests and by
+	 *            bytes each)
+	 * @param window
+	 *            the interval after which all counts are halved
+	 */
+	public HotArtifacts(int capacity, Duration window) {
+		this.capacity = capacity;
+		this.window = window;
+		byRequests = new HeavyHitters(new CountMinSketch(SKETCH_WIDTH, SKETCH_DEPTH), capacity);
+		byBytes = new HeavyHitters(new CountMinSketch(SKETCH_WIDTH, SKETCH_DEPTH), capacity);
+
+		decayExecutor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "hot-artifacts-decay");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long windowMillis = Math.max(1, window.toMillis());
+		decayExecutor.scheduleAtFixedRate(this::decay, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private Counts countsOf(String path) {
+		Map<Source, Long> bySource = new EnumMap<>(Source.class);
+		for (Source source : Source.values()) {
+			long requests = requestsBySource.estimate(sourceKey(source, path));
+			if (requests > 0) {
+				bySource.put(source, requests);
+			}
+		}
+		return new Counts(byRequests.getSketch().estimate(path), byBytes.getSketch().estimate(path), bySource);
+	}
+
+	/**
+	 * Halves all counts.
+	 */
+	void decay() {
+		byRequests.decay();
+		byBytes.decay();
+		requestsBySource.decay();
+		repositoryCounters.values().forEach((counters) -> {
+			for (int i = 0; i < counters.length(); i++) {
+				counters.getAndUpdate(i, (value) -> value >> 1);
+			}
+		});
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return counts by repository id
+	 */
+	public Map<String, Counts> getRepositories() {
+		Map<String, Counts> repositories = new TreeMap<>();
+		repositoryCounters.forEach((repositoryId, counters) -> {
+			Map<Source, Long> bySource = new EnumMap<>(Source.class);
+			long requests = 0;
+			for (Source source : Source.values()) {
+				long sourceRequests = counters.get(source.ordinal());
+				if (sourceRequests > 0) {
+					bySource.put(source, sourceRequests);
+				}
+				requests += sourceRequests;
+			}
+			repositories.put(repositoryId, new Counts(requests, counters.get(BYTES), bySource));
+		});
+		return repositories;
+	}
+
+	public Duration getWindow() {
+		return window;
+	}
+
+	@Override
+	public void onComplete(Request request) {
+		String repositoryId = AccessLog.getRepositoryId(request);
+		if (repositoryId == null)
+			return;
+
+		record(repositoryId, request.getRequestURI(), AccessLog.getSource(request), request.getResponse().getHttpChannel().getBytesWritten());
+	}
+
+	/**
+	 * Counts a request.
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the requested path
+	 * @param source
+	 *            where the response was served from (may be <code>null</code>)
+	 * @param bytes
+	 *            the number of bytes written
+	 */
+	public void record(String repositoryId, String path, Source source, long bytes) {
+		byRequests.add(path, 1);
+		byBytes.add(path, bytes);
+		AtomicLongArray counters = repositoryCounters.computeIfAbsent(repositoryId, (id) -> new AtomicLongArray(BYTES + 1));
+		if (source != null) {
+			requestsBySource.add(sourceKey(source, path), 1);
+			counters.incrementAndGet(source.ordinal());
+		}
+		counters.addAndGet(BYTES, bytes);
+	}
+
+	/**
+	 * @param n
+	 *            the maximum number of paths
+	 * @return the paths with the most bytes served, highest first
+	 */
+	public Map<String, Counts> topByBytes(int n) {
+		return toCounts(byBytes.top(n));
+	}
+
+	/**
+	 * @param n
+	 *            the maximum number of paths
+	 * @return the most requested paths, highest first
+	 */
+	public Map<String, Counts> topByRequests(int n) {
+		return toCounts(byRequests.top(n));
+	}
+
+	private Map<String, Counts> toCounts(List<String> paths) {
+		Map<String, Counts> counts = new LinkedHashMap<>();
+		for (String path : paths) {
+			counts.put(path, countsOf(path));
+		}
+		return counts;
+	}
+}
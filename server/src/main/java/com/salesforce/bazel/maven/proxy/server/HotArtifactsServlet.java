@@ -0,0 +1,93 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import com.salesforce.bazel.maven.proxy.server.AccessLog.Source;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.UnavailableException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Prints the hottest paths by requests and by bytes as well as counts per
+ * repository (see {@link HotArtifacts}) as JSON.
+ * <p>
+ * The number of paths is limited with the <code>n</code> query parameter
+ * (default is 20).
+ * </p>
+ */
+public class HotArtifactsServlet extends HttpServlet {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private static final int DEFAULT_TOP_N = 20;
+
+	private static void appendCounts(StringBuilder json, Map<String, HotArtifacts.Counts> counts, String keyName) {
+		json.append('[');
+		boolean first = true;
+		for (Map.Entry<String, HotArtifacts.Counts> entry : counts.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			json.append("\n    {\"").append(keyName).append("\":");
+			AccessLog.appendString(json, entry.getKey());
+			json.append(",\"requests\":").append(entry.getValue().getRequests());
+			json.append(",\"bytes\":").append(entry.getValue().getBytes());
+			json.append(",\"sources\":{");
+			boolean firstSource = true;
+			for (Map.Entry<Source, Long> source : entry.getValue().getRequestsBySource().entrySet()) {
+				if (!firstSource) {
+					json.append(',');
+				}
+				firstSource = false;
+				json.append('"').append(source.getKey().getValue()).append("\":").append(source.getValue());
+			}
+			json.append("}}");
+		}
+		json.append(first ? "]" : "\n  ]");
+	}
+
+	private HotArtifacts hotArtifacts;
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		int n = DEFAULT_TOP_N;
+		String nParameter = request.getParameter("n");
+		if (nParameter != null) {
+			try {
+				n = Math.max(1, Math.min(hotArtifacts.getCapacity(), Integer.parseInt(nParameter)));
+			} catch (NumberFormatException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Parameter 'n' must be a number.");
+				return;
+			}
+		}
+
+		StringBuilder json = new StringBuilder(4096);
+		json.append("{\n  \"window_seconds\":").append(hotArtifacts.getWindow().toSeconds());
+		json.append(",\n  \"top_by_requests\":");
+		appendCounts(json, hotArtifacts.topByRequests(n), "path");
+		json.append(",\n  \"top_by_bytes\":");
+		appendCounts(json, hotArtifacts.topByBytes(n), "path");
+		json.append(",\n  \"repositories\":");
+		appendCounts(json, hotArtifacts.getRepositories(), "repository");
+		json.append("\n}\n");
+
+		response.setContentType("application/json");
+		try (PrintWriter writer = response.getWriter()) {
+			writer.write(json.toString());
+		}
+	}
+
+	@Override
+	public void init() throws ServletException {
+		hotArtifacts = (HotArtifacts) getServletContext().getAttribute(HotArtifacts.class.getName());
+		if (hotArtifacts == null)
+			throw new UnavailableException("Servlet context attribute 'HotArtifacts' is required.");
+	}
+}
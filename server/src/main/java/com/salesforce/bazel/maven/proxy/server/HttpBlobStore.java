@@ -0,0 +1,118 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.FileNotFoundException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A {@link BlobStore} speaking plain HTTP: blobs are read with
+ * <code>GET</code> and written with <code>PUT</code> (eg., nginx with WebDAV,
+ * a generic remote cache or a bucket of an object store allowing anonymous
+ * access).
+ */
+public class HttpBlobStore implements BlobStore {
+
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+	/**
+	 * Encodes a key for use as URI path (RFC 3986, <code>/</code> is kept).
+	 */
+	static String encodePath(String key) {
+		StringBuilder encoded = new StringBuilder(key.length() + 16);
+		for (byte b : key.getBytes(UTF_8)) {
+			char c = (char) (b & 0xFF);
+			if (((c >= 'A') && (c <= 'Z')) || ((c >= 'a') && (c <= 'z')) || ((c >= '0') && (c <= '9')) || (c == '-') || (c == '_') || (c == '.') || (c == '~') || (c == '/')) {
+				encoded.append(c);
+			} else {
+				encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16))).append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+			}
+		}
+		return encoded.toString();
+	}
+
+	private final URI baseUri;
+	private final HttpClient httpClient;
+
+	/**
+	 * @param baseUri
+	 *            the URI blobs are resolved against (a trailing slash is
+	 *            added when missing)
+	 */
+	public HttpBlobStore(URI baseUri) {
+		this.baseUri = baseUri.toString().endsWith("/") ? baseUri : URI.create(baseUri + "/");
+		httpClient = HttpClient.newBuilder().followRedirects(Redirect.NORMAL).connectTimeout(Duration.ofSeconds(10)).build();
+	}
+
+	/**
+	 * Adds authentication to a request (does nothing by default).
+	 *
+	 * @param request
+	 *            the request to customize
+	 * @param method
+	 *            the HTTP method
+	 * @param uri
+	 *            the request URI
+	 */
+	protected void authorize(HttpRequest.Builder request, String method, URI uri) {
+		// anonymous
+	}
+
+	@Override
+	public CompletableFuture<Boolean> get(String key, Path target) {
+		URI uri = resolve(key);
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri).GET().timeout(REQUEST_TIMEOUT);
+		authorize(request, "GET", uri);
+		return httpClient.sendAsync(request.build(), BodyHandlers.ofFile(target)).thenApply((response) -> {
+			if (response.statusCode() == 200)
+				return true;
+
+			// object stores answer 403 for missing objects when listing is not permitted
+			if ((response.statusCode() == 404) || (response.statusCode() == 403))
+				return false;
+
+			throw new CompletionException(new UpstreamStatusException(response.statusCode(), format("Unable to read '%s' (HTTP %d)", uri, response.statusCode())));
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> put(String key, Path source) {
+		URI uri = resolve(key);
+		BodyPublisher body;
+		try {
+			body = BodyPublishers.ofFile(source);
+		} catch (FileNotFoundException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri).PUT(body).timeout(REQUEST_TIMEOUT);
+		authorize(request, "PUT", uri);
+		return httpClient.sendAsync(request.build(), BodyHandlers.discarding()).thenAccept((response) -> {
+			if ((response.statusCode() < 200) || (response.statusCode() > 299))
+				throw new CompletionException(new UpstreamStatusException(response.statusCode(), format("Unable to write '%s' (HTTP %d)", uri, response.statusCode())));
+		});
+	}
+
+	private URI resolve(String key) {
+		if (key.startsWith("/") || key.contains(".."))
+			throw new IllegalArgumentException(format("Invalid key '%s'", key));
+
+		return baseUri.resolve(encodePath(key));
+	}
+
+	@Override
+	public String toString() {
+		return baseUri.toString();
+	}
+}
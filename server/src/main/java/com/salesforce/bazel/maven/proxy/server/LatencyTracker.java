@@ -0,0 +1,64 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.util.Arrays;
+
+/**
+ * Tracks a percentile over a sliding window of recent latency samples.
+ * <p>
+ * The percentile is re-computed lazily after a number of new samples have been
+ * recorded, which keeps the cost per request negligible.
+ * </p>
+ */
+public class LatencyTracker {
+
+	private static final int WINDOW_SIZE = 1024;
+	private static final int RECOMPUTE_INTERVAL = 64;
+
+	private final double percentile;
+	private final long[] samples = new long[WINDOW_SIZE];
+	private int count;
+	private int next;
+	private int samplesSinceRecompute;
+	private long value = -1;
+
+	/**
+	 * @param percentile
+	 *            the percentile to track (eg., <code>95</code>)
+	 */
+	public LatencyTracker(double percentile) {
+		if ((percentile <= 0) || (percentile > 100))
+			throw new IllegalArgumentException("Percentile must be in (0, 100]: " + percentile);
+
+		this.percentile = percentile;
+	}
+
+	/**
+	 * Returns the tracked percentile.
+	 *
+	 * @param minSamples
+	 *            the minimum number of samples required for a meaningful value
+	 * @return the percentile in milliseconds (<code>-1</code> if less than
+	 *         <code>minSamples</code> samples have been recorded)
+	 */
+	public synchronized long getPercentileMillis(int minSamples) {
+		if (count < minSamples)
+			return -1;
+
+		if ((value < 0) || (samplesSinceRecompute >= RECOMPUTE_INTERVAL)) {
+			long[] sorted = Arrays.copyOf(samples, count);
+			Arrays.sort(sorted);
+			value = sorted[Math.min(count - 1, (int) Math.ceil((percentile / 100d) * count) - 1)];
+			samplesSinceRecompute = 0;
+		}
+		return value;
+	}
+
+	public synchronized void record(long millis) {
+		samples[next] = millis;
+		next = (next + 1) % WINDOW_SIZE;
+		if (count < WINDOW_SIZE) {
+			count++;
+		}
+		samplesSinceRecompute++;
+	}
+}
@@ -0,0 +1,37 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * A read-only source of artifacts on the local machine which uses a layout
+ * other than the one of a Maven repository (eg., the Gradle dependency cache).
+ * <p>
+ * Sources translate paths in the Maven repository layout into their own
+ * layout. They never download or modify anything; a path they cannot
+ * translate is simply not found.
+ * </p>
+ */
+public interface LocalArtifactSource {
+
+	/**
+	 * Looks up an artifact.
+	 *
+	 * @param path
+	 *            the sanitized path in the Maven repository layout (eg.,
+	 *            <code>org/foo/bar/1.0/bar-1.0.jar</code>)
+	 * @return the file (<code>null</code> if not available)
+	 */
+	File get(Path path);
+
+	/**
+	 * @return a short name of the source (used for logging and metrics)
+	 */
+	String getName();
+
+	/**
+	 * Starts building the index in the background (if any).
+	 */
+	default void start() {
+	}
+}
@@ -0,0 +1,334 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.UnavailableException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Fetches many artifacts in a single exchange.
+ * <p>
+ * Accepts a <code>POST</code> with a list of paths (one per line, either
+ * <code>/maven/&lt;repository-id&gt;/&lt;path&gt;</code> or
+ * <code>&lt;repository-id&gt;/&lt;path&gt;</code>) and streams back a
+ * <code>multipart/mixed</code> response with one part per path. Each part
+ * carries a <code>Content-Location</code> header with the requested path and
+ * an <code>X-Status</code> header with the HTTP status of the individual
+ * artifact.
+ * </p>
+ * <p>
+ * Artifacts available locally are written immediately. Missing artifacts are
+ * fetched from upstream in parallel and appended in the order they complete.
+ * </p>
+ */
+public class MavenBatchServlet extends HttpServlet {
+
+	/**
+	 * An artifact of the batch
+	 */
+	static final class Entry {
+		final String location;
+		final UpstreamMavenRepository repository;
+		final String path;
+		int status = HttpStatus.OK_200;
+		File file;
+		boolean deleteAfterWrite;
+
+		Entry(String location, UpstreamMavenRepository repository, String path) {
+			this.location = location;
+			this.repository = repository;
+			this.path = path;
+		}
+	}
+
+	/**
+	 * The state of a batch waiting for upstream artifacts
+	 */
+	final class Batch {
+		final AsyncContext async;
+		final OutputStream out;
+		final String boundary;
+		final Deque<Entry> misses;
+		final AtomicBoolean abandoned = new AtomicBoolean();
+		int pending;
+
+		Batch(AsyncContext async, OutputStream out, String boundary, Deque<Entry> misses) {
+			this.async = async;
+			this.out = out;
+			this.boundary = boundary;
+			this.misses = misses;
+			pending = misses.size();
+		}
+
+		/**
+		 * Writes the part of a fetched entry and completes the response after
+		 * the last one.
+		 */
+		synchronized void write(Entry entry) {
+			if (abandoned.get()) {
+				discard(entry);
+				return;
+			}
+			try {
+				writePart(out, boundary, entry);
+				if (--pending == 0) {
+					writeEnd(out, boundary);
+					async.complete();
+				}
+			} catch (IOException | RuntimeException e) {
+				// eg., client disconnected; don't start any new fetches
+				LOG.debug("Unable to write batch part '{}': {}", entry.location, e.getMessage());
+				abandoned.set(true);
+				async.complete();
+			}
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(MavenBatchServlet.class);
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private static final int MAX_PATHS = 10000;
+	private static final int MAX_PARALLEL_FETCHES = 16;
+	private static final int DEFAULT_REQUEST_TIMEOUT_SECONDS = 20;
+	private static final byte[] CRLF = "\r\n".getBytes(US_ASCII);
+
+	private Map<String, UpstreamMavenRepository> repositories;
+	private MavenRepositoryCache mavenCache;
+	private MavenProxyCache proxyCache;
+	private Duration requestTimeout;
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		List<Entry> entries = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.strip();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				if (entries.size() >= MAX_PATHS) {
+					response.sendError(HttpStatus.PAYLOAD_TOO_LARGE_413, format("Too many paths (max %d)", MAX_PATHS));
+					return;
+				}
+				entries.add(parseEntry(line));
+			}
+		}
+
+		String boundary = UUID.randomUUID().toString();
+		response.setStatus(HttpStatus.OK_200);
+		response.setContentType("multipart/mixed; boundary=" + boundary);
+		OutputStream out = response.getOutputStream();
+
+		// write everything available locally and collect misses
+		Deque<Entry> misses = new ArrayDeque<>();
+		for (Entry entry : entries) {
+			if (entry.status == HttpStatus.OK_200) {
+				entry.file = findLocally(entry);
+				if (entry.file == null) {
+					misses.add(entry);
+					continue;
+				}
+			}
+			writePart(out, boundary, entry);
+		}
+
+		if (misses.isEmpty()) {
+			writeEnd(out, boundary);
+			return;
+		}
+
+		// fetch misses in parallel and write them as they complete; don't hold a request thread meanwhile
+		AsyncContext async = request.startAsync();
+		async.setTimeout(0);
+		Batch batch = new Batch(async, out, boundary, misses);
+		for (int i = 0; (i < MAX_PARALLEL_FETCHES) && !misses.isEmpty(); i++) {
+			fetch(batch);
+		}
+	}
+
+	private void discard(Entry entry) {
+		if (entry.deleteAfterWrite && (entry.file != null)) {
+			try {
+				deleteIfExists(entry.file.toPath());
+			} catch (IOException e) {
+				LOG.debug("Unable to delete '{}': {}", entry.file, e.getMessage());
+			}
+		}
+	}
+
+	private void fetch(Batch batch) {
+		Entry entry;
+		synchronized (batch.misses) {
+			entry = batch.abandoned.get() ? null : batch.misses.poll();
+		}
+		if (entry == null)
+			return;
+
+		CompletableFuture<File> download;
+		try {
+			download = fetch(entry);
+		} catch (RuntimeException e) {
+			// eg., a path which is no valid URI; must still be completed or the response never ends
+			download = CompletableFuture.failedFuture(e);
+		}
+		download.whenComplete((file, e) -> {
+			if (e != null) {
+				Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+				LOG.debug("Batch fetch of '{}' failed: {}", entry.location, cause.getMessage());
+				entry.status = toStatus(cause);
+			} else {
+				entry.file = file;
+			}
+			batch.write(entry);
+			fetch(batch);
+		});
+	}
+
+	private CompletableFuture<File> fetch(Entry entry) {
+		if ((proxyCache != null) && MavenProxyCache.isCacheable(entry.path))
+			return proxyCache.download(entry.repository, entry.path, null, requestTimeout, Priority.of("GET", entry.path));
+
+		// not cacheable, use a temporary file
+		HttpRequest proxyRequest = HttpRequest.newBuilder(entry.repository.resolve(entry.path)).GET().timeout(requestTimeout).build();
+		Path tempFile;
+		try {
+			tempFile = createTempFile("batch", ".tmp");
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		entry.deleteAfterWrite = true;
+		return entry.repository.sendAsync(proxyRequest, BodyHandlers.ofFile(tempFile), Priority.of("GET", entry.path)).thenApply((proxyResponse) -> {
+			if (proxyResponse.statusCode() != HttpStatus.OK_200)
+				throw new CompletionException(new UpstreamStatusException(proxyResponse.statusCode(), format("HTTP %d", proxyResponse.statusCode())));
+			return tempFile.toFile();
+		}).whenComplete((file, e) -> {
+			if (e != null) {
+				try {
+					deleteIfExists(tempFile);
+				} catch (IOException ignored) {
+					// best effort
+				}
+			}
+		});
+	}
+
+	private File findLocally(Entry entry) {
+		Path path = Path.of(entry.path);
+		if (mavenCache != null) {
+			File file = mavenCache.get(path);
+			if (file != null)
+				return file;
+		}
+		if ((proxyCache != null) && MavenProxyCache.isCacheable(entry.path))
+			return proxyCache.get(entry.repository.getId(), path);
+
+		return null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void init() throws ServletException {
+		repositories = (Map<String, UpstreamMavenRepository>) getServletContext().getAttribute(MavenProxyServlet.UPSTREAM_REPOSITORIES_MAP);
+		mavenCache = (MavenRepositoryCache) getServletContext().getAttribute(MavenRepositoryCache.class.getName());
+		proxyCache = (MavenProxyCache) getServletContext().getAttribute(MavenProxyCache.class.getName());
+
+		String requestTimeoutSeconds = getInitParameter(MavenProxyServlet.REQUEST_TIMEOUT_SECONDS);
+		try {
+			requestTimeout = Duration.ofSeconds(requestTimeoutSeconds != null ? Integer.parseInt(requestTimeoutSeconds) : DEFAULT_REQUEST_TIMEOUT_SECONDS);
+		} catch (NumberFormatException e) {
+			throw new UnavailableException(format("Invalid init parameter '%s': %s", MavenProxyServlet.REQUEST_TIMEOUT_SECONDS, requestTimeoutSeconds));
+		}
+	}
+
+	private Entry parseEntry(String location) {
+		String path = location.startsWith("/") ? location.substring(1) : location;
+		if (path.startsWith("maven/")) {
+			path = path.substring("maven/".length());
+		}
+
+		int separator = path.indexOf('/');
+		UpstreamMavenRepository repository = separator > 0 ? repositories.get(path.substring(0, separator)) : null;
+		Entry entry = new Entry(location, repository, separator > 0 ? path.substring(separator + 1) : path);
+		if ((repository == null) || entry.path.isBlank() || entry.path.contains("..") || entry.path.endsWith("/")) {
+			entry.status = HttpStatus.NOT_FOUND_404;
+		}
+		return entry;
+	}
+
+	private int toStatus(Throwable failure) {
+		if (failure instanceof UpstreamStatusException)
+			return ((UpstreamStatusException) failure).getStatusCode();
+		if ((failure instanceof UpstreamOfflineException) || (failure instanceof HttpTimeoutException))
+			return HttpStatus.GATEWAY_TIMEOUT_504;
+		return HttpStatus.BAD_GATEWAY_502;
+	}
+
+	private void writeEnd(OutputStream out, String boundary) throws IOException {
+		out.write(format("--%s--", boundary).getBytes(US_ASCII));
+		out.write(CRLF);
+		out.flush();
+	}
+
+	private void writePart(OutputStream out, String boundary, Entry entry) throws IOException {
+		try {
+			StringBuilder headers = new StringBuilder();
+			headers.append("--").append(boundary).append("\r\n");
+			headers.append("Content-Location: ").append(entry.location).append("\r\n");
+			headers.append("X-Status: ").append(entry.status).append("\r\n");
+			if (entry.file != null) {
+				String mimeType = getServletContext().getMimeType(entry.path);
+				headers.append("Content-Type: ").append(mimeType != null ? mimeType : "application/octet-stream").append("\r\n");
+				headers.append("Content-Length: ").append(entry.file.length()).append("\r\n");
+			} else {
+				headers.append("Content-Length: 0\r\n");
+			}
+			headers.append("\r\n");
+			out.write(headers.toString().getBytes(UTF_8));
+			if (entry.file != null) {
+				Files.copy(entry.file.toPath(), out);
+			}
+			out.write(CRLF);
+			out.flush();
+		} finally {
+			discard(entry);
+		}
+	}
+}
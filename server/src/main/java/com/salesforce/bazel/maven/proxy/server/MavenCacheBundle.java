@@ -0,0 +1,400 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.file.Files.deleteIfExists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.MavenLockFile.Artifact;
+
+/**
+ * Exports entries of the {@link MavenProxyCache} into a single bundle file and
+ * imports them again (eg., for seeding the proxy cache of CI images).
+ * <p>
+ * A bundle starts with an index of all entries (repository id, path, size,
+ * modification time and SHA-256) followed by the content of all entries in the
+ * order of the index. Importing is a single sequential read of the bundle;
+ * every entry is verified against its SHA-256 while being written, and the
+ * {@link DigestIndex} is updated from the bundle index so nothing has to be
+ * hashed or scanned again before it can be served.
+ * </p>
+ */
+public class MavenCacheBundle {
+
+	/**
+	 * An entry of a bundle
+	 */
+	public static class Entry {
+
+		public final String repositoryId;
+
+		/** path in Maven repository layout (without leading slash) */
+		public final String path;
+
+		public final long size;
+		public final long lastModified;
+
+		/** SHA-256 (lower case hex) */
+		public final String sha256;
+
+		public Entry(String repositoryId, String path, long size, long lastModified, String sha256) {
+			this.repositoryId = repositoryId;
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.sha256 = sha256;
+		}
+
+		@Override
+		public String toString() {
+			return repositoryId + "/" + path;
+		}
+	}
+
+	/**
+	 * Outcome of exporting or importing a bundle
+	 */
+	public static class Result {
+
+		public int entries;
+		public long bytes;
+		public final List<String> failures = new ArrayList<>();
+
+		public boolean isSuccessful() {
+			return failures.isEmpty();
+		}
+
+		public void print(PrintWriter writer) {
+			writer.printf("Entries: %d%n", entries);
+			writer.printf("Bytes: %d%n", bytes);
+			writer.printf("Failed: %d%n", failures.size());
+			failures.forEach((failure) -> writer.printf("  %s%n", failure));
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Selects the entries of the proxy cache to export
+	 */
+	public static class Selection {
+
+		private final Set<String> repositoryIds = new HashSet<>();
+		private Set<String> versionDirectories;
+		private Instant accessedAfter;
+
+		/**
+		 * Selects entries read after the given time only.
+		 * <p>
+		 * Based on the access time of the files, i.e. on file systems mounted
+		 * with <code>noatime</code> this is the time an entry was added to the
+		 * cache.
+		 * </p>
+		 *
+		 * @param accessedAfter
+		 *            the time
+		 * @return this selection
+		 */
+		public Selection accessedAfter(Instant accessedAfter) {
+			this.accessedAfter = accessedAfter;
+			return this;
+		}
+
+		/**
+		 * Selects the versions of the given artifacts only, i.e. all cached files
+		 * of a listed version (eg., jar, pom, sources and checksums).
+		 *
+		 * @param artifacts
+		 *            the artifacts (eg., from a lock file)
+		 * @return this selection
+		 */
+		public Selection artifacts(Collection<Artifact> artifacts) {
+			if (versionDirectories == null) {
+				versionDirectories = new HashSet<>();
+			}
+			for (Artifact artifact : artifacts) {
+				int separator = artifact.path.lastIndexOf('/');
+				if (separator > 0) {
+					versionDirectories.add(artifact.path.substring(0, separator));
+				}
+			}
+			return this;
+		}
+
+		boolean matches(String repositoryId, String path, BasicFileAttributes attributes) {
+			if (!repositoryIds.isEmpty() && !repositoryIds.contains(repositoryId))
+				return false;
+
+			if ((accessedAfter != null) && attributes.lastAccessTime().toInstant().isBefore(accessedAfter))
+				return false;
+
+			if (versionDirectories != null) {
+				int separator = path.lastIndexOf('/');
+				return (separator > 0) && versionDirectories.contains(path.substring(0, separator));
+			}
+			return true;
+		}
+
+		/**
+		 * Selects entries of the given repositories only.
+		 *
+		 * @param repositoryIds
+		 *            the repository ids
+		 * @return this selection
+		 */
+		public Selection repositories(Collection<String> repositoryIds) {
+			this.repositoryIds.addAll(repositoryIds);
+			return this;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(MavenCacheBundle.class);
+
+	/** magic bytes and format version at the start of every bundle */
+	private static final byte[] MAGIC = { 'B', 'M', 'P', 'B', 'N', 'D', 'L', '1' };
+
+	private static final int SHA256_LENGTH = 32;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static void copy(InputStream in, OutputStream out, long size, MessageDigest digest) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(size, 1))];
+		long remaining = size;
+		while (remaining > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (read < 0)
+				throw new EOFException(format("Unexpected end of content (%d bytes missing)", remaining));
+			if (digest != null) {
+				digest.update(buffer, 0, read);
+			}
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+
+	private static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not supported by JVM", e);
+		}
+	}
+
+	/**
+	 * Reads the index at the start of a bundle.
+	 *
+	 * @param in
+	 *            the bundle
+	 * @return the entries in the order of their content
+	 * @throws IOException
+	 *             if the stream is not a bundle
+	 */
+	static List<Entry> readIndex(DataInputStream in) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(MAGIC, magic))
+			throw new IOException("Not a proxy cache bundle (or unsupported version)");
+
+		int count = in.readInt();
+		if (count < 0)
+			throw new IOException(format("Invalid number of entries (%d)", count));
+
+		List<Entry> entries = new ArrayList<>(Math.min(count, 100_000));
+		byte[] sha256 = new byte[SHA256_LENGTH];
+		for (int i = 0; i < count; i++) {
+			String repositoryId = in.readUTF();
+			String path = in.readUTF();
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			in.readFully(sha256);
+			if (size < 0)
+				throw new IOException(format("Invalid size of '%s/%s' (%d)", repositoryId, path, size));
+			entries.add(new Entry(repositoryId, path, size, lastModified, MavenProxyCache.toHex(sha256)));
+		}
+		return entries;
+	}
+
+	private static byte[] toBytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt((2 * i) + 1), 16));
+		}
+		return bytes;
+	}
+
+	private final MavenProxyCache proxyCache;
+
+	public MavenCacheBundle(MavenProxyCache proxyCache) {
+		this.proxyCache = proxyCache;
+	}
+
+	/**
+	 * Writes the selected entries of the proxy cache into a bundle.
+	 * <p>
+	 * The selected entries are hashed for the index first and then copied into
+	 * the bundle, i.e. every entry is read twice.
+	 * </p>
+	 *
+	 * @param selection
+	 *            the entries to export
+	 * @param out
+	 *            the stream to write the bundle to
+	 * @return the result
+	 * @throws IOException
+	 */
+	public Result exportTo(Selection selection, OutputStream out) throws IOException {
+		List<Entry> entries = list(selection);
+		LOG.info("Exporting {} entries of proxy cache '{}'", entries.size(), proxyCache.getCacheDirectory());
+
+		Result result = new Result();
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		data.write(MAGIC);
+		data.writeInt(entries.size());
+		for (Entry entry : entries) {
+			data.writeUTF(entry.repositoryId);
+			data.writeUTF(entry.path);
+			data.writeLong(entry.size);
+			data.writeLong(entry.lastModified);
+			data.write(toBytes(entry.sha256));
+		}
+		for (Entry entry : entries) {
+			// the size is fixed by the index; an entry modified in between must not corrupt the bundle
+			File file = proxyCache.get(entry.repositoryId, Path.of(entry.path));
+			if ((file == null) || (file.length() != entry.size))
+				throw new IOException(format("Entry '%s' was modified during export", entry));
+
+			try (InputStream in = Files.newInputStream(file.toPath())) {
+				copy(in, data, entry.size, null);
+			}
+			result.entries++;
+			result.bytes += entry.size;
+		}
+		data.flush();
+		return result;
+	}
+
+	/**
+	 * Adds all entries of a bundle to the proxy cache.
+	 * <p>
+	 * The bundle is read sequentially exactly once, so it can be streamed (eg.,
+	 * from a download). Entries not matching their SHA-256 or with an invalid
+	 * repository id or path are skipped and reported as failures. Existing
+	 * entries are replaced.
+	 * </p>
+	 *
+	 * @param in
+	 *            the bundle
+	 * @param digestIndex
+	 *            the index to add the imported entries to (may be
+	 *            <code>null</code>)
+	 * @return the result
+	 * @throws IOException
+	 *             if the bundle cannot be read
+	 */
+	public Result importFrom(InputStream in, DigestIndex digestIndex) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		List<Entry> entries = readIndex(data);
+		LOG.info("Importing {} entries into proxy cache '{}'", entries.size(), proxyCache.getCacheDirectory());
+
+		Result result = new Result();
+		Map<Path, String> imported = new LinkedHashMap<>();
+		for (Entry entry : entries) {
+			Path downloadFile = proxyCache.createDownloadFile();
+			try {
+				MessageDigest digest = newSha256();
+				try (OutputStream out = Files.newOutputStream(downloadFile)) {
+					copy(data, out, entry.size, digest);
+				}
+				String sha256 = MavenProxyCache.toHex(digest.digest());
+				if (!sha256.equals(entry.sha256)) {
+					result.failures.add(format("%s: checksum mismatch (expected %s but got %s)", entry, entry.sha256, sha256));
+					continue;
+				}
+
+				Files.setLastModifiedTime(downloadFile, FileTime.fromMillis(entry.lastModified));
+				File file = proxyCache.put(entry.repositoryId, Path.of(entry.path), downloadFile);
+				imported.put(file.toPath(), sha256);
+				result.entries++;
+				result.bytes += entry.size;
+			} catch (IllegalArgumentException e) {
+				result.failures.add(format("%s: %s", entry, e.getMessage()));
+			} finally {
+				deleteIfExists(downloadFile);
+			}
+		}
+
+		if (digestIndex != null) {
+			digestIndex.addAll(imported);
+		}
+		return result;
+	}
+
+	/**
+	 * Lists and hashes the selected entries of the proxy cache.
+	 *
+	 * @param selection
+	 *            the entries to list
+	 * @return the entries (ordered by repository id and path)
+	 * @throws IOException
+	 */
+	List<Entry> list(Selection selection) throws IOException {
+		Path cacheDirectory = proxyCache.getCacheDirectory();
+		List<Entry> entries = new ArrayList<>();
+		Files.walkFileTree(cacheDirectory, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				// skip internal directories (eg., '.tmp' and '.gzip')
+				return !dir.equals(cacheDirectory) && dir.getFileName().toString().startsWith(".") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Path relativePath = cacheDirectory.relativize(file);
+				if (!attrs.isRegularFile() || (relativePath.getNameCount() < 2))
+					return FileVisitResult.CONTINUE;
+
+				String repositoryId = relativePath.getName(0).toString();
+				StringBuilder path = new StringBuilder();
+				for (Path name : relativePath.subpath(1, relativePath.getNameCount())) {
+					if (path.length() > 0) {
+						path.append('/');
+					}
+					path.append(name);
+				}
+				if (selection.matches(repositoryId, path.toString(), attrs)) {
+					entries.add(new Entry(repositoryId, path.toString(), attrs.size(), attrs.lastModifiedTime().toMillis(), MavenProxyCache.sha256(file)));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		entries.sort((a, b) -> a.repositoryId.equals(b.repositoryId) ? a.path.compareTo(b.path) : a.repositoryId.compareTo(b.repositoryId));
+		return entries;
+	}
+}
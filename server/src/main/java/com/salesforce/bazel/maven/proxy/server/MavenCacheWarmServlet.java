@@ -0,0 +1,78 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.MavenLockFile.Artifact;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.UnavailableException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Warms the proxy cache with the artifacts listed in the request body.
+ * <p>
+ * Accepts a <code>POST</code> with either a <code>maven_install.json</code>
+ * lock file or a plain list of Maven coordinates (one per line). The optional
+ * <code>repository</code> parameter specifies the repository to use for
+ * artifacts not mapping to a configured repository URL (default is
+ * <code>central</code>).
+ * </p>
+ * <p>
+ * The request is suspended while the artifacts are downloaded by the shared
+ * pool of the {@link MavenCacheWarmer}.
+ * </p>
+ */
+public class MavenCacheWarmServlet extends HttpServlet {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(MavenCacheWarmServlet.class);
+
+	private MavenCacheWarmer cacheWarmer;
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		List<Artifact> artifacts;
+		try {
+			artifacts = MavenLockFile.parse(request.getInputStream());
+		} catch (IOException e) {
+			response.sendError(HttpStatus.BAD_REQUEST_400, e.getMessage());
+			return;
+		}
+
+		// downloads may take minutes; don't hold a request thread meanwhile
+		String repositoryId = request.getParameter("repository");
+		AsyncContext async = request.startAsync();
+		async.setTimeout(0);
+		cacheWarmer.warmAsync(artifacts, repositoryId != null ? repositoryId : "central").thenAccept((result) -> {
+			try {
+				response.setStatus(result.isSuccessful() ? HttpStatus.OK_200 : HttpStatus.BAD_GATEWAY_502);
+				response.setContentType("text/plain");
+				try (PrintWriter writer = response.getWriter()) {
+					result.print(writer);
+				}
+			} catch (IOException e) {
+				LOG.debug("Unable to send result of warming cache: {}", e.getMessage());
+			} finally {
+				async.complete();
+			}
+		});
+	}
+
+	@Override
+	public void init() throws ServletException {
+		cacheWarmer = (MavenCacheWarmer) getServletContext().getAttribute(MavenCacheWarmer.class.getName());
+		if (cacheWarmer == null)
+			throw new UnavailableException("No proxy cache configured.");
+	}
+}
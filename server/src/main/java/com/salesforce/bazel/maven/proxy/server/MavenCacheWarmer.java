@@ -0,0 +1,195 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.MavenLockFile.Artifact;
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+/**
+ * Downloads a list of artifacts (eg., from a <code>maven_install.json</code>
+ * lock file) into the {@link MavenProxyCache}.
+ * <p>
+ * Downloads run in parallel with a bounded number of concurrent downloads and a
+ * rate limit per upstream repository. Recorded SHA-256 values are verified
+ * before an artifact is added to the cache.
+ * </p>
+ */
+public class MavenCacheWarmer {
+
+	/**
+	 * Outcome of warming the cache
+	 */
+	public static class Result {
+
+		public final AtomicInteger downloaded = new AtomicInteger();
+		public final AtomicInteger alreadyCached = new AtomicInteger();
+		public final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+		public boolean isSuccessful() {
+			return failures.isEmpty();
+		}
+
+		public void print(PrintWriter writer) {
+			writer.printf("Downloaded: %d%n", downloaded.get());
+			writer.printf("Already cached: %d%n", alreadyCached.get());
+			writer.printf("Failed: %d%n", failures.size());
+			synchronized (failures) {
+				failures.forEach((failure) -> writer.printf("  %s%n", failure));
+			}
+			writer.flush();
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(MavenCacheWarmer.class);
+
+	private final Map<String, UpstreamMavenRepository> repositories;
+	private final MavenRepositoryCache localRepository;
+	private final MavenProxyCache proxyCache;
+	private final int maxConcurrentDownloads;
+	private final int maxRequestsPerSecond;
+	private final Duration requestTimeout;
+	private final Map<String, RateLimiter> rateLimiterByRepositoryId = new ConcurrentHashMap<>();
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param repositories
+	 *            the upstream repositories (by id)
+	 * @param localRepository
+	 *            the local Maven repository (may be <code>null</code>)
+	 * @param proxyCache
+	 *            the cache to download into
+	 * @param maxConcurrentDownloads
+	 *            maximum number of parallel downloads
+	 * @param maxRequestsPerSecond
+	 *            maximum number of requests per second per upstream repository
+	 *            (<code>&lt;= 0</code> for unlimited)
+	 * @param requestTimeout
+	 *            timeout waiting for response headers
+	 */
+	public MavenCacheWarmer(Map<String, UpstreamMavenRepository> repositories, MavenRepositoryCache localRepository, MavenProxyCache proxyCache, int maxConcurrentDownloads, int maxRequestsPerSecond, Duration requestTimeout) {
+		this.repositories = repositories;
+		this.localRepository = localRepository;
+		this.proxyCache = proxyCache;
+		this.maxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+		this.requestTimeout = requestTimeout;
+
+		// shared by all warm requests so concurrent requests cannot multiply the number of downloads
+		executor = new ThreadPoolExecutor(this.maxConcurrentDownloads, this.maxConcurrentDownloads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (runnable) -> {
+			Thread thread = new Thread(runnable, "cache-warmer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private UpstreamMavenRepository findRepository(Artifact artifact, String defaultRepositoryId) {
+		if (artifact.repositoryUrl != null) {
+			for (UpstreamMavenRepository repository : repositories.values()) {
+				if (repository.getUrl().equals(artifact.repositoryUrl))
+					return repository;
+			}
+		}
+		return repositories.get(defaultRepositoryId);
+	}
+
+	private void warm(Artifact artifact, String defaultRepositoryId, Result result) throws InterruptedException {
+		UpstreamMavenRepository repository = findRepository(artifact, defaultRepositoryId);
+		if (repository == null) {
+			result.failures.add(format("%s: no repository configured for '%s'", artifact, artifact.repositoryUrl != null ? artifact.repositoryUrl : defaultRepositoryId));
+			return;
+		}
+
+		Path path = Path.of(artifact.path);
+		if (((localRepository != null) && (localRepository.get(path) != null)) || (proxyCache.get(repository.getId(), path) != null)) {
+			result.alreadyCached.incrementAndGet();
+			return;
+		}
+
+		rateLimiterByRepositoryId.computeIfAbsent(repository.getId(), (id) -> new RateLimiter(maxRequestsPerSecond)).acquire();
+		try {
+			proxyCache.download(repository, artifact.path, artifact.sha256, requestTimeout, Priority.LOW).get();
+			result.downloaded.incrementAndGet();
+			LOG.debug("Warmed cache with '{}' from repository '{}'", artifact.path, repository.getId());
+		} catch (ExecutionException e) {
+			result.failures.add(format("%s: %s", artifact, e.getCause().getMessage()));
+		}
+	}
+
+	/**
+	 * Downloads all artifacts which are not available locally into the cache.
+	 *
+	 * @param artifacts
+	 *            the artifacts to download
+	 * @param defaultRepositoryId
+	 *            id of the repository to use for artifacts without a
+	 *            (configured) repository url
+	 * @return the result
+	 * @throws InterruptedException
+	 */
+	public Result warm(List<Artifact> artifacts, String defaultRepositoryId) throws InterruptedException {
+		try {
+			return warmAsync(artifacts, defaultRepositoryId).get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Unexpected failure warming cache", e.getCause());
+		}
+	}
+
+	/**
+	 * Downloads all artifacts which are not available locally into the cache
+	 * without blocking the calling thread.
+	 * <p>
+	 * Downloads of all calls share a pool of at most
+	 * <code>maxConcurrentDownloads</code> threads.
+	 * </p>
+	 *
+	 * @param artifacts
+	 *            the artifacts to download
+	 * @param defaultRepositoryId
+	 *            id of the repository to use for artifacts without a
+	 *            (configured) repository url
+	 * @return a future completing with the result (never completes
+	 *         exceptionally)
+	 */
+	public CompletableFuture<Result> warmAsync(List<Artifact> artifacts, String defaultRepositoryId) {
+		Result result = new Result();
+		LOG.info("Warming cache with {} artifacts (max {} concurrent downloads)", artifacts.size(), maxConcurrentDownloads);
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>(artifacts.size());
+		for (Artifact artifact : artifacts) {
+			futures.add(CompletableFuture.runAsync(() -> {
+				try {
+					warm(artifact, defaultRepositoryId, result);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					result.failures.add(format("%s: interrupted", artifact));
+				} catch (RuntimeException e) {
+					result.failures.add(format("%s: %s", artifact, e));
+				}
+			}, executor));
+		}
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((ignored, e) -> {
+			LOG.info("Done warming cache ({} downloaded, {} already cached, {} failed)", result.downloaded.get(), result.alreadyCached.get(), result.failures.size());
+			return result;
+		});
+	}
+}
@@ -0,0 +1,210 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.UnavailableException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves content by its SHA-256.
+ * <p>
+ * Accepts <code>GET</code> and <code>HEAD</code> requests for
+ * <code>/sha256/&lt;digest&gt;</code>, where the digest is either a hex string
+ * or a subresource integrity value (<code>sha256-&lt;base64&gt;</code>).
+ * Content is looked up in the {@link DigestIndex} first. On a miss, the
+ * <code>url</code> query parameters (may be repeated) are tried in order. They
+ * must point into a proxied repository, either by its upstream URL or as
+ * <code>/maven/&lt;repository-id&gt;/&lt;path&gt;</code>, and the downloaded
+ * content must match the digest before it is cached and served.
+ * </p>
+ * <p>
+ * This lets clients which know the expected checksum of every artifact (eg.,
+ * Bazel with a <code>maven_install.json</code>) hit the cache after a
+ * repository id was renamed or a mirror changed.
+ * </p>
+ */
+public class MavenDigestServlet extends HttpServlet {
+
+	/**
+	 * Content fetched from one of the URLs
+	 */
+	static final class Fetched {
+		final Path file;
+		final String url;
+
+		Fetched(Path file, String url) {
+			this.file = file;
+			this.url = url;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(MavenDigestServlet.class);
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private static final int MAX_URLS = 10;
+	private static final int DEFAULT_REQUEST_TIMEOUT_SECONDS = 20;
+
+	private Map<String, UpstreamMavenRepository> repositories;
+	private MavenProxyCache proxyCache;
+	private DigestIndex digestIndex;
+	private ProxyMetrics metrics;
+	private Duration requestTimeout;
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String pathInfo = request.getPathInfo();
+		String sha256 = DigestIndex.parseSha256(pathInfo != null ? pathInfo.substring(1) : null);
+		if (sha256 == null) {
+			response.sendError(HttpStatus.BAD_REQUEST_400, "Expected /sha256/<hex digest> or /sha256/sha256-<base64 digest>");
+			return;
+		}
+
+		Path file = digestIndex.get(sha256);
+		if (file != null) {
+			AccessLog.setSource(request, null, AccessLog.Source.DIGEST_INDEX);
+			metrics.increment("digest_requests_total{result=\"hit\"}");
+			send(request, response, sha256, file, file.getFileName().toString());
+			return;
+		}
+
+		String[] urls = request.getParameterValues("url");
+		if ((urls == null) || (proxyCache == null)) {
+			metrics.increment("digest_requests_total{result=\"miss\"}");
+			response.sendError(HttpStatus.NOT_FOUND_404);
+			return;
+		}
+
+		// the URLs are tried one after another; don't hold a request thread meanwhile
+		AsyncContext async = request.startAsync();
+		async.setTimeout(0);
+		fetch(sha256, urls, 0).whenComplete((fetched, e) -> {
+			try {
+				if (fetched == null) {
+					metrics.increment("digest_requests_total{result=\"miss\"}");
+					response.sendError(HttpStatus.NOT_FOUND_404);
+					return;
+				}
+				AccessLog.setSource(request, null, AccessLog.Source.UPSTREAM);
+				metrics.increment("digest_requests_total{result=\"fetched\"}");
+				send(request, response, sha256, fetched.file, fetched.url);
+			} catch (IOException | RuntimeException sendError) {
+				LOG.debug("Unable to send SHA-256 '{}': {}", sha256, sendError.getMessage());
+			} finally {
+				async.complete();
+			}
+		});
+	}
+
+	/**
+	 * Tries the URLs starting at the given index until one delivers the content.
+	 *
+	 * @return the fetched content (<code>null</code> if none of the URLs
+	 *         delivered it)
+	 */
+	private CompletableFuture<Fetched> fetch(String sha256, String[] urls, int index) {
+		if (index >= Math.min(urls.length, MAX_URLS))
+			return CompletableFuture.completedFuture(null);
+
+		String url = urls[index];
+		return fetch(sha256, url).handle((file, e) -> {
+			if (e != null) {
+				Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+				LOG.debug("Unable to fetch SHA-256 '{}' from '{}': {}", sha256, url, cause.getMessage());
+				return null;
+			}
+			return file;
+		}).thenCompose((file) -> file != null ? CompletableFuture.completedFuture(new Fetched(file, url)) : fetch(sha256, urls, index + 1));
+	}
+
+	private CompletableFuture<Path> fetch(String sha256, String url) {
+		String location = resolveLocation(url);
+		int separator = location != null ? location.indexOf('/') : -1;
+		UpstreamMavenRepository repository = separator > 0 ? repositories.get(location.substring(0, separator)) : null;
+		String path = separator > 0 ? location.substring(separator + 1) : null;
+		if ((repository == null) || path.isBlank() || path.contains("..") || !MavenProxyCache.isCacheable(path)) {
+			LOG.debug("Ignoring URL '{}' for SHA-256 '{}' (not a cacheable artifact of a proxied repository)", url, sha256);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		try {
+			// cached under that path already but not indexed (yet)
+			File cached = proxyCache.get(repository.getId(), Path.of(path));
+			if ((cached != null) && sha256.equals(MavenProxyCache.sha256(cached.toPath())))
+				return CompletableFuture.completedFuture(cached.toPath());
+
+			return proxyCache.download(repository, path, sha256, requestTimeout, Priority.NORMAL).thenApply(File::toPath);
+		} catch (IOException | RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void init() throws ServletException {
+		repositories = (Map<String, UpstreamMavenRepository>) getServletContext().getAttribute(MavenProxyServlet.UPSTREAM_REPOSITORIES_MAP);
+		proxyCache = (MavenProxyCache) getServletContext().getAttribute(MavenProxyCache.class.getName());
+		digestIndex = (DigestIndex) getServletContext().getAttribute(DigestIndex.class.getName());
+		metrics = (ProxyMetrics) getServletContext().getAttribute(ProxyMetrics.class.getName());
+
+		String requestTimeoutSeconds = getInitParameter(MavenProxyServlet.REQUEST_TIMEOUT_SECONDS);
+		try {
+			requestTimeout = Duration.ofSeconds(requestTimeoutSeconds != null ? Integer.parseInt(requestTimeoutSeconds) : DEFAULT_REQUEST_TIMEOUT_SECONDS);
+		} catch (NumberFormatException e) {
+			throw new UnavailableException(format("Invalid init parameter '%s': %s", MavenProxyServlet.REQUEST_TIMEOUT_SECONDS, requestTimeoutSeconds));
+		}
+	}
+
+	private void send(HttpServletRequest request, HttpServletResponse response, String sha256, Path file, String name) throws IOException {
+		String mimeType = getServletContext().getMimeType(name);
+		response.setStatus(HttpStatus.OK_200);
+		response.setContentType(mimeType != null ? mimeType : "application/octet-stream");
+		response.setContentLengthLong(Files.size(file));
+		response.setHeader("ETag", format("\"%s\"", sha256));
+		response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+		if (!"HEAD".equals(request.getMethod())) {
+			Files.copy(file, response.getOutputStream());
+		}
+	}
+
+	/**
+	 * Maps a URL to <code>&lt;repository-id&gt;/&lt;path&gt;</code>.
+	 */
+	private String resolveLocation(String url) {
+		for (UpstreamMavenRepository repository : repositories.values()) {
+			String prefix = repository.getUrl() + "/";
+			if (url.startsWith(prefix))
+				return repository.getId() + "/" + url.substring(prefix.length());
+		}
+
+		try {
+			String path = URI.create(url).getPath();
+			if ((path != null) && path.startsWith("/maven/"))
+				return path.substring("/maven/".length());
+		} catch (IllegalArgumentException e) {
+			// not a URL
+		}
+		return null;
+	}
+}
@@ -0,0 +1,301 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * Reads lists of artifacts from Bazel <code>maven_install.json</code> lock
+ * files (as written by <code>rules_jvm_external</code>) or from plain lists of
+ * Maven coordinates.
+ */
+public class MavenLockFile {
+
+	/**
+	 * An artifact listed in a lock file
+	 */
+	public static class Artifact {
+
+		/** coordinates as found in the lock file */
+		public final String coordinates;
+
+		/** path in Maven repository layout (without leading slash) */
+		public final String path;
+
+		/** expected SHA-256 (may be <code>null</code>) */
+		public final String sha256;
+
+		/**
+		 * URL of the repository the artifact was resolved from (without trailing
+		 * slash, may be <code>null</code>)
+		 */
+		public final String repositoryUrl;
+
+		public Artifact(String coordinates, String path, String sha256, String repositoryUrl) {
+			this.coordinates = coordinates;
+			this.path = path;
+			this.sha256 = sha256;
+			this.repositoryUrl = repositoryUrl;
+		}
+
+		@Override
+		public String toString() {
+			return coordinates;
+		}
+	}
+
+	private static void addArtifacts(Object key, Map<String, Object> info, Map<String, Object> repositories, List<Artifact> artifacts) {
+		Map<String, Object> shasums = asMap(info.get("shasums"), "shasums");
+		if (shasums == null)
+			return;
+		if (!(key instanceof String) || (info.get("version") == null))
+			throw new IllegalArgumentException("expected 'group:artifact' with a 'version'");
+
+		// key is either group:artifact or group:artifact:packaging
+		String[] segments = ((String) key).split(":");
+		if ((segments.length < 2) || (segments.length > 3))
+			throw new IllegalArgumentException("expected 'group:artifact' or 'group:artifact:packaging'");
+
+		String version = String.valueOf(info.get("version"));
+		String groupAndArtifact = segments[0] + ":" + segments[1];
+		String packaging = segments.length > 2 ? segments[2] : "jar";
+		for (Entry<String, Object> shasum : shasums.entrySet()) {
+			if (shasum.getValue() == null) {
+				continue; // artifact not available (eg., no sources)
+			}
+			String classifier = String.valueOf(shasum.getKey());
+			String coordinates;
+			String repositoryKey;
+			if ("jar".equals(classifier)) {
+				coordinates = format("%s:%s:%s", groupAndArtifact, packaging, version);
+				repositoryKey = (String) key;
+			} else {
+				coordinates = format("%s:%s:%s:%s", groupAndArtifact, packaging, classifier, version);
+				repositoryKey = format("%s:%s:%s", groupAndArtifact, packaging, classifier);
+			}
+			artifacts.add(artifact(coordinates, String.valueOf(shasum.getValue()), findRepositoryUrl(repositories, repositoryKey)));
+		}
+	}
+
+	private static void addDependency(Map<String, Object> dependency, List<Artifact> artifacts) {
+		String coordinates = asString(dependency.get("coord"), "coord");
+		if (coordinates == null)
+			return;
+
+		String path = toPath(coordinates);
+		String url = asString(dependency.get("url"), "url");
+		String repositoryUrl = (url != null) && url.endsWith("/" + path) ? url.substring(0, url.length() - path.length() - 1) : null;
+		artifacts.add(artifact(coordinates, asString(dependency.get("sha256"), "sha256"), repositoryUrl));
+	}
+
+	private static Artifact artifact(String coordinates, String sha256, String repositoryUrl) {
+		return new Artifact(coordinates, toPath(coordinates), sha256, repositoryUrl != null ? stripTrailingSlash(repositoryUrl) : null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> asMap(Object value, String name) {
+		if ((value != null) && !(value instanceof Map))
+			throw new IllegalArgumentException(format("'%s' is not a JSON object", name));
+		return (Map<String, Object>) value;
+	}
+
+	private static String asString(Object value, String name) {
+		if ((value != null) && !(value instanceof String))
+			throw new IllegalArgumentException(format("'%s' is not a string", name));
+		return (String) value;
+	}
+
+	private static String findRepositoryUrl(Map<String, Object> repositories, String key) {
+		if (repositories == null)
+			return null;
+
+		for (Entry<String, Object> repository : repositories.entrySet()) {
+			if ((repository.getValue() instanceof Collection) && ((Collection<?>) repository.getValue()).contains(key))
+				return repository.getKey();
+		}
+		return null;
+	}
+
+	/**
+	 * Reads a <code>maven_install.json</code> lock file.
+	 * <p>
+	 * Both, the <code>dependency_tree</code> format (version 1) as well as the
+	 * <code>artifacts</code>/<code>repositories</code> format (version 2) are
+	 * supported.
+	 * </p>
+	 *
+	 * @param in
+	 *            the lock file content
+	 * @return the list of artifacts
+	 * @throws IOException
+	 */
+	public static List<Artifact> parseMavenInstallJson(InputStream in) throws IOException {
+		Object json;
+		try (Reader reader = new InputStreamReader(in, UTF_8)) {
+			// JSON is valid YAML; never construct arbitrary classes named by tags in untrusted input
+			json = new Yaml(new SafeConstructor(new LoaderOptions())).load(reader);
+		} catch (RuntimeException e) {
+			throw new IOException(format("Unable to parse lock file: %s", e.getMessage()), e);
+		}
+		if (!(json instanceof Map))
+			throw new IOException("Unsupported lock file format: expected a JSON object");
+
+		Map<String, Object> lockFile = asMap(json, "lock file");
+		List<Artifact> artifacts = new ArrayList<>();
+
+		if (lockFile.get("dependency_tree") instanceof Map) {
+			// version 1
+			Object dependencies = asMap(lockFile.get("dependency_tree"), "dependency_tree").get("dependencies");
+			if (dependencies == null)
+				return artifacts;
+			if (!(dependencies instanceof List))
+				throw new IOException("Invalid lock file: 'dependencies' is not a JSON array");
+
+			for (Object dependency : (List<?>) dependencies) {
+				try {
+					addDependency(asMap(dependency, "dependency"), artifacts);
+				} catch (RuntimeException e) {
+					throw new IOException(format("Invalid lock file entry '%s': %s", dependency, e.getMessage()), e);
+				}
+			}
+		} else if (lockFile.get("artifacts") instanceof Map) {
+			// version 2
+			Map<String, Object> repositories;
+			try {
+				repositories = asMap(lockFile.get("repositories"), "repositories");
+			} catch (IllegalArgumentException e) {
+				throw new IOException(format("Invalid lock file: %s", e.getMessage()), e);
+			}
+			for (Entry<String, Object> entry : asMap(lockFile.get("artifacts"), "artifacts").entrySet()) {
+				try {
+					addArtifacts(entry.getKey(), asMap(entry.getValue(), "artifact"), repositories, artifacts);
+				} catch (RuntimeException e) {
+					throw new IOException(format("Invalid lock file entry '%s': %s", entry.getKey(), e.getMessage()), e);
+				}
+			}
+		} else
+			throw new IOException("Unsupported lock file format: neither 'dependency_tree' nor 'artifacts' found");
+
+		return artifacts;
+	}
+
+	/**
+	 * Reads a plain list of Maven coordinates (one per line).
+	 * <p>
+	 * Empty lines and lines starting with <code>#</code> are ignored.
+	 * Optionally, a coordinate may be followed by whitespace and the expected
+	 * SHA-256.
+	 * </p>
+	 *
+	 * @param in
+	 *            the content
+	 * @return the list of artifacts
+	 * @throws IOException
+	 */
+	public static List<Artifact> parseCoordinatesList(InputStream in) throws IOException {
+		List<Artifact> artifacts = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.strip();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] segments = line.split("\\s+");
+				try {
+					artifacts.add(artifact(segments[0], segments.length > 1 ? segments[1] : null, null));
+				} catch (IllegalArgumentException e) {
+					throw new IOException(e.getMessage(), e);
+				}
+			}
+		}
+		return artifacts;
+	}
+
+	/**
+	 * Reads either a <code>maven_install.json</code> or a list of coordinates.
+	 * The format is detected based on the first non-whitespace character.
+	 *
+	 * @param in
+	 *            the content
+	 * @return the list of artifacts
+	 * @throws IOException
+	 */
+	public static List<Artifact> parse(InputStream in) throws IOException {
+		byte[] content = in.readAllBytes();
+		for (byte b : content) {
+			if (!Character.isWhitespace(b)) {
+				if (b == '{')
+					return parseMavenInstallJson(new ByteArrayInputStream(content));
+				break;
+			}
+		}
+		return parseCoordinatesList(new ByteArrayInputStream(content));
+	}
+
+	private static String stripTrailingSlash(String url) {
+		return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+	}
+
+	/**
+	 * Converts Maven coordinates into a path in Maven repository layout.
+	 * <p>
+	 * Supported formats are <code>group:artifact:version</code>,
+	 * <code>group:artifact:packaging:version</code> and
+	 * <code>group:artifact:packaging:classifier:version</code>.
+	 * </p>
+	 *
+	 * @param coordinates
+	 *            the coordinates
+	 * @return the path (without leading slash)
+	 */
+	public static String toPath(String coordinates) {
+		String[] segments = coordinates.split(":");
+		String packaging = "jar", classifier = null, version;
+		switch (segments.length) {
+		case 3:
+			version = segments[2];
+			break;
+		case 4:
+			packaging = segments[2];
+			version = segments[3];
+			break;
+		case 5:
+			packaging = segments[2];
+			classifier = segments[3];
+			version = segments[4];
+			break;
+		default:
+			throw new IllegalArgumentException(format("Invalid Maven coordinates '%s'", coordinates));
+		}
+
+		String groupId = segments[0], artifactId = segments[1];
+		if (groupId.isBlank() || artifactId.isBlank() || version.isBlank() || coordinates.contains("/") || coordinates.contains(".."))
+			throw new IllegalArgumentException(format("Invalid Maven coordinates '%s'", coordinates));
+
+		StringBuilder path = new StringBuilder();
+		path.append(groupId.replace('.', '/')).append('/').append(artifactId).append('/').append(version).append('/');
+		path.append(artifactId).append('-').append(version);
+		if ((classifier != null) && !classifier.isBlank()) {
+			path.append('-').append(classifier);
+		}
+		path.append('.').append(packaging);
+		return path.toString();
+	}
+}
@@ -0,0 +1,213 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Extracts the coordinates of POMs referenced by a POM.
+ * <p>
+ * This is not a model builder. It only looks at the POM itself and reports the
+ * parent, the runtime relevant dependencies and imported BOMs. Versions using
+ * properties are resolved against the properties declared in the same POM;
+ * references which cannot be resolved (eg., managed versions or properties
+ * inherited from a parent) are skipped.
+ * </p>
+ */
+public class MavenPomParser {
+
+	private static final class Dependency {
+		String groupId, artifactId, version, scope, optional;
+		boolean managed;
+	}
+
+	private static final String DEPENDENCY = "project/dependencies/dependency";
+	private static final String MANAGED_DEPENDENCY = "project/dependencyManagement/dependencies/dependency";
+	private static final String PROPERTIES = "project/properties/";
+
+	private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)\\}");
+
+	/**
+	 * Parses a POM and returns the paths of the referenced POMs.
+	 *
+	 * @param in
+	 *            the POM content
+	 * @return the paths (in Maven repository layout, without leading slash) of
+	 *         the parent, dependency and imported POMs
+	 * @throws IOException
+	 */
+	public static Set<String> parseReferencedPoms(InputStream in) throws IOException {
+		try {
+			return new MavenPomParser().parse(in);
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to parse POM: " + e.getMessage(), e);
+		}
+	}
+
+	private final Map<String, String> properties = new HashMap<>();
+	private final Dependency parent = new Dependency();
+	private final List<Dependency> dependencies = new ArrayList<>();
+
+	private void addPom(Set<String> poms, String groupId, String artifactId, String version) {
+		groupId = resolve(groupId);
+		artifactId = resolve(artifactId);
+		version = resolve(version);
+		if ((groupId == null) || (artifactId == null) || (version == null) || version.startsWith("[") || version.startsWith("("))
+			return; // unresolvable or version range
+
+		try {
+			poms.add(MavenLockFile.toPath(groupId + ":" + artifactId + ":pom:" + version));
+		} catch (IllegalArgumentException e) {
+			// ignore garbage
+		}
+	}
+
+	private Set<String> parse(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		XMLStreamReader streamReader = factory.createXMLStreamReader(in);
+
+		StringBuilder path = new StringBuilder();
+		StringBuilder text = new StringBuilder();
+		Dependency dependency = null;
+		try {
+			while (streamReader.hasNext()) {
+				switch (streamReader.next()) {
+				case START_ELEMENT:
+					if (path.length() > 0) {
+						path.append('/');
+					}
+					path.append(streamReader.getLocalName());
+					text.setLength(0);
+					if (DEPENDENCY.contentEquals(path) || MANAGED_DEPENDENCY.contentEquals(path)) {
+						dependency = new Dependency();
+						dependency.managed = MANAGED_DEPENDENCY.contentEquals(path);
+					}
+					break;
+
+				case CHARACTERS:
+				case CDATA:
+					text.append(streamReader.getText());
+					break;
+
+				case END_ELEMENT:
+					String elementPath = path.toString();
+					if ((dependency != null) && (DEPENDENCY.equals(elementPath) || MANAGED_DEPENDENCY.equals(elementPath))) {
+						dependencies.add(dependency);
+						dependency = null;
+					} else {
+						onElement(elementPath, text.toString().strip(), dependency);
+					}
+					int separator = path.lastIndexOf("/");
+					path.setLength(separator > 0 ? separator : 0);
+					text.setLength(0);
+					break;
+
+				default:
+					break;
+				}
+			}
+		} finally {
+			streamReader.close();
+		}
+
+		// implicit properties
+		properties.putIfAbsent("project.groupId", parent.groupId);
+		properties.putIfAbsent("project.version", parent.version);
+		properties.put("project.parent.groupId", parent.groupId);
+		properties.put("project.parent.version", parent.version);
+		properties.putIfAbsent("pom.version", properties.get("project.version"));
+
+		Set<String> poms = new LinkedHashSet<>();
+		if (parent.artifactId != null) {
+			addPom(poms, parent.groupId, parent.artifactId, parent.version);
+		}
+		for (Dependency d : dependencies) {
+			if (d.managed) {
+				// only imported BOMs are relevant
+				if ("import".equals(d.scope)) {
+					addPom(poms, d.groupId, d.artifactId, d.version);
+				}
+			} else if (!"test".equals(d.scope) && !"provided".equals(d.scope) && !"system".equals(d.scope) && !"true".equals(d.optional)) {
+				addPom(poms, d.groupId, d.artifactId, d.version);
+			}
+		}
+		return poms;
+	}
+
+	private void onElement(String path, String text, Dependency dependency) {
+		if (path.equals("project/groupId")) {
+			properties.put("project.groupId", text);
+		} else if (path.equals("project/version")) {
+			properties.put("project.version", text);
+		} else if (path.startsWith(PROPERTIES) && (path.indexOf('/', PROPERTIES.length()) < 0)) {
+			properties.put(path.substring(PROPERTIES.length()), text);
+		} else if (path.equals("project/parent/groupId")) {
+			parent.groupId = text;
+		} else if (path.equals("project/parent/artifactId")) {
+			parent.artifactId = text;
+		} else if (path.equals("project/parent/version")) {
+			parent.version = text;
+		} else if (dependency != null) {
+			String name = path.substring(path.lastIndexOf('/') + 1);
+			if (!path.equals((dependency.managed ? MANAGED_DEPENDENCY : DEPENDENCY) + "/" + name))
+				return; // eg., exclusions
+
+			switch (name) {
+			case "groupId":
+				dependency.groupId = text;
+				break;
+			case "artifactId":
+				dependency.artifactId = text;
+				break;
+			case "version":
+				dependency.version = text;
+				break;
+			case "scope":
+				dependency.scope = text;
+				break;
+			case "optional":
+				dependency.optional = text;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private String resolve(String value) {
+		if ((value == null) || value.isBlank())
+			return null;
+
+		for (int i = 0; (i < 10) && value.contains("${"); i++) {
+			Matcher matcher = PROPERTY.matcher(value);
+			StringBuilder resolved = new StringBuilder();
+			while (matcher.find()) {
+				String property = properties.get(matcher.group(1));
+				if (property == null)
+					return null;
+				matcher.appendReplacement(resolved, Matcher.quoteReplacement(property));
+			}
+			matcher.appendTail(resolved);
+			value = resolved.toString();
+		}
+		return value.contains("${") ? null : value;
+	}
+}
@@ -0,0 +1,622 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+/**
+ * A cache for artifacts downloaded from proxied Maven repositories.
+ * <p>
+ * Artifacts are stored in the Maven repository layout below a directory per
+ * repository id. Entries are written to a temporary file first and moved into
+ * place atomically, i.e. readers never see partially written files.
+ * </p>
+ */
+public class MavenProxyCache {
+
+	/**
+	 * Copies everything read from a stream into a download file which is moved
+	 * into the cache when the end of the stream has been reached.
+	 */
+	private final class CachingInputStream extends FilterInputStream {
+
+		private final String repositoryId;
+		private final Path path;
+		private final Path downloadFile;
+		private final Consumer<File> onCached;
+		private OutputStream downloadOut;
+
+		CachingInputStream(InputStream in, String repositoryId, Path path, Path downloadFile, Consumer<File> onCached) throws IOException {
+			super(in);
+			this.repositoryId = repositoryId;
+			this.path = path;
+			this.downloadFile = downloadFile;
+			this.onCached = onCached;
+			downloadOut = Files.newOutputStream(downloadFile);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (downloadOut != null) {
+					// incomplete
+					discard();
+				}
+			}
+		}
+
+		private void commit() throws IOException {
+			OutputStream out = downloadOut;
+			downloadOut = null;
+			out.close();
+			File cachedFile = put(repositoryId, path, downloadFile);
+			if (onCached != null) {
+				onCached.accept(cachedFile);
+			}
+		}
+
+		private void discard() {
+			try {
+				downloadOut.close();
+				deleteIfExists(downloadFile);
+			} catch (IOException e) {
+				LOG.debug("Error discarding download file '{}': {}", downloadFile, e.getMessage());
+			} finally {
+				downloadOut = null;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int len = read(b, 0, 1);
+			return len < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (downloadOut != null) {
+				try {
+					if (read < 0) {
+						commit();
+					} else {
+						downloadOut.write(b, off, read);
+					}
+				} catch (IOException e) {
+					// caching must never break the client response
+					LOG.warn("Unable to cache '{}' from repository '{}': {}", path, repositoryId, e.getMessage());
+					discard();
+				}
+			}
+			return read;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(MavenProxyCache.class);
+
+	private static final String TEMP_DIRECTORY = ".tmp";
+	private static final String GZIP_DIRECTORY = ".gzip";
+
+	/** below this size compression does not pay off (eg., checksum files) */
+	private static final long MIN_COMPRESSIBLE_SIZE = 256;
+
+	/**
+	 * Indicates whether a path is safe to cache forever.
+	 * <p>
+	 * Repository metadata and non-unique snapshots change over time and are
+	 * therefore always fetched from upstream.
+	 * </p>
+	 *
+	 * @param path
+	 *            the path of the artifact within the repository
+	 * @return <code>true</code> if the path can be cached, <code>false</code>
+	 *         otherwise
+	 */
+	public static boolean isCacheable(String path) {
+		if ((path == null) || path.isBlank() || path.endsWith("/"))
+			return false;
+
+		return !path.contains("maven-metadata") && !path.contains("-SNAPSHOT");
+	}
+
+	/**
+	 * Computes the SHA-256 of a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the SHA-256 (lower case hex)
+	 * @throws IOException
+	 */
+	public static String sha256(Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not supported by JVM", e);
+		}
+		try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		return toHex(digest.digest());
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private final Path cacheDirectory;
+	private final Path tempDirectory;
+	private final Path gzipDirectory;
+	private final ExecutorService compressor;
+	private final ConcurrentMap<Path, Boolean> compressing = new ConcurrentHashMap<>();
+	private volatile DigestIndex digestIndex;
+	private volatile SecondTierCache secondTier;
+
+	public MavenProxyCache(Path cacheDirectory) throws IOException {
+		this.cacheDirectory = createDirectories(cacheDirectory);
+		tempDirectory = createDirectories(cacheDirectory.resolve(TEMP_DIRECTORY));
+		gzipDirectory = createDirectories(cacheDirectory.resolve(GZIP_DIRECTORY));
+
+		// compression is CPU bound and must not delay serving clients
+		compressor = Executors.newSingleThreadExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "gzip-compressor");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+
+	/**
+	 * Wraps an upstream response body so that its content is added to the cache
+	 * once it was read completely.
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path of the artifact within the repository
+	 * @param in
+	 *            the response body
+	 * @param onCached
+	 *            called with the cached file once the content was added to the
+	 *            cache (may be <code>null</code>)
+	 * @return the stream to read from instead (never <code>null</code>)
+	 */
+	public InputStream cacheWhileReading(String repositoryId, Path path, InputStream in, Consumer<File> onCached) {
+		try {
+			resolve(repositoryId, path); // fail early on invalid input
+			return new CachingInputStream(in, repositoryId, path, createDownloadFile(), onCached);
+		} catch (IOException | IllegalArgumentException e) {
+			LOG.warn("Unable to cache '{}' from repository '{}': {}", path, repositoryId, e.getMessage());
+			return in;
+		}
+	}
+
+	/**
+	 * Downloads the body of an upstream response in concurrent ranges and adds
+	 * it to the cache once complete.
+	 * <p>
+	 * Falls back to {@link #cacheWhileReading(String, Path, InputStream, Consumer)}
+	 * if the download cannot be started.
+	 * </p>
+	 *
+	 * @param downloader
+	 *            the downloader of the repository
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path of the artifact within the repository
+	 * @param request
+	 *            the upstream request
+	 * @param priority
+	 *            the priority of the upstream request
+	 * @param response
+	 *            the upstream response (accepted by the downloader)
+	 * @param body
+	 *            the stream to read the response body from
+	 * @param onCached
+	 *            called with the cached file once the content was added to the
+	 *            cache (may be <code>null</code>)
+	 * @return the stream to read the content from (never <code>null</code>)
+	 */
+	public InputStream downloadInRanges(RangedDownloader downloader, String repositoryId, Path path, HttpRequest request, Priority priority, HttpResponse<?> response, InputStream body, Consumer<File> onCached) {
+		Path downloadFile = null;
+		try {
+			resolve(repositoryId, path); // fail early on invalid input
+			downloadFile = createDownloadFile();
+			RangedDownloader.Download download = downloader.start(request, priority, response, body, downloadFile);
+			Path completedFile = downloadFile;
+			download.getCompletion().whenComplete((result, e) -> {
+				try {
+					if (e != null) {
+						LOG.warn("Unable to download '{}' from repository '{}' in ranges: {}", path, repositoryId, e.getMessage());
+						deleteIfExists(completedFile);
+						return;
+					}
+					File cachedFile = put(repositoryId, path, completedFile);
+					if (onCached != null) {
+						onCached.accept(cachedFile);
+					}
+				} catch (IOException cacheException) {
+					LOG.warn("Unable to cache '{}' from repository '{}': {}", path, repositoryId, cacheException.getMessage());
+				}
+			});
+			return download.getInputStream();
+		} catch (IOException | IllegalArgumentException e) {
+			LOG.warn("Unable to download '{}' from repository '{}' in ranges: {}", path, repositoryId, e.getMessage());
+			if (downloadFile != null) {
+				try {
+					deleteIfExists(downloadFile);
+				} catch (IOException ignored) {
+					// best effort
+				}
+			}
+			return cacheWhileReading(repositoryId, path, body, onCached);
+		}
+	}
+
+	/**
+	 * Creates a new temporary file for downloading an entry.
+	 * <p>
+	 * The file is located on the same file system as the cache so it can be
+	 * moved into the cache atomically using
+	 * {@link #put(String, Path, Path)}.
+	 * </p>
+	 *
+	 * @return the temporary file
+	 * @throws IOException
+	 */
+	public Path createDownloadFile() throws IOException {
+		return createTempFile(tempDirectory, "download", ".tmp");
+	}
+
+	/**
+	 * Downloads an artifact from the upstream repository into the cache.
+	 *
+	 * @param repository
+	 *            the upstream repository
+	 * @param path
+	 *            the path of the artifact within the repository
+	 * @param expectedSha256
+	 *            the expected SHA-256 of the artifact (may be <code>null</code>
+	 *            to skip verification)
+	 * @param timeout
+	 *            the request timeout (waiting for response headers)
+	 * @param priority
+	 *            the priority of the request
+	 * @return a future completing with the cached file
+	 */
+	public CompletableFuture<File> download(UpstreamMavenRepository repository, String path, String expectedSha256, Duration timeout, Priority priority) {
+		return fetchFromSecondTier(repository.getId(), Path.of(path), expectedSha256).thenCompose((file) -> {
+			if (file != null)
+				return CompletableFuture.completedFuture(file);
+
+			return downloadFromUpstream(repository, path, expectedSha256, timeout, priority);
+		});
+	}
+
+	private CompletableFuture<File> downloadFromUpstream(UpstreamMavenRepository repository, String path, String expectedSha256, Duration timeout, Priority priority) {
+		Path downloadFile;
+		try {
+			downloadFile = createDownloadFile();
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve(path)).GET().timeout(timeout).build();
+		return repository.sendAsync(request, BodyHandlers.ofFile(downloadFile), priority).thenApply((response) -> {
+			try {
+				if (response.statusCode() != 200)
+					throw new UpstreamStatusException(response.statusCode(), format("Unable to download '%s' from repository '%s' (HTTP %d)", path, repository.getId(), response.statusCode()));
+
+				if ((expectedSha256 != null) && !expectedSha256.isBlank()) {
+					String actualSha256 = sha256(downloadFile);
+					if (!expectedSha256.equalsIgnoreCase(actualSha256))
+						throw new IOException(format("Checksum mismatch for '%s' from repository '%s' (expected %s but got %s)", path, repository.getId(), expectedSha256, actualSha256));
+				}
+
+				return put(repository.getId(), Path.of(path), downloadFile);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}).whenComplete((file, e) -> {
+			if (e != null) {
+				try {
+					deleteIfExists(downloadFile);
+				} catch (IOException ignored) {
+					// best effort
+				}
+			}
+		});
+	}
+
+	/**
+	 * Looks up an artifact in the second tier cache (if any) and adds it to
+	 * this cache.
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path of the artifact within the repository
+	 * @param expectedSha256
+	 *            the expected SHA-256 of the artifact (may be <code>null</code>
+	 *            to skip verification)
+	 * @return a future completing with the cached file (<code>null</code> if
+	 *         not found; never completes exceptionally)
+	 */
+	public CompletableFuture<File> fetchFromSecondTier(String repositoryId, Path path, String expectedSha256) {
+		SecondTierCache secondTier = this.secondTier;
+		if (secondTier == null)
+			return CompletableFuture.completedFuture(null);
+
+		String key;
+		Path downloadFile;
+		try {
+			key = toKey(repositoryId, path);
+			downloadFile = createDownloadFile();
+		} catch (IOException | IllegalArgumentException e) {
+			LOG.debug("Unable to look up '{}' from repository '{}' in second tier cache: {}", path, repositoryId, e.getMessage());
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return secondTier.fetch(key, downloadFile).thenApply((found) -> {
+			try {
+				if (found) {
+					if ((expectedSha256 == null) || expectedSha256.isBlank() || expectedSha256.equalsIgnoreCase(sha256(downloadFile)))
+						return put(repositoryId, path, downloadFile, false);
+
+					LOG.warn("Ignoring '{}' from repository '{}' in second tier cache (checksum mismatch)", path, repositoryId);
+				}
+				deleteIfExists(downloadFile);
+			} catch (IOException e) {
+				LOG.debug("Unable to add '{}' from repository '{}' to cache: {}", path, repositoryId, e.getMessage());
+			}
+			return null;
+		});
+	}
+
+	public File get(String repositoryId, Path path) {
+		Path entryPath = resolve(repositoryId, path);
+		if (isRegularFile(entryPath))
+			return entryPath.toFile();
+
+		return null;
+	}
+
+	public Path getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	private void compress(String repositoryId, Path path, File artifact, Path variantPath) {
+		try {
+			if (isRegularFile(variantPath) && (getLastModifiedTime(variantPath).toMillis() >= artifact.lastModified()))
+				return;
+
+			Path downloadFile = createDownloadFile();
+			try {
+				try (InputStream in = Files.newInputStream(artifact.toPath()); OutputStream out = new GZIPOutputStream(Files.newOutputStream(downloadFile)) {
+					{
+						def.setLevel(Deflater.BEST_COMPRESSION); // computed once, served often
+					}
+				}) {
+					in.transferTo(out);
+				}
+				createDirectories(variantPath.getParent());
+				move(downloadFile, variantPath, ATOMIC_MOVE, REPLACE_EXISTING);
+			} finally {
+				deleteIfExists(downloadFile);
+			}
+			LOG.debug("Compressed '{}' from repository '{}' ({} -> {} bytes)", path, repositoryId, artifact.length(), variantPath.toFile().length());
+		} catch (IOException e) {
+			LOG.warn("Unable to compress '{}' from repository '{}': {}", path, repositoryId, e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates the gzip compressed variant of an artifact in the background
+	 * unless it exists and is up to date already.
+	 * <p>
+	 * Variants are stored in a separate tree within the cache directory
+	 * (<code>.gzip/&lt;repository-id&gt;/&lt;path&gt;.gz</code>) so they can
+	 * never be confused with artifacts. The artifact itself may live in the
+	 * proxy cache or the local Maven repository. A variant is re-created when
+	 * the artifact is newer than the variant.
+	 * </p>
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path of the artifact within the repository
+	 * @param artifact
+	 *            the uncompressed artifact
+	 */
+	public void createGzipVariant(String repositoryId, Path path, File artifact) {
+		if (!ContentCoding.isCompressible(path.toString()) || (artifact.length() < MIN_COMPRESSIBLE_SIZE))
+			return;
+
+		Path variantPath;
+		try {
+			variantPath = resolveGzipVariant(repositoryId, path);
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Unable to compress '{}' from repository '{}': {}", path, repositoryId, e.getMessage());
+			return;
+		}
+
+		// one compression per variant, no matter how many requests ask for it
+		if (compressing.putIfAbsent(variantPath, Boolean.TRUE) != null)
+			return;
+		compressor.execute(() -> {
+			try {
+				compress(repositoryId, path, artifact, variantPath);
+			} finally {
+				compressing.remove(variantPath);
+			}
+		});
+	}
+
+	/**
+	 * Returns the gzip compressed variant of an artifact.
+	 * <p>
+	 * Compression never happens on the calling thread. When the variant is
+	 * missing or outdated, it is created in the background (see
+	 * {@link #createGzipVariant(String, Path, File)}) and the artifact should
+	 * be served uncompressed meanwhile.
+	 * </p>
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path of the artifact within the repository
+	 * @param artifact
+	 *            the uncompressed artifact
+	 * @return the compressed variant (<code>null</code> if the artifact is too
+	 *         small or the variant is not available yet)
+	 */
+	public File getGzipVariant(String repositoryId, Path path, File artifact) {
+		if (artifact.length() < MIN_COMPRESSIBLE_SIZE)
+			return null;
+
+		try {
+			Path variantPath = resolveGzipVariant(repositoryId, path);
+			if (isRegularFile(variantPath) && (getLastModifiedTime(variantPath).toMillis() >= artifact.lastModified()))
+				return variantPath.toFile();
+		} catch (IOException | IllegalArgumentException e) {
+			LOG.debug("Unable to read compressed variant of '{}' from repository '{}': {}", path, repositoryId, e.getMessage());
+			return null;
+		}
+
+		createGzipVariant(repositoryId, path, artifact);
+		return null;
+	}
+
+	/**
+	 * Moves a downloaded file into the cache.
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path of the artifact within the repository
+	 * @param downloadFile
+	 *            the downloaded file (obtained via {@link #createDownloadFile()})
+	 * @return the cached file
+	 * @throws IOException
+	 */
+	public File put(String repositoryId, Path path, Path downloadFile) throws IOException {
+		return put(repositoryId, path, downloadFile, true);
+	}
+
+	private File put(String repositoryId, Path path, Path downloadFile, boolean upload) throws IOException {
+		Path entryPath = resolve(repositoryId, path);
+		try {
+			createDirectories(entryPath.getParent());
+			move(downloadFile, entryPath, ATOMIC_MOVE, REPLACE_EXISTING);
+		} catch (IOException e) {
+			deleteIfExists(downloadFile);
+			throw e;
+		}
+		LOG.debug("Cached '{}' from repository '{}'", path, repositoryId);
+		DigestIndex digestIndex = this.digestIndex;
+		if (digestIndex != null) {
+			digestIndex.index(entryPath);
+		}
+		SecondTierCache secondTier = this.secondTier;
+		if ((secondTier != null) && upload) {
+			secondTier.upload(toKey(repositoryId, path), entryPath);
+		}
+		createGzipVariant(repositoryId, path, entryPath.toFile());
+		return entryPath.toFile();
+	}
+
+	/**
+	 * Sets an index to be updated with every entry added to the cache.
+	 *
+	 * @param digestIndex
+	 *            the index (may be <code>null</code>)
+	 */
+	public void setDigestIndex(DigestIndex digestIndex) {
+		this.digestIndex = digestIndex;
+	}
+
+	public boolean hasSecondTier() {
+		return secondTier != null;
+	}
+
+	/**
+	 * Sets a second tier to read through on misses and to write artifacts
+	 * added to this cache behind to.
+	 *
+	 * @param secondTier
+	 *            the second tier (may be <code>null</code>)
+	 */
+	public void setSecondTier(SecondTierCache secondTier) {
+		this.secondTier = secondTier;
+	}
+
+	private String toKey(String repositoryId, Path path) {
+		Path relativePath = cacheDirectory.relativize(resolve(repositoryId, path));
+		StringBuilder key = new StringBuilder();
+		for (Path name : relativePath) {
+			if (key.length() > 0) {
+				key.append('/');
+			}
+			key.append(name);
+		}
+		return key.toString();
+	}
+
+	private Path resolveGzipVariant(String repositoryId, Path path) {
+		return gzipDirectory.resolve(cacheDirectory.relativize(resolve(repositoryId, path)) + ".gz");
+	}
+
+	private Path resolve(String repositoryId, Path path) {
+		if ((repositoryId == null) || repositoryId.isBlank() || repositoryId.startsWith(".") || repositoryId.contains("/") || repositoryId.contains("\\"))
+			throw new IllegalArgumentException(format("Invalid repository id '%s'", repositoryId));
+
+		Path sanitized = MavenRepositoryCache.sanitize(path);
+		if (sanitized.startsWith(".."))
+			throw new IllegalArgumentException(format("Invalid path '%s'", path));
+
+		return cacheDirectory.resolve(repositoryId).resolve(sanitized);
+	}
+}
@@ -0,0 +1,249 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cluster of proxy nodes sharing their caches.
+ * <p>
+ * Every artifact path is owned by exactly one node, which is selected using
+ * rendezvous (highest random weight) hashing. Nodes ask the owner of an
+ * artifact on a cache miss before going upstream, so each artifact is fetched
+ * upstream once per cluster instead of once per node. Adding or removing a node
+ * only moves the artifacts owned by that node.
+ * </p>
+ * <p>
+ * Peer health is tracked passively. A peer failing a request is skipped (its
+ * artifacts are handled by the next node in the ranking) for a back-off period
+ * which doubles with every consecutive failure.
+ * </p>
+ */
+public class MavenProxyCluster {
+
+	/**
+	 * A node of the cluster.
+	 */
+	public static final class Node {
+
+		private final String id;
+		private final String url;
+		private final long idHash;
+
+		private volatile int consecutiveFailures;
+		private volatile long unhealthyUntilNanos;
+
+		Node(String id, String url) {
+			this.id = id;
+			this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+			idHash = hash(id);
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public boolean isHealthy() {
+			return (consecutiveFailures == 0) || ((System.nanoTime() - unhealthyUntilNanos) >= 0);
+		}
+
+		/**
+		 * Resolves the URL of an artifact on this node.
+		 *
+		 * @param repositoryId
+		 *            the repository id
+		 * @param path
+		 *            the path of the artifact (with or without leading slash)
+		 * @return the URI
+		 */
+		public URI resolve(String repositoryId, String path) {
+			return URI.create(format("%s/maven/%s%s%s", url, repositoryId, path.startsWith("/") ? "" : "/", path));
+		}
+
+		@Override
+		public String toString() {
+			return id + " -> " + url;
+		}
+	}
+
+	/** header marking requests between nodes (these are never forwarded again) */
+	public static final String PEER_HEADER = "X-Maven-Proxy-Peer";
+
+	private static final Logger LOG = LoggerFactory.getLogger(MavenProxyCluster.class);
+
+	private static final long INITIAL_BACKOFF_MILLIS = 1000;
+	private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+	/**
+	 * Closes the body of a response which is not going to be used.
+	 *
+	 * @param response
+	 *            the response
+	 */
+	static void discard(HttpResponse<InputStream> response) {
+		try {
+			response.body().close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * 64-bit FNV-1a hash with a final avalanche step.
+	 */
+	static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : value.getBytes(UTF_8)) {
+			hash ^= b;
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * SplitMix64 finalizer.
+	 */
+	static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+
+	private final Node self;
+	private final List<Node> nodes;
+	private final ProxyMetrics metrics;
+	private final HttpClient httpClient;
+
+	/**
+	 * @param selfId
+	 *            the id of this node
+	 * @param nodeUrls
+	 *            all nodes of the cluster (id to base URL, including this
+	 *            node)
+	 * @param metrics
+	 *            metrics for recording peer requests and health
+	 */
+	public MavenProxyCluster(String selfId, Map<String, String> nodeUrls, ProxyMetrics metrics) {
+		if (!nodeUrls.containsKey(selfId))
+			throw new IllegalArgumentException(format("Node '%s' is not listed in the cluster configuration (nodes: %s)", selfId, nodeUrls.keySet()));
+
+		List<Node> nodes = new ArrayList<>();
+		Node self = null;
+		for (Map.Entry<String, String> entry : nodeUrls.entrySet()) {
+			Node node = new Node(entry.getKey(), entry.getValue());
+			if (node.getId().equals(selfId)) {
+				self = node;
+			} else {
+				String nodeLabel = format("{node=\"%s\"}", node.getId());
+				metrics.gauge("cluster_peer_healthy" + nodeLabel, () -> node.isHealthy() ? 1 : 0);
+			}
+			nodes.add(node);
+		}
+		this.self = self;
+		this.nodes = Collections.unmodifiableList(nodes);
+		this.metrics = metrics;
+
+		// peers are internal, i.e. no proxy and plain HTTP/1.1 (no h2c upgrade dance)
+		httpClient = HttpClient.newBuilder().version(Version.HTTP_1_1).followRedirects(Redirect.NEVER).connectTimeout(Duration.ofSeconds(2)).proxy(HttpClient.Builder.NO_PROXY).build();
+	}
+
+	/**
+	 * Fetches an artifact from a peer.
+	 * <p>
+	 * Connection failures and server errors mark the peer unhealthy; any other
+	 * response marks it healthy again.
+	 * </p>
+	 *
+	 * @param peer
+	 *            the peer
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path of the artifact
+	 * @param timeout
+	 *            the request timeout
+	 * @return the response
+	 */
+	public CompletableFuture<HttpResponse<InputStream>> fetch(Node peer, String repositoryId, String path, Duration timeout) {
+		String nodeLabel = format("{node=\"%s\"}", peer.getId());
+		metrics.increment("cluster_peer_requests_total" + nodeLabel);
+
+		HttpRequest request = HttpRequest.newBuilder(peer.resolve(repositoryId, path)).GET().header(PEER_HEADER, self.getId()).timeout(timeout).build();
+		return httpClient.sendAsync(request, BodyHandlers.ofInputStream()).whenComplete((response, e) -> {
+			if ((e != null) || (response.statusCode() >= 500)) {
+				metrics.increment("cluster_peer_failures_total" + nodeLabel);
+				markFailed(peer, e != null ? e.getMessage() : "HTTP " + response.statusCode());
+			} else {
+				peer.consecutiveFailures = 0;
+			}
+		});
+	}
+
+	public List<Node> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the node owning an artifact.
+	 *
+	 * @param repositoryId
+	 *            the repository id
+	 * @param path
+	 *            the path of the artifact
+	 * @return the healthy peer with the highest rank for the artifact
+	 *         (<code>null</code> if this node is the owner)
+	 */
+	public Node getOwner(String repositoryId, String path) {
+		long keyHash = hash(repositoryId + ":" + (path.startsWith("/") ? path.substring(1) : path));
+
+		Node owner = null;
+		long ownerScore = 0;
+		for (Node node : nodes) {
+			if ((node != self) && !node.isHealthy()) {
+				continue;
+			}
+
+			long score = mix(keyHash ^ node.idHash);
+			if ((owner == null) || (Long.compareUnsigned(score, ownerScore) > 0)) {
+				owner = node;
+				ownerScore = score;
+			}
+		}
+		return owner == self ? null : owner;
+	}
+
+	public Node getSelf() {
+		return self;
+	}
+
+	private void markFailed(Node peer, String reason) {
+		int failures = peer.consecutiveFailures + 1;
+		long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+		peer.unhealthyUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+		peer.consecutiveFailures = failures;
+		LOG.warn("Peer '{}' failed ({}); skipping it for {}ms.", peer, reason, backoffMillis);
+	}
+}
@@ -1,50 +1,76 @@
 package com.salesforce.bazel.maven.proxy.server;
 
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.deleteIfExists;
 import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.move;
+import static java.nio.file.Files.newInputStream;
+import static java.nio.file.Files.newOutputStream;
 import static java.nio.file.Paths.get;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.net.URLDecoder;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
 
 import javax.xml.stream.XMLStreamException;
 
 import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
 import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
 import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.salesforce.bazel.maven.proxy.server.MavenLockFile.Artifact;
+import com.salesforce.bazel.maven.proxy.server.MavenProxyServerConfiguration.Cluster;
 import com.salesforce.bazel.maven.proxy.server.MavenProxyServerConfiguration.MavenRepository;
 import com.salesforce.bazel.maven.settings.MavenSettingsXmlParser;
 import com.salesforce.bazel.maven.settings.MavenSettingsXmlParser.Mirror;
 import com.salesforce.bazel.maven.settings.MavenSettingsXmlParser.ServerCredentials;
 
+import jakarta.servlet.DispatcherType;
+import jdk.jfr.Recording;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
 
 /**
  * Main class for starting/stopping the server
@@ -54,6 +80,14 @@ public class MavenProxyServer implements Callable<Void> {
 
 	private static final Logger LOG = LoggerFactory.getLogger(MavenProxyServer.class);
 
+	/** location of the persisted SHA-256 index within the proxy cache */
+	private static final String DIGEST_INDEX_FILE = ".index/sha256";
+
+	private static final String SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
+	/** the first Java version supporting stateless TLS session tickets on the server side */
+	private static final int SESSION_TICKETS_JAVA_VERSION = 13;
+
 	public static void main(String[] args) {
 		System.exit(new CommandLine(new MavenProxyServer()).execute(args));
 	}
@@ -61,7 +95,7 @@ public class MavenProxyServer implements Callable<Void> {
 	@Option(names = { "-p", "--port" }, description = "port to listen on (HTTP/2 and HTTP 1.1 with self-sign 'localhost' certificate)", defaultValue = "8499")
 	private int port;
 
-	@Option(names = { "--unsecure-port" }, description = "non-secure (plain HTTP) port to listen on (default is none, set to >0 to enable)")
+	@Option(names = { "--unsecure-port" }, description = "non-secure (plain HTTP 1.1 and HTTP/2 cleartext) port to listen on (default is none, set to >0 to enable)")
 	private int unsecurePort;
 
 	@Option(names = { "--host" }, description = "host name to listen on (default is 127.0.0.1, i.e. only local connections allowed; use 0.0.0.0 to listen on all interfaces)", defaultValue = "127.0.0.1")
@@ -79,6 +113,156 @@ public class MavenProxyServer implements Callable<Void> {
 	@Option(names = { "--non-recoverable-error-cache-ttl" }, description = "TTL in minutes of non-recoverable error responses from the proxied Maven servers (eg., 404 errors, default is 12h)", defaultValue = "720")
 	private int nonRecoverableErrorCacheTtl;
 
+	@Option(names = { "--access-log" }, description = "file to write a structured access log to (one JSON record per request, default is none)", paramLabel = "PATH")
+	private Path accessLogPath;
+
+	@Option(names = { "--access-log-max-size" }, description = "size in MB after which the access log is rotated (default is 100)", defaultValue = "100")
+	private int accessLogMaxSize;
+
+	@Option(names = { "--access-log-max-files" }, description = "number of rotated access log files to keep (default is 5)", defaultValue = "5")
+	private int accessLogMaxFiles;
+
+	@Option(names = { "--bazel-lock-file" }, description = "maven_install.json lock file listing the SHA-256 of artifacts in a Bazel repository cache used as --local-source (may be repeated)", paramLabel = "PATH")
+	private List<Path> bazelLockFiles;
+
+	@Option(names = { "--cache-tier" }, description = "second-tier cache shared between proxies behind the proxy cache: a directory (eg., an NFS mount), an http(s):// URL accepting GET/PUT or s3://<bucket>/<prefix>?region=<region>[&endpoint=<url>] (credentials are read from AWS_ACCESS_KEY_ID, AWS_SECRET_ACCESS_KEY and AWS_SESSION_TOKEN)", paramLabel = "URI")
+	private String cacheTier;
+
+	@Option(names = { "--cache-tier-max-pending-uploads" }, description = "maximum number of uploads to the second-tier cache in flight; further uploads are dropped (default is 100)", defaultValue = "100")
+	private int cacheTierMaxPendingUploads;
+
+	@Option(names = { "--cluster-node-id" }, description = "id of this node when running a cluster of proxies (see 'cluster' in the proxy configuration file)", paramLabel = "ID")
+	private String clusterNodeId;
+
+	@Option(names = { "--flight-recording" }, description = "continuously record JDK Flight Recorder events (requests, local lookups, upstream exchanges, ...) with the bundled low overhead profile and write them to the given file on exit", paramLabel = "PATH")
+	private Path flightRecordingPath;
+
+	@Option(names = { "--flight-recording-max-size" }, description = "maximum size in MB of the data kept by the flight recording; older events are discarded (default is 250)", defaultValue = "250")
+	private int flightRecordingMaxSize;
+
+	@Option(names = { "--fast-startup" }, description = "bind ports before reading any configuration so that early clients queue up instead of being refused")
+	private boolean fastStartup;
+
+	@Option(names = { "--hot-artifacts-top" }, description = "number of hottest paths (by requests and by bytes) tracked for /admin/hot-artifacts (default is 100)", defaultValue = "100")
+	private int hotArtifactsTop;
+
+	@Option(names = { "--hot-artifacts-window" }, description = "minutes after which request and byte counts of /admin/hot-artifacts are halved (default is 60)", defaultValue = "60")
+	private int hotArtifactsWindow;
+
+	@Option(names = { "--local-source" }, description = "additional read-only source of artifacts on this machine, looked up in the given order after the local Maven repository: gradle:<path> for Gradle's dependency cache (eg., ~/.gradle/caches/modules-2/files-2.1) or bazel:<path> for Bazel's repository cache (see 'bazel info repository_cache', requires --bazel-lock-file); may be repeated", paramLabel = "TYPE:PATH")
+	private List<String> localSources;
+
+	@Option(names = { "--max-concurrent-requests" }, description = "maximum number of requests processed concurrently; further requests are queued fairly per client address, and the limit is lowered automatically when heap, file descriptors or upstream queues run low (default is 0, i.e. unlimited)", defaultValue = "0")
+	private int maxConcurrentRequests;
+
+	@Option(names = { "--max-queued-requests-per-client" }, description = "maximum number of requests of a single client address waiting for --max-concurrent-requests; further requests are rejected with 503 (default is 100)", defaultValue = "100")
+	private int maxQueuedRequestsPerClient;
+
+	@Option(names = { "--max-queue-time" }, description = "seconds a request waits for --max-concurrent-requests before it is rejected with 503 (default is 10)", defaultValue = "10")
+	private int maxQueueTime;
+
+	@Option(names = { "--mmap-threshold" }, description = "size in KB from which cached artifacts are memory-mapped instead of read into pooled buffers when serving them (default is 256)", defaultValue = "256")
+	private int mmapThreshold;
+
+	@Option(names = { "--offline" }, description = "never connect to proxied Maven repositories; serve only from the local Maven repository and the proxy cache and answer misses with 504 right away")
+	private boolean offline;
+
+	@Option(names = { "--offline-after-failures" }, description = "number of consecutive requests to a proxied Maven repository failing to connect (refused, connect timeout or unknown host) after which it is considered offline until a background probe succeeds (default is 3, set to 0 to disable)", defaultValue = "3")
+	private int offlineAfterFailures;
+
+	@Option(names = { "--offline-probe-interval" }, description = "seconds between probes of a proxied Maven repository considered offline (default is 10)", defaultValue = "10")
+	private int offlineProbeInterval;
+
+	@Option(names = { "--proxy-cache" }, description = "directory for caching artifacts downloaded from proxied Maven repositories (default is none, i.e. nothing is cached)", paramLabel = "PATH")
+	private Path proxyCachePath;
+
+	@Option(names = { "--sha256-index" }, description = "index the local Maven repository and the proxy cache by SHA-256 and serve content at /sha256/<digest>, fetching misses from proxied repositories given as 'url' query parameters")
+	private boolean sha256Index;
+
+	@Option(names = { "--predict-siblings" }, description = "when a POM is requested, prefetch the jar and checksums into the proxy cache and announce them to HTTP/2 clients via server push or 103 Early Hints")
+	private boolean predictSiblings;
+
+	@Option(names = { "--prefetch-pom-graph" }, description = "parse POMs served by the proxy and prefetch referenced parent, dependency and BOM POMs into the proxy cache")
+	private boolean prefetchPomGraph;
+
+	@Option(names = { "--prefetch-pom-graph-depth" }, description = "maximum depth to walk the POM graph when prefetching (default is 3)", defaultValue = "3")
+	private int prefetchPomGraphDepth;
+
+	@Option(names = { "--prefetch-pom-graph-budget" }, description = "maximum number of POMs downloaded from upstream per requested POM (default is 200)", defaultValue = "200")
+	private int prefetchPomGraphBudget;
+
+	@Option(names = { "--prefetch-max-in-flight" }, description = "maximum number of speculative downloads in flight (default is 16)", defaultValue = "16")
+	private int prefetchMaxInFlight;
+
+	@Option(names = { "--hedge-requests" }, description = "send a second request to a proxied Maven repository when no response arrived within the tracked latency percentile; the first response wins")
+	private boolean hedgeRequests;
+
+	@Option(names = { "--hedge-percentile" }, description = "latency percentile (per proxied Maven repository) after which a request is hedged (default is 95)", defaultValue = "95")
+	private double hedgePercentile;
+
+	@Option(names = { "--hedge-budget-percent" }, description = "maximum extra load caused by hedged requests in percent of all requests (default is 5)", defaultValue = "5")
+	private double hedgeBudgetPercent;
+
+	@Option(names = { "--ranged-download-threshold" }, description = "size in MB from which artifacts are downloaded from proxied Maven repositories supporting range requests with several concurrent requests into the proxy cache (default is 0, i.e. disabled; can be set per repository in the proxy configuration file)", defaultValue = "0")
+	private int rangedDownloadThreshold;
+
+	@Option(names = { "--ranged-download-chunk-size" }, description = "size in MB of each range of a ranged download (default is 16)", defaultValue = "16")
+	private int rangedDownloadChunkSize;
+
+	@Option(names = { "--ranged-download-parallelism" }, description = "maximum number of ranges of an artifact downloaded concurrently (default is 4)", defaultValue = "4")
+	private int rangedDownloadParallelism;
+
+	@Option(names = { "--server-timing" }, description = "send the duration of each phase of a request (cache lookups, upstream request, streaming etc.) to clients in a Server-Timing response header")
+	private boolean serverTiming;
+
+	@Option(names = { "--tls-session-cache-size" }, description = "maximum number of TLS sessions cached for resumption by clients reconnecting (default is 20480, set to 0 for unlimited)", defaultValue = "20480")
+	private int tlsSessionCacheSize;
+
+	@Option(names = { "--tls-session-timeout" }, description = "seconds a cached TLS session can be resumed (default is 86400)", defaultValue = "86400")
+	private int tlsSessionTimeout;
+
+	@Option(names = { "--tls-session-tickets" }, negatable = true, description = "resume TLS sessions with stateless session tickets, so that resumption works even when a session was evicted from the cache (requires Java 13 or newer, default is true)", defaultValue = "true")
+	private boolean tlsSessionTickets;
+
+	@Option(names = { "--trace-file" }, description = "file to write a trace per request to (OpenTelemetry JSON, one export request per line; default is none)", paramLabel = "PATH")
+	private Path traceFile;
+
+	@Option(names = { "--trace-file-max-size" }, description = "size in MB after which the trace file is rotated (default is 100)", defaultValue = "100")
+	private int traceFileMaxSize;
+
+	@Option(names = { "--trace-file-max-files" }, description = "number of rotated trace files to keep (default is 5)", defaultValue = "5")
+	private int traceFileMaxFiles;
+
+	@Option(names = { "--upstream-max-in-flight" }, description = "maximum number of requests in flight per proxied Maven repository; metadata, POMs and checksums are sent ahead of other artifacts and the limit is lowered automatically when the repository slows down (default is 0, i.e. unlimited)", defaultValue = "0")
+	private int upstreamMaxInFlight;
+
+	@Option(names = { "--upstream-max-retries" }, description = "maximum number of retries of GET and HEAD requests to a proxied Maven repository failing transiently (connection refused or reset, HTTP 429 and 5xx) with exponential backoff (default is 2, set to 0 to disable)", defaultValue = "2")
+	private int upstreamMaxRetries;
+
+	@Option(names = { "--upstream-preemptive-auth" }, negatable = true, description = "send the credentials of proxied Maven repositories with every request instead of waiting for a 401 challenge (default is true)", defaultValue = "true")
+	private boolean upstreamPreemptiveAuth;
+
+	@Option(names = { "--upstream-stall-timeout" }, description = "seconds a response body from a proxied Maven repository may deliver no data before it is considered stalled and resumed where it stopped (default is 30, set to 0 to wait forever)", defaultValue = "30")
+	private int upstreamStallTimeout;
+
+	@Option(names = { "--upstream-max-resumes" }, description = "maximum number of times a stalled or dropped response body is resumed with a range request (default is 3)", defaultValue = "3")
+	private int upstreamMaxResumes;
+
+	@Option(names = { "--upstream-request-timeout" }, description = "seconds to wait for a response from a proxied Maven repository when serving, prefetching, warming or looking up artifacts (default is 20)", defaultValue = "20")
+	private int upstreamRequestTimeout;
+
+	@Option(names = { "--upstream-retry-budget-percent" }, description = "maximum number of retries in percent of all requests per proxied Maven repository, so that retries don't multiply the load during an outage (default is 10)", defaultValue = "10")
+	private double upstreamRetryBudgetPercent;
+
+	@Option(names = { "--warm-max-concurrent-downloads" }, description = "maximum number of parallel downloads when warming the proxy cache (default is 8)", defaultValue = "8")
+	private int warmMaxConcurrentDownloads;
+
+	@Option(names = { "--warm-max-requests-per-second" }, description = "maximum number of requests per second and proxied Maven repository when warming the proxy cache (default is 50, set to 0 for unlimited)", defaultValue = "50")
+	private int warmMaxRequestsPerSecond;
+
+	private Cluster clusterConfiguration;
+	private Map<String, MavenRepository> repositoryConfigurations = Map.of();
+
 	@Override
 	public Void call() throws Exception {
 		// configure and start Jetty
@@ -90,6 +274,101 @@ public class MavenProxyServer implements Callable<Void> {
 		return null;
 	}
 
+	@Command(name = "warm", description = "Downloads all artifacts listed in a maven_install.json lock file or a list of Maven coordinates into the proxy cache (requires --proxy-cache)")
+	int warm(@Parameters(paramLabel = "FILE", description = "maven_install.json lock file or text file with Maven coordinates (one per line)") Path file,
+			@Option(names = { "-r", "--repository" }, description = "id of the repository to use for artifacts without a configured repository url (default is central)", defaultValue = "central") String defaultRepositoryId) throws Exception {
+		if (proxyCachePath == null) {
+			LOG.error("No proxy cache configured. Please specify --proxy-cache.");
+			return 1;
+		}
+
+		Map<String, ServerCredentials> credentials = new HashMap<>();
+		Map<String, URL> repositories = new LinkedHashMap<>();
+		readConfiguration(credentials, repositories);
+
+		List<Artifact> artifacts;
+		try (InputStream in = newInputStream(file)) {
+			artifacts = MavenLockFile.parse(in);
+		}
+
+		MavenCacheWarmer.Result result = createCacheWarmer(createUpstreamRepositories(credentials, repositories, new ProxyMetrics()), createLocalMavenRepositoryCache(new ProxyMetrics()), createProxyCache()).warm(artifacts, defaultRepositoryId);
+		result.print(new PrintWriter(System.out));
+		return result.isSuccessful() ? 0 : 2;
+	}
+
+	@Command(name = "export", description = "Writes entries of the proxy cache into a bundle file for seeding other proxy caches with 'import' (requires --proxy-cache)")
+	int exportBundle(@Parameters(paramLabel = "FILE", description = "bundle file to write") Path file,
+			@Option(names = { "-r", "--repository" }, paramLabel = "ID", description = "export only entries of the given repository (may be repeated)") List<String> repositoryIds,
+			@Option(names = { "--accessed-within" }, paramLabel = "DAYS", description = "export only entries read within the given number of days (based on file access times)") Integer accessedWithinDays,
+			@Option(names = { "--lock-file" }, paramLabel = "FILE", description = "export only versions of artifacts listed in the given maven_install.json lock file or list of Maven coordinates (may be repeated)") List<Path> lockFiles) throws Exception {
+		MavenProxyCache proxyCache = createProxyCache();
+		if (proxyCache == null) {
+			LOG.error("No proxy cache configured. Please specify --proxy-cache.");
+			return 1;
+		}
+
+		MavenCacheBundle.Selection selection = new MavenCacheBundle.Selection();
+		if (repositoryIds != null) {
+			selection.repositories(repositoryIds);
+		}
+		if (accessedWithinDays != null) {
+			selection.accessedAfter(Instant.now().minus(Duration.ofDays(accessedWithinDays)));
+		}
+		if (lockFiles != null) {
+			for (Path lockFile : lockFiles) {
+				try (InputStream in = newInputStream(lockFile)) {
+					selection.artifacts(MavenLockFile.parse(in));
+				}
+			}
+		}
+
+		// never leave a truncated bundle behind
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		MavenCacheBundle.Result result;
+		try (OutputStream out = newOutputStream(tempFile)) {
+			result = new MavenCacheBundle(proxyCache).exportTo(selection, out);
+		} catch (IOException e) {
+			deleteIfExists(tempFile);
+			throw e;
+		}
+		move(tempFile, file, REPLACE_EXISTING);
+		result.print(new PrintWriter(System.out));
+		return result.isSuccessful() ? 0 : 2;
+	}
+
+	@Command(name = "import", description = "Adds all entries of a bundle file written with 'export' to the proxy cache (requires --proxy-cache)")
+	int importBundle(@Parameters(paramLabel = "FILE", description = "bundle file to read ('-' for standard input)") String file) throws Exception {
+		MavenProxyCache proxyCache = createProxyCache();
+		if (proxyCache == null) {
+			LOG.error("No proxy cache configured. Please specify --proxy-cache.");
+			return 1;
+		}
+
+		DigestIndex digestIndex = new DigestIndex(List.of(proxyCache.getCacheDirectory()), proxyCache.getCacheDirectory().resolve(DIGEST_INDEX_FILE), new ProxyMetrics());
+		MavenCacheBundle.Result result;
+		try (InputStream in = "-".equals(file) ? System.in : newInputStream(Path.of(file))) {
+			result = new MavenCacheBundle(proxyCache).importFrom(in, digestIndex);
+		}
+		result.print(new PrintWriter(System.out));
+		return result.isSuccessful() ? 0 : 2;
+	}
+
+	private void configureSessionTickets() {
+		// the JDK has no API for session tickets; they must be configured before the first SSL context is created
+		if (System.getProperty(SESSION_TICKETS_PROPERTY) != null) {
+			LOG.debug("Using TLS session tickets configured via system property '{}'.", SESSION_TICKETS_PROPERTY);
+			return;
+		}
+		if (Runtime.version().feature() < SESSION_TICKETS_JAVA_VERSION) {
+			// older JDKs ignore the property, resumption is limited to the session cache
+			if (tlsSessionTickets) {
+				LOG.warn("TLS session tickets require Java {} or newer (running on Java {}). Clients can only resume sessions kept in the TLS session cache.", SESSION_TICKETS_JAVA_VERSION, Runtime.version().feature());
+			}
+			return;
+		}
+		System.setProperty(SESSION_TICKETS_PROPERTY, String.valueOf(tlsSessionTickets));
+	}
+
 	Server createJettyServer() {
 		Server server = new Server();
 
@@ -107,6 +386,13 @@ public class MavenProxyServer implements Callable<Void> {
 		sslContextFactory.setKeyStoreType("pkcs12");
 		sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
 
+		// prefer TLS 1.3 (one round trip less for full handshakes) and allow resumption of sessions
+		sslContextFactory.setIncludeProtocols("TLSv1.3", "TLSv1.2");
+		sslContextFactory.setSessionCachingEnabled(true);
+		sslContextFactory.setSslSessionCacheSize(tlsSessionCacheSize);
+		sslContextFactory.setSslSessionTimeout(tlsSessionTimeout);
+		configureSessionTickets();
+
 		// HTTPS configuration
 		HttpConfiguration httpsConfig = new HttpConfiguration(httpConfig);
 		httpsConfig.addCustomizer(new SecureRequestCustomizer());
@@ -126,10 +412,10 @@ public class MavenProxyServer implements Callable<Void> {
 		http2Connector.setHost(host);
 		server.addConnector(http2Connector);
 
-		// un-secure if enabled
+		// un-secure if enabled (HTTP 1.1 and HTTP/2 cleartext, with prior knowledge or via upgrade)
 		if (unsecurePort > 0) {
 			LOG.warn("Configuring unsecure communication on port {}:{}.", host, unsecurePort);
-			ServerConnector connector = new ServerConnector(server);
+			ServerConnector connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig), new HTTP2CServerConnectionFactory(httpConfig));
 			connector.setPort(unsecurePort);
 			connector.setHost(host);
 			server.addConnector(connector);
@@ -138,13 +424,212 @@ public class MavenProxyServer implements Callable<Void> {
 		return server;
 	}
 
-	private MavenRepositoryCache createLocalMavenRepositoryCache() {
+	private MavenCacheWarmer createCacheWarmer(Map<String, UpstreamMavenRepository> upstreamRepositories, MavenRepositoryCache cache, MavenProxyCache proxyCache) {
+		return new MavenCacheWarmer(upstreamRepositories, cache, proxyCache, warmMaxConcurrentDownloads, warmMaxRequestsPerSecond, Duration.ofSeconds(upstreamRequestTimeout));
+	}
+
+	private BlobStore createBlobStore(String uri) throws IOException {
+		if (uri.startsWith("http://") || uri.startsWith("https://"))
+			return new HttpBlobStore(URI.create(uri));
+
+		if (uri.startsWith("s3://")) {
+			URI s3Uri = URI.create(uri);
+			Map<String, String> parameters = new HashMap<>();
+			if (s3Uri.getRawQuery() != null) {
+				for (String parameter : s3Uri.getRawQuery().split("&")) {
+					int separator = parameter.indexOf('=');
+					if (separator > 0) {
+						parameters.put(parameter.substring(0, separator), URLDecoder.decode(parameter.substring(separator + 1), UTF_8));
+					}
+				}
+			}
+			String region = parameters.getOrDefault("region", System.getenv().getOrDefault("AWS_REGION", "us-east-1"));
+			URI endpoint = URI.create(parameters.getOrDefault("endpoint", format("https://s3.%s.amazonaws.com", region)));
+			String accessKey = System.getenv("AWS_ACCESS_KEY_ID");
+			if (accessKey == null) {
+				LOG.warn("AWS_ACCESS_KEY_ID is not set. Accessing '{}' anonymously.", uri);
+			}
+			return new S3BlobStore(endpoint, s3Uri.getHost(), s3Uri.getPath(), region, accessKey, System.getenv("AWS_SECRET_ACCESS_KEY"), System.getenv("AWS_SESSION_TOKEN"));
+		}
+
+		return new DirectoryBlobStore(uri.startsWith("file:") ? Path.of(URI.create(uri)) : Path.of(uri));
+	}
+
+	private UpstreamAuthentication createAuthentication(UpstreamMavenRepository upstreamRepository, ServerCredentials serverCredentials, ProxyMetrics metrics) {
+		MavenRepository configuration = repositoryConfigurations.get(upstreamRepository.getId());
+		if ((configuration != null) && (configuration.tokenUrl != null) && !configuration.tokenUrl.isBlank()) {
+			LOG.info("Exchanging credentials of repository '{}' for tokens from '{}'.", upstreamRepository.getId(), configuration.tokenUrl);
+			return new UpstreamAuthentication(upstreamRepository, serverCredentials.username, serverCredentials.password, URI.create(configuration.tokenUrl), metrics);
+		}
+		if (!upstreamPreemptiveAuth)
+			return null;
+
+		return new UpstreamAuthentication(upstreamRepository, serverCredentials.username, serverCredentials.password, null, metrics);
+	}
+
+	private RangedDownloader createRangedDownloader(UpstreamMavenRepository upstreamRepository, ProxyMetrics metrics) {
+		MavenRepository configuration = repositoryConfigurations.get(upstreamRepository.getId());
+		int threshold = (configuration != null) && (configuration.rangedDownloadThreshold != null) ? configuration.rangedDownloadThreshold : rangedDownloadThreshold;
+		if (threshold <= 0)
+			return null;
+
+		int chunkSize = (configuration != null) && (configuration.rangedDownloadChunkSize != null) ? configuration.rangedDownloadChunkSize : rangedDownloadChunkSize;
+		int parallelism = (configuration != null) && (configuration.rangedDownloadParallelism != null) ? configuration.rangedDownloadParallelism : rangedDownloadParallelism;
+		LOG.info("Downloading artifacts of {}MB or more from repository '{}' in ranges of {}MB ({} in parallel).", threshold, upstreamRepository.getId(), chunkSize, parallelism);
+		return new RangedDownloader(upstreamRepository, threshold * 1024L * 1024L, chunkSize * 1024 * 1024, parallelism, metrics);
+	}
+
+	private MavenProxyCluster createCluster(ProxyMetrics metrics) {
+		if ((clusterConfiguration == null) || (clusterConfiguration.nodes == null) || clusterConfiguration.nodes.isEmpty()) {
+			if (clusterNodeId != null) {
+				LOG.warn("Ignoring --cluster-node-id because no cluster is configured.");
+			}
+			return null;
+		}
+
+		String selfId = clusterNodeId != null ? clusterNodeId : clusterConfiguration.self;
+		if (selfId == null)
+			throw new IllegalArgumentException("A cluster is configured but the id of this node is unknown. Please specify --cluster-node-id.");
+
+		return new MavenProxyCluster(selfId, clusterConfiguration.nodes, metrics);
+	}
+
+	private DigestIndex createDigestIndex(MavenRepositoryCache cache, MavenProxyCache proxyCache, ProxyMetrics metrics) {
+		List<Path> directories = new ArrayList<>();
+		directories.add(cache.getLocalRepositoryPath());
+		if (proxyCache != null) {
+			directories.add(proxyCache.getCacheDirectory());
+		} else {
+			LOG.warn("No proxy cache configured. The SHA-256 index is kept in memory only and misses are not fetched from proxied repositories.");
+		}
+
+		DigestIndex digestIndex = new DigestIndex(directories, proxyCache != null ? proxyCache.getCacheDirectory().resolve(DIGEST_INDEX_FILE) : null, metrics);
+		if (proxyCache != null) {
+			proxyCache.setDigestIndex(digestIndex);
+		}
+		digestIndex.start();
+		return digestIndex;
+	}
+
+	private void createSecondTier(MavenProxyCache proxyCache, ProxyMetrics metrics) throws IOException {
+		if (proxyCache == null) {
+			LOG.warn("No proxy cache configured. Ignoring --cache-tier.");
+			return;
+		}
+
+		SecondTierCache secondTier = new SecondTierCache(createBlobStore(cacheTier), cacheTierMaxPendingUploads, metrics);
+		LOG.info("Using second-tier cache '{}'.", secondTier.getStore());
+		proxyCache.setSecondTier(secondTier);
+	}
+
+	private LocalArtifactSource createLocalSource(String spec, ProxyMetrics metrics) throws IOException {
+		int separator = spec.indexOf(':');
+		String type = separator > 0 ? spec.substring(0, separator) : "";
+		switch (type) {
+		case "gradle":
+			return new GradleCacheSource(Path.of(spec.substring(separator + 1)), metrics);
+		case "bazel":
+			BazelRepositoryCacheSource source = new BazelRepositoryCacheSource(Path.of(spec.substring(separator + 1)), metrics);
+			if ((bazelLockFiles == null) || bazelLockFiles.isEmpty()) {
+				LOG.warn("No lock file given for Bazel repository cache '{}'. Please specify --bazel-lock-file.", spec.substring(separator + 1));
+			} else {
+				for (Path lockFile : bazelLockFiles) {
+					try (InputStream in = newInputStream(lockFile)) {
+						source.addArtifacts(MavenLockFile.parse(in));
+					}
+				}
+			}
+			return source;
+		default:
+			throw new IllegalArgumentException(format("Invalid local source '%s'. Expected gradle:<path> or bazel:<path>.", spec));
+		}
+	}
+
+	private MavenRepositoryCache createLocalMavenRepositoryCache(ProxyMetrics metrics) throws IOException {
 		// initialize Maven settings
 		if (mavenLocalRepositoryPath == null) {
 			mavenLocalRepositoryPath = get(System.getProperty("user.home")).resolve(".m2/repository");
 		}
 
-		return new MavenRepositoryCache(mavenLocalRepositoryPath);
+		MavenRepositoryCache cache = new MavenRepositoryCache(mavenLocalRepositoryPath);
+		if (localSources != null) {
+			for (String spec : localSources) {
+				LocalArtifactSource source = createLocalSource(spec, metrics);
+				LOG.info("Using local source '{}' ({}).", spec, source.getName());
+				source.start();
+				cache.addSource(source);
+			}
+		}
+		return cache;
+	}
+
+	private MavenProxyCache createProxyCache() throws IOException {
+		if (proxyCachePath == null)
+			return null;
+
+		return new MavenProxyCache(proxyCachePath);
+	}
+
+	private Map<String, UpstreamMavenRepository> createUpstreamRepositories(Map<String, ServerCredentials> credentials, Map<String, URL> repositories, ProxyMetrics metrics) {
+		Map<String, UpstreamMavenRepository> upstreamRepositories = new LinkedHashMap<>();
+		repositories.forEach((id, url) -> {
+			ServerCredentials serverCredentials = credentials.get(id);
+			UpstreamMavenRepository upstreamRepository = new UpstreamMavenRepository(id, url.toExternalForm(), serverCredentials != null ? serverCredentials.username : null, serverCredentials != null ? serverCredentials.password : null);
+			if ((serverCredentials != null) && (serverCredentials.username != null) && (serverCredentials.password != null)) {
+				upstreamRepository.setAuthentication(createAuthentication(upstreamRepository, serverCredentials, metrics));
+			}
+			upstreamRepositories.put(id, upstreamRepository);
+		});
+		return upstreamRepositories;
+	}
+
+	private void openConnectors(Server server) throws IOException {
+		// clients connecting before the server is started wait in the accept backlog
+		for (Connector connector : server.getConnectors()) {
+			if (connector instanceof ServerConnector) {
+				((ServerConnector) connector).open();
+			}
+		}
+		LOG.info("Bound ports early; connections will be accepted once the proxy is initialized.");
+	}
+
+	private void readConfiguration(Map<String, ServerCredentials> credentials, Map<String, URL> repositories) throws XMLStreamException, IOException {
+		readMavenSettings(credentials, repositories);
+
+		if (proxyConfigFile != null) {
+			LOG.info("Loading configuration from '{}'.", proxyConfigFile);
+			MavenProxyServerConfiguration proxyServerConfiguration = MavenProxyServerConfiguration.loadFromFile(proxyConfigFile);
+			clusterConfiguration = proxyServerConfiguration.cluster;
+			if (proxyServerConfiguration.mavenRepositories != null) {
+				repositoryConfigurations = proxyServerConfiguration.mavenRepositories;
+			}
+			Optional.ofNullable(proxyServerConfiguration.mavenRepositories).ifPresent((mavenRepositories) -> {
+				mavenRepositories.entrySet().forEach((entry) -> {
+					try {
+						String id = entry.getKey();
+						MavenRepository repository = entry.getValue();
+						URL targetUrl = new URL(repository.url);
+						if (repositories.containsKey(id)) {
+							LOG.warn("Overriding repository '{}' found in Maven Settings with configuration found in config file.", id);
+						}
+						repositories.put(id, targetUrl);
+
+						if (((repository.username != null) && !repository.username.isBlank()) && ((repository.password != null) && !repository.password.isBlank())) {
+							ServerCredentials serverCredentials = new ServerCredentials();
+							serverCredentials.id = id;
+							serverCredentials.username = repository.username;
+							serverCredentials.password = repository.password;
+							if (credentials.containsKey(id)) {
+								LOG.warn("Overriding credentials for repository '{}' found in Maven Settings with configuration found in config file.", id);
+							}
+							credentials.put(id, serverCredentials);
+						}
+					} catch (Exception e) {
+						throw new IllegalArgumentException(format("Invalid repository entry in proxy configuration: %s - %s", entry.getKey(), e.getMessage()), e);
+					}
+				});
+			});
+		}
 	}
 
 	private void readMavenSettings(Map<String, ServerCredentials> credentials, Map<String, URL> repositories) throws XMLStreamException, IOException {
@@ -217,31 +702,125 @@ public class MavenProxyServer implements Callable<Void> {
 		}
 	}
 
-	private void registerServletForMavenRepository(ServletContextHandler handler, String id, URL url, ServerCredentials serverCredentials) {
-		String prefix = format("/maven/%s", id);
-		String proxyTo = url.toExternalForm();
+	private void registerServletForMetrics(ServletContextHandler handler, ProxyMetrics metrics) {
+		handler.setAttribute(ProxyMetrics.class.getName(), metrics);
+		handler.addServlet(new ServletHolder(MetricsServlet.class), "/metrics");
+	}
+
+	private void registerServletForBatchFetching(ServletContextHandler handler) {
+		ServletHolder batchServlet = new ServletHolder(MavenBatchServlet.class);
+		batchServlet.setInitParameter(MavenProxyServlet.REQUEST_TIMEOUT_SECONDS, String.valueOf(upstreamRequestTimeout));
+		handler.addServlet(batchServlet, "/batch");
+	}
+
+	private void registerServletForCacheWarming(ServletContextHandler handler, MavenCacheWarmer cacheWarmer) {
+		handler.setAttribute(MavenCacheWarmer.class.getName(), cacheWarmer);
+		handler.addServlet(new ServletHolder(MavenCacheWarmServlet.class), "/cache/warm");
+	}
+
+	private void registerAdmissionControl(Server server, ServletContextHandler handler, Map<String, UpstreamMavenRepository> upstreamRepositories, ProxyMetrics metrics) {
+		LongSupplier upstreamQueued = () -> upstreamRepositories.values().stream().map(UpstreamMavenRepository::getRequestScheduler).filter(Objects::nonNull).mapToLong(UpstreamRequestScheduler::getQueued).sum();
+		AdmissionController admissionController = new AdmissionController(maxConcurrentRequests, maxQueuedRequestsPerClient, Duration.ofSeconds(maxQueueTime), AdmissionController::heapUsage, AdmissionController::fileDescriptorUsage, upstreamQueued, metrics);
+		LOG.info("Admitting at most {} concurrent requests ({} queued per client for up to {}s).", maxConcurrentRequests, maxQueuedRequestsPerClient, maxQueueTime);
+		for (Connector connector : server.getConnectors()) {
+			((ServerConnector) connector).addBean(admissionController);
+		}
+		handler.setAttribute(AdmissionController.class.getName(), admissionController);
+		for (String pathSpec : List.of("/maven/*", "/batch", "/sha256/*")) {
+			handler.addFilter(new FilterHolder(AdmissionFilter.class), pathSpec, EnumSet.of(DispatcherType.REQUEST));
+		}
+	}
+
+	private void registerRequestTracer(Server server, ProxyMetrics metrics) throws IOException {
+		SpanExporter exporter = SpanExporter.NONE;
+		if (traceFile != null) {
+			FileSpanExporter fileExporter = new FileSpanExporter(traceFile, traceFileMaxSize * 1024L * 1024L, traceFileMaxFiles, metrics);
+			LOG.info("Writing traces to '{}'.", traceFile);
+			Runtime.getRuntime().addShutdownHook(new Thread(fileExporter::close, "trace-writer-shutdown"));
+			exporter = fileExporter;
+		}
+
+		RequestTracer tracer = new RequestTracer(exporter, serverTiming);
+		for (Connector connector : server.getConnectors()) {
+			((ServerConnector) connector).addBean(tracer);
+		}
+	}
+
+	private void registerServletForDigestLookup(ServletContextHandler handler, DigestIndex digestIndex) {
+		handler.setAttribute(DigestIndex.class.getName(), digestIndex);
+		ServletHolder digestServlet = new ServletHolder(MavenDigestServlet.class);
+		digestServlet.setInitParameter(MavenProxyServlet.REQUEST_TIMEOUT_SECONDS, String.valueOf(upstreamRequestTimeout));
+		handler.addServlet(digestServlet, "/sha256/*");
+	}
+
+	private void registerServletForMavenRepository(ServletContextHandler handler, UpstreamMavenRepository upstreamRepository) {
+		String prefix = format("/maven/%s", upstreamRepository.getId());
 
-		LOG.debug("Registering Maven Proxy Repository {} -> {} (using credentials {})", prefix, proxyTo, serverCredentials != null ? serverCredentials.id : "none");
+		LOG.debug("Registering Maven Proxy Repository {} -> {}", prefix, upstreamRepository);
 
 		ServletHolder proxyServlet = new ServletHolder(MavenProxyServlet.class);
-		proxyServlet.setInitParameter(MavenProxyServlet.PROXY_TO, proxyTo);
+		proxyServlet.setInitParameter(MavenProxyServlet.REPOSITORY_ID, upstreamRepository.getId());
 		proxyServlet.setInitParameter("prefix", prefix);
 		proxyServlet.setInitParameter(MavenProxyServlet.NON_RECOVERABLE_ERROR_CACHE_TTL, String.valueOf(nonRecoverableErrorCacheTtl));
-		if (serverCredentials != null) {
-			proxyServlet.setInitParameter(MavenProxyServlet.USERNAME, serverCredentials.username);
-			proxyServlet.setInitParameter(MavenProxyServlet.PASSWORD, serverCredentials.password);
-		}
+		proxyServlet.setInitParameter(MavenProxyServlet.PREDICT_SIBLINGS, String.valueOf(predictSiblings));
+		proxyServlet.setInitParameter(MavenProxyServlet.REQUEST_TIMEOUT_SECONDS, String.valueOf(upstreamRequestTimeout));
 		handler.addServlet(proxyServlet, format("%s/*", prefix));
 	}
 
+	private void registerServletForHotArtifacts(Server server, ServletContextHandler handler) {
+		HotArtifacts hotArtifacts = new HotArtifacts(hotArtifactsTop, Duration.ofMinutes(hotArtifactsWindow));
+		for (Connector connector : server.getConnectors()) {
+			((ServerConnector) connector).addBean(hotArtifacts);
+		}
+		handler.setAttribute(HotArtifacts.class.getName(), hotArtifacts);
+		handler.addServlet(new ServletHolder(HotArtifactsServlet.class), "/admin/hot-artifacts");
+	}
+
 	private void registerServletForMavenRepositoryList(ServletContextHandler handler, Map<String, URL> repositories) {
 		handler.setAttribute(MavenRepositoryListServlet.REPOSITORIES_MAP, repositories);
 		handler.addServlet(new ServletHolder(MavenRepositoryListServlet.class), "/maven");
 	}
 
+	private void startSslContextFactories(Server server) throws Exception {
+		for (Connector connector : server.getConnectors()) {
+			SslConnectionFactory sslConnectionFactory = connector.getConnectionFactory(SslConnectionFactory.class);
+			if (sslConnectionFactory != null) {
+				sslConnectionFactory.getSslContextFactory().start();
+			}
+		}
+	}
+
+	private void startFlightRecording() throws IOException {
+		Recording recording = new Recording(ProxyEvents.getConfiguration());
+		recording.setName("bazel-maven-proxy");
+		recording.setToDisk(true);
+		recording.setMaxSize(flightRecordingMaxSize * 1024L * 1024L);
+		recording.setDestination(flightRecordingPath);
+		recording.setDumpOnExit(true);
+		recording.start();
+		LOG.info("Recording flight recorder events to '{}' (use 'jcmd <pid> JFR.dump name=bazel-maven-proxy' for a dump while running).", flightRecordingPath);
+	}
+
 	private Server startJetty() throws Exception {
 		LOG.debug("Starting embedded Jetty server...");
+		// read configuration in the background while Jetty is set up
+		Map<String, ServerCredentials> credentials = new HashMap<>();
+		Map<String, URL> repositories = new LinkedHashMap<>();
+		CompletableFuture<Void> configuration = CompletableFuture.runAsync(() -> {
+			try {
+				readConfiguration(credentials, repositories);
+			} catch (XMLStreamException | IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+
 		Server server = createJettyServer();
+		if (fastStartup) {
+			openConnectors(server);
+		}
+
+		// load the keystore in parallel to reading the configuration
+		startSslContextFactories(server);
 
 		ServletContextHandler handler = new ServletContextHandler(ServletContextHandler.NO_SECURITY | ServletContextHandler.NO_SESSIONS);
 		handler.setContextPath("/");
@@ -251,51 +830,139 @@ public class MavenProxyServer implements Callable<Void> {
 		handler.getMimeTypes().addMimeMapping("pom", "application/xml");
 		handler.getMimeTypes().addMimeMapping("jar", "application/java-archive");
 		handler.getMimeTypes().addMimeMapping("sha1", "text/plain");
+		handler.getMimeTypes().addMimeMapping("sha256", "text/plain");
+		handler.getMimeTypes().addMimeMapping("sha512", "text/plain");
+		handler.getMimeTypes().addMimeMapping("md5", "text/plain");
+		handler.getMimeTypes().addMimeMapping("asc", "text/plain");
+		handler.getMimeTypes().addMimeMapping("module", "application/json");
+
+		try {
+			configuration.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
 
-		Map<String, ServerCredentials> credentials = new HashMap<>();
-		Map<String, URL> repositories = new LinkedHashMap<>();
-		readMavenSettings(credentials, repositories);
+		if (flightRecordingPath != null) {
+			startFlightRecording();
+		}
+		ProxyEvents.RequestRecorder requestRecorder = new ProxyEvents.RequestRecorder();
+		for (Connector connector : server.getConnectors()) {
+			((ServerConnector) connector).addBean(requestRecorder);
+		}
 
-		if (proxyConfigFile != null) {
-			LOG.info("Loading configuration from '{}'.", proxyConfigFile);
-			MavenProxyServerConfiguration proxyServerConfiguration = MavenProxyServerConfiguration.loadFromFile(proxyConfigFile);
-			Optional.ofNullable(proxyServerConfiguration.mavenRepositories).ifPresent((mavenRepositories) -> {
-				mavenRepositories.entrySet().forEach((entry) -> {
-					try {
-						String id = entry.getKey();
-						MavenRepository repository = entry.getValue();
-						URL targetUrl = new URL(repository.url);
-						if (repositories.containsKey(id)) {
-							LOG.warn("Overriding repository '{}' found in Maven Settings with configuration found in config file.", id);
-						}
-						repositories.put(id, targetUrl);
+		ProxyMetrics metrics = new ProxyMetrics();
+		registerServletForMetrics(handler, metrics);
 
-						if (((repository.username != null) && !repository.username.isBlank()) && ((repository.password != null) && !repository.password.isBlank())) {
-							ServerCredentials serverCredentials = new ServerCredentials();
-							serverCredentials.id = id;
-							serverCredentials.username = repository.username;
-							serverCredentials.password = repository.password;
-							if (credentials.containsKey(id)) {
-								LOG.warn("Overriding credentials for repository '{}' found in Maven Settings with configuration found in config file.", id);
-							}
-							credentials.put(id, serverCredentials);
-						}
-					} catch (Exception e) {
-						throw new IllegalArgumentException(format("Invalid repository entry in proxy configuration: %s - %s", entry.getKey(), e.getMessage()), e);
-					}
-				});
+		MavenRepositoryCache cache = createLocalMavenRepositoryCache(metrics);
+		LOG.debug("Using local Maven Repository: {}", cache.getLocalRepositoryPath());
+		handler.setAttribute(MavenRepositoryCache.class.getName(), cache);
+		handler.setAttribute(CachedContentManager.class.getName(), new CachedContentManager(mmapThreshold * 1024, metrics));
+
+		if (accessLogPath != null) {
+			AccessLog accessLog = new AccessLog(accessLogPath, accessLogMaxSize * 1024L * 1024L, accessLogMaxFiles, metrics);
+			LOG.info("Writing access log to '{}'.", accessLogPath);
+			for (Connector connector : server.getConnectors()) {
+				((ServerConnector) connector).addBean(accessLog);
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close, "access-log-shutdown"));
+		}
+
+		registerServletForHotArtifacts(server, handler);
+
+		if (serverTiming || (traceFile != null)) {
+			registerRequestTracer(server, metrics);
+		}
+
+		MavenProxyCache proxyCache = createProxyCache();
+		if (cacheTier != null) {
+			createSecondTier(proxyCache, metrics);
+		}
+		if (proxyCache != null) {
+			LOG.info("Caching proxied artifacts in '{}'.", proxyCache.getCacheDirectory());
+			handler.setAttribute(MavenProxyCache.class.getName(), proxyCache);
+
+			if (predictSiblings || prefetchPomGraph) {
+				ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(cache, proxyCache, metrics, prefetchMaxInFlight, Duration.ofSeconds(upstreamRequestTimeout));
+				handler.setAttribute(ArtifactPrefetcher.class.getName(), prefetcher);
+				if (prefetchPomGraph) {
+					handler.setAttribute(PomGraphPrefetcher.class.getName(), new PomGraphPrefetcher(prefetcher, metrics, prefetchPomGraphDepth, prefetchPomGraphBudget));
+				}
+			}
+		} else if (predictSiblings) {
+			LOG.warn("No proxy cache configured. Siblings will be announced to clients but not prefetched.");
+		} else if (prefetchPomGraph) {
+			LOG.warn("No proxy cache configured. POM graph prefetching is disabled.");
+		}
+
+		Map<String, UpstreamMavenRepository> upstreamRepositories = createUpstreamRepositories(credentials, repositories, metrics);
+		handler.setAttribute(MavenProxyServlet.UPSTREAM_REPOSITORIES_MAP, upstreamRepositories);
+
+		MavenProxyCluster cluster = createCluster(metrics);
+		if (cluster != null) {
+			LOG.info("Running as node '{}' of a cluster with {} nodes.", cluster.getSelf().getId(), cluster.getNodes().size());
+			handler.setAttribute(MavenProxyCluster.class.getName(), cluster);
+		}
+
+		if (upstreamMaxInFlight > 0) {
+			upstreamRepositories.values().forEach((upstreamRepository) -> {
+				upstreamRepository.setRequestScheduler(new UpstreamRequestScheduler(upstreamRepository.getId(), upstreamMaxInFlight, metrics));
 			});
 		}
 
-		MavenRepositoryCache cache = createLocalMavenRepositoryCache();
-		LOG.debug("Using local Maven Repository: {}", cache.getLocalRepositoryPath());
-		handler.setAttribute(MavenRepositoryCache.class.getName(), cache);
+		if (offline || (offlineAfterFailures > 0)) {
+			if (offline) {
+				LOG.warn("Running offline. Artifacts not available locally will not be downloaded.");
+			}
+			upstreamRepositories.values().forEach((upstreamRepository) -> {
+				upstreamRepository.setAvailability(new UpstreamAvailability(upstreamRepository, offline, offlineAfterFailures, Duration.ofSeconds(offlineProbeInterval), metrics));
+			});
+		}
 
-		repositories.forEach((id, url) -> {
-			registerServletForMavenRepository(handler, id, url, credentials.get(id));
+		if (upstreamMaxRetries > 0) {
+			upstreamRepositories.values().forEach((upstreamRepository) -> {
+				upstreamRepository.setRetryPolicy(new UpstreamRetryPolicy(upstreamRepository.getId(), upstreamMaxRetries, upstreamRetryBudgetPercent, metrics));
+			});
+		}
+
+		if (upstreamStallTimeout > 0) {
+			upstreamRepositories.values().forEach((upstreamRepository) -> {
+				upstreamRepository.setStallDetector(new UpstreamStallDetector(upstreamRepository, Duration.ofSeconds(upstreamStallTimeout), upstreamMaxResumes, metrics));
+			});
+		}
+
+		if (proxyCache != null) {
+			upstreamRepositories.values().forEach((upstreamRepository) -> {
+				upstreamRepository.setRangedDownloader(createRangedDownloader(upstreamRepository, metrics));
+			});
+		} else if (rangedDownloadThreshold > 0) {
+			LOG.warn("No proxy cache configured. Ignoring --ranged-download-threshold.");
+		}
+
+		if (hedgeRequests) {
+			LOG.info("Hedging requests slower than p{} (budget {}%).", hedgePercentile, hedgeBudgetPercent);
+			handler.setAttribute(RequestHedger.class.getName(), new RequestHedger(hedgePercentile, hedgeBudgetPercent, metrics));
+		}
+
+		if (maxConcurrentRequests > 0) {
+			registerAdmissionControl(server, handler, upstreamRepositories, metrics);
+		}
+
+		upstreamRepositories.values().forEach((upstreamRepository) -> {
+			registerServletForMavenRepository(handler, upstreamRepository);
 		});
 
 		registerServletForMavenRepositoryList(handler, repositories);
+		registerServletForBatchFetching(handler);
+
+		if (sha256Index) {
+			registerServletForDigestLookup(handler, createDigestIndex(cache, proxyCache, metrics));
+		}
+
+		if (proxyCache != null) {
+			registerServletForCacheWarming(handler, createCacheWarmer(upstreamRepositories, cache, proxyCache));
+		}
 
 		server.start();
 
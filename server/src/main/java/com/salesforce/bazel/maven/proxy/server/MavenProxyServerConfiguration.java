@@ -14,12 +14,34 @@ import org.yaml.snakeyaml.constructor.Constructor;
 
 public class MavenProxyServerConfiguration {
 
+	public static class Cluster {
+
+		/** id of this node (usually passed on the command line instead) */
+		public String self;
+
+		/** all nodes of the cluster (id to base URL, eg. http://10.0.0.1:8498) */
+		public Map<String, String> nodes = new LinkedHashMap<>();
+
+	}
+
 	public static class MavenRepository {
 
 		public String url;
 		public String username;
 		public String password;
 
+		/** token service to exchange username and password for Bearer tokens */
+		public String tokenUrl;
+
+		/** overrides --ranged-download-threshold for this repository (MB) */
+		public Integer rangedDownloadThreshold;
+
+		/** overrides --ranged-download-chunk-size for this repository (MB) */
+		public Integer rangedDownloadChunkSize;
+
+		/** overrides --ranged-download-parallelism for this repository */
+		public Integer rangedDownloadParallelism;
+
 	}
 
 	public static MavenProxyServerConfiguration loadFromFile(Path configFile) throws IOException {
@@ -31,6 +53,12 @@ public class MavenProxyServerConfiguration {
 
 	public Map<String, MavenRepository> mavenRepositories = new LinkedHashMap<>();
 
+	public Cluster cluster;
+
+	public Cluster getCluster() {
+		return cluster;
+	}
+
 	public Map<String, MavenRepository> getMavenRepositories() {
 		return mavenRepositories;
 	}
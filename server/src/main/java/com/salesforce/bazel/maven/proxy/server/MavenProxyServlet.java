@@ -27,38 +27,35 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.net.Authenticator;
-import java.net.PasswordAuthentication;
-import java.net.Proxy;
-import java.net.ProxySelector;
-import java.net.SocketAddress;
 import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.HttpClient.Builder;
-import java.net.http.HttpClient.Redirect;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
 import java.net.http.HttpResponse.BodyHandlers;
 import java.net.http.HttpTimeoutException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Enumeration;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
 import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletOutputStream;
@@ -67,6 +64,7 @@ import jakarta.servlet.WriteListener;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.PushBuilder;
 
 public class MavenProxyServlet extends HttpServlet {
 
@@ -95,16 +93,40 @@ public class MavenProxyServlet extends HttpServlet {
 		private final InputStream content;
 		private final AsyncContext async;
 		private final ServletOutputStream out;
+		private final UpstreamStallDetector.ResumingInputStream resumable;
 
 		private StandardDataStream(InputStream content, AsyncContext async, ServletOutputStream out) {
+			this(content, async, out, null);
+		}
+
+		/**
+		 * @param resumable
+		 *            the watched upstream body <code>content</code> reads from
+		 *            (may be <code>null</code>); a resume of it is awaited
+		 *            without blocking
+		 */
+		private StandardDataStream(InputStream content, AsyncContext async, ServletOutputStream out, UpstreamStallDetector.ResumingInputStream resumable) {
 			this.content = content;
 			this.async = async;
 			this.out = out;
+			this.resumable = resumable;
+			if (resumable != null) {
+				resumable.setNonBlocking(true);
+			}
+		}
+
+		private void closeContent() {
+			try {
+				content.close();
+			} catch (IOException e) {
+				LOG.debug("Error closing upstream response: {}", e.getMessage());
+			}
 		}
 
 		@Override
 		public void onError(Throwable t) {
 			LOG.error("Error streaming from Maven repository", t);
+			closeContent();
 			async.complete();
 		}
 
@@ -119,28 +141,55 @@ public class MavenProxyServlet extends HttpServlet {
 
 				// If we are at EOF then complete
 				if (len < 0) {
+					closeContent();
 					async.complete();
 					return;
 				}
 
+				// continue once the upstream body was resumed
+				CompletableFuture<?> resume = (len == 0) && (resumable != null) ? resumable.getPendingResume() : null;
+				if (resume != null) {
+					resume.whenComplete((r, e) -> async.start(this::writeResumed));
+					return;
+				}
+
 				// write out the copy buffer.
 				out.write(buffer, 0, len);
 			}
 		}
+
+		private void writeResumed() {
+			try {
+				onWritePossible();
+			} catch (IOException | RuntimeException e) {
+				onError(e);
+			}
+		}
 	}
 
 	public static final String NON_RECOVERABLE_ERROR_CACHE_TTL = "nonRecoverableErrorCacheTtl";
-	public static final String PROXY_TO = "proxyTo";
-	public static final String USERNAME = "username";
-	public static final String PASSWORD = "password";
-	private static final String REQUEST_TIMEOUT_SECONDS = "requestTimeoutSeconds";
+	public static final String REPOSITORY_ID = "repositoryId";
+	public static final String PREDICT_SIBLINGS = "predictSiblings";
+	public static final String REQUEST_TIMEOUT_SECONDS = "requestTimeoutSeconds";
+
+	/** map with repository id as key and {@link UpstreamMavenRepository} as value */
+	public static final String UPSTREAM_REPOSITORIES_MAP = "upstreamRepositories";
 	private static final int DEFAULT_REQUEST_TIMEOUT_SECONDS = 20;
+	private static final String PEER_FAILED = MavenProxyServlet.class.getName() + ".peerFailed";
+	private static final String TIER_CHECKED = MavenProxyServlet.class.getName() + ".tierChecked";
+
+	/**
+	 * set when the servlet dispatches a request to itself again; other async
+	 * dispatches (eg., admission after queuing) are not re-dispatches
+	 */
+	private static final String REDISPATCHED = MavenProxyServlet.class.getName() + ".redispatched";
 
 	private static final Logger LOG = LoggerFactory.getLogger(MavenProxyServlet.class);
 
 	/** serialVersionUID */
 	private static final long serialVersionUID = 1L;
 	private static final Set<String> ALLOWED_HEADERS_TO_COPY = Set.of("accept", "accept-charset", "accept-encoding", "accept-language", "cache-control", "if-match", "if-modified-since", "if-none-match", "if-range", "if-unmodified-since", "range", "te", "transfer-encoding", "user-agent");
+	private static final Set<String> ALLOWED_RESPONSE_HEADERS_TO_COPY = Set.of("accept", "accept-charset", "accept-encoding", "accept-language", "cache-control", "content-encoding", "if-match", "if-modified-since", "if-none-match", "if-range", "if-unmodified-since", "range", "te", "transfer-encoding", "user-agent", "vary");
 
 	static void sendError(HttpServletResponse clientResponse, int code, String message) {
 		try {
@@ -154,20 +203,116 @@ public class MavenProxyServlet extends HttpServlet {
 		}
 	}
 
-	private String targetMavenRepository;
-	private Authenticator authenticator;
+	private UpstreamMavenRepository upstreamRepository;
 	private HttpClient httpClient;
 
 	private int requestTimeoutSeconds = DEFAULT_REQUEST_TIMEOUT_SECONDS;
 
 	private MavenRepositoryCache mavenCache;
+	private MavenProxyCache proxyCache;
+	private CachedContentManager contentManager;
+	private ArtifactPrefetcher prefetcher;
+	private PomGraphPrefetcher pomGraphPrefetcher;
+	private RequestHedger hedger;
+	private MavenProxyCluster cluster;
+	private boolean predictSiblings;
 
 	private final ConcurrentMap<String, CachedResponse> noneRecoverableErrorsByTargetCache = new ConcurrentHashMap<>();
 
+	/**
+	 * Tells the client about the artifacts it will likely request next and
+	 * starts prefetching them.
+	 */
+	private void announceSiblings(HttpServletRequest request, HttpServletResponse response, String path) {
+		List<String> siblings = ArtifactPrefetcher.predictSiblings(toRelativePath(path));
+		if (siblings.isEmpty())
+			return;
+
+		if (prefetcher != null) {
+			siblings.forEach((sibling) -> prefetcher.prefetch(upstreamRepository, sibling, "sibling"));
+		}
+
+		String prefix = request.getContextPath() + request.getServletPath() + "/";
+		PushBuilder pushBuilder = request.newPushBuilder();
+		if (pushBuilder != null) {
+			LOG.debug("{} pushing siblings of '{}'", getRequestId(request), path);
+			siblings.forEach((sibling) -> pushBuilder.path(prefix + sibling).push());
+		} else if ("HTTP/2.0".equals(request.getProtocol())) {
+			// only send 103 to HTTP/2 clients; many HTTP/1.1 clients don't expect interim responses
+			siblings.forEach((sibling) -> response.addHeader("Link", format("<%s%s>; rel=prefetch", prefix, sibling)));
+			try {
+				Request.getBaseRequest(request).getResponse().sendEarlyHint();
+			} catch (IOException e) {
+				LOG.debug("{} unable to send early hints: {}", getRequestId(request), e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Waits for a prefetch of the requested artifact in flight (if any) and
+	 * dispatches the request again once it completed.
+	 *
+	 * @return <code>true</code> if the request will be dispatched again,
+	 *         <code>false</code> otherwise
+	 */
+	private boolean awaitPrefetch(HttpServletRequest request, String path) {
+		if ((prefetcher == null) || (request.getAttribute(REDISPATCHED) != null) || (path == null))
+			return false;
+
+		CompletableFuture<File> prefetch = prefetcher.getInFlight(upstreamRepository.getId(), toRelativePath(path));
+		if (prefetch == null)
+			return false;
+
+		LOG.debug("{} waiting for prefetch of '{}'", getRequestId(request), path);
+		RequestTrace.Span span = RequestTrace.startSpan(request, "prefetch-wait");
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(0);
+		prefetch.whenComplete((file, e) -> {
+			span.end();
+			redispatch(request, asyncContext);
+		});
+		return true;
+	}
+
+	/**
+	 * Looks up the requested artifact in the second tier cache (if any) and
+	 * dispatches the request again once the lookup completed.
+	 *
+	 * @return <code>true</code> if the request will be dispatched again,
+	 *         <code>false</code> otherwise
+	 */
+	private boolean awaitSecondTier(HttpServletRequest request) {
+		if ((request.getAttribute(TIER_CHECKED) != null) || !"GET".equals(request.getMethod()))
+			return false;
+
+		Path proxyCachePath = getProxyCachePath(request);
+		if ((proxyCachePath == null) || !proxyCache.hasSecondTier())
+			return false;
+
+		request.setAttribute(TIER_CHECKED, Boolean.TRUE);
+		RequestTrace.Span span = RequestTrace.startClientSpan(request, "second-tier");
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(0);
+		proxyCache.fetchFromSecondTier(upstreamRepository.getId(), proxyCachePath, null).whenComplete((file, e) -> {
+			span.end();
+			if (file != null) {
+				LOG.debug("{} found '{}' in second tier cache", getRequestId(request), proxyCachePath);
+			}
+			redispatch(request, asyncContext);
+		});
+		return true;
+	}
+
 	private void copyHeaders(HttpServletRequest clientRequest, java.net.http.HttpRequest.Builder requestBuilder) {
+		// responses to be cached must not be encoded (compressed variants are created by the cache)
+		boolean identityOnly = getProxyCachePath(clientRequest) != null;
+
 		Enumeration<String> headerNames = clientRequest.getHeaderNames();
 		while (headerNames.hasMoreElements()) {
 			String header = headerNames.nextElement();
+			if (identityOnly && "accept-encoding".equalsIgnoreCase(header)) {
+				continue;
+			}
 			// copy only approved/allowed headers
 			if (ALLOWED_HEADERS_TO_COPY.contains(header.toLowerCase(Locale.ENGLISH))) {
 				Enumeration<String> values = clientRequest.getHeaders(header);
@@ -180,7 +325,7 @@ public class MavenProxyServlet extends HttpServlet {
 
 	private void copyHeaders(HttpServletResponse clientResponse, HttpResponse<?> response) {
 		response.headers().map().forEach((name, values) -> {
-			if (ALLOWED_HEADERS_TO_COPY.contains(name.toLowerCase(Locale.ENGLISH))) {
+			if (ALLOWED_RESPONSE_HEADERS_TO_COPY.contains(name.toLowerCase(Locale.ENGLISH))) {
 				values.forEach(value -> clientResponse.addHeader(name, value));
 			}
 		});
@@ -189,15 +334,93 @@ public class MavenProxyServlet extends HttpServlet {
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		String path = request.getPathInfo();
+		if (predictSiblings && (request.getAttribute(REDISPATCHED) == null)) {
+			announceSiblings(request, response, path);
+		}
+
+		RequestTrace.Span span = RequestTrace.startSpan(request, "local");
 		File cachedArtifact = findInLocalCache(path);
+		span.end();
+		if (cachedArtifact != null) {
+			AccessLog.setSource(request, upstreamRepository.getId(), AccessLog.Source.LOCAL);
+		} else {
+			span = RequestTrace.startSpan(request, "proxy-cache");
+			cachedArtifact = findInProxyCache(path);
+			span.end();
+			if (cachedArtifact != null) {
+				AccessLog.setSource(request, upstreamRepository.getId(), AccessLog.Source.PROXY_CACHE);
+				if (prefetcher != null) {
+					prefetcher.recordRequest(upstreamRepository.getId(), toRelativePath(path));
+				}
+			}
+		}
 		if (cachedArtifact != null) {
-			streamCachedArtifact(request, response, cachedArtifact);
+			onPom(path, cachedArtifact);
+			streamCachedArtifact(request, response, cachedArtifact, selectVariant(request, response, path, cachedArtifact));
+			return;
+		}
+
+		if (awaitPrefetch(request, path) || awaitSecondTier(request))
+			return;
+
+		MavenProxyCluster.Node owner = findOwningPeer(request);
+		if (owner != null) {
+			fetchFromPeer(request, response, owner);
 			return;
 		}
 
 		proxy(request, response);
 	}
 
+	private void fetchFromPeer(HttpServletRequest clientRequest, HttpServletResponse clientResponse, MavenProxyCluster.Node peer) throws IOException {
+		String path = clientRequest.getPathInfo();
+		Path proxyCachePath = getProxyCachePath(clientRequest);
+		LOG.debug("{} fetching '{}' from peer '{}'", getRequestId(clientRequest), path, peer);
+
+		final AsyncContext asyncContext = clientRequest.startAsync();
+		asyncContext.setTimeout(0);
+
+		ServletOutputStream clientOutputStream = clientResponse.getOutputStream();
+		RequestTrace.Span span = RequestTrace.startClientSpan(clientRequest, "peer");
+		cluster.fetch(peer, upstreamRepository.getId(), path, Duration.ofSeconds(requestTimeoutSeconds)).whenComplete((response, e) -> {
+			span.end();
+			if ((e != null) || (response.statusCode() >= 500)) {
+				// go upstream directly
+				if (response != null) {
+					MavenProxyCluster.discard(response);
+				}
+				clientRequest.setAttribute(PEER_FAILED, Boolean.TRUE);
+				redispatch(clientRequest, asyncContext);
+				return;
+			}
+
+			AccessLog.setSource(clientRequest, upstreamRepository.getId(), AccessLog.Source.PEER);
+			clientResponse.setStatus(response.statusCode());
+			copyHeaders(clientResponse, response);
+			clientResponse.setContentType(getServletContext().getMimeType(path));
+			RequestTrace.addServerTiming(clientRequest, clientResponse);
+			RequestTrace.startSpan(clientRequest, "stream");
+
+			InputStream body = response.body();
+			if ((proxyCachePath != null) && (response.statusCode() == 200) && response.headers().firstValue("content-encoding").isEmpty()) {
+				body = proxyCache.cacheWhileReading(upstreamRepository.getId(), proxyCachePath, body, (cachedFile) -> onPom(path, cachedFile));
+			}
+			clientOutputStream.setWriteListener(new StandardDataStream(body, asyncContext, clientOutputStream));
+		});
+	}
+
+	private MavenProxyCluster.Node findOwningPeer(HttpServletRequest request) {
+		// requests from peers are never forwarded again (avoids loops when nodes disagree about health)
+		if ((cluster == null) || (request.getHeader(MavenProxyCluster.PEER_HEADER) != null) || (request.getAttribute(PEER_FAILED) != null))
+			return null;
+
+		String path = request.getPathInfo();
+		if (!MavenProxyCache.isCacheable(path) || (request.getQueryString() != null) || (request.getHeader("range") != null))
+			return null;
+
+		return cluster.getOwner(upstreamRepository.getId(), path);
+	}
+
 	private File findInLocalCache(String path) {
 		if ((mavenCache == null) || (path == null) || path.isBlank() || path.equals("/"))
 			return null;
@@ -209,6 +432,18 @@ public class MavenProxyServlet extends HttpServlet {
 		return mavenCache.get(get(path));
 	}
 
+	private File findInProxyCache(String path) {
+		if ((proxyCache == null) || !MavenProxyCache.isCacheable(path))
+			return null;
+
+		try {
+			return proxyCache.get(upstreamRepository.getId(), get(toRelativePath(path)));
+		} catch (IllegalArgumentException e) {
+			LOG.debug("Ignoring invalid path '{}': {}", path, e.getMessage());
+			return null;
+		}
+	}
+
 	private HttpOutput getJettyServletOutputStream(HttpServletResponse response) throws IOException {
 		// this will fail when deployed outside of Jetty, which isn't supported
 		return (HttpOutput) response.getOutputStream();
@@ -219,7 +454,10 @@ public class MavenProxyServlet extends HttpServlet {
 	}
 
 	private void handleError(HttpServletResponse clientResponse, HttpRequest proxyRequest, Throwable e) {
-		if (e.getCause() instanceof HttpTimeoutException) {
+		if (e.getCause() instanceof UpstreamOfflineException) {
+			LOG.debug("Not connecting to Maven repository {}: {}", proxyRequest.uri(), e.getCause().getMessage());
+			sendError(clientResponse, HttpStatus.GATEWAY_TIMEOUT_504, "Proxied Maven repository is offline.");
+		} else if (e.getCause() instanceof HttpTimeoutException) {
 			LOG.error("Timeout connecting to Maven repository {}: {}", proxyRequest.uri(), e.getMessage());
 			sendError(clientResponse, HttpStatus.SERVICE_UNAVAILABLE_503, "Timeout connecting to target Maven repository.");
 		} else {
@@ -229,10 +467,16 @@ public class MavenProxyServlet extends HttpServlet {
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public void init() throws ServletException {
-		targetMavenRepository = getServletConfig().getInitParameter(PROXY_TO);
-		if (targetMavenRepository == null)
-			throw new UnavailableException("Init parameter 'proxyTo' is required.");
+		String repositoryId = getServletConfig().getInitParameter(REPOSITORY_ID);
+		if (repositoryId == null)
+			throw new UnavailableException("Init parameter 'repositoryId' is required.");
+
+		Map<String, UpstreamMavenRepository> upstreamRepositories = (Map<String, UpstreamMavenRepository>) getServletContext().getAttribute(UPSTREAM_REPOSITORIES_MAP);
+		upstreamRepository = upstreamRepositories != null ? upstreamRepositories.get(repositoryId) : null;
+		if (upstreamRepository == null)
+			throw new UnavailableException(format("Repository '%s' is not configured.", repositoryId));
 
 		String nonRecoverableErrorCacheTtlValue = getServletConfig().getInitParameter(NON_RECOVERABLE_ERROR_CACHE_TTL);
 		if (nonRecoverableErrorCacheTtlValue != null) {
@@ -245,6 +489,15 @@ public class MavenProxyServlet extends HttpServlet {
 		}
 
 		mavenCache = (MavenRepositoryCache) getServletConfig().getServletContext().getAttribute(MavenRepositoryCache.class.getName());
+		proxyCache = (MavenProxyCache) getServletConfig().getServletContext().getAttribute(MavenProxyCache.class.getName());
+		contentManager = (CachedContentManager) getServletConfig().getServletContext().getAttribute(CachedContentManager.class.getName());
+		if (contentManager == null)
+			throw new UnavailableException("Servlet context attribute 'CachedContentManager' is required.");
+		prefetcher = (ArtifactPrefetcher) getServletConfig().getServletContext().getAttribute(ArtifactPrefetcher.class.getName());
+		pomGraphPrefetcher = (PomGraphPrefetcher) getServletConfig().getServletContext().getAttribute(PomGraphPrefetcher.class.getName());
+		hedger = (RequestHedger) getServletConfig().getServletContext().getAttribute(RequestHedger.class.getName());
+		cluster = (MavenProxyCluster) getServletConfig().getServletContext().getAttribute(MavenProxyCluster.class.getName());
+		predictSiblings = Boolean.parseBoolean(getServletConfig().getInitParameter(PREDICT_SIBLINGS));
 
 		String requestTimeoutSecondsValue = getServletConfig().getInitParameter(REQUEST_TIMEOUT_SECONDS);
 		if (requestTimeoutSecondsValue != null) {
@@ -258,60 +511,22 @@ public class MavenProxyServlet extends HttpServlet {
 			requestTimeoutSeconds = DEFAULT_REQUEST_TIMEOUT_SECONDS;
 		}
 
-		String username = getServletConfig().getInitParameter(USERNAME);
-		String password = getServletConfig().getInitParameter(PASSWORD);
-		if ((username != null) && (password != null)) {
-			PasswordAuthentication passwordAuthentication = new PasswordAuthentication(username, password.toCharArray());
-			authenticator = new Authenticator() {
-				@Override
-				protected PasswordAuthentication getPasswordAuthentication() {
-					return passwordAuthentication;
-				}
-
-				@Override
-				public String toString() {
-					return username + ":<password>";
-				}
-			};
-		}
-
-		Builder httpClientBuilder = HttpClient.newBuilder().followRedirects(Redirect.NORMAL).connectTimeout(Duration.ofSeconds(5));
-		if (authenticator != null) {
-			LOG.debug("Using autentication: {}", authenticator);
-			httpClientBuilder.authenticator(authenticator);
-		}
+		httpClient = upstreamRepository.getHttpClient();
+	}
 
-		// if the JVM is not instructed to use system settings on purpose we
-		// replicate Bazel behavior, i.e.
-		// we read proxy settings from the environment
-		if (!Boolean.getBoolean("java.net.useSystemProxies")) {
-			ProxyHelper proxyHelper = new ProxyHelper(System.getenv());
-			LOG.debug("Configuring proxy selector from environment variables: {}", proxyHelper);
-			httpClientBuilder.proxy(new ProxySelector() {
+	private Path getProxyCachePath(HttpServletRequest clientRequest) {
+		// only complete responses of requests without query string
+		String path = clientRequest.getPathInfo();
+		if ((proxyCache == null) || !MavenProxyCache.isCacheable(path) || (clientRequest.getQueryString() != null) || (clientRequest.getHeader("range") != null))
+			return null;
 
-				@Override
-				public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
-					LOG.debug("Connect failed: {} {} - {}", uri, sa, ioe.getMessage(), ioe);
-				}
+		return get(toRelativePath(path));
+	}
 
-				@Override
-				public List<Proxy> select(URI uri) {
-					try {
-						Proxy proxy = proxyHelper.createProxyIfNeeded(uri);
-						if (proxy != Proxy.NO_PROXY) {
-							LOG.debug("Using proxy '{}' for URI '{}'", proxy, uri);
-						} else {
-							LOG.debug("Using direct connection to URI '{}'", uri);
-						}
-						return List.of(proxy);
-					} catch (IOException e) {
-						throw new IllegalStateException("Unable to create proxy!", e);
-					}
-				}
-			});
+	private void onPom(String path, File pomFile) {
+		if ((pomGraphPrefetcher != null) && (path != null) && path.endsWith(".pom")) {
+			pomGraphPrefetcher.onPom(upstreamRepository, toRelativePath(path), pomFile);
 		}
-
-		httpClient = httpClientBuilder.build();
 	}
 
 	private void proxy(HttpServletRequest clientRequest, HttpServletResponse clientResponse) throws ServletException, IOException {
@@ -324,28 +539,50 @@ public class MavenProxyServlet extends HttpServlet {
 			LOG.debug("{} rewriting: {} -> {}", getRequestId(clientRequest), target, rewrittenTarget);
 		}
 
+		RequestTrace.Span span = RequestTrace.startSpan(clientRequest, "negative-cache");
 		CachedResponse cachedResponse = noneRecoverableErrorsByTargetCache.get(rewrittenTarget);
+		span.end();
 		if (cachedResponse != null) {
 			if (cachedResponse.isExpired()) {
 				noneRecoverableErrorsByTargetCache.remove(rewrittenTarget, cachedResponse);
 			} else {
 				LOG.debug("{} cached response: {} -> {}", getRequestId(clientRequest), rewrittenTarget, cachedResponse.responseCode);
+				AccessLog.setSource(clientRequest, upstreamRepository.getId(), AccessLog.Source.NEGATIVE_CACHE);
+				ProxyEvents.NegativeCacheHitEvent.record(upstreamRepository.getId(), clientRequest.getPathInfo(), cachedResponse.responseCode);
+				RequestTrace.addServerTiming(clientRequest, clientResponse);
 				clientResponse.sendError(cachedResponse.responseCode);
 				return;
 			}
 		}
 
+		if (upstreamRepository.isOffline()) {
+			// fail fast instead of waiting for timeouts
+			LOG.debug("{} repository '{}' is offline: {}", getRequestId(clientRequest), upstreamRepository.getId(), rewrittenTarget);
+			RequestTrace.addServerTiming(clientRequest, clientResponse);
+			clientResponse.sendError(HttpStatus.GATEWAY_TIMEOUT_504, "Proxied Maven repository is offline.");
+			return;
+		}
+
 		HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().method(clientRequest.getMethod(), BodyPublishers.noBody()).uri(URI.create(rewrittenTarget)).timeout(Duration.ofSeconds(requestTimeoutSeconds));
 		copyHeaders(clientRequest, requestBuilder);
 
-		sendProxyRequest(clientRequest, clientResponse, requestBuilder.build(), rewrittenTarget);
+		// covers queueing, connecting and the time to the first byte of the response
+		RequestTrace.Span upstreamSpan = RequestTrace.startClientSpan(clientRequest, "upstream");
+		String traceparent = upstreamSpan.toTraceparent();
+		if (traceparent != null) {
+			requestBuilder.header("traceparent", traceparent);
+		}
+
+		sendProxyRequest(clientRequest, clientResponse, requestBuilder.build(), rewrittenTarget, upstreamSpan);
+	}
+
+	private void redispatch(HttpServletRequest request, AsyncContext asyncContext) {
+		request.setAttribute(REDISPATCHED, Boolean.TRUE);
+		asyncContext.dispatch();
 	}
 
 	private String rewriteTarget(HttpServletRequest clientRequest) throws ServletException {
-		StringBuilder uri = new StringBuilder(targetMavenRepository);
-		if (uri.charAt(uri.length() - 1) == '/') {
-			uri.setLength(uri.length() - 1);
-		}
+		StringBuilder uri = new StringBuilder(upstreamRepository.getUrl());
 
 		String pathInfo = clientRequest.getPathInfo();
 		if (pathInfo != null) {
@@ -360,55 +597,19 @@ public class MavenProxyServlet extends HttpServlet {
 		return uri.toString();
 	}
 
-	private void sendProxyRequest(HttpServletRequest clientRequest, HttpServletResponse clientResponse, HttpRequest proxyRequest, String rewrittenTarget) throws IOException {
-		if (LOG.isDebugEnabled()) {
-			StringBuilder clientRequestInfo = new StringBuilder(clientRequest.getMethod());
-			clientRequestInfo.append(" ").append(clientRequest.getRequestURI());
-			String clientRequestQueryString = clientRequest.getQueryString();
-			if (clientRequestQueryString != null) {
-				clientRequestInfo.append("?").append(clientRequestQueryString);
-			}
-			clientRequestInfo.append(" ").append(clientRequest.getProtocol()).append(System.lineSeparator());
-			for (Enumeration<String> headerNames = clientRequest.getHeaderNames(); headerNames.hasMoreElements();) {
-				String headerName = headerNames.nextElement();
-				clientRequestInfo.append(headerName).append(": ");
-				for (Enumeration<String> headerValues = clientRequest.getHeaders(headerName); headerValues.hasMoreElements();) {
-					String headerValue = headerValues.nextElement();
-					if (headerValue != null) {
-						clientRequestInfo.append(headerValue);
-					}
-					if (headerValues.hasMoreElements()) {
-						clientRequestInfo.append(",");
-					}
-				}
-				clientRequestInfo.append(System.lineSeparator());
-			}
-			clientRequestInfo.append(System.lineSeparator());
+	private <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest proxyRequest, BodyHandler<T> responseBodyHandler, Priority priority) {
+		if (hedger != null)
+			return hedger.send(upstreamRepository, proxyRequest, responseBodyHandler, priority);
 
-			StringBuilder proxyRequestInfo = new StringBuilder(proxyRequest.method());
-			proxyRequestInfo.append(" ").append(proxyRequest.uri());
-			String proxyRequestQueryString = clientRequest.getQueryString();
-			if (proxyRequestQueryString != null) {
-				proxyRequestInfo.append("?").append(proxyRequestQueryString);
-			}
-			proxyRequestInfo.append(System.lineSeparator());
-			proxyRequest.headers().map().entrySet().forEach(header -> {
-				proxyRequestInfo.append(header.getKey()).append(": ");
-				for (Iterator<String> values = header.getValue().iterator(); values.hasNext();) {
-					String value = values.next();
-					if (value != null) {
-						proxyRequestInfo.append(value);
-					}
-					if (values.hasNext()) {
-						proxyRequestInfo.append(",");
-					}
-				}
-				proxyRequestInfo.append(System.lineSeparator());
-			});
-			proxyRequestInfo.append(System.lineSeparator());
+		return upstreamRepository.sendAsync(proxyRequest, responseBodyHandler, priority, (bodyHandler) -> httpClient.sendAsync(proxyRequest, bodyHandler));
+	}
 
-			LOG.debug("{} proxying to upstream:{}{}{}", getRequestId(clientRequest), System.lineSeparator(), clientRequestInfo, proxyRequestInfo);
-		}
+	private void sendProxyRequest(HttpServletRequest clientRequest, HttpServletResponse clientResponse, HttpRequest proxyRequest, String rewrittenTarget, RequestTrace.Span upstreamSpan) throws IOException {
+		LOG.debug("{} proxying {} {} to upstream", getRequestId(clientRequest), proxyRequest.method(), proxyRequest.uri());
+		AccessLog.setSource(clientRequest, upstreamRepository.getId(), AccessLog.Source.UPSTREAM);
+
+		final Path proxyCachePath = "GET".equals(proxyRequest.method()) ? getProxyCachePath(clientRequest) : null;
+		final Priority priority = Priority.of(proxyRequest.method(), proxyRequest.uri().getPath());
 
 		// we do not timeout the continuation, but the proxy request.
 		final AsyncContext asyncContext = clientRequest.startAsync();
@@ -417,8 +618,10 @@ public class MavenProxyServlet extends HttpServlet {
 		ServletOutputStream clientOutputStream = clientResponse.getOutputStream();
 
 		if ("HEAD".equals(proxyRequest.method())) {
-			httpClient.sendAsync(proxyRequest, BodyHandlers.discarding()).whenComplete((response, e) -> {
+			sendAsync(proxyRequest, BodyHandlers.discarding(), priority).whenComplete((response, e) -> {
+				upstreamSpan.end();
 				try {
+					RequestTrace.addServerTiming(clientRequest, clientResponse);
 					if (e != null) {
 						handleError(clientResponse, proxyRequest, e);
 					} else {
@@ -430,18 +633,40 @@ public class MavenProxyServlet extends HttpServlet {
 				}
 			});
 		} else {
-			httpClient.sendAsync(proxyRequest, BodyHandlers.ofInputStream()).thenAccept(response -> {
+			sendAsync(proxyRequest, BodyHandlers.ofInputStream(), priority).thenAccept(response -> {
+				upstreamSpan.end();
 				clientResponse.setStatus(response.statusCode());
 				copyHeaders(clientResponse, response);
+				RequestTrace.addServerTiming(clientRequest, clientResponse);
+				RequestTrace.startSpan(clientRequest, "stream");
 
 				if (response.statusCode() == 404) {
 					noneRecoverableErrorsByTargetCache.put(rewrittenTarget, new CachedResponse(404));
 				}
 
 				InputStream body = response.body();
-				clientOutputStream.setWriteListener(new StandardDataStream(body, asyncContext, clientOutputStream));
+				UpstreamStallDetector.ResumingInputStream resumable = null;
+				UpstreamStallDetector stallDetector = upstreamRepository.getStallDetector();
+				if ((stallDetector != null) && (response.statusCode() == 200)) {
+					resumable = stallDetector.watch(proxyRequest, priority, response);
+					body = resumable;
+				}
+				RangedDownloader rangedDownloader = upstreamRepository.getRangedDownloader();
+				if ((proxyCachePath != null) && (rangedDownloader != null) && rangedDownloader.accepts(response)) {
+					// large artifact, stream the contiguous prefix while ranges are downloaded concurrently
+					String path = proxyCachePath.toString();
+					response.headers().firstValueAsLong("content-length").ifPresent(clientResponse::setContentLengthLong);
+					body = proxyCache.downloadInRanges(rangedDownloader, upstreamRepository.getId(), proxyCachePath, proxyRequest, priority, response, body, (cachedFile) -> onPom(path, cachedFile));
+					resumable = null; // read by the downloader, which may block
+				} else if ((proxyCachePath != null) && (response.statusCode() == 200) && response.headers().firstValue("content-encoding").isEmpty()) {
+					String path = proxyCachePath.toString();
+					body = proxyCache.cacheWhileReading(upstreamRepository.getId(), proxyCachePath, body, (cachedFile) -> onPom(path, cachedFile));
+				}
+				clientOutputStream.setWriteListener(new StandardDataStream(body, asyncContext, clientOutputStream, resumable));
 			}).exceptionally(e -> {
+				upstreamSpan.end();
 				try {
+					RequestTrace.addServerTiming(clientRequest, clientResponse);
 					handleError(clientResponse, proxyRequest, e);
 				} finally {
 					asyncContext.complete();
@@ -467,43 +692,80 @@ public class MavenProxyServlet extends HttpServlet {
 		}
 	}
 
-	private void streamCachedArtifact(HttpServletRequest request, HttpServletResponse response, File cachedArtifact) throws IOException, FileNotFoundException {
+	private File selectVariant(HttpServletRequest request, HttpServletResponse response, String path, File cachedArtifact) {
+		if (!ContentCoding.isCompressible(path))
+			return cachedArtifact;
+
+		response.addHeader("Vary", "Accept-Encoding");
+		if ((proxyCache == null) || !ContentCoding.acceptsGzip(request.getHeader("Accept-Encoding")))
+			return cachedArtifact;
+
+		File variant = proxyCache.getGzipVariant(upstreamRepository.getId(), get(toRelativePath(path)), cachedArtifact);
+		if ((variant == null) || (variant.length() >= cachedArtifact.length()))
+			return cachedArtifact;
+
+		response.setHeader("Content-Encoding", ContentCoding.GZIP);
+		return variant;
+	}
+
+	private void streamCachedArtifact(HttpServletRequest request, HttpServletResponse response, File cachedArtifact, File cachedContent) throws IOException, FileNotFoundException {
 		// inspired heavily by:
 		// https://webtide.com/servlet-3-1-async-io-and-jetty/
 		if (LOG.isDebugEnabled()) {
-			LOG.debug("Streaming cached artifact '{}'", cachedArtifact);
+			LOG.debug("Streaming cached artifact '{}'", cachedContent);
 		}
 		response.setContentType(getServletContext().getMimeType(cachedArtifact.getAbsolutePath()));
-		response.setContentLengthLong(cachedArtifact.length());
-
-		ByteBuffer filedMappedBuffer;
-		try (RandomAccessFile raf = new RandomAccessFile(cachedArtifact, "r")) {
-			filedMappedBuffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
-		}
-
-		// write the buffer asynchronously
-		final ByteBuffer content = filedMappedBuffer.asReadOnlyBuffer();
-		final HttpOutput out = getJettyServletOutputStream(response);
-		final AsyncContext async = request.startAsync();
-		out.setWriteListener(new WriteListener() {
-			@Override
-			public void onError(Throwable t) {
-				getServletContext().log(format("Error while streaming Maven artifact '%s' from cache: %s", cachedArtifact, t.getMessage()), t);
-				async.complete();
-			}
+		final String path = request.getPathInfo();
+		final ProxyEvents.CachedContentStreamEvent event = new ProxyEvents.CachedContentStreamEvent();
+		event.begin();
+		RequestTrace.Span span = RequestTrace.startSpan(request, "cache-read");
+		final CachedContentManager.Content content = contentManager.open(cachedContent);
+		try {
+			final ByteBuffer buffer = content.getBuffer();
+			final long length = buffer.remaining();
+			span.end();
+			response.setContentLengthLong(length);
+			RequestTrace.addServerTiming(request, response);
+			final RequestTrace.Span streamSpan = RequestTrace.startSpan(request, "stream");
+
+			// write the buffer asynchronously
+			final HttpOutput out = getJettyServletOutputStream(response);
+			final AsyncContext async = request.startAsync();
+			out.setWriteListener(new WriteListener() {
+				@Override
+				public void onError(Throwable t) {
+					getServletContext().log(format("Error while streaming Maven artifact '%s' from cache: %s", cachedArtifact, t.getMessage()), t);
+					event.end(upstreamRepository.getId(), path, length - buffer.remaining(), content.isMapped(), "error");
+					// a failed write may still reference the buffer; unmapping it now could crash the JVM
+					content.abandon();
+					async.complete();
+				}
 
-			@Override
-			public void onWritePossible() throws IOException {
-				while (out.isReady()) {
-					if (!content.hasRemaining()) {
-						async.complete();
-						return;
-					}
+				@Override
+				public void onWritePossible() throws IOException {
+					while (out.isReady()) {
+						if (!buffer.hasRemaining()) {
+							// the previous write completed, i.e. Jetty no longer references the buffer
+							streamSpan.end();
+							event.end(upstreamRepository.getId(), path, length, content.isMapped(), "complete");
+							content.close();
+							async.complete();
+							return;
+						}
 
-					out.write(content);
+						out.write(buffer);
+					}
 				}
-			}
-		});
+			});
+		} catch (IOException | RuntimeException e) {
+			// nothing was written yet
+			content.close();
+			throw e;
+		}
+	}
+
+	private String toRelativePath(String path) {
+		return (path != null) && path.startsWith("/") ? path.substring(1) : path;
 	}
 
 }
@@ -7,18 +7,38 @@ import static java.nio.file.Path.of;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A cache to lookup files/resources from the local Maven repository.
+ * <p>
+ * Files not found in the local Maven repository are looked up in additional
+ * {@link LocalArtifactSource sources} in the order they were added (eg., the
+ * Gradle dependency cache).
+ * </p>
  */
 public class MavenRepositoryCache {
 
 	private static final Logger LOG = LoggerFactory.getLogger(MavenRepositoryCache.class);
 
+	static Path sanitize(Path path) {
+		// normalize path and make relative to prevent access outside Maven repo
+		Path normalized = path.normalize();
+		if (normalized.isAbsolute()) {
+			normalized = of("/").relativize(normalized);
+		}
+		if (LOG.isWarnEnabled() && !path.equals(normalized)) {
+			LOG.warn("Normalized input {} --> {}", path, normalized);
+		}
+		return normalized;
+	}
+
 	private final Path localRepositoryPath;
+	private final List<LocalArtifactSource> sources = new CopyOnWriteArrayList<>();
 
 	public MavenRepositoryCache(Path localRepositoryPath) {
 		if (!isDirectory(localRepositoryPath))
@@ -27,27 +47,33 @@ public class MavenRepositoryCache {
 		this.localRepositoryPath = localRepositoryPath;
 	}
 
+	/**
+	 * Adds a source to look up files not found in the local Maven repository.
+	 *
+	 * @param source
+	 *            the source
+	 */
+	public void addSource(LocalArtifactSource source) {
+		sources.add(source);
+	}
+
 	public File get(Path path) {
-		Path entryPath = localRepositoryPath.resolve(sanitize(path));
+		ProxyEvents.LocalLookupEvent event = new ProxyEvents.LocalLookupEvent();
+		event.begin();
+		Path sanitized = sanitize(path);
+		Path entryPath = localRepositoryPath.resolve(sanitized);
 		if (isRegularFile(entryPath))
-			return entryPath.toFile();
+			return event.end(sanitized, "m2", entryPath.toFile());
 
-		return null;
+		for (LocalArtifactSource source : sources) {
+			File file = source.get(sanitized);
+			if (file != null)
+				return event.end(sanitized, source.getName(), file);
+		}
+		return event.end(sanitized, null, null);
 	}
 
 	public Path getLocalRepositoryPath() {
 		return localRepositoryPath;
 	}
-
-	private Path sanitize(Path path) {
-		// normalize path and make relative to prevent access outside Maven repo
-		Path normalized = path.normalize();
-		if (normalized.isAbsolute()) {
-			normalized = of("/").relativize(normalized);
-		}
-		if (LOG.isWarnEnabled() && !path.equals(normalized)) {
-			LOG.warn("Normalized input {} --> {}", path, normalized);
-		}
-		return normalized;
-	}
 }
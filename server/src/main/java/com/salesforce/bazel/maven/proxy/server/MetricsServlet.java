@@ -0,0 +1,33 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Prints all {@link ProxyMetrics} counters (Prometheus text format).
+ */
+public class MetricsServlet extends HttpServlet {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private ProxyMetrics metrics;
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setContentType("text/plain; version=0.0.4");
+		try (PrintWriter writer = response.getWriter()) {
+			metrics.print(writer);
+		}
+	}
+
+	@Override
+	public void init() throws ServletException {
+		metrics = (ProxyMetrics) getServletContext().getAttribute(ProxyMetrics.class.getName());
+	}
+}
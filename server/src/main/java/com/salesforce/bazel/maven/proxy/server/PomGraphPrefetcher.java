@@ -0,0 +1,145 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.file.Files.newInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the POM graph in the background and prefetches referenced POMs.
+ * <p>
+ * Every POM flowing through the proxy is parsed (off the request thread) for
+ * its parent, dependencies and imported BOMs, which are then prefetched into
+ * the proxy cache via the {@link ArtifactPrefetcher}. Prefetched POMs are
+ * walked as well, up to a maximum depth and a maximum number of prefetches per
+ * walk. This turns the sequential, latency bound walk of a resolver over a
+ * cold dependency tree into a parallel one.
+ * </p>
+ * <p>
+ * POMs available locally are read from the cache and walked without charging
+ * the budget, so the walk continues past the warm part of a tree.
+ * </p>
+ */
+public class PomGraphPrefetcher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PomGraphPrefetcher.class);
+
+	private static final String REASON = "pom_graph";
+	private static final int MAX_QUEUED_POMS = 1000;
+	private static final int MAX_WALKED_POMS = 100_000;
+
+	private final ArtifactPrefetcher prefetcher;
+	private final ProxyMetrics metrics;
+	private final int maxDepth;
+	private final int budget;
+	private final ExecutorService parser;
+
+	/** POMs walked already (a walk is only needed once per POM) */
+	private final Set<String> walkedPoms = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param prefetcher
+	 *            the prefetcher
+	 * @param metrics
+	 *            metrics for recording parse outcomes
+	 * @param maxDepth
+	 *            maximum depth to walk (1 = only direct references of a
+	 *            requested POM)
+	 * @param budget
+	 *            maximum number of POMs to download from upstream per
+	 *            requested POM
+	 */
+	public PomGraphPrefetcher(ArtifactPrefetcher prefetcher, ProxyMetrics metrics, int maxDepth, int budget) {
+		this.prefetcher = prefetcher;
+		this.metrics = metrics;
+		this.maxDepth = maxDepth;
+		this.budget = budget;
+
+		// a single parser thread is plenty; drop work when falling behind
+		parser = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(MAX_QUEUED_POMS), (runnable) -> {
+			Thread thread = new Thread(runnable, "pom-graph-prefetcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Called for every POM served to a client.
+	 *
+	 * @param repository
+	 *            the repository the POM was requested from
+	 * @param path
+	 *            the path of the POM (without leading slash)
+	 * @param pomFile
+	 *            the POM file
+	 */
+	public void onPom(UpstreamMavenRepository repository, String path, File pomFile) {
+		walk(repository, path, pomFile, 1, new AtomicInteger(budget));
+	}
+
+	private void prefetchReferences(UpstreamMavenRepository repository, File pomFile, int depth, AtomicInteger remainingBudget) {
+		Set<String> references;
+		try (InputStream in = newInputStream(pomFile.toPath())) {
+			references = MavenPomParser.parseReferencedPoms(in);
+		} catch (IOException e) {
+			metrics.increment("prefetch_pom_graph_parse_errors_total");
+			LOG.debug("Unable to parse POM '{}': {}", pomFile, e.getMessage());
+			return;
+		}
+		metrics.increment("prefetch_pom_graph_parsed_total");
+
+		for (String reference : references) {
+			// POMs available locally cost nothing but may reference missing ones
+			File cachedPomFile = prefetcher.getCached(repository, reference);
+			if (cachedPomFile != null) {
+				if (depth < maxDepth) {
+					walk(repository, reference, cachedPomFile, depth + 1, remainingBudget);
+				}
+				continue;
+			}
+
+			if (remainingBudget.get() <= 0) {
+				LOG.debug("Prefetch budget exhausted while walking '{}'", pomFile);
+				continue;
+			}
+
+			CompletableFuture<File> download = prefetcher.prefetch(repository, reference, REASON);
+			if (download == null)
+				continue;
+
+			remainingBudget.decrementAndGet();
+			if (depth < maxDepth) {
+				download.thenAccept((referencedPomFile) -> walk(repository, reference, referencedPomFile, depth + 1, remainingBudget));
+			}
+		}
+	}
+
+	private void walk(UpstreamMavenRepository repository, String path, File pomFile, int depth, AtomicInteger remainingBudget) {
+		if (!walkedPoms.add(repository.getId() + ":" + path))
+			return;
+
+		if (walkedPoms.size() > MAX_WALKED_POMS) {
+			walkedPoms.clear();
+		}
+
+		try {
+			parser.execute(() -> prefetchReferences(repository, pomFile, depth, remainingBudget));
+		} catch (RejectedExecutionException e) {
+			walkedPoms.remove(repository.getId() + ":" + path);
+			metrics.increment("prefetch_pom_graph_rejected_total");
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.concurrent.CompletionException;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the proxy.
+ * <p>
+ * Events are only recorded while a recording enabling them is running (eg.,
+ * one started with {@link #getConfiguration() the bundled profile}); otherwise
+ * creating and committing them is close to free. Events of a request are
+ * recorded on the thread handling it, i.e. they can be correlated with JDK
+ * events (eg., GC pauses, socket reads or monitor contention) by thread and
+ * time.
+ * </p>
+ */
+public final class ProxyEvents {
+
+	/**
+	 * Records a {@link RequestEvent} for every request.
+	 * <p>
+	 * Registered as {@link HttpChannel.Listener} on all connectors, i.e. the
+	 * event covers a request from the first byte read until the last byte
+	 * written, including any asynchronous dispatches in between.
+	 * </p>
+	 */
+	public static final class RequestRecorder implements HttpChannel.Listener {
+
+		private static final String EVENT = RequestRecorder.class.getName() + ".event";
+
+		@Override
+		public void onComplete(Request request) {
+			Object event = request.getAttribute(EVENT);
+			if (event instanceof RequestEvent) {
+				((RequestEvent) event).end(request);
+			}
+		}
+
+		@Override
+		public void onRequestBegin(Request request) {
+			RequestEvent event = new RequestEvent();
+			if (!event.isEnabled())
+				return;
+
+			event.begin();
+			request.setAttribute(EVENT, event);
+		}
+	}
+
+	@Name(PREFIX + "Request")
+	@Label("Request")
+	@Category(CATEGORY)
+	@Description("A request handled by the proxy")
+	@StackTrace(false)
+	public static final class RequestEvent extends Event {
+
+		@Label("Method")
+		String method;
+
+		@Label("Path")
+		String path;
+
+		@Label("Repository")
+		String repositoryId;
+
+		@Label("Source")
+		@Description("Where the response was served from (local, proxy_cache, negative_cache, upstream, peer or digest_index)")
+		String source;
+
+		@Label("Status")
+		int status;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		void end(Request request) {
+			end();
+			if (!shouldCommit())
+				return;
+
+			AccessLog.Source source = AccessLog.getSource(request);
+			method = request.getMethod();
+			path = request.getRequestURI();
+			repositoryId = AccessLog.getRepositoryId(request);
+			this.source = source != null ? source.getValue() : null;
+			status = request.getResponse().getStatus();
+			bytes = request.getResponse().getHttpChannel().getBytesWritten();
+			commit();
+		}
+	}
+
+	@Name(PREFIX + "LocalLookup")
+	@Label("Local Lookup")
+	@Category(CATEGORY)
+	@Description("A lookup in the local Maven repository and additional local sources")
+	@StackTrace(false)
+	public static final class LocalLookupEvent extends Event {
+
+		@Label("Path")
+		String path;
+
+		@Label("Source")
+		@Description("The source the file was found in (m2 or the name of a local source)")
+		String source;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Outcome")
+		String outcome;
+
+		File end(Path path, String source, File file) {
+			end();
+			if (shouldCommit()) {
+				this.path = path.toString();
+				this.source = source;
+				bytes = file != null ? file.length() : 0;
+				outcome = file != null ? "hit" : "miss";
+				commit();
+			}
+			return file;
+		}
+	}
+
+	@Name(PREFIX + "NegativeCacheHit")
+	@Label("Negative Cache Hit")
+	@Category(CATEGORY)
+	@Description("A request answered with a cached non-recoverable error of the proxied repository")
+	@StackTrace(false)
+	public static final class NegativeCacheHitEvent extends Event {
+
+		@Label("Repository")
+		String repositoryId;
+
+		@Label("Path")
+		String path;
+
+		@Label("Status")
+		int status;
+
+		static void record(String repositoryId, String path, int status) {
+			NegativeCacheHitEvent event = new NegativeCacheHitEvent();
+			if (!event.shouldCommit())
+				return;
+
+			event.repositoryId = repositoryId;
+			event.path = path;
+			event.status = status;
+			event.commit();
+		}
+	}
+
+	@Name(PREFIX + "UpstreamExchange")
+	@Label("Upstream Exchange")
+	@Category(CATEGORY)
+	@Description("A request to a proxied repository until the response headers were received (including queueing and retries)")
+	@StackTrace(false)
+	public static final class UpstreamExchangeEvent extends Event {
+
+		@Label("Repository")
+		String repositoryId;
+
+		@Label("Method")
+		String method;
+
+		@Label("Path")
+		String path;
+
+		@Label("Status")
+		int status;
+
+		@Label("Bytes")
+		@Description("The Content-Length of the response (-1 if unknown)")
+		@DataAmount
+		long bytes;
+
+		@Label("Outcome")
+		@Description("ok or the type of the failure")
+		String outcome;
+
+		void end(String repositoryId, HttpRequest request, HttpResponse<?> response, Throwable e) {
+			end();
+			if (!shouldCommit())
+				return;
+
+			Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+			this.repositoryId = repositoryId;
+			method = request.method();
+			path = request.uri().getPath();
+			status = response != null ? response.statusCode() : 0;
+			bytes = response != null ? response.headers().firstValueAsLong("content-length").orElse(-1) : -1;
+			outcome = cause != null ? cause.getClass().getSimpleName() : "ok";
+			commit();
+		}
+	}
+
+	@Name(PREFIX + "CachedContentStream")
+	@Label("Cached Content Stream")
+	@Category(CATEGORY)
+	@Description("Streaming a file from the local Maven repository or the proxy cache to a client")
+	@StackTrace(false)
+	public static final class CachedContentStreamEvent extends Event {
+
+		@Label("Repository")
+		String repositoryId;
+
+		@Label("Path")
+		String path;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Memory Mapped")
+		boolean mapped;
+
+		@Label("Outcome")
+		String outcome;
+
+		void end(String repositoryId, String path, long bytes, boolean mapped, String outcome) {
+			end();
+			if (!shouldCommit())
+				return;
+
+			this.repositoryId = repositoryId;
+			this.path = path;
+			this.bytes = bytes;
+			this.mapped = mapped;
+			this.outcome = outcome;
+			commit();
+		}
+	}
+
+	static final String CATEGORY = "Bazel Maven Proxy";
+
+	static final String PREFIX = "com.salesforce.bazel.maven.proxy.";
+
+	/**
+	 * Returns the bundled recording profile (<code>proxy.jfc</code>).
+	 * <p>
+	 * The profile enables the proxy events with thresholds and only a few
+	 * inexpensive JDK events, so that it can be recorded continuously in
+	 * production.
+	 * </p>
+	 *
+	 * @return the configuration
+	 * @throws IOException
+	 *             if the profile cannot be read
+	 */
+	public static Configuration getConfiguration() throws IOException {
+		try (InputStream in = ProxyEvents.class.getResourceAsStream("proxy.jfc"); Reader reader = new InputStreamReader(in, UTF_8)) {
+			return Configuration.create(reader);
+		} catch (ParseException e) {
+			throw new IOException("Invalid bundled recording profile: " + e.getMessage(), e);
+		}
+	}
+
+	private ProxyEvents() {
+		// empty
+	}
+}
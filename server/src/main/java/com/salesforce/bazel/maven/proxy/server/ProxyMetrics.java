@@ -0,0 +1,68 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Simple registry of monotonically increasing counters and gauges.
+ * <p>
+ * Counters are created on first use and printed in the Prometheus text
+ * exposition format by the {@link MetricsServlet}. Labels are simply part of
+ * the name (eg., <code>requests_total{repository="central"}</code>).
+ * </p>
+ */
+public class ProxyMetrics {
+
+	private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+	private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+	public void add(String name, long value) {
+		counters.computeIfAbsent(name, (n) -> new LongAdder()).add(value);
+	}
+
+	/**
+	 * Registers a gauge, i.e. a value which is computed when printing metrics.
+	 *
+	 * @param name
+	 *            the name (including labels)
+	 * @param value
+	 *            supplies the current value
+	 */
+	public void gauge(String name, LongSupplier value) {
+		gauges.put(name, value);
+	}
+
+	public long get(String name) {
+		LongAdder counter = counters.get(name);
+		return counter != null ? counter.sum() : 0L;
+	}
+
+	public void increment(String name) {
+		add(name, 1L);
+	}
+
+	public void print(PrintWriter writer) {
+		print(writer, "counter", counters, LongAdder::sum);
+		print(writer, "gauge", gauges, LongSupplier::getAsLong);
+		writer.flush();
+	}
+
+	private <T> void print(PrintWriter writer, String type, Map<String, T> metrics, ToLongFunction<T> value) {
+		String family = null;
+		for (Map.Entry<String, T> entry : metrics.entrySet()) {
+			String name = entry.getKey();
+			// labels are part of the name, eg. 'requests_total{repository="central"}'
+			int labels = name.indexOf('{');
+			String metricFamily = labels > 0 ? name.substring(0, labels) : name;
+			if (!metricFamily.equals(family)) {
+				family = metricFamily;
+				writer.printf("# TYPE %s %s%n", family, type);
+			}
+			writer.printf("%s %d%n", name, value.applyAsLong(entry.getValue()));
+		}
+	}
+}
@@ -0,0 +1,462 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+/**
+ * Downloads large artifacts from an upstream repository with several
+ * concurrent range requests.
+ * <p>
+ * A single stream over a link with high latency is limited by the throughput
+ * of one TCP connection. When a response advertises <code>Accept-Ranges</code>
+ * and its <code>Content-Length</code> is at least the threshold, the body of
+ * that response is used for the first chunk only and the remaining chunks are
+ * requested concurrently (<code>Range</code> with <code>If-Range</code>, so all
+ * chunks come from the same representation). Chunks are written into a sparse
+ * download file at their offset; the contiguous prefix of the file can be read
+ * while the download is still in progress.
+ * </p>
+ */
+public class RangedDownloader {
+
+	/**
+	 * A download in progress.
+	 */
+	public final class Download {
+
+		/**
+		 * Reads the contiguous prefix of the download file, waiting for more
+		 * content as needed.
+		 */
+		private final class PrefixInputStream extends InputStream {
+
+			private final FileChannel channel;
+			private long position;
+
+			PrefixInputStream(FileChannel channel) {
+				this.channel = channel;
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				int len = read(b, 0, 1);
+				return len < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+
+				long available = awaitContiguous(position);
+				if (position >= contentLength)
+					return -1;
+
+				int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available - position)), position);
+				if (read < 0)
+					throw new IOException(format("Unexpected end of download file for %s", uri));
+				position += read;
+				return read;
+			}
+		}
+
+		/**
+		 * Writes the body of a range response into the download file.
+		 */
+		private final class ChunkSubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+
+			private final int chunk;
+			private long offset;
+			private Flow.Subscription subscription;
+
+			ChunkSubscriber(int chunk) {
+				this.chunk = chunk;
+			}
+
+			@Override
+			public void onComplete() {
+				if (offset != getChunkLength(chunk)) {
+					fail(new IOException(format("Range response for chunk %d of %s ended after %d of %d bytes", chunk, uri, offset, getChunkLength(chunk))));
+				}
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				// reported by the response future
+			}
+
+			@Override
+			public void onNext(List<ByteBuffer> buffers) {
+				try {
+					for (ByteBuffer buffer : buffers) {
+						offset = write(chunk, offset, buffer);
+					}
+					subscription.request(1);
+				} catch (IOException e) {
+					subscription.cancel();
+					fail(e);
+				}
+			}
+
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+		}
+
+		private final URI uri;
+		private final Priority priority;
+		private final Duration timeout;
+		private final long contentLength;
+		private final int chunkCount;
+		private final Optional<String> validator;
+		private final FileChannel channel;
+		private final PrefixInputStream inputStream;
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+		/** bytes written per chunk (from the start of the chunk, without gaps) */
+		private final long[] written;
+		private int firstIncompleteChunk;
+		private int nextChunk;
+		private int completedChunks;
+		private int inFlight;
+		private long contiguous;
+		private Throwable failure;
+
+		Download(HttpRequest request, Priority priority, long contentLength, Optional<String> validator, Path downloadFile) throws IOException {
+			uri = request.uri();
+			this.priority = priority;
+			timeout = request.timeout().orElse(Duration.ofSeconds(20));
+			this.contentLength = contentLength;
+			this.validator = validator;
+			chunkCount = (int) ((contentLength + chunkSize - 1) / chunkSize);
+			written = new long[chunkCount];
+
+			// chunks are written at their offset, leaving holes until filled
+			channel = FileChannel.open(downloadFile, StandardOpenOption.WRITE);
+			try {
+				inputStream = new PrefixInputStream(FileChannel.open(downloadFile, StandardOpenOption.READ));
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		private synchronized long awaitContiguous(long position) throws IOException {
+			while ((contiguous <= position) && (position < contentLength)) {
+				if (failure != null)
+					throw new IOException(format("Download of %s failed: %s", uri, failure.getMessage()), failure);
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(format("Interrupted while waiting for download of %s", uri));
+				}
+			}
+			return contiguous;
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.debug("Error closing download file of {}: {}", uri, e.getMessage());
+			}
+		}
+
+		private void fail(Throwable e) {
+			synchronized (this) {
+				if (failure != null)
+					return;
+				failure = e;
+				notifyAll();
+			}
+			metrics.increment(format("ranged_downloads_failed_total{repository=\"%s\"}", repository.getId()));
+			close();
+			completion.completeExceptionally(e);
+		}
+
+		private void fetchChunk(int chunk) {
+			long start = (long) chunk * chunkSize;
+			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(uri).GET().timeout(timeout).header("Range", format("bytes=%d-%d", start, (start + getChunkLength(chunk)) - 1));
+			validator.ifPresent((value) -> requestBuilder.header("If-Range", value));
+
+			// called once per attempt (retries start the chunk over)
+			BodyHandler<Void> bodyHandler = (responseInfo) -> {
+				String contentRange = responseInfo.headers().firstValue("content-range").orElse("");
+				if ((responseInfo.statusCode() != 206) || !contentRange.startsWith(format("bytes %d-%d/", start, (start + getChunkLength(chunk)) - 1))) {
+					fail(new IOException(format("Unexpected response to range request for chunk %d of %s (HTTP %d, Content-Range '%s')", chunk, uri, responseInfo.statusCode(), contentRange)));
+					return BodySubscribers.replacing(null);
+				}
+				return BodySubscribers.fromSubscriber(new ChunkSubscriber(chunk));
+			};
+
+			metrics.increment(format("ranged_download_requests_total{repository=\"%s\"}", repository.getId()));
+			repository.sendAsync(requestBuilder.build(), bodyHandler, priority).whenComplete((response, e) -> {
+				if (e != null) {
+					fail(e);
+				} else {
+					onChunkComplete(chunk);
+				}
+			});
+		}
+
+		/**
+		 * @return a future completing once the download file is complete
+		 */
+		public CompletableFuture<Void> getCompletion() {
+			return completion;
+		}
+
+		long getChunkLength(int chunk) {
+			return Math.min(chunkSize, contentLength - ((long) chunk * chunkSize));
+		}
+
+		public long getContentLength() {
+			return contentLength;
+		}
+
+		/**
+		 * @return a stream reading the download as it progresses (fails if the
+		 *         download fails)
+		 */
+		public InputStream getInputStream() {
+			return inputStream;
+		}
+
+		private void onChunkComplete(int chunk) {
+			List<Integer> chunks;
+			boolean done;
+			synchronized (this) {
+				if (failure != null)
+					return;
+				if (written[chunk] != getChunkLength(chunk)) {
+					fail(new IOException(format("Chunk %d of %s is incomplete (%d of %d bytes)", chunk, uri, written[chunk], getChunkLength(chunk))));
+					return;
+				}
+				inFlight--;
+				completedChunks++;
+				done = completedChunks == chunkCount;
+				chunks = nextChunks();
+			}
+
+			if (!done) {
+				chunks.forEach(this::fetchChunk);
+				return;
+			}
+
+			close();
+			completion.complete(null);
+		}
+
+		private synchronized void onProgress(int chunk, long offset) {
+			if (offset <= written[chunk])
+				return;
+
+			written[chunk] = offset;
+			while ((firstIncompleteChunk < chunkCount) && (written[firstIncompleteChunk] == getChunkLength(firstIncompleteChunk))) {
+				firstIncompleteChunk++;
+			}
+			contiguous = firstIncompleteChunk < chunkCount ? ((long) firstIncompleteChunk * chunkSize) + written[firstIncompleteChunk] : contentLength;
+			notifyAll();
+		}
+
+		private void readFirstChunk(InputStream body) {
+			try (InputStream in = body) {
+				byte[] buffer = new byte[64 * 1024];
+				long offset = 0;
+				long length = getChunkLength(0);
+				while (offset < length) {
+					int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - offset));
+					if (read < 0)
+						throw new IOException(format("Response for %s ended after %d of %d bytes", uri, offset, contentLength));
+					offset = write(0, offset, ByteBuffer.wrap(buffer, 0, read));
+				}
+			} catch (IOException | RuntimeException e) {
+				fail(e);
+				return;
+			}
+			onChunkComplete(0);
+		}
+
+		/**
+		 * Picks further chunks to request up to the parallelism (requests are
+		 * sent without holding the lock).
+		 */
+		private synchronized List<Integer> nextChunks() {
+			List<Integer> chunks = new ArrayList<>();
+			while ((failure == null) && (inFlight < parallelism) && (nextChunk < chunkCount)) {
+				chunks.add(nextChunk++);
+				inFlight++;
+			}
+			return chunks;
+		}
+
+		private void start(InputStream body) {
+			List<Integer> chunks;
+			synchronized (this) {
+				nextChunk = 1;
+				inFlight = 1;
+				chunks = nextChunks();
+			}
+			FIRST_CHUNK_EXECUTOR.execute(() -> readFirstChunk(body));
+			chunks.forEach(this::fetchChunk);
+		}
+
+		private long write(int chunk, long offset, ByteBuffer buffer) throws IOException {
+			long position = ((long) chunk * chunkSize) + offset;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			long newOffset = position - ((long) chunk * chunkSize);
+			onProgress(chunk, newOffset);
+			return newOffset;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(RangedDownloader.class);
+
+	/** reads the first chunk from the (blocking) body of the initial response */
+	private static final ExecutorService FIRST_CHUNK_EXECUTOR = Executors.newCachedThreadPool((runnable) -> {
+		Thread thread = new Thread(runnable, "ranged-download");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @return the value for <code>If-Range</code> (a strong ETag or the
+	 *         last modification date)
+	 */
+	static Optional<String> getValidator(HttpResponse<?> response) {
+		Optional<String> etag = response.headers().firstValue("etag");
+		if (etag.isPresent() && !etag.get().startsWith("W/"))
+			return etag;
+
+		return response.headers().firstValue("last-modified");
+	}
+
+	private final UpstreamMavenRepository repository;
+	private final long threshold;
+	private final int chunkSize;
+	private final int parallelism;
+	private final ProxyMetrics metrics;
+
+	/**
+	 * @param repository
+	 *            the repository to download from
+	 * @param threshold
+	 *            the minimum size in bytes of an artifact to download in
+	 *            ranges
+	 * @param chunkSize
+	 *            the size of a range in bytes
+	 * @param parallelism
+	 *            the maximum number of ranges downloaded concurrently per
+	 *            artifact
+	 * @param metrics
+	 *            metrics for recording downloads
+	 */
+	public RangedDownloader(UpstreamMavenRepository repository, long threshold, int chunkSize, int parallelism, ProxyMetrics metrics) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException(format("Invalid chunk size for repository '%s': %d", repository.getId(), chunkSize));
+
+		this.repository = repository;
+		this.threshold = threshold;
+		this.chunkSize = chunkSize;
+		this.parallelism = Math.max(1, parallelism);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Indicates whether the body of a response should be downloaded in ranges.
+	 *
+	 * @param response
+	 *            the response to a <code>GET</code> request
+	 * @return <code>true</code> if the response is complete, supports ranges
+	 *         and is large enough
+	 */
+	public boolean accepts(HttpResponse<?> response) {
+		if ((response.statusCode() != 200) || response.headers().firstValue("content-encoding").isPresent())
+			return false;
+
+		if (!response.headers().firstValue("accept-ranges").map((value) -> value.toLowerCase(Locale.ROOT).contains("bytes")).orElse(false))
+			return false;
+
+		long contentLength = response.headers().firstValueAsLong("content-length").orElse(-1);
+		return (contentLength >= threshold) && (contentLength > chunkSize);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Starts downloading the body of a response in ranges.
+	 * <p>
+	 * The response body is consumed for the first chunk and closed afterwards.
+	 * If this method throws, the body was not touched.
+	 * </p>
+	 *
+	 * @param request
+	 *            the request (for URI and timeout of range requests)
+	 * @param priority
+	 *            the priority of the range requests (the one of the request)
+	 * @param response
+	 *            a response accepted by {@link #accepts(HttpResponse)}
+	 * @param body
+	 *            the stream to read the response body from
+	 * @param downloadFile
+	 *            the (empty) file to download to
+	 * @return the download
+	 * @throws IOException
+	 *             if the download file cannot be opened
+	 */
+	public Download start(HttpRequest request, Priority priority, HttpResponse<?> response, InputStream body, Path downloadFile) throws IOException {
+		long contentLength = response.headers().firstValueAsLong("content-length").orElseThrow(() -> new IOException("Content-Length is missing"));
+		Download download = new Download(request, priority, contentLength, getValidator(response), downloadFile);
+		metrics.increment(format("ranged_downloads_total{repository=\"%s\"}", repository.getId()));
+		LOG.debug("Downloading {} ({} bytes) in {} ranges", request.uri(), contentLength, download.chunkCount);
+		download.start(body);
+		return download;
+	}
+}
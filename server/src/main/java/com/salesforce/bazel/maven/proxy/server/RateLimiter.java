@@ -0,0 +1,46 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simple blocking rate limiter handing out permits at a fixed rate.
+ */
+public class RateLimiter {
+
+	private final long intervalNanos;
+	private long nextPermitNanos;
+
+	/**
+	 * @param permitsPerSecond
+	 *            the number of permits per second (<code>&lt;= 0</code> disables
+	 *            rate limiting)
+	 */
+	public RateLimiter(int permitsPerSecond) {
+		intervalNanos = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+		nextPermitNanos = System.nanoTime();
+	}
+
+	/**
+	 * Blocks until a permit is available.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		if (intervalNanos == 0)
+			return;
+
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (nextPermitNanos < now) {
+				nextPermitNanos = now;
+			}
+			waitNanos = nextPermitNanos - now;
+			nextPermitNanos += intervalNanos;
+		}
+
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+/**
+ * Sends hedged requests to upstream repositories to cut tail latency.
+ * <p>
+ * When no response headers arrived within the tracked latency percentile of an
+ * upstream repository, a second identical request is sent. The first response
+ * wins; the other one is cancelled by closing its body as soon as its headers
+ * arrive (aborting an in-flight request is not supported by the Java 11
+ * {@link HttpClient}).
+ * </p>
+ * <p>
+ * Hedges are paid for from a global budget which is refilled by a fraction of
+ * every request, so hedging never adds more than that fraction of extra load
+ * upstream (eg., when an upstream repository is slow for everyone).
+ * </p>
+ * <p>
+ * Only idempotent requests (<code>GET</code>, <code>HEAD</code>) are hedged.
+ * Hedges count against the concurrency limit of the repository like any other
+ * request.
+ * </p>
+ */
+public class RequestHedger {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+	/** no hedging until there is a meaningful latency distribution */
+	private static final int MIN_SAMPLES = 20;
+	private static final long MIN_DELAY_MILLIS = 10;
+
+	/** maximum number of hedges which can be saved up during quiet periods */
+	private static final double MAX_BUDGET = 10;
+
+	private static void discard(HttpResponse<?> response) {
+		Object body = response.body();
+		if (body instanceof Closeable) {
+			try {
+				((Closeable) body).close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private final double percentile;
+	private final double budgetRatio;
+	private final ProxyMetrics metrics;
+	private final ConcurrentMap<String, LatencyTracker> latencyTrackers = new ConcurrentHashMap<>();
+	private double budget = MAX_BUDGET;
+
+	/**
+	 * @param percentile
+	 *            the latency percentile after which a hedge is sent (eg.,
+	 *            <code>95</code>)
+	 * @param budgetPercent
+	 *            the maximum percentage of extra requests (eg.,
+	 *            <code>5</code>)
+	 * @param metrics
+	 *            metrics for recording hedge counters
+	 */
+	public RequestHedger(double percentile, double budgetPercent, ProxyMetrics metrics) {
+		this.percentile = percentile;
+		this.budgetRatio = budgetPercent / 100d;
+		this.metrics = metrics;
+	}
+
+	private synchronized boolean acquireHedge() {
+		if (budget < 1)
+			return false;
+
+		budget -= 1;
+		return true;
+	}
+
+	private synchronized void depositRequest() {
+		budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+	}
+
+	LatencyTracker getLatencyTracker(String repositoryId) {
+		return latencyTrackers.computeIfAbsent(repositoryId, (id) -> new LatencyTracker(percentile));
+	}
+
+	private <T> CompletableFuture<HttpResponse<T>> sendAndRecord(HttpClient httpClient, HttpRequest request, BodyHandler<T> responseBodyHandler, LatencyTracker latencyTracker) {
+		long start = System.nanoTime();
+		return httpClient.sendAsync(request, responseBodyHandler).whenComplete((response, e) -> {
+			if (response != null) {
+				latencyTracker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		});
+	}
+
+	/**
+	 * Sends a request via the repository, hedging it when it takes too long.
+	 * <p>
+	 * The hedge is a request of its own, i.e. it waits for a free slot in the
+	 * {@link UpstreamRequestScheduler concurrency window} of the repository
+	 * like any other request. The delay until hedging starts when the first
+	 * request is actually sent, so time spent queuing never triggers a hedge.
+	 * </p>
+	 *
+	 * @param <T>
+	 *            the response body type
+	 * @param repository
+	 *            the upstream repository
+	 * @param request
+	 *            the request
+	 * @param responseBodyHandler
+	 *            the body handler
+	 * @param priority
+	 *            the priority of the request and its hedge
+	 * @return the first response
+	 */
+	public <T> CompletableFuture<HttpResponse<T>> send(UpstreamMavenRepository repository, HttpRequest request, BodyHandler<T> responseBodyHandler, Priority priority) {
+		HttpClient httpClient = repository.getHttpClient();
+		String repositoryLabel = format("{repository=\"%s\"}", repository.getId());
+		LatencyTracker latencyTracker = getLatencyTracker(repository.getId());
+
+		long delayMillis = latencyTracker.getPercentileMillis(MIN_SAMPLES);
+		if ((delayMillis < 0) || !("GET".equals(request.method()) || "HEAD".equals(request.method())))
+			return repository.sendAsync(request, responseBodyHandler, priority, (bodyHandler) -> {
+				metrics.increment("upstream_requests_total" + repositoryLabel);
+				depositRequest();
+				return sendAndRecord(httpClient, request, bodyHandler, latencyTracker);
+			});
+
+		CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+		AtomicInteger failures = new AtomicInteger();
+		AtomicInteger attempts = new AtomicInteger(1);
+		AtomicBoolean hedgeScheduled = new AtomicBoolean();
+
+		CompletableFuture<HttpResponse<T>> primary = repository.sendAsync(request, responseBodyHandler, priority, (bodyHandler) -> {
+			metrics.increment("upstream_requests_total" + repositoryLabel);
+			depositRequest();
+			CompletableFuture<HttpResponse<T>> response = sendAndRecord(httpClient, request, bodyHandler, latencyTracker);
+			if (!hedgeScheduled.compareAndSet(false, true))
+				return response; // retried
+
+			CompletableFuture.runAsync(() -> {
+				if (response.isDone() || result.isDone())
+					return;
+
+				if (!acquireHedge()) {
+					metrics.increment("upstream_hedges_budget_exhausted_total" + repositoryLabel);
+					return;
+				}
+
+				attempts.incrementAndGet();
+				metrics.increment("upstream_hedges_sent_total" + repositoryLabel);
+				LOG.debug("Hedging request {} after {}ms", request.uri(), delayMillis);
+
+				CompletableFuture<HttpResponse<T>> hedge = repository.sendAsync(request, responseBodyHandler, priority, (hedgeBodyHandler) -> {
+					// the first request may have completed while the hedge was queued
+					if (result.isDone() || (response.isDone() && !response.isCompletedExceptionally()))
+						return CompletableFuture.failedFuture(new CancellationException("Hedged request completed already"));
+
+					return sendAndRecord(httpClient, request, hedgeBodyHandler, latencyTracker);
+				});
+				hedge.whenComplete((hedgeResponse, e) -> {
+					if (hedgeResponse != null) {
+						if (result.complete(hedgeResponse)) {
+							metrics.increment("upstream_hedges_won_total" + repositoryLabel);
+						} else {
+							discard(hedgeResponse);
+						}
+					} else if (failures.incrementAndGet() == attempts.get()) {
+						result.completeExceptionally(e);
+					}
+				});
+			}, CompletableFuture.delayedExecutor(Math.max(MIN_DELAY_MILLIS, delayMillis), TimeUnit.MILLISECONDS));
+			return response;
+		});
+
+		primary.whenComplete((response, e) -> {
+			if (response != null) {
+				if (!result.complete(response)) {
+					discard(response);
+				}
+			} else if (failures.incrementAndGet() == attempts.get()) {
+				result.completeExceptionally(e);
+			}
+		});
+
+		return result;
+	}
+}
@@ -0,0 +1,301 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * The phases (spans) of a single request.
+ * <p>
+ * A trace is attached to each request by the {@link RequestTracer} and
+ * collects one span per phase (local cache lookup, proxy cache lookup,
+ * negative cache check, upstream request until the response headers arrived,
+ * body streaming etc.). Identifiers follow the W3C Trace Context
+ * specification: a <code>traceparent</code> header sent by the client is
+ * continued and propagated to upstream requests, so spans can be exported to
+ * any OpenTelemetry compatible backend.
+ * </p>
+ * <p>
+ * The static methods do nothing when a request is not traced, i.e. callers
+ * never need to check whether tracing is enabled.
+ * </p>
+ */
+public class RequestTrace {
+
+	/**
+	 * A phase of a request.
+	 */
+	public static final class Span implements AutoCloseable {
+
+		private final RequestTrace trace;
+		private final String name;
+		private final String spanId;
+		private final boolean client;
+		private final long startNanos;
+		private volatile long endNanos;
+
+		Span(RequestTrace trace, String name, boolean client) {
+			this.trace = trace;
+			this.name = name;
+			this.client = client;
+			spanId = trace != null ? randomHex(8) : null;
+			startNanos = System.nanoTime();
+		}
+
+		@Override
+		public void close() {
+			end();
+		}
+
+		/**
+		 * Ends the span (only the first call has an effect).
+		 */
+		public void end() {
+			if ((trace != null) && (endNanos == 0)) {
+				endNanos = System.nanoTime();
+			}
+		}
+
+		long getDurationNanos() {
+			return endNanos - startNanos;
+		}
+
+		long getEndEpochNanos() {
+			return trace.toEpochNanos(endNanos);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getSpanId() {
+			return spanId;
+		}
+
+		long getStartEpochNanos() {
+			return trace.toEpochNanos(startNanos);
+		}
+
+		public boolean isClient() {
+			return client;
+		}
+
+		public boolean isEnded() {
+			return endNanos != 0;
+		}
+
+		/**
+		 * @return the value of a <code>traceparent</code> header for a request
+		 *         sent as part of this span (<code>null</code> if the request is
+		 *         not traced)
+		 */
+		public String toTraceparent() {
+			return trace != null ? format("00-%s-%s-%s", trace.traceId, spanId, trace.flags) : null;
+		}
+	}
+
+	private static final String ATTRIBUTE = RequestTrace.class.getName();
+	private static final Span NONE = new Span(null, "none", false);
+	private static final Pattern TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+	private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+	private static final String INVALID_SPAN_ID = "0000000000000000";
+
+	/**
+	 * Adds a <code>Server-Timing</code> header with the durations of all spans
+	 * ended so far (in milliseconds) and the total time since the request
+	 * started.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response (must not be committed yet)
+	 */
+	public static void addServerTiming(ServletRequest request, HttpServletResponse response) {
+		RequestTrace trace = get(request);
+		if ((trace != null) && trace.serverTiming && !response.isCommitted()) {
+			response.setHeader("Server-Timing", trace.toServerTiming());
+		}
+	}
+
+	/**
+	 * @return the trace of a request (<code>null</code> if not traced)
+	 */
+	public static RequestTrace get(ServletRequest request) {
+		return (RequestTrace) request.getAttribute(ATTRIBUTE);
+	}
+
+	static String randomHex(int bytes) {
+		StringBuilder hex = new StringBuilder(bytes * 2);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (hex.length() < (bytes * 2)) {
+			hex.append(format("%016x", random.nextLong()));
+		}
+		hex.setLength(bytes * 2);
+		return hex.toString();
+	}
+
+	/**
+	 * Starts a span for calling another service (eg., an upstream request).
+	 *
+	 * @param request
+	 *            the request
+	 * @param name
+	 *            the name of the phase
+	 * @return the span (never <code>null</code>)
+	 */
+	public static Span startClientSpan(ServletRequest request, String name) {
+		RequestTrace trace = get(request);
+		return trace != null ? trace.addSpan(name, true) : NONE;
+	}
+
+	/**
+	 * Starts a span.
+	 *
+	 * @param request
+	 *            the request
+	 * @param name
+	 *            the name of the phase (used as metric name in
+	 *            <code>Server-Timing</code>)
+	 * @return the span (never <code>null</code>)
+	 */
+	public static Span startSpan(ServletRequest request, String name) {
+		RequestTrace trace = get(request);
+		return trace != null ? trace.addSpan(name, false) : NONE;
+	}
+
+	private final String traceId;
+	private final String parentSpanId;
+	private final String spanId;
+	private final String flags;
+	private final boolean serverTiming;
+	private final long startEpochNanos;
+	private final long startNanos;
+	private final List<Span> spans = new ArrayList<>();
+	private final Map<String, Object> attributes = new LinkedHashMap<>();
+	private volatile long endNanos;
+
+	/**
+	 * @param traceparent
+	 *            the <code>traceparent</code> header of the request (may be
+	 *            <code>null</code> to start a new trace)
+	 * @param serverTiming
+	 *            <code>true</code> if span durations should be sent in a
+	 *            <code>Server-Timing</code> header
+	 */
+	RequestTrace(String traceparent, boolean serverTiming) {
+		this.serverTiming = serverTiming;
+		startNanos = System.nanoTime();
+		Instant now = Instant.now();
+		startEpochNanos = TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano();
+
+		Matcher matcher = traceparent != null ? TRACEPARENT.matcher(traceparent.strip().toLowerCase(Locale.ENGLISH)) : null;
+		if ((matcher != null) && matcher.matches() && !INVALID_TRACE_ID.equals(matcher.group(1)) && !INVALID_SPAN_ID.equals(matcher.group(2))) {
+			traceId = matcher.group(1);
+			parentSpanId = matcher.group(2);
+			flags = matcher.group(3);
+		} else {
+			traceId = randomHex(16);
+			parentSpanId = null;
+			flags = "01";
+		}
+		spanId = randomHex(8);
+	}
+
+	void attachTo(ServletRequest request) {
+		request.setAttribute(ATTRIBUTE, this);
+	}
+
+	synchronized Span addSpan(String name, boolean client) {
+		Span span = new Span(this, name, client);
+		spans.add(span);
+		return span;
+	}
+
+	/**
+	 * Ends the trace and all spans still open (eg., streaming the body ends
+	 * when the request completes).
+	 */
+	synchronized void end() {
+		if (endNanos != 0)
+			return;
+
+		endNanos = System.nanoTime();
+		for (Span span : spans) {
+			if (!span.isEnded()) {
+				span.endNanos = endNanos;
+			}
+		}
+	}
+
+	/**
+	 * @return a snapshot of the attributes of the request (eg.,
+	 *         <code>http.method</code>)
+	 */
+	public synchronized Map<String, Object> getAttributes() {
+		return new LinkedHashMap<>(attributes);
+	}
+
+	long getEndEpochNanos() {
+		return toEpochNanos(endNanos);
+	}
+
+	public String getParentSpanId() {
+		return parentSpanId;
+	}
+
+	public String getSpanId() {
+		return spanId;
+	}
+
+	/**
+	 * @return a snapshot of the spans
+	 */
+	public synchronized List<Span> getSpans() {
+		return new ArrayList<>(spans);
+	}
+
+	long getStartEpochNanos() {
+		return startEpochNanos;
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * Sets an attribute of the request (following OpenTelemetry semantic
+	 * conventions where applicable).
+	 */
+	public synchronized void setAttribute(String name, Object value) {
+		if (value != null) {
+			attributes.put(name, value);
+		}
+	}
+
+	private long toEpochNanos(long nanos) {
+		return startEpochNanos + (nanos - startNanos);
+	}
+
+	synchronized String toServerTiming() {
+		StringBuilder header = new StringBuilder();
+		for (Span span : spans) {
+			if (span.isEnded()) {
+				header.append(span.name).append(";dur=").append(format(Locale.ENGLISH, "%.3f", span.getDurationNanos() / 1_000_000d)).append(", ");
+			}
+		}
+		header.append("total;dur=").append(format(Locale.ENGLISH, "%.3f", (System.nanoTime() - startNanos) / 1_000_000d));
+		return header.toString();
+	}
+}
@@ -0,0 +1,50 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+
+/**
+ * Attaches a {@link RequestTrace} to every request and hands it to a
+ * {@link SpanExporter} once the request completed.
+ * <p>
+ * Registered as {@link HttpChannel.Listener} on all connectors, i.e. a trace
+ * covers a request from the first byte read until the last byte written,
+ * including any asynchronous dispatches in between.
+ * </p>
+ */
+public class RequestTracer implements HttpChannel.Listener {
+
+	private final SpanExporter exporter;
+	private final boolean serverTiming;
+
+	/**
+	 * @param exporter
+	 *            the exporter for completed traces
+	 * @param serverTiming
+	 *            <code>true</code> to send span durations to clients in a
+	 *            <code>Server-Timing</code> header
+	 */
+	public RequestTracer(SpanExporter exporter, boolean serverTiming) {
+		this.exporter = exporter;
+		this.serverTiming = serverTiming;
+	}
+
+	@Override
+	public void onComplete(Request request) {
+		RequestTrace trace = RequestTrace.get(request);
+		if (trace == null)
+			return;
+
+		trace.end();
+		trace.setAttribute("http.method", request.getMethod());
+		trace.setAttribute("http.target", request.getRequestURI());
+		trace.setAttribute("http.status_code", request.getResponse().getStatus());
+		trace.setAttribute("http.flavor", request.getProtocol());
+		exporter.export(trace);
+	}
+
+	@Override
+	public void onRequestBegin(Request request) {
+		new RequestTrace(request.getHeader("traceparent"), serverTiming).attachTo(request);
+	}
+}
@@ -0,0 +1,96 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer.
+ * <p>
+ * Producers claim a slot with a single CAS and publish their element into it;
+ * they never block and never wait for the consumer. When the buffer is full,
+ * {@link #offer(Object)} fails immediately so that a slow consumer can never
+ * slow down producers.
+ * </p>
+ *
+ * @param <E>
+ *            the element type
+ */
+public class RingBuffer<E> {
+
+	private final AtomicReferenceArray<E> slots;
+	private final int capacity;
+	private final int mask;
+
+	/** sequence of the next slot to claim by producers */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** sequence of the next slot to consume (only written by the consumer) */
+	private volatile long head;
+
+	/**
+	 * @param capacity
+	 *            the capacity (rounded up to the next power of two)
+	 */
+	public RingBuffer(int capacity) {
+		if ((capacity < 1) || (capacity > (1 << 30)))
+			throw new IllegalArgumentException("Capacity must be in [1, 2^30]: " + capacity);
+
+		int powerOfTwo = 1;
+		while (powerOfTwo < capacity) {
+			powerOfTwo <<= 1;
+		}
+		this.capacity = powerOfTwo;
+		mask = powerOfTwo - 1;
+		slots = new AtomicReferenceArray<>(powerOfTwo);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Adds an element (any thread).
+	 *
+	 * @param element
+	 *            the element (must not be <code>null</code>)
+	 * @return <code>true</code> if added, <code>false</code> if the buffer is
+	 *         full
+	 */
+	public boolean offer(E element) {
+		if (element == null)
+			throw new NullPointerException();
+
+		while (true) {
+			long sequence = tail.get();
+			if ((sequence - head) >= capacity)
+				return false;
+
+			if (tail.compareAndSet(sequence, sequence + 1)) {
+				slots.lazySet((int) sequence & mask, element);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest element (consumer thread only).
+	 *
+	 * @return the element (<code>null</code> if the buffer is empty or the
+	 *         oldest element has not been published yet)
+	 */
+	public E poll() {
+		long sequence = head;
+		int index = (int) sequence & mask;
+		E element = slots.get(index);
+		if (element == null)
+			return null;
+
+		slots.lazySet(index, null);
+		head = sequence + 1;
+		return element;
+	}
+
+	public int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+}
@@ -0,0 +1,137 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A {@link BlobStore} using an S3 compatible object store (AWS S3, MinIO,
+ * Ceph etc.).
+ * <p>
+ * Objects are addressed path-style
+ * (<code>&lt;endpoint&gt;/&lt;bucket&gt;/&lt;prefix&gt;/&lt;key&gt;</code>) and
+ * requests are signed with AWS Signature Version 4 using an unsigned payload,
+ * i.e. uploads are streamed without hashing them upfront.
+ * </p>
+ */
+public class S3BlobStore extends HttpBlobStore {
+
+	private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+	private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+	private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+	private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		return mac.doFinal(data.getBytes(UTF_8));
+	}
+
+	/**
+	 * Computes the value of the <code>Authorization</code> header for a
+	 * request (AWS Signature Version 4).
+	 *
+	 * @param method
+	 *            the HTTP method
+	 * @param canonicalUri
+	 *            the URI encoded path
+	 * @param headers
+	 *            the headers to sign (lower case names, including
+	 *            <code>host</code> and <code>x-amz-date</code>)
+	 * @param payloadHash
+	 *            the value of the <code>x-amz-content-sha256</code> header
+	 * @param region
+	 *            the region
+	 * @param accessKey
+	 *            the access key id
+	 * @param secretKey
+	 *            the secret access key
+	 * @return the header value
+	 */
+	static String sign(String method, String canonicalUri, SortedMap<String, String> headers, String payloadHash, String region, String accessKey, String secretKey) {
+		String amzDate = headers.get("x-amz-date");
+		String date = amzDate.substring(0, 8);
+		String scope = format("%s/%s/s3/aws4_request", date, region);
+
+		StringBuilder canonicalHeaders = new StringBuilder();
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().strip()).append('\n');
+		}
+		String signedHeaders = String.join(";", headers.keySet());
+		String canonicalRequest = String.join("\n", method, canonicalUri, "", canonicalHeaders, signedHeaders, payloadHash);
+
+		try {
+			String stringToSign = String.join("\n", ALGORITHM, amzDate, scope, MavenProxyCache.toHex(MessageDigest.getInstance("SHA-256").digest(canonicalRequest.getBytes(UTF_8))));
+			byte[] signingKey = hmac(hmac(hmac(hmac(("AWS4" + secretKey).getBytes(UTF_8), date), region), "s3"), "aws4_request");
+			String signature = MavenProxyCache.toHex(hmac(signingKey, stringToSign));
+			return format("%s Credential=%s/%s, SignedHeaders=%s, Signature=%s", ALGORITHM, accessKey, scope, signedHeaders, signature);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 not supported by JVM", e);
+		}
+	}
+
+	private final String region;
+	private final String accessKey;
+	private final String secretKey;
+	private final String sessionToken;
+
+	/**
+	 * @param endpoint
+	 *            the endpoint (eg., <code>https://s3.us-west-2.amazonaws.com</code>)
+	 * @param bucket
+	 *            the bucket
+	 * @param prefix
+	 *            the key prefix within the bucket (may be empty)
+	 * @param region
+	 *            the region used for signing
+	 * @param accessKey
+	 *            the access key id (<code>null</code> for anonymous access)
+	 * @param secretKey
+	 *            the secret access key
+	 * @param sessionToken
+	 *            the session token for temporary credentials (may be
+	 *            <code>null</code>)
+	 */
+	public S3BlobStore(URI endpoint, String bucket, String prefix, String region, String accessKey, String secretKey, String sessionToken) {
+		super(URI.create(format("%s/%s/%s", endpoint.toString().replaceAll("/+$", ""), encodePath(bucket), prefix == null ? "" : encodePath(prefix.replaceAll("^/+|/+$", "")))));
+		this.region = region;
+		this.accessKey = accessKey;
+		this.secretKey = secretKey;
+		this.sessionToken = sessionToken;
+	}
+
+	@Override
+	protected void authorize(HttpRequest.Builder request, String method, URI uri) {
+		request.header("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+		if (accessKey == null)
+			return;
+
+		SortedMap<String, String> headers = new TreeMap<>();
+		headers.put("host", uri.getPort() != -1 ? uri.getHost() + ":" + uri.getPort() : uri.getHost());
+		headers.put("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+		headers.put("x-amz-date", AMZ_DATE.format(Instant.now()));
+		if (sessionToken != null) {
+			headers.put("x-amz-security-token", sessionToken);
+		}
+
+		// 'host' is set by the HTTP client
+		headers.forEach((name, value) -> {
+			if (!"host".equals(name) && !"x-amz-content-sha256".equals(name)) {
+				request.header(name, value);
+			}
+		});
+		request.header("Authorization", sign(method, uri.getRawPath(), headers, UNSIGNED_PAYLOAD, region, accessKey, secretKey));
+	}
+}
@@ -0,0 +1,114 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BlobStore} used as second tier behind the {@link MavenProxyCache}.
+ * <p>
+ * Misses of the proxy cache are looked up in the second tier before going
+ * upstream (read-through) and artifacts added to the proxy cache are uploaded
+ * in the background (write-behind). The second tier is strictly best effort:
+ * failures are counted and logged but never fail a request, and uploads are
+ * dropped when too many are pending.
+ * </p>
+ */
+public class SecondTierCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SecondTierCache.class);
+
+	private final BlobStore store;
+	private final ProxyMetrics metrics;
+	private final int maxPendingUploads;
+	private final AtomicInteger pendingUploads = new AtomicInteger();
+
+	/**
+	 * @param store
+	 *            the blob store
+	 * @param maxPendingUploads
+	 *            the maximum number of uploads in flight
+	 * @param metrics
+	 *            metrics for recording hits, misses and uploads
+	 */
+	public SecondTierCache(BlobStore store, int maxPendingUploads, ProxyMetrics metrics) {
+		this.store = store;
+		this.maxPendingUploads = maxPendingUploads;
+		this.metrics = metrics;
+
+		metrics.gauge("cache_tier_pending_uploads", pendingUploads::get);
+	}
+
+	/**
+	 * Downloads an artifact from the second tier.
+	 *
+	 * @param key
+	 *            the key (<code>&lt;repository-id&gt;/&lt;path&gt;</code>)
+	 * @param target
+	 *            the file to download to
+	 * @return a future completing with <code>true</code> if the artifact was
+	 *         downloaded, <code>false</code> otherwise (never completes
+	 *         exceptionally)
+	 */
+	public CompletableFuture<Boolean> fetch(String key, Path target) {
+		CompletableFuture<Boolean> result;
+		try {
+			result = store.get(key, target);
+		} catch (RuntimeException e) {
+			result = CompletableFuture.failedFuture(e);
+		}
+
+		return result.handle((found, e) -> {
+			if (e != null) {
+				Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+				metrics.increment("cache_tier_errors_total");
+				LOG.debug("Unable to read '{}' from second tier cache: {}", key, cause.getMessage());
+				return false;
+			}
+			metrics.increment(found ? "cache_tier_hits_total" : "cache_tier_misses_total");
+			return found;
+		});
+	}
+
+	public BlobStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Uploads an artifact to the second tier in the background.
+	 *
+	 * @param key
+	 *            the key (<code>&lt;repository-id&gt;/&lt;path&gt;</code>)
+	 * @param file
+	 *            the cached artifact (must not be modified in place)
+	 */
+	public void upload(String key, Path file) {
+		if (pendingUploads.incrementAndGet() > maxPendingUploads) {
+			pendingUploads.decrementAndGet();
+			metrics.increment("cache_tier_uploads_dropped_total");
+			return;
+		}
+
+		CompletableFuture<Void> upload;
+		try {
+			upload = store.put(key, file);
+		} catch (RuntimeException e) {
+			upload = CompletableFuture.failedFuture(e);
+		}
+
+		upload.whenComplete((result, e) -> {
+			pendingUploads.decrementAndGet();
+			if (e != null) {
+				Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+				metrics.increment("cache_tier_upload_errors_total");
+				LOG.debug("Unable to upload '{}' to second tier cache: {}", key, cause.getMessage());
+			} else {
+				metrics.increment("cache_tier_uploads_total");
+			}
+		});
+	}
+}
@@ -0,0 +1,23 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+/**
+ * Receives completed {@link RequestTrace request traces}.
+ * <p>
+ * Implementations are called on the thread completing the request and must
+ * not block.
+ * </p>
+ */
+public interface SpanExporter {
+
+	/** discards all traces */
+	SpanExporter NONE = (trace) -> {
+	};
+
+	/**
+	 * Exports a completed trace.
+	 *
+	 * @param trace
+	 *            the trace (all spans are ended)
+	 */
+	void export(RequestTrace trace);
+}
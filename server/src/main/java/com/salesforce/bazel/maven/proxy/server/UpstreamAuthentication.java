@@ -0,0 +1,394 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.PushPromiseHandler;
+import java.time.Duration;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * Sends the credentials of a proxied repository with the first request.
+ * <p>
+ * The {@link Authenticator} of the JDK {@link HttpClient} only sends
+ * credentials after a <code>401</code> challenge and remembers them for the
+ * directory of the challenged URI only, i.e. almost every artifact costs an
+ * additional round trip. Instead, an <code>Authorization</code> header is
+ * added to every request to the origin of the repository: <code>Basic</code>
+ * credentials or, if a token URL is configured, a <code>Bearer</code> token.
+ * </p>
+ * <p>
+ * Tokens are requested with the <code>Basic</code> credentials (a JSON
+ * response with <code>token</code> or <code>access_token</code> and
+ * <code>expires_in</code>, as issued by Docker style token services and OAuth
+ * servers), cached and refreshed in the background before they expire. While
+ * no token can be obtained, <code>Basic</code> credentials are sent instead.
+ * </p>
+ * <p>
+ * The JDK client keeps user headers when following redirects, even to other
+ * hosts. Therefore redirects are followed here, and the header is only sent
+ * to the origin of the repository (eg., not to a CDN or pre-signed storage
+ * URL a repository redirects to).
+ * </p>
+ */
+public class UpstreamAuthentication {
+
+	/**
+	 * Adds the <code>Authorization</code> header to requests and follows
+	 * redirects.
+	 */
+	private final class AuthenticatingHttpClient extends HttpClient {
+
+		private final HttpClient delegate;
+
+		AuthenticatingHttpClient(HttpClient delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Optional<Authenticator> authenticator() {
+			return delegate.authenticator();
+		}
+
+		@Override
+		public Optional<Duration> connectTimeout() {
+			return delegate.connectTimeout();
+		}
+
+		@Override
+		public Optional<CookieHandler> cookieHandler() {
+			return delegate.cookieHandler();
+		}
+
+		@Override
+		public Optional<Executor> executor() {
+			return delegate.executor();
+		}
+
+		@Override
+		public Redirect followRedirects() {
+			return Redirect.NORMAL;
+		}
+
+		@Override
+		public Optional<ProxySelector> proxy() {
+			return delegate.proxy();
+		}
+
+		@Override
+		public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> responseBodyHandler) throws IOException, InterruptedException {
+			try {
+				return sendAsync(request, responseBodyHandler).get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+		}
+
+		@Override
+		public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler) {
+			return send(request, responseBodyHandler, 0);
+		}
+
+		@Override
+		public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler, PushPromiseHandler<T> pushPromiseHandler) {
+			// push promises are never enabled for upstream requests
+			return sendAsync(request, responseBodyHandler);
+		}
+
+		private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, BodyHandler<T> responseBodyHandler, int redirects) {
+			CompletableFuture<HttpRequest> authorizedRequest = isOrigin(request.uri()) && request.headers().firstValue("Authorization").isEmpty() ? getAuthorization().thenApply((authorization) -> withAuthorization(request, authorization)) : CompletableFuture.completedFuture(request);
+			return authorizedRequest.thenCompose((authorized) -> {
+				// the body of a redirect is never read
+				BodyHandler<T> bodyHandler = (responseInfo) -> getRedirect(authorized, responseInfo.statusCode(), responseInfo.headers(), redirects).isPresent() ? BodySubscribers.replacing(null) : responseBodyHandler.apply(responseInfo);
+				return delegate.sendAsync(authorized, bodyHandler).thenCompose((response) -> {
+					if (response.statusCode() == 401) {
+						onUnauthorized(authorized);
+					}
+					Optional<URI> location = getRedirect(authorized, response.statusCode(), response.headers(), redirects);
+					if (location.isEmpty())
+						return CompletableFuture.completedFuture(response);
+
+					LOG.debug("Following redirect from '{}' to '{}'", authorized.uri(), location.get());
+					return send(redirect(authorized, response.statusCode(), location.get()), responseBodyHandler, redirects + 1);
+				});
+			});
+		}
+
+		@Override
+		public SSLContext sslContext() {
+			return delegate.sslContext();
+		}
+
+		@Override
+		public SSLParameters sslParameters() {
+			return delegate.sslParameters();
+		}
+
+		@Override
+		public Version version() {
+			return delegate.version();
+		}
+	}
+
+	/**
+	 * A cached authorization.
+	 */
+	private static final class Token {
+
+		final String authorization;
+		final long refreshAtNanos;
+		final long expiresAtNanos;
+
+		Token(String authorization, long refreshAtNanos, long expiresAtNanos) {
+			this.authorization = authorization;
+			this.refreshAtNanos = refreshAtNanos;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(UpstreamAuthentication.class);
+
+	/** same limit as the JDK client */
+	private static final int MAX_REDIRECTS = 5;
+
+	/** lifetime of tokens issued without <code>expires_in</code> */
+	private static final Duration DEFAULT_TOKEN_LIFETIME = Duration.ofSeconds(60);
+
+	/** time before asking the token service again after a failure */
+	private static final Duration TOKEN_FAILURE_BACKOFF = Duration.ofSeconds(30);
+
+	/**
+	 * Returns the Bearer token from a token response.
+	 *
+	 * @param tokenResponse
+	 *            the JSON response of the token service
+	 * @return the token and its lifetime (in seconds, may be <code>null</code>)
+	 * @throws IOException
+	 *             if the response contains no token
+	 */
+	static Map.Entry<String, Number> parseTokenResponse(String tokenResponse) throws IOException {
+		Object json;
+		try {
+			// JSON is valid YAML; never construct arbitrary classes named by tags in responses
+			json = new Yaml(new SafeConstructor(new LoaderOptions())).load(tokenResponse);
+		} catch (RuntimeException e) {
+			throw new IOException(format("Invalid token response: %s", e.getMessage()), e);
+		}
+		if (!(json instanceof Map))
+			throw new IOException("Invalid token response: not a JSON object");
+
+		Map<?, ?> map = (Map<?, ?>) json;
+		Object token = map.get("token") != null ? map.get("token") : map.get("access_token");
+		if (!(token instanceof String) || ((String) token).isBlank())
+			throw new IOException("Invalid token response: no token");
+
+		Object expiresIn = map.get("expires_in");
+		return new SimpleImmutableEntry<>((String) token, expiresIn instanceof Number ? (Number) expiresIn : null);
+	}
+
+	private static HttpRequest.Builder copy(HttpRequest request, URI uri, String method, boolean withBody) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(uri).method(method, withBody ? request.bodyPublisher().orElse(BodyPublishers.noBody()) : BodyPublishers.noBody()).expectContinue(request.expectContinue());
+		request.timeout().ifPresent(builder::timeout);
+		request.version().ifPresent(builder::version);
+		request.headers().map().forEach((name, values) -> {
+			if (!name.equalsIgnoreCase("Authorization")) {
+				values.forEach((value) -> builder.header(name, value));
+			}
+		});
+		return builder;
+	}
+
+	private static HttpRequest redirect(HttpRequest request, int statusCode, URI location) {
+		// like the JDK client, a 303 (and a POST redirected with 301/302) continues with GET
+		boolean get = (statusCode == 303) || (((statusCode == 301) || (statusCode == 302)) && request.method().equals("POST"));
+		return copy(request, location, get ? "GET" : request.method(), !get).build();
+	}
+
+	private static HttpRequest withAuthorization(HttpRequest request, String authorization) {
+		return copy(request, request.uri(), request.method(), true).header("Authorization", authorization).build();
+	}
+
+	private final UpstreamMavenRepository repository;
+	private final String basicAuthorization;
+	private final URI tokenUri;
+	private final ProxyMetrics metrics;
+	private final AtomicReference<CompletableFuture<String>> tokenRefresh = new AtomicReference<>();
+	private volatile Token token;
+	private volatile HttpClient tokenClient;
+
+	/**
+	 * @param repository
+	 *            the repository to authenticate with
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 * @param tokenUri
+	 *            URL of a token service to exchange the credentials for a Bearer
+	 *            token (may be <code>null</code> to always send the credentials)
+	 * @param metrics
+	 *            metrics for recording token requests and challenges
+	 */
+	public UpstreamAuthentication(UpstreamMavenRepository repository, String username, String password, URI tokenUri, ProxyMetrics metrics) {
+		this.repository = repository;
+		basicAuthorization = "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(UTF_8));
+		this.tokenUri = tokenUri;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Wraps a client which does not follow redirects into one which sends the
+	 * credentials and follows redirects.
+	 *
+	 * @param httpClient
+	 *            the client (must not follow redirects or authenticate)
+	 * @return the authenticating client
+	 */
+	public HttpClient authenticate(HttpClient httpClient) {
+		tokenClient = httpClient;
+		return new AuthenticatingHttpClient(httpClient);
+	}
+
+	private CompletableFuture<String> fetchToken() {
+		metrics.increment(format("upstream_auth_token_requests_total{repository=\"%s\"}", repository.getId()));
+		HttpRequest request = HttpRequest.newBuilder(tokenUri).GET().timeout(Duration.ofSeconds(30)).header("Accept", "application/json").header("Authorization", basicAuthorization).build();
+		long requestedNanos = System.nanoTime();
+		return tokenClient.sendAsync(request, BodyHandlers.ofString()).thenApply((response) -> {
+			if (response.statusCode() != 200)
+				throw new IllegalStateException(format("Token service '%s' responded with HTTP %d", tokenUri, response.statusCode()));
+
+			Map.Entry<String, Number> tokenResponse;
+			try {
+				tokenResponse = parseTokenResponse(response.body());
+			} catch (IOException e) {
+				throw new IllegalStateException(format("Token service '%s': %s", tokenUri, e.getMessage()), e);
+			}
+
+			// refresh after three quarters of the lifetime, measured from sending the request
+			long lifetimeNanos = tokenResponse.getValue() != null ? TimeUnit.SECONDS.toNanos(tokenResponse.getValue().longValue()) : DEFAULT_TOKEN_LIFETIME.toNanos();
+			token = new Token("Bearer " + tokenResponse.getKey(), requestedNanos + ((lifetimeNanos / 4) * 3), requestedNanos + lifetimeNanos);
+			LOG.debug("Obtained token for repository '{}' valid for {}s", repository.getId(), TimeUnit.NANOSECONDS.toSeconds(lifetimeNanos));
+			return token.authorization;
+		});
+	}
+
+	/**
+	 * @return the value of the <code>Authorization</code> header for the next
+	 *         request
+	 */
+	public CompletableFuture<String> getAuthorization() {
+		if (tokenUri == null)
+			return CompletableFuture.completedFuture(basicAuthorization);
+
+		Token token = this.token;
+		long now = System.nanoTime();
+		if ((token != null) && ((now - token.expiresAtNanos) < 0)) {
+			if ((now - token.refreshAtNanos) >= 0) {
+				// proactively, requests continue with the current token meanwhile
+				refreshToken();
+			}
+			return CompletableFuture.completedFuture(token.authorization);
+		}
+		return refreshToken();
+	}
+
+	public URI getTokenUri() {
+		return tokenUri;
+	}
+
+	private boolean isOrigin(URI uri) {
+		URI origin = repository.resolve("/");
+		return origin.getScheme().equalsIgnoreCase(uri.getScheme()) && origin.getHost().equalsIgnoreCase(uri.getHost()) && (portOf(origin) == portOf(uri));
+	}
+
+	private Optional<URI> getRedirect(HttpRequest request, int statusCode, HttpHeaders headers, int redirects) {
+		if (((statusCode != 301) && (statusCode != 302) && (statusCode != 303) && (statusCode != 307) && (statusCode != 308)) || (redirects >= MAX_REDIRECTS))
+			return Optional.empty();
+
+		Optional<URI> location = headers.firstValue("Location").map((value) -> request.uri().resolve(value));
+		// never downgrade from https to http (like Redirect.NORMAL)
+		return location.filter((uri) -> !(request.uri().getScheme().equalsIgnoreCase("https") && uri.getScheme().equalsIgnoreCase("http")));
+	}
+
+	private void onUnauthorized(HttpRequest request) {
+		metrics.increment(format("upstream_auth_challenges_total{repository=\"%s\"}", repository.getId()));
+		Token token = this.token;
+		if ((token != null) && request.headers().firstValue("Authorization").filter(token.authorization::equals).isPresent()) {
+			LOG.warn("Token for repository '{}' was rejected. Requesting a new one.", repository.getId());
+			this.token = null;
+		}
+	}
+
+	private int portOf(URI uri) {
+		if (uri.getPort() != -1)
+			return uri.getPort();
+		return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+	}
+
+	private CompletableFuture<String> refreshToken() {
+		CompletableFuture<String> refresh = new CompletableFuture<>();
+		while (!tokenRefresh.compareAndSet(null, refresh)) {
+			CompletableFuture<String> pending = tokenRefresh.get();
+			if (pending != null)
+				return pending;
+		}
+
+		fetchToken().whenComplete((fetched, e) -> {
+			String authorization = fetched;
+			if (e != null) {
+				Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+				metrics.increment(format("upstream_auth_token_failures_total{repository=\"%s\"}", repository.getId()));
+				LOG.warn("Unable to obtain token for repository '{}' from '{}'. Sending credentials instead. {}", repository.getId(), tokenUri, cause.getMessage());
+				long now = System.nanoTime();
+				Token token = this.token;
+				if ((token == null) || ((now - token.expiresAtNanos) >= 0)) {
+					this.token = new Token(basicAuthorization, now + TOKEN_FAILURE_BACKOFF.toNanos(), now + TOKEN_FAILURE_BACKOFF.toNanos());
+				}
+				authorization = this.token.authorization;
+			}
+			tokenRefresh.set(null);
+			refresh.complete(authorization);
+		});
+		return refresh;
+	}
+
+	@Override
+	public String toString() {
+		return tokenUri != null ? "Bearer token from " + tokenUri : "Basic";
+	}
+}
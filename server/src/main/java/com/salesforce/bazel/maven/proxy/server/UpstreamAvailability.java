@@ -0,0 +1,155 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.UnresolvedAddressException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks whether an upstream repository is reachable.
+ * <p>
+ * A repository goes offline either explicitly (<code>--offline</code>) or
+ * after a number of consecutive requests failed to connect. While
+ * offline, requests to it fail immediately with an
+ * {@link UpstreamOfflineException} instead of waiting for timeouts, i.e.
+ * clients are served from local sources only. An automatically detected
+ * outage is probed in the background with a <code>HEAD</code> request to the
+ * repository URL; any HTTP response brings the repository back online.
+ * </p>
+ */
+public class UpstreamAvailability {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UpstreamAvailability.class);
+
+	private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+	private static final ScheduledExecutorService PROBE_EXECUTOR = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "upstream-availability-probe");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Only failures to establish a connection count: refused connections,
+	 * connect timeouts and unresolvable host names. A request timing out
+	 * while waiting for the response only means a slow response (eg. a large
+	 * artifact or an overloaded repository), not an outage.
+	 *
+	 * @return <code>true</code> if a failure indicates the repository cannot
+	 *         be reached (as opposed to an error of a single request)
+	 */
+	static boolean isUnreachable(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if ((cause instanceof HttpTimeoutException) && !(cause instanceof HttpConnectTimeoutException))
+				return false;
+			if ((cause instanceof ConnectException) || (cause instanceof HttpConnectTimeoutException) || (cause instanceof UnknownHostException) || (cause instanceof UnresolvedAddressException))
+				return true;
+		}
+		return false;
+	}
+
+	private final UpstreamMavenRepository repository;
+	private final boolean forced;
+	private final int failureThreshold;
+	private final Duration probeInterval;
+	private final ProxyMetrics metrics;
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private final AtomicBoolean offline = new AtomicBoolean();
+
+	/**
+	 * @param repository
+	 *            the repository
+	 * @param forced
+	 *            <code>true</code> to be offline for good
+	 * @param failureThreshold
+	 *            the number of consecutive connection failures after which
+	 *            the repository is considered offline (<code>0</code> to
+	 *            disable detection)
+	 * @param probeInterval
+	 *            the interval of probes while offline
+	 * @param metrics
+	 *            metrics for recording the state
+	 */
+	public UpstreamAvailability(UpstreamMavenRepository repository, boolean forced, int failureThreshold, Duration probeInterval, ProxyMetrics metrics) {
+		this.repository = repository;
+		this.forced = forced;
+		this.failureThreshold = failureThreshold;
+		this.probeInterval = probeInterval;
+		this.metrics = metrics;
+		offline.set(forced);
+
+		metrics.gauge(format("upstream_offline{repository=\"%s\"}", repository.getId()), () -> isOffline() ? 1 : 0);
+	}
+
+	/**
+	 * Fails a request right away if the repository is offline.
+	 *
+	 * @throws UpstreamOfflineException
+	 *             if the repository is offline
+	 */
+	void checkOnline() throws UpstreamOfflineException {
+		if (!isOffline())
+			return;
+
+		metrics.increment(format("upstream_offline_rejected_total{repository=\"%s\"}", repository.getId()));
+		throw new UpstreamOfflineException(format("Repository '%s' is offline.", repository.getId()));
+	}
+
+	public boolean isOffline() {
+		return offline.get();
+	}
+
+	/**
+	 * Records the outcome of a request.
+	 *
+	 * @param e
+	 *            the failure (<code>null</code> if a response was received)
+	 */
+	void onComplete(Throwable e) {
+		if (e == null) {
+			consecutiveFailures.set(0);
+			return;
+		}
+
+		if ((failureThreshold > 0) && isUnreachable(e) && (consecutiveFailures.incrementAndGet() >= failureThreshold) && offline.compareAndSet(false, true)) {
+			LOG.warn("Repository '{}' is unreachable ({}). Serving from local sources only until it is reachable again.", repository.getId(), e.getMessage());
+			scheduleProbe();
+		}
+	}
+
+	private void probe() {
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("/")).method("HEAD", BodyPublishers.noBody()).timeout(PROBE_TIMEOUT).build();
+		repository.getHttpClient().sendAsync(request, BodyHandlers.discarding()).whenComplete((response, e) -> {
+			if (e != null) {
+				LOG.debug("Repository '{}' is still unreachable: {}", repository.getId(), e.getMessage());
+				scheduleProbe();
+				return;
+			}
+
+			consecutiveFailures.set(0);
+			offline.set(false);
+			LOG.info("Repository '{}' is reachable again (HTTP {}).", repository.getId(), response.statusCode());
+		});
+	}
+
+	private void scheduleProbe() {
+		if (!forced) {
+			PROBE_EXECUTOR.schedule(this::probe, probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Builder;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+/**
+ * A Maven repository proxied by the server.
+ * <p>
+ * Holds the target URL as well as the {@link HttpClient} (including
+ * authentication and proxy settings) for talking to the repository. The client
+ * is created lazily on first use.
+ * </p>
+ */
+public class UpstreamMavenRepository {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UpstreamMavenRepository.class);
+
+	private final String id;
+	private final String url;
+	private final Authenticator authenticator;
+	private volatile HttpClient httpClient;
+	private UpstreamRequestScheduler requestScheduler;
+	private UpstreamRetryPolicy retryPolicy;
+	private UpstreamAvailability availability;
+	private RangedDownloader rangedDownloader;
+	private UpstreamStallDetector stallDetector;
+	private UpstreamAuthentication authentication;
+
+	public UpstreamMavenRepository(String id, String url, String username, String password) {
+		this.id = id;
+		this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+
+		if ((username != null) && (password != null)) {
+			PasswordAuthentication passwordAuthentication = new PasswordAuthentication(username, password.toCharArray());
+			authenticator = new Authenticator() {
+				@Override
+				protected PasswordAuthentication getPasswordAuthentication() {
+					return passwordAuthentication;
+				}
+
+				@Override
+				public String toString() {
+					return username + ":<password>";
+				}
+			};
+		} else {
+			authenticator = null;
+		}
+	}
+
+	private HttpClient createHttpClient() {
+		UpstreamAuthentication authentication = this.authentication;
+		Builder httpClientBuilder = HttpClient.newBuilder().followRedirects(authentication != null ? Redirect.NEVER : Redirect.NORMAL).connectTimeout(Duration.ofSeconds(5));
+		if (authentication != null) {
+			LOG.debug("Using preemptive authentication for repository '{}': {}", id, authentication);
+		} else if (authenticator != null) {
+			LOG.debug("Using autentication for repository '{}': {}", id, authenticator);
+			httpClientBuilder.authenticator(authenticator);
+		}
+
+		// if the JVM is not instructed to use system settings on purpose we
+		// replicate Bazel behavior, i.e.
+		// we read proxy settings from the environment
+		if (!Boolean.getBoolean("java.net.useSystemProxies")) {
+			ProxyHelper proxyHelper = new ProxyHelper(System.getenv());
+			LOG.debug("Configuring proxy selector from environment variables: {}", proxyHelper);
+			httpClientBuilder.proxy(new ProxySelector() {
+
+				@Override
+				public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+					LOG.debug("Connect failed: {} {} - {}", uri, sa, ioe.getMessage(), ioe);
+				}
+
+				@Override
+				public List<Proxy> select(URI uri) {
+					try {
+						Proxy proxy = proxyHelper.createProxyIfNeeded(uri);
+						if (proxy != Proxy.NO_PROXY) {
+							LOG.debug("Using proxy '{}' for URI '{}'", proxy, uri);
+						} else {
+							LOG.debug("Using direct connection to URI '{}'", uri);
+						}
+						return List.of(proxy);
+					} catch (IOException e) {
+						throw new IllegalStateException("Unable to create proxy!", e);
+					}
+				}
+			});
+		}
+
+		// redirects are followed by the authentication so that credentials are not sent to other hosts
+		return authentication != null ? authentication.authenticate(httpClientBuilder.build()) : httpClientBuilder.build();
+	}
+
+	public UpstreamAuthentication getAuthentication() {
+		return authentication;
+	}
+
+	public UpstreamAvailability getAvailability() {
+		return availability;
+	}
+
+	public HttpClient getHttpClient() {
+		HttpClient client = httpClient;
+		if (client != null)
+			return client;
+
+		synchronized (this) {
+			if (httpClient == null) {
+				httpClient = createHttpClient();
+			}
+			return httpClient;
+		}
+	}
+
+	public RangedDownloader getRangedDownloader() {
+		return rangedDownloader;
+	}
+
+	public UpstreamRequestScheduler getRequestScheduler() {
+		return requestScheduler;
+	}
+
+	public UpstreamRetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public UpstreamStallDetector getStallDetector() {
+		return stallDetector;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return <code>true</code> if requests to the repository currently fail
+	 *         right away (see {@link #getAvailability()})
+	 */
+	public boolean isOffline() {
+		UpstreamAvailability availability = this.availability;
+		return (availability != null) && availability.isOffline();
+	}
+
+	/**
+	 * @return the repository URL (without trailing slash)
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Resolves a path within the repository into a full URI.
+	 *
+	 * @param path
+	 *            the path (may or may not start with a slash)
+	 * @return the URI
+	 */
+	public URI resolve(String path) {
+		return URI.create(path.startsWith("/") ? url + path : url + "/" + path);
+	}
+
+	/**
+	 * Sends a request using the {@link #getRequestScheduler() request
+	 * scheduler} and {@link #getRetryPolicy() retry policy} (if any).
+	 *
+	 * @param <T>
+	 *            the response body type
+	 * @param request
+	 *            the request
+	 * @param responseBodyHandler
+	 *            the body handler
+	 * @param priority
+	 *            the priority of the request
+	 * @return the response
+	 */
+	public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler, Priority priority) {
+		return sendAsync(request, responseBodyHandler, priority, (bodyHandler) -> getHttpClient().sendAsync(request, bodyHandler));
+	}
+
+	/**
+	 * Sends a request using the {@link #getRequestScheduler() request
+	 * scheduler} and {@link #getRetryPolicy() retry policy} (if any) with a
+	 * custom sender (eg., for hedging).
+	 * <p>
+	 * Each retry is scheduled again, i.e. waits for a free slot in the
+	 * concurrency window like any other request.
+	 * </p>
+	 *
+	 * @param <T>
+	 *            the response body type
+	 * @param request
+	 *            the request (retried only if idempotent)
+	 * @param responseBodyHandler
+	 *            the body handler
+	 * @param priority
+	 *            the priority of the request
+	 * @param sender
+	 *            sends the request using the given body handler
+	 * @return the response
+	 */
+	public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler, Priority priority, Function<BodyHandler<T>, CompletableFuture<HttpResponse<T>>> sender) {
+		ProxyEvents.UpstreamExchangeEvent event = new ProxyEvents.UpstreamExchangeEvent();
+		if (!event.isEnabled())
+			return sendIfOnline(request, responseBodyHandler, priority, sender);
+
+		event.begin();
+		return sendIfOnline(request, responseBodyHandler, priority, sender).whenComplete((response, e) -> event.end(id, request, response, e));
+	}
+
+	private <T> CompletableFuture<HttpResponse<T>> sendIfOnline(HttpRequest request, BodyHandler<T> responseBodyHandler, Priority priority, Function<BodyHandler<T>, CompletableFuture<HttpResponse<T>>> sender) {
+		UpstreamAvailability availability = this.availability;
+		if (availability == null)
+			return sendWithRetries(request, responseBodyHandler, priority, sender);
+
+		try {
+			availability.checkOnline();
+		} catch (UpstreamOfflineException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return sendWithRetries(request, responseBodyHandler, priority, sender).whenComplete((response, e) -> availability.onComplete(e));
+	}
+
+	private <T> CompletableFuture<HttpResponse<T>> sendWithRetries(HttpRequest request, BodyHandler<T> responseBodyHandler, Priority priority, Function<BodyHandler<T>, CompletableFuture<HttpResponse<T>>> sender) {
+		UpstreamRetryPolicy retryPolicy = this.retryPolicy;
+		if ((retryPolicy == null) || !UpstreamRetryPolicy.isIdempotent(request.method()))
+			return schedule(responseBodyHandler, priority, sender);
+
+		return retryPolicy.send(responseBodyHandler, (bodyHandler) -> schedule(bodyHandler, priority, sender));
+	}
+
+	private <T> CompletableFuture<HttpResponse<T>> schedule(BodyHandler<T> responseBodyHandler, Priority priority, Function<BodyHandler<T>, CompletableFuture<HttpResponse<T>>> sender) {
+		UpstreamRequestScheduler scheduler = requestScheduler;
+		if (scheduler == null)
+			return sender.apply(responseBodyHandler);
+
+		return scheduler.send(priority, responseBodyHandler, sender);
+	}
+
+	/**
+	 * Sends credentials with every request instead of waiting for a challenge.
+	 * <p>
+	 * Must be set before the {@link #getHttpClient() client} is used first.
+	 * </p>
+	 *
+	 * @param authentication
+	 *            the authentication (may be <code>null</code> to send
+	 *            credentials only when challenged)
+	 */
+	public void setAuthentication(UpstreamAuthentication authentication) {
+		this.authentication = authentication;
+	}
+
+	/**
+	 * Fails requests right away while the repository is offline.
+	 *
+	 * @param availability
+	 *            the availability (may be <code>null</code> to always send
+	 *            requests)
+	 */
+	public void setAvailability(UpstreamAvailability availability) {
+		this.availability = availability;
+	}
+
+	/**
+	 * Downloads large artifacts with concurrent range requests.
+	 *
+	 * @param rangedDownloader
+	 *            the downloader (may be <code>null</code> to always download
+	 *            with a single request)
+	 */
+	public void setRangedDownloader(RangedDownloader rangedDownloader) {
+		this.rangedDownloader = rangedDownloader;
+	}
+
+	/**
+	 * Limits and prioritizes requests sent via
+	 * {@link #sendAsync(HttpRequest, BodyHandler, Priority)}.
+	 *
+	 * @param requestScheduler
+	 *            the scheduler (may be <code>null</code> for sending requests
+	 *            right away)
+	 */
+	public void setRequestScheduler(UpstreamRequestScheduler requestScheduler) {
+		this.requestScheduler = requestScheduler;
+	}
+
+	/**
+	 * Retries requests failing transiently.
+	 *
+	 * @param retryPolicy
+	 *            the policy (may be <code>null</code> for no retries)
+	 */
+	public void setRetryPolicy(UpstreamRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Detects stalled response bodies and resumes them.
+	 *
+	 * @param stallDetector
+	 *            the detector (may be <code>null</code> to wait for response
+	 *            bodies indefinitely)
+	 */
+	public void setStallDetector(UpstreamStallDetector stallDetector) {
+		this.stallDetector = stallDetector;
+	}
+
+	@Override
+	public String toString() {
+		return id + " -> " + url;
+	}
+}
@@ -0,0 +1,17 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request was not sent because the upstream repository is
+ * offline (see {@link UpstreamAvailability}).
+ */
+public class UpstreamOfflineException extends IOException {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	public UpstreamOfflineException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,233 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of requests in flight to an upstream repository and
+ * dispatches queued requests by priority.
+ * <p>
+ * Small files unblocking a resolver (metadata, POMs, checksums) are sent ahead
+ * of large binaries, and speculative downloads (prefetching, cache warming)
+ * only get what is left. The concurrency window adapts to the upstream
+ * repository using AIMD: it grows by one request per window of fast responses
+ * and shrinks multiplicatively when the latency until response headers rises
+ * well above its moving average, when the repository asks to back off (HTTP
+ * 429 or 503) or when requests fail.
+ * </p>
+ */
+public class UpstreamRequestScheduler {
+
+	public enum Priority {
+		/** metadata, POMs, checksums and <code>HEAD</code> requests */
+		HIGH,
+
+		/** artifacts requested by clients */
+		NORMAL,
+
+		/** speculative downloads (prefetching, cache warming) */
+		LOW;
+
+		/**
+		 * Returns the priority of a client request.
+		 *
+		 * @param method
+		 *            the HTTP method
+		 * @param path
+		 *            the requested path
+		 * @return the priority
+		 */
+		public static Priority of(String method, String path) {
+			if ("HEAD".equals(method) || ContentCoding.isCompressible(path))
+				return HIGH;
+
+			return NORMAL;
+		}
+	}
+
+	private static final class Task implements Comparable<Task> {
+
+		private final Priority priority;
+		private final long sequence;
+		private final Runnable start;
+
+		Task(Priority priority, long sequence, Runnable start) {
+			this.priority = priority;
+			this.sequence = sequence;
+			this.start = start;
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			int result = priority.compareTo(other.priority);
+			return result != 0 ? result : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(UpstreamRequestScheduler.class);
+
+	/** responses slower than this multiple of the average indicate congestion */
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final double BACKOFF_RATIO = 0.7;
+	private static final double LATENCY_SMOOTHING = 0.1;
+	private static final long MIN_DECREASE_INTERVAL_MILLIS = 100;
+
+	private final String repositoryId;
+	private final int maxInFlight;
+	private final ProxyMetrics metrics;
+	private final AtomicLong sequence = new AtomicLong();
+	private final PriorityQueue<Task> queue = new PriorityQueue<>();
+
+	private double limit;
+	private int inFlight;
+	private double averageLatencyMillis = -1;
+	private long lastDecreaseNanos = System.nanoTime();
+
+	/**
+	 * @param repositoryId
+	 *            the id of the upstream repository (used for metrics)
+	 * @param maxInFlight
+	 *            the maximum number of requests in flight
+	 * @param metrics
+	 *            metrics for recording the concurrency window
+	 */
+	public UpstreamRequestScheduler(String repositoryId, int maxInFlight, ProxyMetrics metrics) {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("Maximum number of requests in flight must be at least 1: " + maxInFlight);
+
+		this.repositoryId = repositoryId;
+		this.maxInFlight = maxInFlight;
+		this.metrics = metrics;
+		limit = maxInFlight;
+
+		String repositoryLabel = format("{repository=\"%s\"}", repositoryId);
+		metrics.gauge("upstream_concurrency_limit" + repositoryLabel, () -> (long) getLimit());
+		metrics.gauge("upstream_in_flight" + repositoryLabel, this::getInFlight);
+		metrics.gauge("upstream_queued" + repositoryLabel, this::getQueued);
+	}
+
+	private void decrease(String reason) {
+		// assumes holding the lock
+		long now = System.nanoTime();
+		if (TimeUnit.NANOSECONDS.toMillis(now - lastDecreaseNanos) < Math.max(MIN_DECREASE_INTERVAL_MILLIS, averageLatencyMillis))
+			return; // at most once per round trip
+
+		lastDecreaseNanos = now;
+		limit = Math.max(1, limit * BACKOFF_RATIO);
+		metrics.increment(format("upstream_concurrency_decreases_total{repository=\"%s\"}", repositoryId));
+		LOG.debug("Reducing concurrency for repository '{}' to {} ({})", repositoryId, (int) limit, reason);
+	}
+
+	private void dispatch() {
+		while (true) {
+			Task task;
+			synchronized (this) {
+				if (queue.isEmpty() || (inFlight >= (int) limit))
+					return;
+
+				task = queue.poll();
+				inFlight++;
+			}
+			task.start.run();
+		}
+	}
+
+	public synchronized double getLimit() {
+		return limit;
+	}
+
+	public synchronized long getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized long getQueued() {
+		return queue.size();
+	}
+
+	private synchronized void onResponseHeaders(long startNanos, int statusCode) {
+		long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		if ((statusCode == 429) || (statusCode == 503)) {
+			decrease("HTTP " + statusCode);
+			return;
+		}
+
+		if ((averageLatencyMillis >= 0) && (latencyMillis > (LATENCY_TOLERANCE * averageLatencyMillis))) {
+			decrease(format("latency %dms", latencyMillis));
+		} else {
+			limit = Math.min(maxInFlight, limit + (1 / limit));
+		}
+		averageLatencyMillis = averageLatencyMillis < 0 ? latencyMillis : ((1 - LATENCY_SMOOTHING) * averageLatencyMillis) + (LATENCY_SMOOTHING * latencyMillis);
+	}
+
+	private void release(boolean failed) {
+		synchronized (this) {
+			inFlight--;
+			if (failed) {
+				decrease("request failed");
+			}
+		}
+		dispatch();
+	}
+
+	/**
+	 * Sends a request as soon as the concurrency window permits.
+	 * <p>
+	 * A slot in the window is held until the returned future completes, i.e.
+	 * for the whole download when using a body handler which reads the entire
+	 * body. Latency is measured until the response headers arrive.
+	 * </p>
+	 *
+	 * @param <T>
+	 *            the response body type
+	 * @param priority
+	 *            the priority
+	 * @param responseBodyHandler
+	 *            the body handler
+	 * @param sender
+	 *            sends the request using the given body handler
+	 * @return the response
+	 */
+	public <T> CompletableFuture<HttpResponse<T>> send(Priority priority, BodyHandler<T> responseBodyHandler, Function<BodyHandler<T>, CompletableFuture<HttpResponse<T>>> sender) {
+		CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+		Task task = new Task(priority, sequence.incrementAndGet(), () -> {
+			long start = System.nanoTime();
+			BodyHandler<T> timedBodyHandler = (responseInfo) -> {
+				onResponseHeaders(start, responseInfo.statusCode());
+				return responseBodyHandler.apply(responseInfo);
+			};
+
+			CompletableFuture<HttpResponse<T>> response;
+			try {
+				response = sender.apply(timedBodyHandler);
+			} catch (RuntimeException e) {
+				response = CompletableFuture.failedFuture(e);
+			}
+			response.whenComplete((r, e) -> {
+				// cancelled requests were never sent
+				release((e != null) && !(e instanceof CancellationException));
+				if (e != null) {
+					result.completeExceptionally(e);
+				} else {
+					result.complete(r);
+				}
+			});
+		});
+
+		synchronized (this) {
+			queue.add(task);
+		}
+		dispatch();
+		return result;
+	}
+}
@@ -0,0 +1,234 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpTimeoutException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries idempotent requests to an upstream repository which failed
+ * transiently (connection refused or reset, HTTP 429 and 5xx).
+ * <p>
+ * Retries are delayed with exponential backoff and full jitter, i.e. a random
+ * delay between zero and <code>100ms * 2^attempt</code> (capped), or as
+ * requested by a <code>Retry-After</code> header. A retry is never delayed
+ * longer than the cap; responses asking for more are passed on as they are.
+ * </p>
+ * <p>
+ * Retries are limited by a token bucket: every request adds a fraction of a
+ * token (the budget percentage) and every retry takes a whole token. When a
+ * repository is down, the bucket drains quickly and retries stop instead of
+ * multiplying the load; once it recovers, the bucket refills with regular
+ * traffic.
+ * </p>
+ */
+public class UpstreamRetryPolicy {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UpstreamRetryPolicy.class);
+
+	private static final long BASE_DELAY_MILLIS = 100;
+	private static final long MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	/** tokens available initially and at most, allows short bursts of retries */
+	private static final double MAX_TOKENS = 10;
+
+	static boolean isIdempotent(String method) {
+		return "GET".equals(method) || "HEAD".equals(method);
+	}
+
+	static boolean isRetryable(int statusCode) {
+		return (statusCode == 429) || (statusCode == 500) || (statusCode == 502) || (statusCode == 503) || (statusCode == 504);
+	}
+
+	static boolean isRetryable(Throwable e) {
+		Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+
+		// a request timeout already took the whole time a client is willing to wait
+		if ((cause instanceof HttpTimeoutException) && !(cause instanceof HttpConnectTimeoutException))
+			return false;
+
+		// refused and reset connections, premature end of stream etc.
+		return cause instanceof IOException;
+	}
+
+	/**
+	 * Parses the value of a <code>Retry-After</code> header.
+	 *
+	 * @param value
+	 *            the header value (seconds or an HTTP date)
+	 * @param now
+	 *            the current time
+	 * @return the delay in milliseconds (<code>-1</code> if the value is
+	 *         invalid)
+	 */
+	static long parseRetryAfter(String value, Instant now) {
+		String trimmed = value.strip();
+		try {
+			return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(trimmed)));
+		} catch (NumberFormatException e) {
+			// not a number
+		}
+		try {
+			Instant retryAt = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+			return Math.max(0, retryAt.toEpochMilli() - now.toEpochMilli());
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	private final String repositoryId;
+	private final int maxRetries;
+	private final double tokensPerRequest;
+	private final ProxyMetrics metrics;
+	private double tokens = MAX_TOKENS;
+
+	/**
+	 * @param repositoryId
+	 *            the id of the upstream repository (used for metrics)
+	 * @param maxRetries
+	 *            the maximum number of retries per request
+	 * @param budgetPercent
+	 *            the maximum number of retries in percent of all requests
+	 *            (in the long run)
+	 * @param metrics
+	 *            metrics for recording retries
+	 */
+	public UpstreamRetryPolicy(String repositoryId, int maxRetries, double budgetPercent, ProxyMetrics metrics) {
+		this.repositoryId = repositoryId;
+		this.maxRetries = maxRetries;
+		tokensPerRequest = budgetPercent / 100;
+		this.metrics = metrics;
+
+		metrics.gauge(format("upstream_retry_budget_tokens{repository=\"%s\"}", repositoryId), () -> (long) getTokens());
+	}
+
+	private synchronized boolean acquireRetry() {
+		if (tokens < 1) {
+			metrics.increment(format("upstream_retry_budget_exhausted_total{repository=\"%s\"}", repositoryId));
+			return false;
+		}
+		tokens -= 1;
+		return true;
+	}
+
+	private <T> void attempt(int attempt, BodyHandler<T> responseBodyHandler, Function<BodyHandler<T>, CompletableFuture<HttpResponse<T>>> sender, CompletableFuture<HttpResponse<T>> result) {
+		// set by the body handler when a response is discarded for a retry
+		AtomicLong retryDelayMillis = new AtomicLong(-1);
+		BodyHandler<T> retryingBodyHandler = (responseInfo) -> {
+			if (isRetryable(responseInfo.statusCode())) {
+				long delayMillis = getRetryDelayMillis(attempt, responseInfo.headers().firstValue("Retry-After"));
+				if (attempt >= maxRetries) {
+					metrics.increment(format("upstream_retries_exhausted_total{repository=\"%s\"}", repositoryId));
+				} else if ((delayMillis >= 0) && acquireRetry()) {
+					retryDelayMillis.set(delayMillis);
+					return BodySubscribers.replacing(null);
+				}
+			}
+			return responseBodyHandler.apply(responseInfo);
+		};
+
+		CompletableFuture<HttpResponse<T>> response;
+		try {
+			response = sender.apply(retryingBodyHandler);
+		} catch (RuntimeException e) {
+			response = CompletableFuture.failedFuture(e);
+		}
+
+		response.whenComplete((r, e) -> {
+			if (e == null) {
+				if (retryDelayMillis.get() < 0) {
+					if (attempt > 0) {
+						metrics.increment(format("upstream_retries_succeeded_total{repository=\"%s\"}", repositoryId));
+					}
+					result.complete(r);
+					return;
+				}
+
+				LOG.debug("Retrying {} from repository '{}' in {}ms (HTTP {})", r.uri(), repositoryId, retryDelayMillis.get(), r.statusCode());
+				retry(attempt, "status", retryDelayMillis.get(), responseBodyHandler, sender, result);
+				return;
+			}
+
+			if (isRetryable(e)) {
+				if (attempt >= maxRetries) {
+					metrics.increment(format("upstream_retries_exhausted_total{repository=\"%s\"}", repositoryId));
+				} else if (acquireRetry()) {
+					long delayMillis = getRetryDelayMillis(attempt, Optional.empty());
+					LOG.debug("Retrying request to repository '{}' in {}ms ({})", repositoryId, delayMillis, e.getMessage());
+					retry(attempt, "error", delayMillis, responseBodyHandler, sender, result);
+					return;
+				}
+			}
+			result.completeExceptionally(e);
+		});
+	}
+
+	private long getRetryDelayMillis(int attempt, Optional<String> retryAfter) {
+		long backoffMillis = ThreadLocalRandom.current().nextLong(Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 20)) + 1);
+		if (retryAfter.isEmpty())
+			return backoffMillis;
+
+		long retryAfterMillis = parseRetryAfter(retryAfter.get(), Instant.now());
+		if (retryAfterMillis > MAX_DELAY_MILLIS)
+			return -1;
+
+		return Math.max(backoffMillis, retryAfterMillis);
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public synchronized double getTokens() {
+		return tokens;
+	}
+
+	private <T> void retry(int attempt, String cause, long delayMillis, BodyHandler<T> responseBodyHandler, Function<BodyHandler<T>, CompletableFuture<HttpResponse<T>>> sender, CompletableFuture<HttpResponse<T>> result) {
+		metrics.increment(format("upstream_retries_total{repository=\"%s\",cause=\"%s\"}", repositoryId, cause));
+		CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> attempt(attempt + 1, responseBodyHandler, sender, result));
+	}
+
+	/**
+	 * Sends a request and retries it when it fails transiently.
+	 * <p>
+	 * Retried responses are never passed to the given body handler, i.e. it
+	 * only sees the final response.
+	 * </p>
+	 *
+	 * @param <T>
+	 *            the response body type
+	 * @param responseBodyHandler
+	 *            the body handler
+	 * @param sender
+	 *            sends the request using the given body handler (called once
+	 *            per attempt)
+	 * @return the final response
+	 */
+	public <T> CompletableFuture<HttpResponse<T>> send(BodyHandler<T> responseBodyHandler, Function<BodyHandler<T>, CompletableFuture<HttpResponse<T>>> sender) {
+		synchronized (this) {
+			tokens = Math.min(MAX_TOKENS, tokens + tokensPerRequest);
+		}
+
+		CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+		attempt(0, responseBodyHandler, sender, result);
+		return result;
+	}
+}
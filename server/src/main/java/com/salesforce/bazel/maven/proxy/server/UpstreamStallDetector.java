@@ -0,0 +1,320 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+/**
+ * Detects upstream response bodies which stop delivering data and resumes
+ * them where they stopped.
+ * <p>
+ * The request timeout only covers waiting for response headers; a body which
+ * stalls halfway would otherwise hold the client connection, the upstream
+ * connection and a thread forever. A read blocked for longer than the stall
+ * timeout closes the upstream response. When a response was stalled or
+ * dropped before its <code>Content-Length</code> was reached, the remaining
+ * bytes are requested with <code>Range</code> and <code>If-Range</code> (the
+ * <code>ETag</code> or <code>Last-Modified</code> of the original response)
+ * and spliced into the same stream, i.e. readers see one uninterrupted body.
+ * </p>
+ */
+public class UpstreamStallDetector {
+
+	/**
+	 * The body of an upstream response which is resumed after stalls and
+	 * connection drops.
+	 * <p>
+	 * Resume requests are sent asynchronously. A blocking reader simply waits
+	 * for the resumed body. In {@link #setNonBlocking(boolean) non-blocking}
+	 * mode a read returns <code>0</code> instead while the resume request is
+	 * in flight, and the reader continues once the
+	 * {@link #getPendingResume() pending resume} completes, so that no
+	 * request thread waits for upstream.
+	 * </p>
+	 */
+	public final class ResumingInputStream extends InputStream {
+
+		private final HttpRequest request;
+		private final Priority priority;
+		private final Optional<String> validator;
+		private final long contentLength;
+		private final ScheduledFuture<?> check;
+		private volatile InputStream current;
+		private volatile CompletableFuture<InputStream> pendingResume;
+		private volatile long readStartedNanos;
+		private volatile boolean stalled;
+		private volatile boolean closed;
+		private volatile boolean nonBlocking;
+		private boolean wakeupReported;
+		private long position;
+		private int resumes;
+
+		ResumingInputStream(HttpRequest request, Priority priority, HttpResponse<InputStream> response) {
+			this.request = request;
+			this.priority = priority;
+			validator = RangedDownloader.getValidator(response);
+			contentLength = response.headers().firstValueAsLong("content-length").orElse(-1);
+			current = response.body();
+			long intervalMillis = Math.max(1, stallTimeout.toMillis() / 4);
+			check = WATCHDOG.scheduleWithFixedDelay(this::checkStalled, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		private InputStream awaitResume(CompletableFuture<InputStream> resume) throws IOException {
+			InputStream resumed;
+			try {
+				resumed = resume.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(format("Unable to resume %s at byte %d: %s", request.uri(), position, e.getCause().getMessage()), e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(format("Interrupted while resuming %s", request.uri()));
+			}
+
+			if (closed) {
+				closeQuietly(resumed);
+				throw new IOException(format("Response body of %s was closed", request.uri()));
+			}
+			return resumed;
+		}
+
+		private void checkStalled() {
+			long started = readStartedNanos;
+			if (started == 0)
+				return;
+
+			long blockedNanos = System.nanoTime() - started;
+			if (stalled) {
+				// closing the body is expected to end the blocked read right away
+				if (!wakeupReported && (blockedNanos >= (2 * stallTimeout.toNanos()))) {
+					wakeupReported = true;
+					metrics.increment(format("upstream_stalls_unrecoverable_total{repository=\"%s\"}", repository.getId()));
+					LOG.error("Closing the stalled response body of {} did not wake up its reader (Java {}).", request.uri(), Runtime.version());
+				}
+				return;
+			}
+			if (blockedNanos < stallTimeout.toNanos())
+				return;
+
+			stalled = true;
+			metrics.increment(format("upstream_stalls_total{repository=\"%s\"}", repository.getId()));
+			LOG.warn("Response body of {} stalled after {} bytes (no data for {}ms).", request.uri(), position, stallTimeout.toMillis());
+			// wakes up the blocked read
+			closeQuietly(current);
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			check.cancel(false);
+			CompletableFuture<InputStream> resume = pendingResume;
+			if (resume != null) {
+				resume.thenAccept(this::closeQuietly);
+			}
+			current.close();
+		}
+
+		private void closeQuietly(InputStream in) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				LOG.debug("Error closing response body of {}: {}", request.uri(), e.getMessage());
+			}
+		}
+
+		/**
+		 * @return the resume request in flight (<code>null</code> if none)
+		 */
+		public CompletableFuture<?> getPendingResume() {
+			return pendingResume;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int len;
+			while ((len = read(b, 0, 1)) == 0) {
+				CompletableFuture<InputStream> resume = pendingResume;
+				if (resume != null) {
+					try {
+						resume.join();
+					} catch (CompletionException | CancellationException e) {
+						// reported by the next read
+					}
+				}
+			}
+			return len < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (true) {
+				CompletableFuture<InputStream> resume = pendingResume;
+				if (resume != null) {
+					if (nonBlocking && !resume.isDone())
+						return 0;
+
+					try {
+						current = awaitResume(resume);
+					} catch (IOException e) {
+						check.cancel(false);
+						throw e;
+					} finally {
+						pendingResume = null;
+					}
+				}
+
+				int read;
+				IOException failure = null;
+				readStartedNanos = System.nanoTime() | 1; // never 0 while reading
+				try {
+					read = current.read(b, off, len);
+				} catch (IOException e) {
+					read = -1;
+					failure = e;
+				} finally {
+					readStartedNanos = 0;
+				}
+
+				if (read >= 0) {
+					position += read;
+					return read;
+				}
+
+				boolean truncated = (failure != null) || stalled || ((contentLength >= 0) && (position < contentLength));
+				if (!truncated) {
+					check.cancel(false);
+					return -1;
+				}
+				try {
+					pendingResume = resume(failure);
+				} catch (IOException e) {
+					check.cancel(false);
+					throw e;
+				}
+			}
+		}
+
+		private CompletableFuture<InputStream> resume(IOException failure) throws IOException {
+			String cause = stalled ? "stall" : "error";
+			stalled = false;
+			closeQuietly(current);
+			if (closed)
+				throw new IOException(format("Response body of %s was closed", request.uri()));
+
+			if (validator.isEmpty() || (resumes >= maxResumes)) {
+				metrics.increment(format("upstream_resumes_failed_total{repository=\"%s\"}", repository.getId()));
+				if (failure != null)
+					throw failure;
+				throw new IOException(format("Response body of %s ended after %d bytes and cannot be resumed", request.uri(), position));
+			}
+
+			resumes++;
+			metrics.increment(format("upstream_resumes_total{repository=\"%s\",cause=\"%s\"}", repository.getId(), cause));
+			long resumePosition = position;
+			int attempt = resumes;
+			HttpRequest resumeRequest = HttpRequest.newBuilder(request.uri()).GET().timeout(request.timeout().orElse(stallTimeout)).header("Range", format("bytes=%d-", resumePosition)).header("If-Range", validator.get()).build();
+			return repository.sendAsync(resumeRequest, BodyHandlers.ofInputStream(), priority).handle((response, e) -> {
+				if (e != null) {
+					Throwable error = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+					throw new CompletionException(new IOException(format("Unable to resume %s at byte %d: %s", request.uri(), resumePosition, error.getMessage()), error));
+				}
+
+				String contentRange = response.headers().firstValue("content-range").orElse("");
+				if ((response.statusCode() != 206) || !contentRange.startsWith(format("bytes %d-", resumePosition))) {
+					closeQuietly(response.body());
+					metrics.increment(format("upstream_resumes_failed_total{repository=\"%s\"}", repository.getId()));
+					throw new CompletionException(new IOException(format("Unable to resume %s at byte %d (HTTP %d, Content-Range '%s')", request.uri(), resumePosition, response.statusCode(), contentRange)));
+				}
+
+				LOG.info("Resumed {} at byte {} ({}, attempt {} of {}).", request.uri(), resumePosition, cause, attempt, maxResumes);
+				return response.body();
+			});
+		}
+
+		/**
+		 * @param nonBlocking
+		 *            <code>true</code> to return <code>0</code> from reads
+		 *            while a resume request is in flight instead of waiting
+		 *            for it
+		 */
+		public void setNonBlocking(boolean nonBlocking) {
+			this.nonBlocking = nonBlocking;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(UpstreamStallDetector.class);
+
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "upstream-stall-detector");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final UpstreamMavenRepository repository;
+	private final Duration stallTimeout;
+	private final int maxResumes;
+	private final ProxyMetrics metrics;
+
+	/**
+	 * @param repository
+	 *            the repository to resume requests with
+	 * @param stallTimeout
+	 *            the time a read may block before the body is considered
+	 *            stalled
+	 * @param maxResumes
+	 *            the maximum number of resumes per response
+	 * @param metrics
+	 *            metrics for recording stalls and resumes
+	 */
+	public UpstreamStallDetector(UpstreamMavenRepository repository, Duration stallTimeout, int maxResumes, ProxyMetrics metrics) {
+		this.repository = repository;
+		this.stallTimeout = stallTimeout;
+		this.maxResumes = maxResumes;
+		this.metrics = metrics;
+	}
+
+	public int getMaxResumes() {
+		return maxResumes;
+	}
+
+	public Duration getStallTimeout() {
+		return stallTimeout;
+	}
+
+	/**
+	 * Watches the body of a complete (<code>200</code>) response.
+	 *
+	 * @param request
+	 *            the request (for URI and timeout when resuming)
+	 * @param priority
+	 *            the priority of the request (reused when resuming)
+	 * @param response
+	 *            the response
+	 * @return the stream to read the body from instead
+	 */
+	public ResumingInputStream watch(HttpRequest request, Priority priority, HttpResponse<InputStream> response) {
+		return new ResumingInputStream(request, priority, response);
+	}
+}
@@ -0,0 +1,23 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.IOException;
+
+/**
+ * Signals an unexpected HTTP status received from an upstream repository.
+ */
+public class UpstreamStatusException extends IOException {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	public UpstreamStatusException(int statusCode, String message) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
@@ -0,0 +1,120 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class AdmissionControllerTest {
+
+	private static AdmissionRejectedException rejection(CompletableFuture<AdmissionController.Ticket> admission) {
+		CompletionException e = assertThrows(CompletionException.class, admission::join);
+		assertTrue(e.getCause() instanceof AdmissionRejectedException, () -> String.valueOf(e.getCause()));
+		return (AdmissionRejectedException) e.getCause();
+	}
+
+	private volatile double heapUsage;
+	private final ProxyMetrics metrics = new ProxyMetrics();
+
+	private AdmissionController create(int maxConcurrent, int maxQueuedPerClient, Duration maxQueueTime) {
+		return new AdmissionController(maxConcurrent, maxQueuedPerClient, maxQueueTime, () -> heapUsage, () -> 0, () -> 0, metrics);
+	}
+
+	@Test
+	@DisplayName("Gives free slots to the client with the fewest requests in flight")
+	public void admitsFairly() throws Exception {
+		try (AdmissionController controller = create(2, 10, Duration.ofMinutes(1))) {
+			AdmissionController.Ticket first = controller.acquire("10.0.0.1").join();
+			controller.acquire("10.0.0.1").join();
+			CompletableFuture<AdmissionController.Ticket> greedy = controller.acquire("10.0.0.1");
+			CompletableFuture<AdmissionController.Ticket> other = controller.acquire("10.0.0.2");
+			assertFalse(greedy.isDone());
+			assertFalse(other.isDone());
+			assertEquals(2, controller.getQueued());
+
+			// queued later but nothing in flight yet
+			first.release();
+			assertTrue(other.isDone());
+			assertFalse(greedy.isDone());
+
+			other.join().release();
+			assertTrue(greedy.isDone());
+			assertEquals(0, controller.getQueued());
+			assertEquals(2, controller.getInFlight());
+		}
+	}
+
+	@Test
+	@DisplayName("Sheds requests of clients with too many queued requests")
+	public void limitsQueuePerClient() throws Exception {
+		try (AdmissionController controller = create(1, 1, Duration.ofMinutes(1))) {
+			controller.acquire("10.0.0.1").join();
+			assertFalse(controller.acquire("10.0.0.1").isDone());
+
+			AdmissionRejectedException e = rejection(controller.acquire("10.0.0.1"));
+			assertEquals("client_queue_full", e.getReason());
+			assertEquals(60, e.getRetryAfterSeconds());
+			assertEquals(1, metrics.get("admission_rejected_total{reason=\"client_queue_full\"}"));
+		}
+	}
+
+	@Test
+	@DisplayName("Drops from the longest queue when the queue is full")
+	public void shedsFromLongestQueue() throws Exception {
+		try (AdmissionController controller = create(2, 10, Duration.ofMinutes(1))) {
+			controller.acquire("10.0.0.1").join();
+			controller.acquire("10.0.0.1").join();
+			CompletableFuture<AdmissionController.Ticket> queued = controller.acquire("10.0.0.1");
+			CompletableFuture<AdmissionController.Ticket> newest = controller.acquire("10.0.0.1");
+
+			CompletableFuture<AdmissionController.Ticket> other = controller.acquire("10.0.0.2");
+			assertFalse(other.isDone());
+			assertFalse(queued.isDone());
+			assertEquals("overloaded", rejection(newest).getReason());
+
+			// the client with the longest queue is rejected right away
+			assertEquals("overloaded", rejection(controller.acquire("10.0.0.1")).getReason());
+		}
+	}
+
+	@Test
+	@DisplayName("Sheds requests waiting too long")
+	public void expiresQueuedRequests() throws Exception {
+		try (AdmissionController controller = create(1, 10, Duration.ofMillis(100))) {
+			controller.acquire("10.0.0.1").join();
+			CompletableFuture<AdmissionController.Ticket> queued = controller.acquire("10.0.0.2");
+
+			AdmissionRejectedException e = rejection(queued.orTimeout(5, TimeUnit.SECONDS));
+			assertEquals("queue_timeout", e.getReason());
+			assertEquals(1, e.getRetryAfterSeconds());
+			assertEquals(0, controller.getQueued());
+		}
+	}
+
+	@Test
+	@DisplayName("Lowers the limit when resources run low")
+	public void lowersLimitUnderPressure() throws Exception {
+		assertEquals(100, AdmissionController.computeLimit(100, 0.5, 0.8, 0));
+		assertEquals(50, AdmissionController.computeLimit(100, 0.875, 0.1, 0));
+		assertEquals(1, AdmissionController.computeLimit(100, 0.2, 0.99, 0));
+		assertEquals(1, AdmissionController.computeLimit(100, 0, 0, 5.0));
+
+		try (AdmissionController controller = create(100, 10, Duration.ofMinutes(1))) {
+			heapUsage = 0.9;
+			controller.updateLimit();
+			assertEquals(33, controller.getLimit());
+
+			heapUsage = 0.3;
+			controller.updateLimit();
+			assertEquals(100, controller.getLimit());
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+import jakarta.servlet.DispatcherType;
+
+public class AdmissionFilterTest {
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (!condition.getAsBoolean() && ((System.nanoTime() - deadline) < 0)) {
+			Thread.sleep(20);
+		}
+	}
+
+	@TempDir
+	Path tempDir;
+
+	private HttpServer upstream;
+	private Server server;
+	private AdmissionController admissionController;
+
+	@AfterEach
+	public void after() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+		if (upstream != null) {
+			upstream.stop(0);
+		}
+		if (admissionController != null) {
+			admissionController.close();
+		}
+	}
+
+	@Test
+	@DisplayName("Requests admitted after queuing are processed like any other request")
+	public void announcesSiblingsOfQueuedRequests() throws Exception {
+		List<String> upstreamPaths = new CopyOnWriteArrayList<>();
+		upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		upstream.createContext("/", (exchange) -> {
+			upstreamPaths.add(exchange.getRequestURI().getPath());
+			exchange.sendResponseHeaders(200, 3);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write("pom".getBytes());
+			}
+		});
+		upstream.start();
+
+		ProxyMetrics metrics = new ProxyMetrics();
+		MavenRepositoryCache mavenCache = new MavenRepositoryCache(Files.createDirectories(tempDir.resolve("m2")));
+		MavenProxyCache proxyCache = new MavenProxyCache(tempDir.resolve("cache"));
+		UpstreamMavenRepository repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + upstream.getAddress().getPort() + "/maven2", null, null);
+		admissionController = new AdmissionController(1, 10, Duration.ofMinutes(1), () -> 0, () -> 0, () -> 0, metrics);
+
+		server = new Server();
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("127.0.0.1");
+		connector.addBean(admissionController);
+		server.addConnector(connector);
+		ServletContextHandler handler = new ServletContextHandler();
+		handler.setAttribute(MavenProxyServlet.UPSTREAM_REPOSITORIES_MAP, Map.of("central", repository));
+		handler.setAttribute(MavenRepositoryCache.class.getName(), mavenCache);
+		handler.setAttribute(MavenProxyCache.class.getName(), proxyCache);
+		handler.setAttribute(CachedContentManager.class.getName(), new CachedContentManager(256 * 1024, metrics));
+		handler.setAttribute(ArtifactPrefetcher.class.getName(), new ArtifactPrefetcher(mavenCache, proxyCache, metrics, 4, Duration.ofSeconds(20)));
+		handler.setAttribute(AdmissionController.class.getName(), admissionController);
+		handler.addFilter(new FilterHolder(AdmissionFilter.class), "/maven/*", EnumSet.of(DispatcherType.REQUEST));
+		ServletHolder proxyServlet = new ServletHolder(MavenProxyServlet.class);
+		proxyServlet.setInitParameter(MavenProxyServlet.REPOSITORY_ID, "central");
+		proxyServlet.setInitParameter("prefix", "/maven/central");
+		proxyServlet.setInitParameter(MavenProxyServlet.PREDICT_SIBLINGS, "true");
+		handler.addServlet(proxyServlet, "/maven/central/*");
+		server.setHandler(handler);
+		server.start();
+
+		// occupy the only slot so the request has to wait
+		AdmissionController.Ticket ticket = admissionController.acquire("10.0.0.1").join();
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + connector.getLocalPort() + "/maven/central/org/foo/bar/1.0/bar-1.0.pom")).GET().build();
+		CompletableFuture<HttpResponse<String>> response = HttpClient.newHttpClient().sendAsync(request, BodyHandlers.ofString());
+		await(() -> admissionController.getQueued() == 1);
+		assertEquals(1, admissionController.getQueued());
+		assertFalse(response.isDone());
+
+		ticket.release();
+		assertEquals(200, response.get().statusCode());
+		assertEquals("pom", response.get().body());
+
+		// the siblings of the POM are prefetched
+		await(() -> upstreamPaths.contains("/maven2/org/foo/bar/1.0/bar-1.0.jar"));
+		assertTrue(upstreamPaths.contains("/maven2/org/foo/bar/1.0/bar-1.0.jar"), upstreamPaths::toString);
+		await(() -> admissionController.getInFlight() == 0);
+		assertEquals(0, admissionController.getInFlight());
+	}
+}
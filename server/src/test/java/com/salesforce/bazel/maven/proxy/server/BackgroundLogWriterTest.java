@@ -0,0 +1,36 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BackgroundLogWriterTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	@DisplayName("Rotates the file by size and keeps the configured number of files")
+	public void rotatesBySize() throws Exception {
+		Path file = tempDir.resolve("logs/trace.json");
+		try (BackgroundLogWriter<String> writer = new BackgroundLogWriter<>(file, 10, 2, 16, "test-writer", (line, record) -> line.append(record).append('\n'))) {
+			for (int i = 0; i < 8; i++) {
+				assertTrue(writer.offer("record-" + i));
+			}
+		}
+
+		// 9 bytes per line, i.e. a file is rotated after two lines
+		assertEquals("record-6\nrecord-7\n", Files.readString(file, UTF_8));
+		assertEquals("record-4\nrecord-5\n", Files.readString(file.resolveSibling("trace.json.1"), UTF_8));
+		assertEquals("record-2\nrecord-3\n", Files.readString(file.resolveSibling("trace.json.2"), UTF_8));
+		assertFalse(Files.exists(file.resolveSibling("trace.json.3")));
+	}
+}
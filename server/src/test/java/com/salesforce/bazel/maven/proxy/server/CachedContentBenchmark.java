@@ -0,0 +1,70 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares reading cached artifacts into pooled heap buffers with mapping them
+ * (including unmapping) for a range of file sizes to find the crossover point
+ * for <code>--mmap-threshold</code>.
+ * <p>
+ * Not a unit test; run manually, eg.:
+ * <code>java -cp target/classes:target/test-classes:... com.salesforce.bazel.maven.proxy.server.CachedContentBenchmark</code>.
+ * Files are read from the page cache, i.e. this measures the cost of setting
+ * up the content, not disk I/O.
+ * </p>
+ */
+public class CachedContentBenchmark {
+
+	private static final int[] SIZES_KB = { 1, 4, 16, 32, 64, 128, 256, 512, 1024, 4096 };
+	private static final long RUN_NANOS = 300_000_000L;
+
+	private static double measure(CachedContentManager manager, File file, byte[] sink) throws Exception {
+		// warm up
+		for (int i = 0; i < 1000; i++) {
+			consume(manager, file, sink);
+		}
+
+		long iterations = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			consume(manager, file, sink);
+			iterations++;
+		} while ((elapsed = System.nanoTime() - start) < RUN_NANOS);
+		return (double) elapsed / iterations / 1000d;
+	}
+
+	private static void consume(CachedContentManager manager, File file, byte[] sink) throws Exception {
+		try (CachedContentManager.Content content = manager.open(file)) {
+			// touch every byte, like writing it to a socket would
+			ByteBuffer buffer = content.getBuffer();
+			while (buffer.hasRemaining()) {
+				buffer.get(sink, 0, Math.min(sink.length, buffer.remaining()));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("content-benchmark");
+		byte[] sink = new byte[64 * 1024];
+		Random random = new Random(42);
+
+		// 'heap' always reads (threshold above every size), 'mmap' always maps
+		CachedContentManager heap = new CachedContentManager(8 * 1024 * 1024, new ProxyMetrics());
+		CachedContentManager mmap = new CachedContentManager(0, new ProxyMetrics());
+
+		System.out.printf("%10s %12s %12s%n", "size (KB)", "heap (us)", "mmap (us)");
+		for (int sizeKb : SIZES_KB) {
+			byte[] data = new byte[sizeKb * 1024];
+			random.nextBytes(data);
+			File file = Files.write(directory.resolve(sizeKb + ".bin"), data).toFile();
+			System.out.printf("%10d %12.2f %12.2f%n", sizeKb, measure(heap, file, sink), measure(mmap, file, sink));
+			Files.delete(file.toPath());
+		}
+		Files.delete(directory);
+	}
+}
@@ -0,0 +1,76 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CachedContentManagerTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	@DisplayName("Shares one mapping per file and unmaps it with the last reader")
+	public void sharesMappings() throws Exception {
+		ProxyMetrics metrics = new ProxyMetrics();
+		CachedContentManager manager = new CachedContentManager(8 * 1024, metrics);
+		File large = Files.write(tempDir.resolve("large.jar"), new byte[16 * 1024]).toFile();
+
+		CachedContentManager.Content first = manager.open(large);
+		CachedContentManager.Content second = manager.open(large);
+		assertTrue(first.isMapped());
+		assertEquals(16 * 1024, second.getBuffer().remaining());
+		assertEquals(1, manager.getMappedFileCount());
+		assertEquals(1, metrics.get("content_reads_total{mode=\"mmap_shared\"}"));
+
+		first.getBuffer().position(100); // readers have their own position
+		assertEquals(16 * 1024, second.getBuffer().remaining());
+
+		first.close();
+		first.close(); // closing twice is harmless
+		assertEquals(1, manager.getMappedFileCount());
+		second.close();
+		assertEquals(0, manager.getMappedFileCount());
+	}
+
+	@Test
+	@DisplayName("Never unmaps a mapping abandoned by a failed write")
+	public void keepsAbandonedMappings() throws Exception {
+		CachedContentManager manager = new CachedContentManager(8 * 1024, new ProxyMetrics());
+		byte[] bytes = new byte[16 * 1024];
+		bytes[bytes.length - 1] = 42;
+		File large = Files.write(tempDir.resolve("large.jar"), bytes).toFile();
+
+		CachedContentManager.Content failed = manager.open(large);
+		CachedContentManager.Content other = manager.open(large);
+		failed.abandon();
+		other.close();
+		assertEquals(0, manager.getMappedFileCount());
+
+		// still readable (eg., by a pending write), an unmapped buffer would crash the JVM
+		assertEquals(42, failed.getBuffer().get(bytes.length - 1));
+	}
+
+	@Test
+	@DisplayName("Reads small files into pooled buffers")
+	public void readsSmallFiles() throws Exception {
+		CachedContentManager manager = new CachedContentManager(8 * 1024, new ProxyMetrics());
+		File small = Files.writeString(tempDir.resolve("small.jar.sha1"), "0123456789abcdef").toFile();
+
+		try (CachedContentManager.Content content = manager.open(small)) {
+			assertFalse(content.isMapped());
+			byte[] bytes = new byte[content.getBuffer().remaining()];
+			content.getBuffer().get(bytes);
+			assertEquals("0123456789abcdef", new String(bytes));
+		}
+		assertEquals(0, manager.getMappedFileCount());
+	}
+}
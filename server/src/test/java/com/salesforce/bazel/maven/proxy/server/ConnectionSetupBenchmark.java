@@ -0,0 +1,147 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.eclipse.jetty.server.Server;
+
+import picocli.CommandLine;
+
+/**
+ * Measures the cost of setting up an HTTP/2 connection to the proxy: a full
+ * TLS handshake (what every connection paid without session resumption), a
+ * resumed TLS handshake and HTTP/2 cleartext with prior knowledge on the
+ * unsecure port.
+ * <p>
+ * Not a unit test; run manually, eg.:
+ * <code>bazel run //server:connection_setup_benchmark -- [proxy options]</code>.
+ * A proxy without any repositories is started in-process on free ports; any
+ * arguments are passed on to it (eg., <code>--no-tls-session-tickets</code>).
+ * A connection is considered set up once the server's HTTP/2
+ * <code>SETTINGS</code> frame was received.
+ * </p>
+ */
+public class ConnectionSetupBenchmark {
+
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(US_ASCII);
+	private static final byte[] EMPTY_SETTINGS = { 0, 0, 0, 4, 0, 0, 0, 0, 0 };
+	private static final int FRAME_TYPE_SETTINGS = 4;
+	private static final long RUN_NANOS = 2_000_000_000L;
+
+	interface Connect {
+		Socket connect() throws Exception;
+	}
+
+	private static void awaitSettings(Socket socket) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(PREFACE);
+		out.write(EMPTY_SETTINGS);
+		out.flush();
+
+		byte[] header = new byte[9];
+		new DataInputStream(socket.getInputStream()).readFully(header);
+		if (header[3] != FRAME_TYPE_SETTINGS)
+			throw new IOException("Expected a SETTINGS frame but got frame type " + header[3]);
+	}
+
+	private static int findFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = findFreePort();
+		int unsecurePort = findFreePort();
+		MavenProxyServer proxy = new MavenProxyServer();
+		CommandLine commandLine = new CommandLine(proxy);
+		commandLine.parseArgs(concat(args, "-p", String.valueOf(port), "--unsecure-port", String.valueOf(unsecurePort)));
+		Server server = proxy.createJettyServer();
+		server.start();
+		try {
+			// one shared client context caches sessions, a new one per connection never resumes
+			SSLContext shared = newTrustAllContext();
+
+			System.out.printf("%-24s %12s%n", "connection", "setup (us)");
+			System.out.printf("%-24s %12.1f%n", "TLS full handshake", measure(() -> connectSecure(newTrustAllContext(), port)));
+			System.out.printf("%-24s %12.1f%n", "TLS resumed", measure(() -> connectSecure(shared, port)));
+			System.out.printf("%-24s %12.1f%n", "h2c (prior knowledge)", measure(() -> connectUnsecure(unsecurePort)));
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static String[] concat(String[] args, String... more) {
+		String[] result = new String[args.length + more.length];
+		System.arraycopy(args, 0, result, 0, args.length);
+		System.arraycopy(more, 0, result, args.length, more.length);
+		return result;
+	}
+
+	private static Socket connectSecure(SSLContext context, int port) throws Exception {
+		SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("127.0.0.1", port);
+		socket.setTcpNoDelay(true);
+		SSLParameters parameters = socket.getSSLParameters();
+		parameters.setApplicationProtocols(new String[] { "h2" });
+		socket.setSSLParameters(parameters);
+		socket.startHandshake();
+		awaitSettings(socket);
+		return socket;
+	}
+
+	private static Socket connectUnsecure(int port) throws Exception {
+		Socket socket = new Socket("127.0.0.1", port);
+		socket.setTcpNoDelay(true);
+		awaitSettings(socket);
+		return socket;
+	}
+
+	private static double measure(Connect connect) throws Exception {
+		// warm up
+		for (int i = 0; i < 200; i++) {
+			connect.connect().close();
+		}
+
+		long iterations = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			connect.connect().close();
+			iterations++;
+		} while ((elapsed = System.nanoTime() - start) < RUN_NANOS);
+		return (double) elapsed / iterations / 1000d;
+	}
+
+	private static SSLContext newTrustAllContext() throws Exception {
+		// the proxy uses a self-signed certificate
+		TrustManager trustAll = new X509TrustManager() {
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers() {
+				return new X509Certificate[0];
+			}
+		};
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, new TrustManager[] { trustAll }, null);
+		return context;
+	}
+}
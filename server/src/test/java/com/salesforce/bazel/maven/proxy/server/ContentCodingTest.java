@@ -0,0 +1,77 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ContentCodingTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	@DisplayName("Creates the gzip variant in the background when an artifact is cached")
+	public void createsGzipVariantInBackground() throws Exception {
+		MavenProxyCache cache = new MavenProxyCache(tempDir.resolve("cache"));
+		String pom = "<project>" + "<dependency/>".repeat(100) + "</project>";
+		Path downloadFile = cache.createDownloadFile();
+		Files.writeString(downloadFile, pom, UTF_8);
+		File artifact = cache.put("central", Path.of("org/foo/bar/1.0/bar-1.0.pom"), downloadFile);
+
+		File variant = null;
+		for (int i = 0; (i < 500) && (variant == null); i++) {
+			Thread.sleep(10);
+			variant = cache.getGzipVariant("central", Path.of("org/foo/bar/1.0/bar-1.0.pom"), artifact);
+		}
+		assertNotNull(variant);
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(variant.toPath()))) {
+			assertEquals(pom, new String(in.readAllBytes(), UTF_8));
+		}
+
+		// artifacts not in the cache (eg., local Maven repository) are served uncompressed until compressed
+		Path local = Files.writeString(tempDir.resolve("baz-1.0.pom"), pom, UTF_8);
+		assertNull(cache.getGzipVariant("central", Path.of("org/foo/baz/1.0/baz-1.0.pom"), local.toFile()));
+		variant = null;
+		for (int i = 0; (i < 500) && (variant == null); i++) {
+			Thread.sleep(10);
+			variant = cache.getGzipVariant("central", Path.of("org/foo/baz/1.0/baz-1.0.pom"), local.toFile());
+		}
+		assertNotNull(variant);
+	}
+
+	@Test
+	@DisplayName("Negotiates gzip from Accept-Encoding")
+	public void negotiatesGzip() throws Exception {
+		assertTrue(ContentCoding.acceptsGzip("gzip"));
+		assertTrue(ContentCoding.acceptsGzip("br, gzip;q=0.5, deflate"));
+		assertTrue(ContentCoding.acceptsGzip("*"));
+		assertFalse(ContentCoding.acceptsGzip(null));
+		assertFalse(ContentCoding.acceptsGzip("identity"));
+		assertFalse(ContentCoding.acceptsGzip("gzip;q=0"));
+		assertFalse(ContentCoding.acceptsGzip("*, gzip;q=0"));
+	}
+
+	@Test
+	@DisplayName("Only text artifacts are compressible")
+	public void detectsCompressibleArtifacts() throws Exception {
+		assertTrue(ContentCoding.isCompressible("/org/foo/bar/1.0/bar-1.0.pom"));
+		assertTrue(ContentCoding.isCompressible("org/foo/bar/maven-metadata.xml"));
+		assertTrue(ContentCoding.isCompressible("org/foo/bar/1.0/bar-1.0.jar.sha1"));
+		assertFalse(ContentCoding.isCompressible("org/foo/bar/1.0/bar-1.0.jar"));
+		assertFalse(ContentCoding.isCompressible("org/foo.bar/1.0/"));
+		assertFalse(ContentCoding.isCompressible(null));
+	}
+}
@@ -0,0 +1,82 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.bazel.maven.proxy.server.AccessLog.Source;
+
+public class CountMinSketchTest {
+
+	@Test
+	@DisplayName("Never underestimates and stays close for frequent keys")
+	public void estimatesCounts() throws Exception {
+		CountMinSketch sketch = new CountMinSketch(1000, 4);
+		assertEquals(1024, sketch.getWidth());
+
+		for (int i = 0; i < 10_000; i++) {
+			sketch.add("key-" + i, 1);
+		}
+		sketch.add("hot", 5_000);
+
+		for (int i = 0; i < 10_000; i++) {
+			assertTrue(sketch.estimate("key-" + i) >= 1);
+		}
+		// error is at most e / width * total with high probability
+		long hot = sketch.estimate("hot");
+		assertTrue((hot >= 5_000) && (hot <= (5_000 + ((Math.E / 1024) * 15_000))), "estimate: " + hot);
+
+		sketch.decay();
+		assertTrue(sketch.estimate("hot") >= 2_500);
+		assertTrue(sketch.estimate("hot") <= (hot / 2));
+	}
+
+	@Test
+	@DisplayName("Tracks the most frequent keys")
+	public void tracksHeavyHitters() throws Exception {
+		HeavyHitters heavyHitters = new HeavyHitters(new CountMinSketch(4096, 4), 5);
+		for (int round = 0; round < 100; round++) {
+			for (int i = 0; i < 50; i++) {
+				heavyHitters.add("cold-" + ((round * 50) + i), 1);
+			}
+			for (int i = 0; i < 3; i++) {
+				heavyHitters.add("hot-" + i, 10 * (i + 1));
+			}
+		}
+
+		List<String> top = heavyHitters.top(3);
+		assertEquals(List.of("hot-2", "hot-1", "hot-0"), top);
+	}
+
+	@Test
+	@DisplayName("Splits counts by source and repository")
+	public void splitsBySource() throws Exception {
+		HotArtifacts hotArtifacts = new HotArtifacts(10, Duration.ofHours(1));
+		hotArtifacts.record("central", "/maven/central/a.jar", Source.UPSTREAM, 1000);
+		hotArtifacts.record("central", "/maven/central/a.jar", Source.PROXY_CACHE, 1000);
+		hotArtifacts.record("central", "/maven/central/a.jar", Source.PROXY_CACHE, 1000);
+		hotArtifacts.record("central", "/maven/central/a.pom", Source.LOCAL, 10);
+		hotArtifacts.record("other", "/maven/other/b.jar", Source.UPSTREAM, 5000);
+
+		Map<String, HotArtifacts.Counts> byRequests = hotArtifacts.topByRequests(1);
+		HotArtifacts.Counts jar = byRequests.get("/maven/central/a.jar");
+		assertEquals(3, jar.getRequests());
+		assertEquals(3000, jar.getBytes());
+		assertEquals(Map.of(Source.UPSTREAM, 1L, Source.PROXY_CACHE, 2L), jar.getRequestsBySource());
+
+		assertEquals(List.of("/maven/other/b.jar", "/maven/central/a.jar", "/maven/central/a.pom"), List.copyOf(hotArtifacts.topByBytes(10).keySet()));
+		assertEquals(4, hotArtifacts.getRepositories().get("central").getRequests());
+		assertEquals(5000, hotArtifacts.getRepositories().get("other").getBytes());
+
+		hotArtifacts.decay();
+		assertEquals(1, hotArtifacts.topByRequests(1).get("/maven/central/a.jar").getRequests());
+		// halved per source (1 + 2 + 1 -> 0 + 1 + 0)
+		assertEquals(1, hotArtifacts.getRepositories().get("central").getRequests());
+	}
+}
@@ -0,0 +1,59 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DigestIndexTest {
+
+	/** SHA-256 of "hello" */
+	private static final String HELLO_SHA256 = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	@DisplayName("Indexes files, persists the index and detects stale entries")
+	public void indexesFiles() throws Exception {
+		Path repository = Files.createDirectories(tempDir.resolve("repository/org/foo/1.0"));
+		Path jar = Files.writeString(repository.resolve("foo-1.0.jar"), "hello", UTF_8);
+		Files.writeString(repository.resolve("foo-1.0.jar.sha1"), "ignored", UTF_8);
+		Path indexFile = tempDir.resolve("index/sha256");
+
+		DigestIndex index = new DigestIndex(List.of(tempDir.resolve("repository")), indexFile, new ProxyMetrics());
+		index.start();
+		index.awaitIndexing();
+		assertEquals(jar, index.get(HELLO_SHA256));
+		assertEquals(1, Files.readAllLines(indexFile).size());
+
+		// re-loaded without hashing again
+		ProxyMetrics metrics = new ProxyMetrics();
+		DigestIndex reloaded = new DigestIndex(List.of(tempDir.resolve("repository")), indexFile, metrics);
+		reloaded.start();
+		reloaded.awaitIndexing();
+		assertEquals(jar, reloaded.get(HELLO_SHA256));
+		assertEquals(0, metrics.get("digest_index_hashed_total"));
+
+		// modified content is never served for the old digest
+		Files.writeString(jar, "hello, world", UTF_8);
+		assertNull(reloaded.get(HELLO_SHA256));
+	}
+
+	@Test
+	@DisplayName("Parses hex and SRI digests")
+	public void parsesSha256() throws Exception {
+		assertEquals(HELLO_SHA256, DigestIndex.parseSha256(HELLO_SHA256.toUpperCase()));
+		assertEquals(HELLO_SHA256, DigestIndex.parseSha256("sha256-LPJNul+wow4m6DsqxbninhsWHlwfp0JecwQzYpOLmCQ="));
+		assertNull(DigestIndex.parseSha256("sha256-aGVsbG8="));
+		assertNull(DigestIndex.parseSha256(HELLO_SHA256.substring(1) + "x"));
+		assertNull(DigestIndex.parseSha256(null));
+	}
+}
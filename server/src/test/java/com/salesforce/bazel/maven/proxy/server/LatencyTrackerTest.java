@@ -0,0 +1,32 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class LatencyTrackerTest {
+
+	@Test
+	@DisplayName("Computes the percentile of recent samples")
+	public void computesPercentile() throws Exception {
+		LatencyTracker tracker = new LatencyTracker(95);
+		assertEquals(-1, tracker.getPercentileMillis(1));
+
+		for (int i = 1; i <= 100; i++) {
+			tracker.record(i);
+		}
+		assertEquals(-1, tracker.getPercentileMillis(101));
+		assertEquals(95, tracker.getPercentileMillis(20));
+	}
+
+	@Test
+	@DisplayName("Forgets samples outside the window")
+	public void slidesWindow() throws Exception {
+		LatencyTracker tracker = new LatencyTracker(50);
+		for (int i = 0; i < 2048; i++) {
+			tracker.record(i < 1024 ? 3000 : 40);
+		}
+		assertEquals(40, tracker.getPercentileMillis(20));
+	}
+}
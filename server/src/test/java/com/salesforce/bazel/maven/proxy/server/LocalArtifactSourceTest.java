@@ -0,0 +1,77 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LocalArtifactSourceTest {
+
+	private static final String SHA256 = "5891b5b522d5df086d0ff0b110fbd9d21bb4fc7163af34d08286a2e846f6be03";
+
+	private static Path write(Path file, String content) throws Exception {
+		Files.createDirectories(file.getParent());
+		return Files.writeString(file, content);
+	}
+
+	@Test
+	@DisplayName("Looks up Bazel's repository cache by the SHA-256 from lock files")
+	public void servesFromBazelRepositoryCache(@TempDir Path tempDir) throws Exception {
+		Path repositoryCache = tempDir.resolve("repos/v1");
+		Path file = write(repositoryCache.resolve("content_addressable/sha256").resolve(SHA256).resolve("file"), "bazel");
+		ProxyMetrics metrics = new ProxyMetrics();
+		BazelRepositoryCacheSource source = new BazelRepositoryCacheSource(repositoryCache, metrics);
+		source.addArtifacts(MavenLockFile.parse(new ByteArrayInputStream(("org.foo:bar:1.0 " + SHA256.toUpperCase() + "\norg.foo:baz:1.0 ../../etc\n").getBytes(UTF_8))));
+
+		assertEquals(file.toFile(), source.get(Path.of("org/foo/bar/1.0/bar-1.0.jar")));
+		assertNull(source.get(Path.of("org/foo/baz/1.0/baz-1.0.jar")));
+		assertNull(source.get(Path.of("org/foo/bar/1.0/bar-1.0.pom")));
+		assertEquals(1, metrics.get("local_source_hits_total{source=\"bazel\"}"));
+	}
+
+	@Test
+	@DisplayName("Translates Maven paths into Gradle's cache layout")
+	public void servesFromGradleCache(@TempDir Path tempDir) throws Exception {
+		Path cacheDirectory = tempDir.resolve("files-2.1");
+		Path jar = write(cacheDirectory.resolve("org.foo/bar/1.0/0a1b2c/bar-1.0.jar"), "jar");
+		Path pom = write(cacheDirectory.resolve("org.foo/bar/1.0/3d4e5f/bar-1.0.pom"), "pom");
+		GradleCacheSource source = new GradleCacheSource(cacheDirectory, new ProxyMetrics());
+
+		assertEquals("org.foo/bar/1.0/bar-1.0.jar", GradleCacheSource.toKey(Path.of("org/foo/bar/1.0/bar-1.0.jar")));
+		assertNull(GradleCacheSource.toKey(Path.of("org/foo/bar/maven-metadata.xml")));
+		assertNull(GradleCacheSource.toKey(Path.of("org/foo/bar/1.0/bar-1.0.jar.sha1")));
+
+		// not indexed yet, found via the version directory
+		assertEquals(jar.toFile(), source.get(Path.of("org/foo/bar/1.0/bar-1.0.jar")));
+		assertEquals(pom.toFile(), source.get(Path.of("org/foo/bar/1.0/bar-1.0.pom")));
+		assertNull(source.get(Path.of("org/foo/bar/1.0/bar-1.0-sources.jar")));
+
+		// removed by Gradle's cache cleanup
+		Files.delete(pom);
+		assertNull(source.get(Path.of("org/foo/bar/1.0/bar-1.0.pom")));
+	}
+
+	@Test
+	@DisplayName("Prefers the local Maven repository over additional sources")
+	public void looksUpSourcesInOrder(@TempDir Path tempDir) throws Exception {
+		Path localRepository = tempDir.resolve("m2");
+		Path m2Pom = write(localRepository.resolve("org/foo/bar/1.0/bar-1.0.pom"), "m2");
+		Path cacheDirectory = tempDir.resolve("files-2.1");
+		write(cacheDirectory.resolve("org.foo/bar/1.0/3d4e5f/bar-1.0.pom"), "gradle");
+		Path gradleJar = write(cacheDirectory.resolve("org.foo/bar/1.0/0a1b2c/bar-1.0.jar"), "gradle");
+
+		MavenRepositoryCache cache = new MavenRepositoryCache(localRepository);
+		cache.addSource(new GradleCacheSource(cacheDirectory, new ProxyMetrics()));
+
+		assertEquals(m2Pom.toFile(), cache.get(Path.of("/org/foo/bar/1.0/bar-1.0.pom")));
+		assertEquals(gradleJar.toFile(), cache.get(Path.of("/org/foo/bar/1.0/bar-1.0.jar")));
+		assertNull(cache.get(Path.of("/org/foo/bar/1.0/bar-1.0.jar.sha1")));
+	}
+}
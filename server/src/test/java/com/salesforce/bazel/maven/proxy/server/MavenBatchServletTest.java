@@ -0,0 +1,104 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class MavenBatchServletTest {
+
+	private final CountDownLatch stalled = new CountDownLatch(1);
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private HttpServer upstream;
+	private Server server;
+
+	@AfterEach
+	public void after() throws Exception {
+		stalled.countDown();
+		if (server != null) {
+			server.stop();
+		}
+		if (upstream != null) {
+			upstream.stop(0);
+		}
+		executor.shutdownNow();
+	}
+
+	@Test
+	@DisplayName("Writes a part per path and answers 504 for upstream timeouts")
+	public void writesPartsAsTheyComplete() throws Exception {
+		upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		upstream.setExecutor(executor);
+		upstream.createContext("/", (exchange) -> {
+			String path = exchange.getRequestURI().getPath();
+			if (path.endsWith("slow.pom")) {
+				try {
+					stalled.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (path.endsWith("missing.pom")) {
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+				return;
+			}
+			byte[] body = "pom".getBytes(UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		upstream.start();
+
+		UpstreamMavenRepository repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + upstream.getAddress().getPort() + "/maven2", null, null);
+		server = new Server();
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("127.0.0.1");
+		server.addConnector(connector);
+		ServletContextHandler handler = new ServletContextHandler();
+		handler.setAttribute(MavenProxyServlet.UPSTREAM_REPOSITORIES_MAP, Map.of("central", repository));
+		ServletHolder batchServlet = new ServletHolder(MavenBatchServlet.class);
+		batchServlet.setInitParameter(MavenProxyServlet.REQUEST_TIMEOUT_SECONDS, "1");
+		handler.addServlet(batchServlet, "/batch");
+		server.setHandler(handler);
+		server.start();
+
+		String paths = "/maven/central/org/foo/found.pom\n/maven/central/org/foo/missing.pom\n/maven/central/org/foo/slow.pom\n/maven/unknown/org/foo/bar.pom\n";
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + connector.getLocalPort() + "/batch")).POST(BodyPublishers.ofString(paths)).build();
+		HttpResponse<String> response = HttpClient.newHttpClient().send(request, BodyHandlers.ofString());
+
+		assertEquals(200, response.statusCode());
+		String body = response.body();
+		assertTrue(body.contains("Content-Location: /maven/central/org/foo/found.pom\r\nX-Status: 200\r\n"), body);
+		assertTrue(body.contains("Content-Location: /maven/central/org/foo/missing.pom\r\nX-Status: 404\r\n"), body);
+		assertTrue(body.contains("Content-Location: /maven/central/org/foo/slow.pom\r\nX-Status: 504\r\n"), body);
+		assertTrue(body.contains("Content-Location: /maven/unknown/org/foo/bar.pom\r\nX-Status: 404\r\n"), body);
+		assertTrue(body.strip().endsWith("--"), body);
+	}
+}
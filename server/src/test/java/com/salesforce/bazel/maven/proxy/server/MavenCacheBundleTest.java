@@ -0,0 +1,136 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.salesforce.bazel.maven.proxy.server.MavenLockFile.Artifact;
+
+public class MavenCacheBundleTest {
+
+	/** SHA-256 of "hello" */
+	private static final String HELLO_SHA256 = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+	private static final long LAST_MODIFIED = 1_600_000_000_000L;
+
+	@TempDir
+	Path tempDir;
+
+	private MavenProxyCache createCache(String name) throws IOException {
+		MavenProxyCache cache = new MavenProxyCache(tempDir.resolve(name));
+		put(cache, "central", "org/foo/bar/1.0/bar-1.0.jar", "hello");
+		put(cache, "central", "org/foo/bar/1.0/bar-1.0.pom", "<project/>");
+		put(cache, "central", "org/foo/baz/2.0/baz-2.0.jar", "baz");
+		put(cache, "internal", "com/acme/lib/1.0/lib-1.0.jar", "lib");
+		return cache;
+	}
+
+	private byte[] export(MavenProxyCache cache, MavenCacheBundle.Selection selection) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MavenCacheBundle.Result result = new MavenCacheBundle(cache).exportTo(selection, out);
+		assertTrue(result.isSuccessful());
+		return out.toByteArray();
+	}
+
+	private void put(MavenProxyCache cache, String repositoryId, String path, String content) throws IOException {
+		Path downloadFile = cache.createDownloadFile();
+		Files.writeString(downloadFile, content, UTF_8);
+		Files.setLastModifiedTime(downloadFile, FileTime.fromMillis(LAST_MODIFIED));
+		cache.put(repositoryId, Path.of(path), downloadFile);
+	}
+
+	@Test
+	@DisplayName("Imports exported entries with their index in a single pass")
+	public void exportsAndImports() throws Exception {
+		byte[] bundle = export(createCache("source"), new MavenCacheBundle.Selection());
+
+		List<MavenCacheBundle.Entry> index = MavenCacheBundle.readIndex(new DataInputStream(new ByteArrayInputStream(bundle)));
+		assertEquals(4, index.size());
+		assertEquals("central/org/foo/bar/1.0/bar-1.0.jar", index.get(0).toString());
+		assertEquals(HELLO_SHA256, index.get(0).sha256);
+		assertEquals("internal/com/acme/lib/1.0/lib-1.0.jar", index.get(3).toString());
+
+		MavenProxyCache target = new MavenProxyCache(tempDir.resolve("target"));
+		Path indexFile = tempDir.resolve("target/.index/sha256");
+		MavenCacheBundle.Result result = new MavenCacheBundle(target).importFrom(new ByteArrayInputStream(bundle), new DigestIndex(List.of(), indexFile, new ProxyMetrics()));
+		assertTrue(result.isSuccessful(), () -> result.failures.toString());
+		assertEquals(4, result.entries);
+		assertEquals(21, result.bytes);
+
+		File jar = target.get("central", Path.of("org/foo/bar/1.0/bar-1.0.jar"));
+		assertNotNull(jar);
+		assertEquals("hello", Files.readString(jar.toPath(), UTF_8));
+		assertEquals(LAST_MODIFIED, jar.lastModified());
+		assertEquals("lib", Files.readString(target.get("internal", Path.of("com/acme/lib/1.0/lib-1.0.jar")).toPath(), UTF_8));
+
+		// the proxy finds imported entries by SHA-256 without hashing them
+		ProxyMetrics metrics = new ProxyMetrics();
+		DigestIndex digestIndex = new DigestIndex(List.of(target.getCacheDirectory()), indexFile, metrics);
+		digestIndex.start();
+		digestIndex.awaitIndexing();
+		assertEquals(jar.toPath(), digestIndex.get(HELLO_SHA256));
+		assertEquals(0, metrics.get("digest_index_hashed_total"));
+	}
+
+	@Test
+	@DisplayName("Exports entries selected by repository, lock file and access time")
+	public void selectsEntries() throws Exception {
+		MavenProxyCache cache = createCache("source");
+		MavenCacheBundle bundle = new MavenCacheBundle(cache);
+
+		List<MavenCacheBundle.Entry> entries = bundle.list(new MavenCacheBundle.Selection().repositories(Set.of("internal")));
+		assertEquals(1, entries.size());
+		assertEquals("internal", entries.get(0).repositoryId);
+
+		// all files of the locked version
+		entries = bundle.list(new MavenCacheBundle.Selection().artifacts(List.of(new Artifact("org.foo:bar:1.0", "org/foo/bar/1.0/bar-1.0.jar", null, null))));
+		assertEquals(2, entries.size());
+		assertEquals("org/foo/bar/1.0/bar-1.0.jar", entries.get(0).path);
+		assertEquals("org/foo/bar/1.0/bar-1.0.pom", entries.get(1).path);
+
+		Files.setAttribute(cache.get("central", Path.of("org/foo/baz/2.0/baz-2.0.jar")).toPath(), "lastAccessTime", FileTime.from(Instant.now().minus(30, ChronoUnit.DAYS)));
+		entries = bundle.list(new MavenCacheBundle.Selection().repositories(Set.of("central")).accessedAfter(Instant.now().minus(7, ChronoUnit.DAYS)));
+		assertEquals(2, entries.size());
+		assertTrue(entries.stream().noneMatch((entry) -> entry.path.contains("baz")));
+	}
+
+	@Test
+	@DisplayName("Skips corrupt entries and rejects other files")
+	public void skipsCorruptEntries() throws Exception {
+		byte[] bundle = export(createCache("source"), new MavenCacheBundle.Selection().repositories(Set.of("central")));
+		// flip the first content byte ("hello" of bar-1.0.jar)
+		int offset = bundle.length - "hello<project/>baz".length();
+		bundle[offset] = 'j';
+
+		MavenProxyCache target = new MavenProxyCache(tempDir.resolve("target"));
+		MavenCacheBundle.Result result = new MavenCacheBundle(target).importFrom(new ByteArrayInputStream(bundle), null);
+		assertEquals(2, result.entries);
+		assertEquals(1, result.failures.size());
+		assertTrue(result.failures.get(0).contains("checksum mismatch"));
+		assertNull(target.get("central", Path.of("org/foo/bar/1.0/bar-1.0.jar")));
+		assertNotNull(target.get("central", Path.of("org/foo/baz/2.0/baz-2.0.jar")));
+
+		assertThrows(IOException.class, () -> new MavenCacheBundle(target).importFrom(new ByteArrayInputStream("not a bundle".getBytes(UTF_8)), null));
+		assertThrows(IOException.class, () -> new MavenCacheBundle(target).importFrom(new ByteArrayInputStream(bundle, 0, bundle.length - 1), null));
+	}
+}
@@ -0,0 +1,95 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class MavenDigestServletTest {
+
+	private static String sha256(String content) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(UTF_8));
+		return String.format("%064x", new BigInteger(1, digest));
+	}
+
+	@TempDir
+	Path tempDir;
+
+	private HttpServer upstream;
+	private Server server;
+
+	@AfterEach
+	public void after() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+		if (upstream != null) {
+			upstream.stop(0);
+		}
+	}
+
+	@Test
+	@DisplayName("Tries the URLs in order until one delivers the content")
+	public void fallsBackToNextUrl() throws Exception {
+		upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		upstream.createContext("/", (exchange) -> {
+			byte[] body = (exchange.getRequestURI().getPath().endsWith("/a.jar") ? "wrong" : "right").getBytes(UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		upstream.start();
+
+		ProxyMetrics metrics = new ProxyMetrics();
+		UpstreamMavenRepository repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + upstream.getAddress().getPort() + "/maven2", null, null);
+		server = new Server();
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("127.0.0.1");
+		server.addConnector(connector);
+		ServletContextHandler handler = new ServletContextHandler();
+		handler.setAttribute(MavenProxyServlet.UPSTREAM_REPOSITORIES_MAP, Map.of("central", repository));
+		handler.setAttribute(MavenProxyCache.class.getName(), new MavenProxyCache(tempDir.resolve("cache")));
+		handler.setAttribute(DigestIndex.class.getName(), new DigestIndex(List.of(), null, metrics));
+		handler.setAttribute(ProxyMetrics.class.getName(), metrics);
+		ServletHolder digestServlet = new ServletHolder(MavenDigestServlet.class);
+		digestServlet.setInitParameter(MavenProxyServlet.REQUEST_TIMEOUT_SECONDS, "5");
+		handler.addServlet(digestServlet, "/sha256/*");
+		server.setHandler(handler);
+		server.start();
+
+		String base = "http://127.0.0.1:" + connector.getLocalPort() + "/sha256/" + sha256("right");
+		HttpClient client = HttpClient.newHttpClient();
+
+		HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(base + "?url=/maven/central/org/foo/a.jar&url=/maven/central/org/foo/b.jar")).GET().build(), BodyHandlers.ofString());
+		assertEquals(200, response.statusCode());
+		assertEquals("right", response.body());
+		assertEquals(1, metrics.get("digest_requests_total{result=\"fetched\"}"));
+
+		response = client.send(HttpRequest.newBuilder(URI.create(base + "?url=/maven/central/org/foo/a.jar&url=/maven/unknown/org/foo/b.jar")).GET().build(), BodyHandlers.ofString());
+		assertEquals(404, response.statusCode());
+		assertEquals(1, metrics.get("digest_requests_total{result=\"miss\"}"));
+	}
+}
@@ -0,0 +1,112 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.bazel.maven.proxy.server.MavenLockFile.Artifact;
+
+public class MavenLockFileTest {
+
+	private static void assertInvalid(String content) {
+		IOException e = assertThrows(IOException.class, () -> MavenLockFile.parse(new ByteArrayInputStream(content.getBytes(UTF_8))), content);
+		assertNotNull(e.getMessage());
+	}
+
+	private static List<Artifact> parseResource(String name) throws Exception {
+		try (InputStream in = MavenLockFileTest.class.getResourceAsStream(name)) {
+			assertNotNull(in, name + " is missing");
+			return MavenLockFile.parse(in);
+		}
+	}
+
+	@Test
+	@DisplayName("Converts Maven coordinates into repository paths")
+	public void convertsCoordinatesToPath() throws Exception {
+		assertEquals("commons-io/commons-io/2.8.0/commons-io-2.8.0.jar", MavenLockFile.toPath("commons-io:commons-io:2.8.0"));
+		assertEquals("org/foo/bar/1.0/bar-1.0.pom", MavenLockFile.toPath("org.foo:bar:pom:1.0"));
+		assertEquals("org/foo/bar/1.0/bar-1.0-sources.jar", MavenLockFile.toPath("org.foo:bar:jar:sources:1.0"));
+		assertThrows(IllegalArgumentException.class, () -> MavenLockFile.toPath("org.foo:bar"));
+		assertThrows(IllegalArgumentException.class, () -> MavenLockFile.toPath("org.foo:../bar:1.0"));
+	}
+
+	@Test
+	@DisplayName("Parses a plain list of Maven coordinates")
+	public void parsesCoordinatesList() throws Exception {
+		String content = "# comment\n\ncommons-io:commons-io:2.8.0 02f291e5\norg.foo:bar:jar:sources:1.0\n";
+		List<Artifact> artifacts = MavenLockFile.parse(new ByteArrayInputStream(content.getBytes(UTF_8)));
+
+		assertEquals(2, artifacts.size());
+		assertEquals("02f291e5", artifacts.get(0).sha256);
+		assertEquals("org/foo/bar/1.0/bar-1.0-sources.jar", artifacts.get(1).path);
+		assertNull(artifacts.get(1).sha256);
+		assertNull(artifacts.get(1).repositoryUrl);
+	}
+
+	@Test
+	@DisplayName("Rejects invalid entries of maven_install.json with an IOException")
+	public void rejectsInvalidEntries() throws Exception {
+		// version 1 with unexpected types
+		assertInvalid("{\"dependency_tree\": {\"dependencies\": {\"coord\": \"org.foo:bar:1.0\"}}}");
+		assertInvalid("{\"dependency_tree\": {\"dependencies\": [\"org.foo:bar:1.0\"]}}");
+		assertInvalid("{\"dependency_tree\": {\"dependencies\": [{\"coord\": 42}]}}");
+		assertInvalid("{\"dependency_tree\": {\"dependencies\": [{\"coord\": \"org.foo:bar:1.0\", \"url\": [\"https://repo\"]}]}}");
+		assertInvalid("{\"dependency_tree\": {\"dependencies\": [{\"coord\": \"org.foo:bar:1.0\", \"sha256\": {}}]}}");
+
+		// version 2 with unexpected types
+		assertInvalid("{\"artifacts\": {\"org.foo:bar\": \"1.0\"}}");
+		assertInvalid("{\"artifacts\": {\"org.foo:bar\": {\"version\": \"1.0\", \"shasums\": \"abc\"}}}");
+		assertInvalid("{\"artifacts\": {\"org.foo:bar\": {\"version\": \"1.0\", \"shasums\": {\"jar\": \"abc\"}}}, \"repositories\": []}");
+
+		// key without ':' and missing version
+		assertInvalid("{\"artifacts\": {\"org.foo\": {\"version\": \"1.0\", \"shasums\": {\"jar\": \"abc\"}}}}");
+		assertInvalid("{\"artifacts\": {\"org.foo:bar\": {\"shasums\": {\"jar\": \"abc\"}}}}");
+
+		// invalid coordinates
+		assertInvalid("{\"dependency_tree\": {\"dependencies\": [{\"coord\": \"org.foo:bar\"}]}}");
+		assertInvalid("{\"artifacts\": {\"org.foo:bar\": {\"version\": \"../1.0\", \"shasums\": {\"jar\": \"abc\"}}}}");
+	}
+
+	@Test
+	@DisplayName("Rejects lock files with tags naming Java classes")
+	public void rejectsGlobalTags() throws Exception {
+		String content = "{\"dependency_tree\": {\"dependencies\": [{\"coord\": \"org.foo:bar:1.0\", \"url\": !!java.io.File \"/etc/passwd\"}]}}";
+		assertThrows(IOException.class, () -> MavenLockFile.parse(new ByteArrayInputStream(content.getBytes(UTF_8))));
+	}
+
+	@Test
+	@DisplayName("Parses sample-maven-install.json (version 1) correctly")
+	public void parsesSampleMavenInstallJsonV1() throws Exception {
+		List<Artifact> artifacts = parseResource("/sample-maven-install.json");
+
+		assertEquals(2, artifacts.size());
+		Artifact commonsIo = artifacts.get(0);
+		assertEquals("commons-io/commons-io/2.8.0/commons-io-2.8.0.jar", commonsIo.path);
+		assertEquals("02f291e5d1243dc143496e3cbbb40a1ced47aa58f2d633d3e38780cd068d5074", commonsIo.sha256);
+		assertEquals("https://repo1.maven.org/maven2", commonsIo.repositoryUrl);
+
+		assertEquals("info/picocli/picocli/4.6.1/picocli-4.6.1-sources.jar", artifacts.get(1).path);
+	}
+
+	@Test
+	@DisplayName("Parses sample-maven-install-v2.json (version 2) correctly")
+	public void parsesSampleMavenInstallJsonV2() throws Exception {
+		List<Artifact> artifacts = parseResource("/sample-maven-install-v2.json");
+
+		assertEquals(3, artifacts.size(), "sources without checksum must be skipped");
+		for (Artifact artifact : artifacts) {
+			assertEquals("https://repo1.maven.org/maven2", artifact.repositoryUrl, artifact.coordinates);
+		}
+		assertEquals("info/picocli/picocli/4.6.1/picocli-4.6.1-sources.jar", artifacts.get(2).path);
+	}
+}
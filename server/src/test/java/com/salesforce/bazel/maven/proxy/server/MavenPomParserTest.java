@@ -0,0 +1,40 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class MavenPomParserTest {
+
+	@Test
+	@DisplayName("Parses referenced POMs from sample-pom.xml correctly")
+	public void parsesSamplePom() throws Exception {
+		Set<String> poms;
+		try (InputStream in = MavenPomParserTest.class.getResourceAsStream("/sample-pom.xml")) {
+			assertNotNull(in, "sample-pom.xml is missing");
+			poms = MavenPomParser.parseReferencedPoms(in);
+		}
+
+		assertEquals(List.of( //
+				"org/example/example-parent/7/example-parent-7.pom", //
+				"org/junit/junit-bom/5.8.1/junit-bom-5.8.1.pom", //
+				"org/slf4j/slf4j-api/1.7.32/slf4j-api-1.7.32.pom", //
+				"org/example/example-core/1.2.3/example-core-1.2.3.pom"), List.copyOf(poms));
+	}
+
+	@Test
+	@DisplayName("Rejects malformed POMs")
+	public void rejectsMalformedPom() throws Exception {
+		assertThrows(IOException.class, () -> MavenPomParser.parseReferencedPoms(new ByteArrayInputStream("<project><parent>".getBytes(UTF_8))));
+	}
+}
@@ -0,0 +1,72 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.bazel.maven.proxy.server.MavenProxyCluster.Node;
+
+public class MavenProxyClusterTest {
+
+	private static final int ARTIFACTS = 10_000;
+
+	private static Map<String, String> nodes(int count) {
+		Map<String, String> nodes = new LinkedHashMap<>();
+		for (int i = 1; i <= count; i++) {
+			nodes.put("node" + i, "http://127.0.0.1:" + (8500 + i));
+		}
+		return nodes;
+	}
+
+	private static String owner(MavenProxyCluster cluster, int artifact) {
+		Node owner = cluster.getOwner("central", "org/example/artifact" + artifact + "/1.0/artifact" + artifact + "-1.0.jar");
+		return owner != null ? owner.getId() : cluster.getSelf().getId();
+	}
+
+	@Test
+	@DisplayName("All nodes agree on the owner and ownership is balanced")
+	public void distributesArtifacts() throws Exception {
+		MavenProxyCluster node1 = new MavenProxyCluster("node1", nodes(4), new ProxyMetrics());
+		MavenProxyCluster node3 = new MavenProxyCluster("node3", nodes(4), new ProxyMetrics());
+
+		Map<String, Integer> owned = new HashMap<>();
+		for (int i = 0; i < ARTIFACTS; i++) {
+			String owner = owner(node1, i);
+			assertEquals(owner, owner(node3, i));
+			owned.merge(owner, 1, Integer::sum);
+		}
+
+		assertEquals(4, owned.size());
+		owned.values().forEach((count) -> assertTrue(Math.abs(count - (ARTIFACTS / 4)) < (ARTIFACTS / 20), "unbalanced: " + owned));
+	}
+
+	@Test
+	@DisplayName("Adding a node only moves artifacts to the new node")
+	public void addingNodeMovesMinimalArtifacts() throws Exception {
+		MavenProxyCluster before = new MavenProxyCluster("node1", nodes(4), new ProxyMetrics());
+		MavenProxyCluster after = new MavenProxyCluster("node1", nodes(5), new ProxyMetrics());
+
+		int moved = 0;
+		for (int i = 0; i < ARTIFACTS; i++) {
+			String ownerAfter = owner(after, i);
+			if (!owner(before, i).equals(ownerAfter)) {
+				assertEquals("node5", ownerAfter);
+				moved++;
+			}
+		}
+		assertTrue(Math.abs(moved - (ARTIFACTS / 5)) < (ARTIFACTS / 20), "moved: " + moved);
+	}
+
+	@Test
+	@DisplayName("Rejects a node not listed in the cluster")
+	public void rejectsUnknownNode() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> new MavenProxyCluster("node9", nodes(2), new ProxyMetrics()));
+	}
+}
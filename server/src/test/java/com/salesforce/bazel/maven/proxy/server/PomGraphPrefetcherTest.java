@@ -0,0 +1,85 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class PomGraphPrefetcherTest {
+
+	private static String pom(String... dependencies) {
+		StringBuilder pom = new StringBuilder("<project><dependencies>");
+		for (String dependency : dependencies) {
+			pom.append("<dependency><groupId>org.foo</groupId><artifactId>").append(dependency).append("</artifactId><version>1.0</version></dependency>");
+		}
+		return pom.append("</dependencies></project>").toString();
+	}
+
+	@TempDir
+	Path tempDir;
+
+	private HttpServer upstream;
+
+	@AfterEach
+	public void after() {
+		if (upstream != null) {
+			upstream.stop(0);
+		}
+	}
+
+	private File put(MavenProxyCache cache, String path, String content) throws IOException {
+		Path downloadFile = cache.createDownloadFile();
+		Files.writeString(downloadFile, content, UTF_8);
+		cache.put("central", Path.of(path), downloadFile);
+		return cache.get("central", Path.of(path));
+	}
+
+	@Test
+	@DisplayName("Walks through cached POMs and charges the budget for downloads only")
+	public void walksCachedPoms() throws Exception {
+		List<String> upstreamPaths = new CopyOnWriteArrayList<>();
+		upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		upstream.createContext("/", (exchange) -> {
+			upstreamPaths.add(exchange.getRequestURI().getPath());
+			byte[] body = pom().getBytes(UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		upstream.start();
+
+		ProxyMetrics metrics = new ProxyMetrics();
+		MavenProxyCache proxyCache = new MavenProxyCache(tempDir.resolve("cache"));
+		UpstreamMavenRepository repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + upstream.getAddress().getPort() + "/maven2", null, null);
+
+		// a -> b (cached) -> c, d (missing)
+		File a = put(proxyCache, "org/foo/a/1.0/a-1.0.pom", pom("b"));
+		put(proxyCache, "org/foo/b/1.0/b-1.0.pom", pom("c", "d"));
+
+		PomGraphPrefetcher prefetcher = new PomGraphPrefetcher(new ArtifactPrefetcher(null, proxyCache, metrics, 10, Duration.ofSeconds(20)), metrics, 3, 1);
+		prefetcher.onPom(repository, "org/foo/a/1.0/a-1.0.pom", a);
+
+		for (int i = 0; (i < 500) && (metrics.get("prefetch_pom_graph_parsed_total") < 3); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(3, metrics.get("prefetch_pom_graph_parsed_total"));
+		assertEquals(List.of("/maven2/org/foo/c/1.0/c-1.0.pom"), upstreamPaths);
+		assertEquals(1, metrics.get("prefetch_pom_graph_started_total"));
+	}
+}
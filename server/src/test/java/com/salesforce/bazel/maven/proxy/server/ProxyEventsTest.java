@@ -0,0 +1,103 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+import com.sun.net.httpserver.HttpServer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class ProxyEventsTest {
+
+	private static List<RecordedEvent> eventsOf(List<RecordedEvent> events, String name) {
+		return events.stream().filter((event) -> event.getEventType().getName().equals(ProxyEvents.PREFIX + name)).collect(Collectors.toList());
+	}
+
+	@Test
+	@DisplayName("Bundled profile enables all proxy events")
+	public void bundledProfileEnablesEvents() throws Exception {
+		Map<String, String> settings = ProxyEvents.getConfiguration().getSettings();
+
+		for (String name : List.of("Request", "LocalLookup", "NegativeCacheHit", "UpstreamExchange", "CachedContentStream")) {
+			assertEquals("true", settings.get(ProxyEvents.PREFIX + name + "#enabled"), name);
+		}
+	}
+
+	@Test
+	@DisplayName("Records local lookups, negative cache hits and upstream exchanges")
+	public void recordsEvents(@TempDir Path tempDir) throws Exception {
+		Path localRepository = tempDir.resolve("m2");
+		Files.createDirectories(localRepository.resolve("org/foo/bar/1.0"));
+		Files.writeString(localRepository.resolve("org/foo/bar/1.0/bar-1.0.pom"), "<project/>");
+		MavenRepositoryCache cache = new MavenRepositoryCache(localRepository);
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", (exchange) -> {
+			exchange.sendResponseHeaders(200, 3);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write("jar".getBytes());
+			}
+		});
+		server.start();
+
+		Path recordingFile = tempDir.resolve("proxy.jfr");
+		try (Recording recording = new Recording(ProxyEvents.getConfiguration())) {
+			// record everything regardless of the thresholds of the profile
+			recording.enable(ProxyEvents.LocalLookupEvent.class).withoutThreshold();
+			recording.enable(ProxyEvents.UpstreamExchangeEvent.class).withoutThreshold();
+			recording.start();
+
+			assertNotNull(cache.get(Path.of("/org/foo/bar/1.0/bar-1.0.pom")));
+			assertNull(cache.get(Path.of("/org/foo/bar/1.0/bar-1.0.jar")));
+			ProxyEvents.NegativeCacheHitEvent.record("central", "/org/foo/baz/1.0/baz-1.0.pom", 404);
+			UpstreamMavenRepository repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + server.getAddress().getPort() + "/maven2", null, null);
+			repository.sendAsync(HttpRequest.newBuilder(repository.resolve("org/foo/bar/1.0/bar-1.0.jar")).GET().build(), BodyHandlers.discarding(), Priority.NORMAL).join();
+
+			recording.stop();
+			recording.dump(recordingFile);
+		} finally {
+			server.stop(0);
+		}
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+
+		List<RecordedEvent> lookups = eventsOf(events, "LocalLookup");
+		assertEquals(2, lookups.size());
+		assertEquals("hit", lookups.get(0).getString("outcome"));
+		assertEquals("m2", lookups.get(0).getString("source"));
+		assertEquals(10, lookups.get(0).getLong("bytes"));
+		assertEquals("miss", lookups.get(1).getString("outcome"));
+
+		List<RecordedEvent> negativeCacheHits = eventsOf(events, "NegativeCacheHit");
+		assertEquals(1, negativeCacheHits.size());
+		assertEquals(404, negativeCacheHits.get(0).getInt("status"));
+
+		List<RecordedEvent> exchanges = eventsOf(events, "UpstreamExchange");
+		assertEquals(1, exchanges.size());
+		assertEquals("central", exchanges.get(0).getString("repositoryId"));
+		assertEquals("/maven2/org/foo/bar/1.0/bar-1.0.jar", exchanges.get(0).getString("path"));
+		assertEquals(200, exchanges.get(0).getInt("status"));
+		assertEquals(3, exchanges.get(0).getLong("bytes"));
+		assertEquals("ok", exchanges.get(0).getString("outcome"));
+		assertTrue(exchanges.get(0).getDuration().toNanos() > 0);
+	}
+}
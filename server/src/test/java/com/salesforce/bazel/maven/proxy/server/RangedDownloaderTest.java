@@ -0,0 +1,129 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+import com.sun.net.httpserver.HttpServer;
+
+public class RangedDownloaderTest {
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+	private HttpServer server;
+	private final byte[] content = new byte[1_000_000];
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+	private volatile String etag = "\"v1\"";
+	private UpstreamMavenRepository repository;
+	private ProxyMetrics metrics;
+
+	@AfterEach
+	public void after() {
+		server.stop(0);
+	}
+
+	@BeforeEach
+	public void before() throws IOException {
+		new Random(42).nextBytes(content);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", (exchange) -> {
+			exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+			exchange.getResponseHeaders().add("ETag", etag);
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+			Matcher matcher = range != null ? RANGE.matcher(range) : null;
+			int start = 0;
+			int end = content.length - 1;
+			if ((matcher != null) && matcher.matches() && etag.equals(ifRange)) {
+				rangeRequests.incrementAndGet();
+				start = Integer.parseInt(matcher.group(1));
+				end = Math.min(content.length - 1, Integer.parseInt(matcher.group(2)));
+				exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+				exchange.sendResponseHeaders(206, (end - start) + 1);
+			} else {
+				exchange.sendResponseHeaders(200, content.length);
+			}
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(content, start, (end - start) + 1);
+			} catch (IOException e) {
+				// client closed the first response after the first chunk
+			}
+		});
+		server.start();
+		repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + server.getAddress().getPort() + "/maven2", null, null);
+		metrics = new ProxyMetrics();
+	}
+
+	@Test
+	@DisplayName("Downloads ranges concurrently and streams the contiguous prefix")
+	public void downloadsInRanges(@TempDir Path tempDir) throws Exception {
+		RangedDownloader downloader = new RangedDownloader(repository, 500_000, 100_000, 3, metrics);
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("big.jar")).GET().build();
+		HttpResponse<InputStream> response = repository.sendAsync(request, BodyHandlers.ofInputStream(), Priority.NORMAL).join();
+		assertTrue(downloader.accepts(response));
+
+		Path downloadFile = Files.createFile(tempDir.resolve("download.tmp"));
+		RangedDownloader.Download download = downloader.start(request, Priority.LOW, response, response.body(), downloadFile);
+		byte[] streamed;
+		try (InputStream in = download.getInputStream()) {
+			streamed = in.readAllBytes();
+		}
+		download.getCompletion().join();
+
+		assertArrayEquals(content, streamed);
+		assertArrayEquals(content, Files.readAllBytes(downloadFile));
+		assertEquals(9, rangeRequests.get());
+		assertEquals(9, metrics.get("ranged_download_requests_total{repository=\"central\"}"));
+	}
+
+	@Test
+	@DisplayName("Fails when the artifact changes during the download")
+	public void failsOnChangedArtifact(@TempDir Path tempDir) throws Exception {
+		RangedDownloader downloader = new RangedDownloader(repository, 500_000, 100_000, 3, metrics);
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("big.jar")).GET().build();
+		HttpResponse<InputStream> response = repository.sendAsync(request, BodyHandlers.ofInputStream(), Priority.NORMAL).join();
+		etag = "\"v2\"";
+
+		RangedDownloader.Download download = downloader.start(request, Priority.LOW, response, response.body(), Files.createFile(tempDir.resolve("download.tmp")));
+		try (InputStream in = download.getInputStream()) {
+			assertThrows(IOException.class, () -> in.readAllBytes());
+		}
+		assertThrows(CompletionException.class, () -> download.getCompletion().join());
+		assertEquals(1, metrics.get("ranged_downloads_failed_total{repository=\"central\"}"));
+	}
+
+	@Test
+	@DisplayName("Downloads small or unranged responses with a single request")
+	public void acceptsLargeRangedResponsesOnly() throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("big.jar")).GET().build();
+		HttpResponse<Void> response = repository.sendAsync(request, BodyHandlers.discarding(), Priority.NORMAL).join();
+
+		assertTrue(new RangedDownloader(repository, 1_000_000, 100_000, 3, metrics).accepts(response));
+		assertFalse(new RangedDownloader(repository, 1_000_001, 100_000, 3, metrics).accepts(response));
+		assertFalse(new RangedDownloader(repository, 0, 1_000_000, 3, metrics).accepts(response));
+	}
+}
@@ -0,0 +1,125 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+import com.sun.net.httpserver.HttpServer;
+
+public class RequestHedgerTest {
+
+	private final ProxyMetrics metrics = new ProxyMetrics();
+
+	/** requests per path; the first request of each path stalls */
+	private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+	private final CountDownLatch stalled = new CountDownLatch(1);
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	@AfterEach
+	public void after() {
+		stalled.countDown();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@BeforeEach
+	public void before() throws Exception {
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", (exchange) -> {
+			int attempt = requests.computeIfAbsent(exchange.getRequestURI().getPath(), (path) -> new AtomicInteger()).incrementAndGet();
+			if (attempt == 1) {
+				try {
+					stalled.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			byte[] body = String.valueOf(attempt).getBytes(UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+	}
+
+	private RequestHedger createHedger() {
+		RequestHedger hedger = new RequestHedger(95, 100, metrics);
+		for (int i = 0; i < 20; i++) {
+			hedger.getLatencyTracker("central").record(10);
+		}
+		return hedger;
+	}
+
+	private UpstreamMavenRepository createRepository(int maxInFlight) {
+		UpstreamMavenRepository repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + server.getAddress().getPort() + "/maven2", null, null);
+		repository.setRequestScheduler(new UpstreamRequestScheduler("central", maxInFlight, metrics));
+		return repository;
+	}
+
+	@Test
+	@DisplayName("Answers with the hedge when the first request stalls")
+	public void hedgesSlowRequests() throws Exception {
+		UpstreamMavenRepository repository = createRepository(2);
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("foo.jar")).GET().build();
+
+		HttpResponse<String> response = createHedger().send(repository, request, BodyHandlers.ofString(), Priority.NORMAL).get(10, TimeUnit.SECONDS);
+		assertEquals("2", response.body());
+		for (int i = 0; (i < 500) && (metrics.get("upstream_hedges_won_total{repository=\"central\"}") == 0); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, metrics.get("upstream_hedges_sent_total{repository=\"central\"}"));
+		assertEquals(1, metrics.get("upstream_hedges_won_total{repository=\"central\"}"));
+	}
+
+	@Test
+	@DisplayName("Sends hedges only within the concurrency limit")
+	public void schedulesHedges() throws Exception {
+		UpstreamMavenRepository repository = createRepository(1);
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("foo.jar")).GET().build();
+
+		CompletableFuture<HttpResponse<String>> response = createHedger().send(repository, request, BodyHandlers.ofString(), Priority.NORMAL);
+		for (int i = 0; (i < 500) && (repository.getRequestScheduler().getQueued() == 0); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, repository.getRequestScheduler().getInFlight());
+		assertEquals(1, repository.getRequestScheduler().getQueued());
+		assertEquals(1, metrics.get("upstream_hedges_sent_total{repository=\"central\"}"));
+		assertFalse(response.isDone());
+
+		// the queued hedge is dropped once the first request completes
+		stalled.countDown();
+		assertEquals("1", response.get(10, TimeUnit.SECONDS).body());
+		for (int i = 0; (i < 500) && (repository.getRequestScheduler().getInFlight() > 0); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, repository.getRequestScheduler().getInFlight());
+		assertEquals(0, repository.getRequestScheduler().getQueued());
+		assertEquals(1, requests.get("/maven2/foo.jar").get());
+		assertEquals(1, repository.getRequestScheduler().getLimit(), 0.01);
+	}
+}
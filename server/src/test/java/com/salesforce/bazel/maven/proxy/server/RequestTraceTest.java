@@ -0,0 +1,58 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class RequestTraceTest {
+
+	private static final String TRACEPARENT = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+	@Test
+	@DisplayName("Continues a W3C trace context and propagates it upstream")
+	public void continuesTraceparent() throws Exception {
+		RequestTrace trace = new RequestTrace(TRACEPARENT, false);
+		assertEquals("0af7651916cd43dd8448eb211c80319c", trace.getTraceId());
+		assertEquals("b7ad6b7169203331", trace.getParentSpanId());
+
+		RequestTrace.Span upstream = trace.addSpan("upstream", true);
+		assertEquals("00-0af7651916cd43dd8448eb211c80319c-" + upstream.getSpanId() + "-01", upstream.toTraceparent());
+		assertNotEquals(trace.getSpanId(), upstream.getSpanId());
+
+		// invalid headers start a new trace
+		RequestTrace invalid = new RequestTrace("00-00000000000000000000000000000000-b7ad6b7169203331-01", false);
+		assertNotEquals("00000000000000000000000000000000", invalid.getTraceId());
+		assertNull(invalid.getParentSpanId());
+		assertEquals(32, new RequestTrace("garbage", false).getTraceId().length());
+	}
+
+	@Test
+	@DisplayName("Reports ended spans as Server-Timing and exports OTLP JSON")
+	public void reportsSpans() throws Exception {
+		RequestTrace trace = new RequestTrace(TRACEPARENT, true);
+		trace.addSpan("local", false).end();
+		RequestTrace.Span stream = trace.addSpan("stream", false);
+
+		String serverTiming = trace.toServerTiming();
+		assertTrue(serverTiming.matches("local;dur=\\d+\\.\\d{3}, total;dur=\\d+\\.\\d{3}"), serverTiming);
+
+		// open spans end with the trace
+		trace.end();
+		assertTrue(stream.isEnded());
+
+		trace.setAttribute("http.method", "GET");
+		trace.setAttribute("http.status_code", 200);
+		StringBuilder line = new StringBuilder();
+		FileSpanExporter.appendTo(line, trace);
+		String json = line.toString();
+		assertTrue(json.startsWith("{\"resourceSpans\":[{\"resource\":{\"attributes\":[{\"key\":\"service.name\""), json);
+		assertTrue(json.contains("\"parentSpanId\":\"b7ad6b7169203331\",\"name\":\"GET\",\"kind\":2"), json);
+		assertTrue(json.contains("{\"key\":\"http.status_code\",\"value\":{\"intValue\":\"200\"}}"), json);
+		assertTrue(json.contains("\"parentSpanId\":\"" + trace.getSpanId() + "\",\"name\":\"stream\",\"kind\":1"), json);
+		assertTrue(json.endsWith("]}]}]}\n"), json);
+	}
+}
@@ -0,0 +1,69 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class RingBufferTest {
+
+	@Test
+	@DisplayName("Delivers in order and rejects elements when full")
+	public void boundedFifo() throws Exception {
+		RingBuffer<Integer> buffer = new RingBuffer<>(3);
+		assertEquals(4, buffer.getCapacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+		assertEquals(4, buffer.size());
+
+		assertEquals(0, buffer.poll());
+		assertTrue(buffer.offer(4)); // wraps around
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(i, buffer.poll());
+		}
+		assertNull(buffer.poll());
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	@DisplayName("Concurrent producers never lose accepted elements")
+	public void concurrentProducers() throws Exception {
+		RingBuffer<Integer> buffer = new RingBuffer<>(64);
+		int producers = 4;
+		int perProducer = 10_000;
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			int base = p * perProducer;
+			threads[p] = new Thread(() -> {
+				for (int i = 0; i < perProducer; i++) {
+					while (!buffer.offer(base + i)) {
+						Thread.yield();
+					}
+				}
+			});
+			threads[p].start();
+		}
+
+		Set<Integer> received = new HashSet<>();
+		while (received.size() < (producers * perProducer)) {
+			Integer element = buffer.poll();
+			if (element != null) {
+				assertTrue(received.add(element), "duplicate " + element);
+			} else {
+				Thread.yield();
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(buffer.poll());
+	}
+}
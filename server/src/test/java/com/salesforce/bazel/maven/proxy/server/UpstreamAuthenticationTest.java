@@ -0,0 +1,204 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class UpstreamAuthenticationTest {
+
+	private static final String BASIC = "Basic " + Base64.getEncoder().encodeToString("user:secret".getBytes(UTF_8));
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger tokenRequests = new AtomicInteger();
+	private final List<String> redirectedAuthorizations = new CopyOnWriteArrayList<>();
+	private final List<String> targetRequests = new CopyOnWriteArrayList<>();
+	private volatile String validBearer = "Bearer t1";
+	private ProxyMetrics metrics;
+
+	@AfterEach
+	public void after() {
+		server.stop(0);
+	}
+
+	@BeforeEach
+	public void before() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/maven2/", (exchange) -> {
+			requests.incrementAndGet();
+			String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+			if (!BASIC.equals(authorization) && !validBearer.equals(authorization)) {
+				exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"maven\"");
+				respond(exchange, 401, "");
+			} else if (exchange.getRequestURI().getPath().endsWith(".jar")) {
+				// eg. a pre-signed URL of a blob store on another host
+				exchange.getResponseHeaders().add("Location", "http://localhost:" + server.getAddress().getPort() + "/blobs/1");
+				respond(exchange, 302, "");
+			} else {
+				respond(exchange, 200, "pom");
+			}
+		});
+		server.createContext("/token", (exchange) -> {
+			tokenRequests.incrementAndGet();
+			if (!BASIC.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+				respond(exchange, 401, "");
+				return;
+			}
+			respond(exchange, 200, "{\"token\": \"t" + tokenRequests.get() + "\", \"expires_in\": 300}");
+		});
+		server.createContext("/moved/", (exchange) -> {
+			exchange.getResponseHeaders().add("Location", "/target/1");
+			respond(exchange, exchange.getRequestURI().getPath().endsWith("/303") ? 303 : 301, "");
+		});
+		server.createContext("/target/", (exchange) -> {
+			exchange.getRequestBody().readAllBytes();
+			targetRequests.add(exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("Authorization"));
+			respond(exchange, 200, "target");
+		});
+		server.createContext("/blobs/", (exchange) -> {
+			redirectedAuthorizations.add(String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+			respond(exchange, 200, "jar");
+		});
+		server.start();
+		metrics = new ProxyMetrics();
+	}
+
+	private UpstreamMavenRepository createRepository(boolean preemptive, String tokenPath) {
+		UpstreamMavenRepository repository = new UpstreamMavenRepository("nexus", "http://127.0.0.1:" + server.getAddress().getPort() + "/maven2", "user", "secret");
+		if (preemptive) {
+			URI tokenUri = tokenPath != null ? URI.create("http://127.0.0.1:" + server.getAddress().getPort() + tokenPath) : null;
+			repository.setAuthentication(new UpstreamAuthentication(repository, "user", "secret", tokenUri, metrics));
+		}
+		return repository;
+	}
+
+	private HttpResponse<String> get(UpstreamMavenRepository repository, String path) {
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve(path)).GET().build();
+		return repository.sendAsync(request, BodyHandlers.ofString(), Priority.NORMAL).join();
+	}
+
+	@Test
+	@DisplayName("Sends Basic credentials with the first request")
+	public void sendsCredentialsPreemptively() throws Exception {
+		UpstreamMavenRepository challenged = createRepository(false, null);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(200, get(challenged, "org/foo/bar" + i + "/1.0/bar" + i + "-1.0.pom").statusCode());
+		}
+		assertEquals(8, requests.getAndSet(0));
+
+		UpstreamMavenRepository preemptive = createRepository(true, null);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(200, get(preemptive, "org/foo/bar" + i + "/1.0/bar" + i + "-1.0.pom").statusCode());
+		}
+		assertEquals(4, requests.get());
+	}
+
+	@Test
+	@DisplayName("Does not send credentials when redirected to another host")
+	public void stripsCredentialsOnRedirect() throws Exception {
+		HttpResponse<String> response = get(createRepository(true, null), "org/foo/bar/1.0/bar-1.0.jar");
+
+		assertEquals(200, response.statusCode());
+		assertEquals("jar", response.body());
+		assertEquals(List.of("null"), redirectedAuthorizations);
+	}
+
+	@Test
+	@DisplayName("Keeps credentials when redirected within the repository origin")
+	public void keepsCredentialsOnSameOriginRedirect() throws Exception {
+		UpstreamMavenRepository repository = createRepository(true, null);
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/moved/a")).GET().build();
+		HttpResponse<String> response = repository.sendAsync(request, BodyHandlers.ofString(), Priority.NORMAL).join();
+
+		assertEquals(200, response.statusCode());
+		assertEquals("target", response.body());
+		assertEquals(List.of("GET " + BASIC), targetRequests);
+	}
+
+	@Test
+	@DisplayName("Continues with GET after 303 See Other")
+	public void followsSeeOtherWithGet() throws Exception {
+		UpstreamMavenRepository repository = createRepository(true, null);
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/moved/303")).PUT(BodyPublishers.ofString("content")).build();
+		HttpResponse<String> response = repository.sendAsync(request, BodyHandlers.ofString(), Priority.NORMAL).join();
+
+		assertEquals(200, response.statusCode());
+		assertEquals(List.of("GET " + BASIC), targetRequests);
+	}
+
+	@Test
+	@DisplayName("Caches tokens and requests a new one when rejected")
+	public void exchangesCredentialsForTokens() throws Exception {
+		UpstreamMavenRepository repository = createRepository(true, "/token");
+		for (int i = 0; i < 3; i++) {
+			assertEquals(200, get(repository, "org/foo/bar/1.0/bar-1.0.pom").statusCode());
+		}
+		assertEquals(1, tokenRequests.get());
+		assertEquals(3, requests.get());
+
+		// token revoked
+		validBearer = "Bearer t2";
+		assertEquals(401, get(repository, "org/foo/bar/1.0/bar-1.0.pom").statusCode());
+		assertEquals(200, get(repository, "org/foo/bar/1.0/bar-1.0.pom").statusCode());
+		assertEquals(2, tokenRequests.get());
+		assertEquals(1, metrics.get("upstream_auth_challenges_total{repository=\"nexus\"}"));
+	}
+
+	@Test
+	@DisplayName("Falls back to Basic credentials without a token")
+	public void fallsBackToCredentials() throws Exception {
+		UpstreamMavenRepository repository = createRepository(true, "/missing");
+		assertEquals(200, get(repository, "org/foo/bar/1.0/bar-1.0.pom").statusCode());
+		assertEquals(200, get(repository, "org/foo/bar/1.0/bar-1.0.pom").statusCode());
+
+		// retried only after a back off
+		assertEquals(1, metrics.get("upstream_auth_token_failures_total{repository=\"nexus\"}"));
+	}
+
+	@Test
+	@DisplayName("Reads token responses of Docker style token services and OAuth servers")
+	public void parsesTokenResponses() throws Exception {
+		Map.Entry<String, Number> docker = UpstreamAuthentication.parseTokenResponse("{\"token\": \"abc\", \"expires_in\": 300, \"issued_at\": \"2022-01-01T00:00:00Z\"}");
+		assertEquals("abc", docker.getKey());
+		assertEquals(300, docker.getValue().intValue());
+
+		Map.Entry<String, Number> oauth = UpstreamAuthentication.parseTokenResponse("{\"access_token\": \"xyz\", \"token_type\": \"Bearer\"}");
+		assertEquals("xyz", oauth.getKey());
+		assertNull(oauth.getValue());
+
+		// never construct classes named by tags in a response from the network
+		assertThrows(IOException.class, () -> UpstreamAuthentication.parseTokenResponse("{\"token\": !!java.io.File \"/etc/passwd\"}"));
+	}
+}
@@ -0,0 +1,95 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.UnresolvedAddressException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+import com.sun.net.httpserver.HttpServer;
+
+public class UpstreamAvailabilityTest {
+
+	private static int findFreePort() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	@Test
+	@DisplayName("Goes offline after connection failures and back online once a probe succeeds")
+	public void detectsOutage() throws Exception {
+		int port = findFreePort();
+		UpstreamMavenRepository repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + port + "/maven2", null, null);
+		ProxyMetrics metrics = new ProxyMetrics();
+		repository.setAvailability(new UpstreamAvailability(repository, false, 2, Duration.ofMillis(50), metrics));
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("foo.pom")).GET().build();
+
+		for (int i = 0; i < 2; i++) {
+			CompletionException e = assertThrows(CompletionException.class, () -> repository.sendAsync(request, BodyHandlers.discarding(), Priority.NORMAL).join());
+			assertTrue(e.getCause() instanceof ConnectException, e.getCause().toString());
+		}
+		assertTrue(repository.isOffline());
+		CompletionException e = assertThrows(CompletionException.class, () -> repository.sendAsync(request, BodyHandlers.discarding(), Priority.NORMAL).join());
+		assertTrue(e.getCause() instanceof UpstreamOfflineException, e.getCause().toString());
+		assertEquals(1, metrics.get("upstream_offline_rejected_total{repository=\"central\"}"));
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext("/", (exchange) -> {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		server.start();
+		try {
+			for (int i = 0; (i < 200) && repository.isOffline(); i++) {
+				Thread.sleep(10);
+			}
+			assertFalse(repository.isOffline());
+			assertEquals(404, repository.sendAsync(request, BodyHandlers.discarding(), Priority.NORMAL).join().statusCode());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	@DisplayName("Counts only failures to connect as unreachable")
+	public void classifiesFailures() throws Exception {
+		assertTrue(UpstreamAvailability.isUnreachable(new CompletionException(new ConnectException("refused"))));
+		assertTrue(UpstreamAvailability.isUnreachable(new CompletionException(new HttpConnectTimeoutException("HTTP connect timed out"))));
+		assertTrue(UpstreamAvailability.isUnreachable(new CompletionException(new ConnectException("unresolved").initCause(new UnresolvedAddressException()))));
+		assertTrue(UpstreamAvailability.isUnreachable(new UnknownHostException("repo.example.com")));
+
+		// slow responses and other errors of single requests
+		assertFalse(UpstreamAvailability.isUnreachable(new CompletionException(new HttpTimeoutException("request timed out"))));
+		assertFalse(UpstreamAvailability.isUnreachable(new CompletionException(new IOException("connection reset"))));
+		assertFalse(UpstreamAvailability.isUnreachable(new CompletionException(new UpstreamOfflineException("offline"))));
+	}
+
+	@Test
+	@DisplayName("Never sends requests when offline explicitly")
+	public void staysOffline() throws Exception {
+		UpstreamMavenRepository repository = new UpstreamMavenRepository("central", "http://127.0.0.1:1/maven2", null, null);
+		repository.setAvailability(new UpstreamAvailability(repository, true, 0, Duration.ofMillis(50), new ProxyMetrics()));
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("foo.pom")).GET().build();
+
+		assertTrue(repository.isOffline());
+		CompletionException e = assertThrows(CompletionException.class, () -> repository.sendAsync(request, BodyHandlers.discarding(), Priority.NORMAL).join());
+		assertTrue(e.getCause() instanceof UpstreamOfflineException, e.getCause().toString());
+	}
+}
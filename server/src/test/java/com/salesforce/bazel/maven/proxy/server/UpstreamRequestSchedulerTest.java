@@ -0,0 +1,64 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+
+public class UpstreamRequestSchedulerTest {
+
+	private final List<String> started = new ArrayList<>();
+	private final List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>();
+
+	private CompletableFuture<HttpResponse<Void>> send(UpstreamRequestScheduler scheduler, Priority priority, String name) {
+		return scheduler.send(priority, BodyHandlers.discarding(), (bodyHandler) -> {
+			started.add(name);
+			CompletableFuture<HttpResponse<Void>> response = new CompletableFuture<>();
+			responses.add(response);
+			return response;
+		});
+	}
+
+	@Test
+	@DisplayName("Dispatches queued requests by priority")
+	public void dispatchesByPriority() throws Exception {
+		UpstreamRequestScheduler scheduler = new UpstreamRequestScheduler("test", 1, new ProxyMetrics());
+
+		send(scheduler, Priority.NORMAL, "first");
+		send(scheduler, Priority.LOW, "prefetch");
+		send(scheduler, Priority.NORMAL, "jar");
+		send(scheduler, Priority.HIGH, "pom");
+		assertEquals(List.of("first"), started);
+		assertEquals(3, scheduler.getQueued());
+
+		for (int i = 0; i < 3; i++) {
+			responses.get(i).complete(null);
+		}
+		assertEquals(List.of("first", "pom", "jar", "prefetch"), started);
+		assertEquals(1, scheduler.getInFlight());
+	}
+
+	@Test
+	@DisplayName("Reduces the concurrency window when requests fail")
+	public void reducesWindowOnFailure() throws Exception {
+		UpstreamRequestScheduler scheduler = new UpstreamRequestScheduler("test", 10, new ProxyMetrics());
+		Thread.sleep(150); // no decrease right after start
+
+		CompletableFuture<HttpResponse<Void>> response = send(scheduler, Priority.NORMAL, "failing");
+		responses.get(0).completeExceptionally(new IOException("connection reset"));
+
+		assertTrue(response.isCompletedExceptionally());
+		assertEquals(7, (int) scheduler.getLimit());
+		assertEquals(0, scheduler.getInFlight());
+	}
+}
@@ -0,0 +1,119 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class UpstreamRetryPolicyTest {
+
+	private HttpServer server;
+	private final Queue<Integer> statusCodes = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile String retryAfter;
+	private HttpClient httpClient;
+	private HttpRequest request;
+
+	@AfterEach
+	public void after() {
+		server.stop(0);
+	}
+
+	@BeforeEach
+	public void before() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", (exchange) -> {
+			requests.incrementAndGet();
+			Integer statusCode = statusCodes.poll();
+			byte[] body = ("attempt " + requests.get()).getBytes();
+			if (retryAfter != null) {
+				exchange.getResponseHeaders().add("Retry-After", retryAfter);
+			}
+			exchange.sendResponseHeaders(statusCode != null ? statusCode : 200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		httpClient = HttpClient.newHttpClient();
+		request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/foo.jar")).GET().build();
+	}
+
+	@Test
+	@DisplayName("Classifies failures and parses Retry-After")
+	public void classifiesFailures() throws Exception {
+		assertTrue(UpstreamRetryPolicy.isRetryable(503));
+		assertTrue(UpstreamRetryPolicy.isRetryable(429));
+		assertFalse(UpstreamRetryPolicy.isRetryable(404));
+		assertTrue(UpstreamRetryPolicy.isRetryable(new CompletionException(new ConnectException("refused"))));
+		assertTrue(UpstreamRetryPolicy.isRetryable(new IOException("Connection reset")));
+		assertFalse(UpstreamRetryPolicy.isRetryable(new HttpTimeoutException("request timed out")));
+		assertFalse(UpstreamRetryPolicy.isRetryable(new IllegalStateException()));
+
+		Instant now = Instant.parse("2015-10-21T07:28:00Z");
+		assertEquals(120_000, UpstreamRetryPolicy.parseRetryAfter("120", now));
+		assertEquals(2_000, UpstreamRetryPolicy.parseRetryAfter("Wed, 21 Oct 2015 07:28:02 GMT", now));
+		assertEquals(-1, UpstreamRetryPolicy.parseRetryAfter("soon", now));
+	}
+
+	@Test
+	@DisplayName("Stops retrying when the budget is exhausted")
+	public void limitsRetriesByBudget() throws Exception {
+		ProxyMetrics metrics = new ProxyMetrics();
+		UpstreamRetryPolicy policy = new UpstreamRetryPolicy("central", 1, 0, metrics);
+		for (int i = 0; i < 40; i++) {
+			statusCodes.add(503);
+		}
+
+		for (int i = 0; i < 15; i++) {
+			assertEquals(503, policy.send(BodyHandlers.ofString(), (bodyHandler) -> httpClient.sendAsync(request, bodyHandler)).join().statusCode());
+		}
+		// the initial burst of tokens is used up and no requests refill the bucket (0%)
+		assertEquals(10, metrics.get("upstream_retries_total{repository=\"central\",cause=\"status\"}"));
+		assertEquals(25, requests.get());
+		assertEquals(5, metrics.get("upstream_retry_budget_exhausted_total{repository=\"central\"}"));
+	}
+
+	@Test
+	@DisplayName("Retries transient responses and hands only the final one to the body handler")
+	public void retriesTransientResponses() throws Exception {
+		ProxyMetrics metrics = new ProxyMetrics();
+		UpstreamRetryPolicy policy = new UpstreamRetryPolicy("central", 2, 10, metrics);
+		statusCodes.add(503);
+		statusCodes.add(502);
+
+		HttpResponse<String> response = policy.send(BodyHandlers.ofString(), (bodyHandler) -> httpClient.sendAsync(request, bodyHandler)).join();
+		assertEquals(200, response.statusCode());
+		assertEquals("attempt 3", response.body());
+		assertEquals(2, metrics.get("upstream_retries_total{repository=\"central\",cause=\"status\"}"));
+		assertEquals(1, metrics.get("upstream_retries_succeeded_total{repository=\"central\"}"));
+
+		// Retry-After beyond the maximum delay is passed on
+		retryAfter = "3600";
+		statusCodes.add(503);
+		assertEquals(503, policy.send(BodyHandlers.ofString(), (bodyHandler) -> httpClient.sendAsync(request, bodyHandler)).join().statusCode());
+		assertEquals(4, requests.get());
+	}
+}
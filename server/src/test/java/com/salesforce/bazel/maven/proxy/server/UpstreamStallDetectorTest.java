@@ -0,0 +1,196 @@
+package com.salesforce.bazel.maven.proxy.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.bazel.maven.proxy.server.UpstreamRequestScheduler.Priority;
+import com.sun.net.httpserver.HttpServer;
+
+public class UpstreamStallDetectorTest {
+
+	private enum Failure {
+		STALL, DROP
+	}
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+
+	private HttpServer server;
+	private final byte[] content = new byte[200_000];
+	private final CountDownLatch released = new CountDownLatch(1);
+	private volatile Failure failure = Failure.STALL;
+	private volatile String etag = "\"v1\"";
+	private volatile CountDownLatch rangeReleased;
+	private UpstreamMavenRepository repository;
+	private ProxyMetrics metrics;
+
+	@AfterEach
+	public void after() {
+		released.countDown();
+		server.stop(0);
+	}
+
+	@BeforeEach
+	public void before() throws IOException {
+		new Random(42).nextBytes(content);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", (exchange) -> {
+			if (etag != null)
+				exchange.getResponseHeaders().add("ETag", etag);
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			Matcher matcher = range != null ? RANGE.matcher(range) : null;
+			if ((matcher != null) && matcher.matches() && etag.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+				int start = Integer.parseInt(matcher.group(1));
+				if (rangeReleased != null) {
+					try {
+						rangeReleased.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+				exchange.sendResponseHeaders(206, content.length - start);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(content, start, content.length - start);
+				}
+				return;
+			}
+
+			// the complete response fails halfway
+			exchange.sendResponseHeaders(200, content.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(content, 0, content.length / 2);
+			out.flush();
+			if (failure == Failure.STALL) {
+				try {
+					released.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			exchange.close();
+		});
+		server.start();
+		repository = new UpstreamMavenRepository("central", "http://127.0.0.1:" + server.getAddress().getPort() + "/maven2", null, null);
+		metrics = new ProxyMetrics();
+	}
+
+	private UpstreamStallDetector.ResumingInputStream watch(UpstreamStallDetector detector) {
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("big.jar")).GET().build();
+		HttpResponse<InputStream> response = repository.sendAsync(request, BodyHandlers.ofInputStream(), Priority.NORMAL).join();
+		return detector.watch(request, Priority.NORMAL, response);
+	}
+
+	@Test
+	@DisplayName("Resumes a dropped response body with a range request")
+	public void resumesDroppedBody() throws Exception {
+		failure = Failure.DROP;
+		byte[] read;
+		try (InputStream in = watch(new UpstreamStallDetector(repository, Duration.ofSeconds(5), 3, metrics))) {
+			read = in.readAllBytes();
+		}
+
+		assertArrayEquals(content, read);
+		assertEquals(1, metrics.get("upstream_resumes_total{repository=\"central\",cause=\"error\"}"));
+	}
+
+	@Test
+	@DisplayName("Resumes a stalled response body with a range request")
+	public void resumesStalledBody() throws Exception {
+		byte[] read;
+		try (InputStream in = watch(new UpstreamStallDetector(repository, Duration.ofMillis(500), 3, metrics))) {
+			read = in.readAllBytes();
+		}
+
+		assertArrayEquals(content, read);
+		assertEquals(1, metrics.get("upstream_stalls_total{repository=\"central\"}"));
+		assertEquals(1, metrics.get("upstream_resumes_total{repository=\"central\",cause=\"stall\"}"));
+	}
+
+	@Test
+	@DisplayName("Does not block non-blocking readers while resuming")
+	public void resumesWithoutBlocking() throws Exception {
+		failure = Failure.DROP;
+		rangeReleased = new CountDownLatch(1);
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		try (UpstreamStallDetector.ResumingInputStream in = watch(new UpstreamStallDetector(repository, Duration.ofSeconds(5), 3, metrics))) {
+			in.setNonBlocking(true);
+			byte[] buffer = new byte[4096];
+			int len;
+			while ((len = in.read(buffer)) > 0) {
+				read.write(buffer, 0, len);
+			}
+			assertEquals(0, len);
+			assertEquals(content.length / 2, read.size());
+			CompletableFuture<?> resume = in.getPendingResume();
+			assertNotNull(resume);
+			assertFalse(resume.isDone());
+			assertEquals(0, in.read(buffer));
+
+			rangeReleased.countDown();
+			resume.get(10, TimeUnit.SECONDS);
+			while ((len = in.read(buffer)) >= 0) {
+				read.write(buffer, 0, len);
+			}
+		}
+
+		assertArrayEquals(content, read.toByteArray());
+	}
+
+	@Test
+	@DisplayName("Wakes up a read blocked on a stalled body when the body is closed")
+	public void closeWakesBlockedReader() throws Exception {
+		// stall detection relies on this behavior of the HTTP client (Java 11 and later)
+		HttpRequest request = HttpRequest.newBuilder(repository.resolve("big.jar")).GET().build();
+		InputStream body = repository.getHttpClient().send(request, BodyHandlers.ofInputStream()).body();
+		CompletableFuture<Long> reader = CompletableFuture.supplyAsync(() -> {
+			try {
+				return body.transferTo(OutputStream.nullOutputStream());
+			} catch (IOException e) {
+				return -1L;
+			}
+		});
+		Thread.sleep(200);
+		assertFalse(reader.isDone());
+
+		body.close();
+		reader.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	@DisplayName("Fails a stalled response body which cannot be resumed")
+	public void failsWithoutValidator() throws Exception {
+		etag = null;
+		try (InputStream in = watch(new UpstreamStallDetector(repository, Duration.ofMillis(500), 3, metrics))) {
+			assertThrows(IOException.class, () -> in.readAllBytes());
+		}
+
+		assertEquals(1, metrics.get("upstream_stalls_total{repository=\"central\"}"));
+		assertEquals(1, metrics.get("upstream_resumes_failed_total{repository=\"central\"}"));
+	}
+}
@@ -0,0 +1,56 @@
+#!/usr/bin/env bash
+#
+# Measures the time-to-first-served-byte of the Maven proxy, i.e. the time from
+# launching the JVM until the first response byte was received by a client.
+#
+# Usage: measure-startup.sh <port> <command to start the proxy...>
+#
+# The command must start the proxy with '--unsecure-port <port>'. The number of
+# runs can be set using the RUNS environment variable (default is 5).
+#
+# Example:
+#   tools/startup/measure-startup.sh 8498 \
+#     java -XX:SharedArchiveFile=/opt/maven-proxy/maven_proxy.jsa -cp /opt/maven-proxy/maven_proxy_deploy.jar \
+#     com.salesforce.bazel.maven.proxy.server.MavenProxyServer --fast-startup --unsecure-port 8498
+#
+set -euo pipefail
+
+if [ $# -lt 2 ]; then
+	echo "Usage: $0 <port> <command...>" >&2
+	exit 1
+fi
+
+port=$1
+shift
+runs=${RUNS:-5}
+url="http://127.0.0.1:${port}/maven"
+
+now_millis() {
+	echo $(( $(date +%s%N) / 1000000 ))
+}
+
+total=0
+for run in $(seq 1 "$runs"); do
+	start=$(now_millis)
+	"$@" > /dev/null 2>&1 &
+	pid=$!
+
+	# connections are either refused (port not bound yet) or queued (--fast-startup)
+	until curl -sf -o /dev/null --max-time 10 "$url"; do
+		if ! kill -0 "$pid" 2> /dev/null; then
+			echo "Proxy exited unexpectedly." >&2
+			exit 1
+		fi
+		sleep 0.01
+	done
+	end=$(now_millis)
+
+	kill "$pid"
+	wait "$pid" 2> /dev/null || true
+
+	elapsed=$(( end - start ))
+	total=$(( total + elapsed ))
+	echo "run ${run}: ${elapsed} ms"
+done
+
+echo "average: $(( total / runs )) ms"
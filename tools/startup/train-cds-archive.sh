@@ -0,0 +1,66 @@
+#!/usr/bin/env bash
+#
+# Creates an AppCDS archive for the Maven proxy trained on a representative
+# startup workload (serving the repository list, metrics, an artifact from the
+# local Maven repository and a proxied request).
+#
+# Usage: train-cds-archive.sh <java> <classpath> <output.jsa>
+#
+# The archive is only valid for the exact same JDK and classpath. Use it with:
+#   java -XX:SharedArchiveFile=<output.jsa> -cp <classpath> com.salesforce.bazel.maven.proxy.server.MavenProxyServer ...
+#
+set -euo pipefail
+
+if [ $# -ne 3 ]; then
+	echo "Usage: $0 <java> <classpath> <output.jsa>" >&2
+	exit 1
+fi
+
+java=$1
+classpath=$2
+output=$3
+main_class=com.salesforce.bazel.maven.proxy.server.MavenProxyServer
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+# self-contained configuration; the upstream repository is unreachable on purpose
+mkdir -p "$work/repository/org/example/example/1.0" "$work/cache"
+echo "<project/>" > "$work/repository/org/example/example/1.0/example-1.0.pom"
+cat > "$work/proxy-config.yaml" <<YAML
+mavenRepositories:
+  training:
+    url: http://127.0.0.1:9
+YAML
+
+port=$(( 20000 + RANDOM % 10000 ))
+secure_port=$(( port + 1 ))
+
+# 1. record the classes loaded during the workload
+"$java" -XX:DumpLoadedClassList="$work/classes.lst" -cp "$classpath" "$main_class" \
+	--fast-startup --port "$secure_port" --unsecure-port "$port" \
+	--maven-settings "$work/settings.xml" --config-file "$work/proxy-config.yaml" \
+	--local-maven-repository "$work/repository" --proxy-cache "$work/cache" > "$work/proxy.log" 2>&1 &
+pid=$!
+
+base="http://127.0.0.1:${port}"
+until curl -sf -o /dev/null --max-time 10 "$base/maven"; do
+	if ! kill -0 "$pid" 2> /dev/null; then
+		cat "$work/proxy.log" >&2
+		exit 1
+	fi
+	sleep 0.1
+done
+curl -s -o /dev/null "$base/metrics" || true
+curl -s -o /dev/null "$base/maven/training/org/example/example/1.0/example-1.0.pom" || true
+curl -s -o /dev/null "$base/maven/training/org/example/example/1.0/example-1.0.jar" || true
+curl -sk -o /dev/null --http2 "https://localhost:${secure_port}/maven" || true
+
+kill "$pid"
+wait "$pid" 2> /dev/null || true
+
+# 2. dump the archive
+"$java" -Xshare:dump -XX:SharedClassListFile="$work/classes.lst" -XX:SharedArchiveFile="$output" -cp "$classpath" > "$work/dump.log" 2>&1 || {
+	cat "$work/dump.log" >&2
+	exit 1
+}